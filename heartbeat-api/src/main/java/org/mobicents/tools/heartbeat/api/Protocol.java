@@ -49,5 +49,6 @@ public class Protocol
 	public static final String HEARTBEAT_PORT = "heartbeatPort";
 	public static final String GRACEFUL_SHUTDOWN ="graceful-shutdown";
 	public static final String LB_LABEL ="lbs";
+	public static final String OVERLOAD_REDUCTION = "overloadReduction";
 
 }
@@ -11,6 +11,11 @@ public class AlgorithmConfiguration {
 	public static final String HTTP_AFFINITY_KEY = "appsession";
 	public static final String SUBCLUSTER_MAP = null;
 	public static final Boolean EARLY_DIALOG_WORST_CASE = false;
+	public static final Integer CALL_ID_AFFINITY_REPLICATION_PORT = null;
+	public static final String CALL_ID_AFFINITY_REPLICATION_PEERS = null;
+	public static final Integer CALL_ID_AFFINITY_REPLICATION_BATCH_PERIOD = 100;
+	public static final String AFFINITY_STORE_FILE = null;
+	public static final Integer AFFINITY_STORE_SNAPSHOT_PERIOD = 1000;
 	
 	private String algorithmClass;
 	private Integer callIdAffinityMaxTimeInCache;
@@ -21,6 +26,11 @@ public class AlgorithmConfiguration {
 	private String httpAffinityKey;
 	private String subclusterMap;
 	private Boolean earlyDialogWorstCase;
+	private Integer callIdAffinityReplicationPort;
+	private String callIdAffinityReplicationPeers;
+	private Integer callIdAffinityReplicationBatchPeriod;
+	private String affinityStoreFile;
+	private Integer affinityStoreSnapshotPeriod;
 	
 	public AlgorithmConfiguration()
 	{
@@ -32,6 +42,11 @@ public class AlgorithmConfiguration {
 		this.httpAffinityKey = HTTP_AFFINITY_KEY;
 		this.subclusterMap = SUBCLUSTER_MAP;
 		this.earlyDialogWorstCase = EARLY_DIALOG_WORST_CASE;
+		this.callIdAffinityReplicationPort = CALL_ID_AFFINITY_REPLICATION_PORT;
+		this.callIdAffinityReplicationPeers = CALL_ID_AFFINITY_REPLICATION_PEERS;
+		this.callIdAffinityReplicationBatchPeriod = CALL_ID_AFFINITY_REPLICATION_BATCH_PERIOD;
+		this.affinityStoreFile = AFFINITY_STORE_FILE;
+		this.affinityStoreSnapshotPeriod = AFFINITY_STORE_SNAPSHOT_PERIOD;
 	}
 
 	public void setCallIdAffinityGroupFailover(Boolean callIdAffinityGroupFailover) {
@@ -131,4 +146,54 @@ public class AlgorithmConfiguration {
 		this.sipHeaderAffinityFallbackKey = sipHeaderAffinityFallbackKey;
 	}
 	
+	public Integer getCallIdAffinityReplicationPort() 
+	{
+		return callIdAffinityReplicationPort;
+	}
+
+	public void setCallIdAffinityReplicationPort(Integer callIdAffinityReplicationPort) 
+	{
+		this.callIdAffinityReplicationPort = callIdAffinityReplicationPort;
+	}
+
+	public String getCallIdAffinityReplicationPeers() 
+	{
+		return callIdAffinityReplicationPeers;
+	}
+
+	public void setCallIdAffinityReplicationPeers(String callIdAffinityReplicationPeers) 
+	{
+		this.callIdAffinityReplicationPeers = callIdAffinityReplicationPeers;
+	}
+
+	public Integer getCallIdAffinityReplicationBatchPeriod() 
+	{
+		return callIdAffinityReplicationBatchPeriod;
+	}
+
+	public void setCallIdAffinityReplicationBatchPeriod(Integer callIdAffinityReplicationBatchPeriod) 
+	{
+		this.callIdAffinityReplicationBatchPeriod = callIdAffinityReplicationBatchPeriod;
+	}
+
+	public String getAffinityStoreFile() 
+	{
+		return affinityStoreFile;
+	}
+
+	public void setAffinityStoreFile(String affinityStoreFile) 
+	{
+		this.affinityStoreFile = affinityStoreFile;
+	}
+
+	public Integer getAffinityStoreSnapshotPeriod() 
+	{
+		return affinityStoreSnapshotPeriod;
+	}
+
+	public void setAffinityStoreSnapshotPeriod(Integer affinityStoreSnapshotPeriod) 
+	{
+		this.affinityStoreSnapshotPeriod = affinityStoreSnapshotPeriod;
+	}
+
 }
@@ -13,6 +13,7 @@ public class CommonConfiguration {
     public static final String LOGIN = null;
     public static final String PASSWORD = null;
     public static final String CACHE_CONFIG_FILE = null;
+    public static final Boolean USE_VIRTUAL_THREADS = false;
     
     private String host;
     private String ipv6Host;
@@ -25,6 +26,7 @@ public class CommonConfiguration {
     private String login;
     private String password;
     private String cacheConfigFile;
+    private Boolean useVirtualThreads;
 
     public CommonConfiguration() 
     {
@@ -39,6 +41,7 @@ public class CommonConfiguration {
         this.login = LOGIN;
         this.password = PASSWORD;
         this.cacheConfigFile = CACHE_CONFIG_FILE;
+        this.useVirtualThreads = USE_VIRTUAL_THREADS;
     }
 
     public String getHost() 
@@ -141,5 +144,13 @@ public class CommonConfiguration {
 	public void setCacheConfigFile(String cacheConfigFile) {
 		this.cacheConfigFile = cacheConfigFile;
 	}
+
+	public Boolean getUseVirtualThreads() {
+		return useVirtualThreads;
+	}
+
+	public void setUseVirtualThreads(Boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+	}
 	
 }
@@ -8,12 +8,38 @@ public class HttpConfiguration
 	public static final Integer HTTPS_PORT = null;
 	public static final String UNAVAILABLE_HOST = null;
 	public  static final String REQUEST_CHECK_PATTERN = null;
+	public static final Integer MAX_IDLE_CONNECTIONS_PER_NODE = null;
+	public static final Integer MAX_CONNECTIONS_PER_NODE = 1000;
+	public static final Long IDLE_CONNECTION_TIMEOUT = 30000L;
+	public static final Integer HTTP2_PORT = null;
+	public static final Integer HTTP2_CLEARTEXT_PORT = null;
+	public static final Integer MAX_CONTENT_LENGTH = 1048576;
+	public static final Integer IO_WORKER_THREADS = null;
+	public static final Boolean USE_EPOLL = false;
+	public static final Boolean DIRECT_BUFFERS = false;
+	public static final Integer WRITE_BUFFER_HIGH_WATER_MARK = 65536;
+	public static final Integer WRITE_BUFFER_LOW_WATER_MARK = 32768;
+	public static final String CACHE_PATH_PATTERN = null;
+	public static final Long CACHE_MAX_SIZE = 10485760L;
 	
 	private Integer httpPort;
 	private Integer httpsPort;
 	private String unavailableHost;
 	private String requestCheckPattern;
 	private Document urlrewriteRule;
+	private Integer maxIdleConnectionsPerNode;
+	private Integer maxConnectionsPerNode;
+	private Long idleConnectionTimeout;
+	private Integer http2Port;
+	private Integer http2CleartextPort;
+	private Integer maxContentLength;
+	private Integer ioWorkerThreads;
+	private Boolean useEpoll;
+	private Boolean directBuffers;
+	private Integer writeBufferHighWaterMark;
+	private Integer writeBufferLowWaterMark;
+	private String cachePathPattern;
+	private Long cacheMaxSize;
 	
 	 public HttpConfiguration() 
 	 {
@@ -21,6 +47,19 @@ public class HttpConfiguration
 		 this.httpsPort = HTTPS_PORT;
 	     this.unavailableHost = UNAVAILABLE_HOST;
 	     this.requestCheckPattern = REQUEST_CHECK_PATTERN;   
+	     this.maxIdleConnectionsPerNode = MAX_IDLE_CONNECTIONS_PER_NODE;
+	     this.maxConnectionsPerNode = MAX_CONNECTIONS_PER_NODE;
+	     this.idleConnectionTimeout = IDLE_CONNECTION_TIMEOUT;
+	     this.http2Port = HTTP2_PORT;
+	     this.http2CleartextPort = HTTP2_CLEARTEXT_PORT;
+	     this.maxContentLength = MAX_CONTENT_LENGTH;
+	     this.ioWorkerThreads = IO_WORKER_THREADS;
+	     this.useEpoll = USE_EPOLL;
+	     this.directBuffers = DIRECT_BUFFERS;
+	     this.writeBufferHighWaterMark = WRITE_BUFFER_HIGH_WATER_MARK;
+	     this.writeBufferLowWaterMark = WRITE_BUFFER_LOW_WATER_MARK;
+	     this.cachePathPattern = CACHE_PATH_PATTERN;
+	     this.cacheMaxSize = CACHE_MAX_SIZE;
 	 }
 
 	public Integer getHttpPort() 
@@ -73,4 +112,134 @@ public class HttpConfiguration
 		this.requestCheckPattern = requestCheckPattern;
 	}
 	
+	public Integer getMaxIdleConnectionsPerNode() 
+	{
+		return maxIdleConnectionsPerNode;
+	}
+
+	public void setMaxIdleConnectionsPerNode(Integer maxIdleConnectionsPerNode) 
+	{
+		this.maxIdleConnectionsPerNode = maxIdleConnectionsPerNode;
+	}
+
+	public Integer getMaxConnectionsPerNode() 
+	{
+		return maxConnectionsPerNode;
+	}
+
+	public void setMaxConnectionsPerNode(Integer maxConnectionsPerNode) 
+	{
+		this.maxConnectionsPerNode = maxConnectionsPerNode;
+	}
+
+	public Long getIdleConnectionTimeout() 
+	{
+		return idleConnectionTimeout;
+	}
+
+	public void setIdleConnectionTimeout(Long idleConnectionTimeout) 
+	{
+		this.idleConnectionTimeout = idleConnectionTimeout;
+	}
+	
+	public Integer getHttp2Port() 
+	{
+		return http2Port;
+	}
+
+	public void setHttp2Port(Integer http2Port) 
+	{
+		this.http2Port = http2Port;
+	}
+
+	public Integer getHttp2CleartextPort() 
+	{
+		return http2CleartextPort;
+	}
+
+	public void setHttp2CleartextPort(Integer http2CleartextPort) 
+	{
+		this.http2CleartextPort = http2CleartextPort;
+	}
+
+	public Integer getMaxContentLength() 
+	{
+		return maxContentLength;
+	}
+
+	public void setMaxContentLength(Integer maxContentLength) 
+	{
+		this.maxContentLength = maxContentLength;
+	}
+	
+	public Integer getIoWorkerThreads() 
+	{
+		return ioWorkerThreads;
+	}
+
+	public void setIoWorkerThreads(Integer ioWorkerThreads) 
+	{
+		this.ioWorkerThreads = ioWorkerThreads;
+	}
+
+	public Boolean getUseEpoll() 
+	{
+		return useEpoll;
+	}
+
+	public void setUseEpoll(Boolean useEpoll) 
+	{
+		this.useEpoll = useEpoll;
+	}
+
+	public Boolean getDirectBuffers() 
+	{
+		return directBuffers;
+	}
+
+	public void setDirectBuffers(Boolean directBuffers) 
+	{
+		this.directBuffers = directBuffers;
+	}
+	
+	public Integer getWriteBufferHighWaterMark() 
+	{
+		return writeBufferHighWaterMark;
+	}
+
+	public void setWriteBufferHighWaterMark(Integer writeBufferHighWaterMark) 
+	{
+		this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+	}
+
+	public Integer getWriteBufferLowWaterMark() 
+	{
+		return writeBufferLowWaterMark;
+	}
+
+	public void setWriteBufferLowWaterMark(Integer writeBufferLowWaterMark) 
+	{
+		this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+	}
+	
+	public String getCachePathPattern() 
+	{
+		return cachePathPattern;
+	}
+
+	public void setCachePathPattern(String cachePathPattern) 
+	{
+		this.cachePathPattern = cachePathPattern;
+	}
+
+	public Long getCacheMaxSize() 
+	{
+		return cacheMaxSize;
+	}
+
+	public void setCacheMaxSize(Long cacheMaxSize) 
+	{
+		this.cacheMaxSize = cacheMaxSize;
+	}
+	
 }
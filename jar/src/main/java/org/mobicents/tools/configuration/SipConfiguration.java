@@ -32,6 +32,34 @@ public class SipConfiguration {
 	public static final Integer MAX_WEIGHT_INDEX = null;
 	public static final Integer MAX_REQUEST_NUMBER_WITHOUT_RESPONSE = null;
 	public static final Long MAX_RESPONSE_TIME = null;
+	public static final Integer PIPELINE_ROUTING_WORKERS = null;
+	public static final Integer PIPELINE_ROUTING_QUEUE_SIZE = 10000;
+	public static final Long PIPELINE_MAX_ROUTING_LATENCY = null;
+	public static final Integer PIPELINE_RETRY_AFTER = 5;
+	public static final String ACCESS_LOG_FILE = null;
+	public static final Integer ACCESS_LOG_SAMPLING_PERCENTAGE = 100;
+	public static final Long ACCESS_LOG_MAX_FILE_SIZE = 10485760L;
+	public static final Integer ACCESS_LOG_MAX_BACKUP_INDEX = 5;
+	public static final String BLOCKED_VALUES_FILE = null;
+	public static final Integer BLOCKED_VALUES_RELOAD_PERIOD = 10000;
+	public static final Long OUTLIER_DETECTION_INTERVAL = null;
+	public static final Integer OUTLIER_MINIMUM_REQUESTS = 20;
+	public static final Integer OUTLIER_FAILURE_PERCENTAGE = 50;
+	public static final Long OUTLIER_BASE_EJECTION_TIME = 30000L;
+	public static final Integer OUTLIER_MAX_EJECTION_PERCENTAGE = 50;
+	public static final Long OUTLIER_SLOW_START_TIME = 30000L;
+	public static final Long NODE_PROBE_INTERVAL = null;
+	public static final Long NODE_PROBE_TIMEOUT = 2000L;
+	public static final Integer NODE_PROBE_MAX_FAILURES = 3;
+	public static final Boolean OVERLOAD_CONTROL = false;
+	public static final Integer OVERLOAD_RETRY_AFTER = 0;
+	public static final Long FAST_FAILOVER_TIME = null;
+	public static final Integer FAST_FAILOVER_RETRIES = 1;
+	public static final String FAST_FAILOVER_STATUS_CODES = "503";
+	public static final Long FAST_FAILOVER_SUSPECT_TIME = 30000L;
+	public static final Long NODE_CONNECTION_KEEP_ALIVE_INTERVAL = null;
+	public static final Boolean COMPACT_HEADERS = false;
+	public static final Integer MAX_UDP_MESSAGE_SIZE = null;
 
 	private Boolean isSendTrying;
 	private String publicIp;
@@ -55,6 +83,34 @@ public class SipConfiguration {
 	private Integer maxWeightIndex;
 	private Integer maxRequestNumberWithoutResponse;
 	private Long maxResponseTime;
+	private Integer pipelineRoutingWorkers;
+	private Integer pipelineRoutingQueueSize;
+	private Long pipelineMaxRoutingLatency;
+	private Integer pipelineRetryAfter;
+	private String accessLogFile;
+	private Integer accessLogSamplingPercentage;
+	private Long accessLogMaxFileSize;
+	private Integer accessLogMaxBackupIndex;
+	private String blockedValuesFile;
+	private Integer blockedValuesReloadPeriod;
+	private Long outlierDetectionInterval;
+	private Integer outlierMinimumRequests;
+	private Integer outlierFailurePercentage;
+	private Long outlierBaseEjectionTime;
+	private Integer outlierMaxEjectionPercentage;
+	private Long outlierSlowStartTime;
+	private Long nodeProbeInterval;
+	private Long nodeProbeTimeout;
+	private Integer nodeProbeMaxFailures;
+	private Boolean overloadControl;
+	private Integer overloadRetryAfter;
+	private Long fastFailoverTime;
+	private Integer fastFailoverRetries;
+	private List<Integer> fastFailoverStatusCodes;
+	private Long fastFailoverSuspectTime;
+	private Long nodeConnectionKeepAliveInterval;
+	private Boolean compactHeaders;
+	private Integer maxUdpMessageSize;
 	private ArrayList<RoutingRule> routingRulesIpv4;
 	private ArrayList<RoutingRule> routingRulesIpv6;
 	
@@ -86,6 +142,34 @@ public class SipConfiguration {
         this.maxWeightIndex = MAX_WEIGHT_INDEX;
         this.maxRequestNumberWithoutResponse = MAX_REQUEST_NUMBER_WITHOUT_RESPONSE;
         this.maxResponseTime = MAX_RESPONSE_TIME;
+        this.pipelineRoutingWorkers = PIPELINE_ROUTING_WORKERS;
+        this.pipelineRoutingQueueSize = PIPELINE_ROUTING_QUEUE_SIZE;
+        this.pipelineMaxRoutingLatency = PIPELINE_MAX_ROUTING_LATENCY;
+        this.pipelineRetryAfter = PIPELINE_RETRY_AFTER;
+        this.accessLogFile = ACCESS_LOG_FILE;
+        this.accessLogSamplingPercentage = ACCESS_LOG_SAMPLING_PERCENTAGE;
+        this.accessLogMaxFileSize = ACCESS_LOG_MAX_FILE_SIZE;
+        this.accessLogMaxBackupIndex = ACCESS_LOG_MAX_BACKUP_INDEX;
+        this.blockedValuesFile = BLOCKED_VALUES_FILE;
+        this.blockedValuesReloadPeriod = BLOCKED_VALUES_RELOAD_PERIOD;
+        this.outlierDetectionInterval = OUTLIER_DETECTION_INTERVAL;
+        this.outlierMinimumRequests = OUTLIER_MINIMUM_REQUESTS;
+        this.outlierFailurePercentage = OUTLIER_FAILURE_PERCENTAGE;
+        this.outlierBaseEjectionTime = OUTLIER_BASE_EJECTION_TIME;
+        this.outlierMaxEjectionPercentage = OUTLIER_MAX_EJECTION_PERCENTAGE;
+        this.outlierSlowStartTime = OUTLIER_SLOW_START_TIME;
+        this.nodeProbeInterval = NODE_PROBE_INTERVAL;
+        this.nodeProbeTimeout = NODE_PROBE_TIMEOUT;
+        this.nodeProbeMaxFailures = NODE_PROBE_MAX_FAILURES;
+        this.overloadControl = OVERLOAD_CONTROL;
+        this.overloadRetryAfter = OVERLOAD_RETRY_AFTER;
+        this.fastFailoverTime = FAST_FAILOVER_TIME;
+        this.fastFailoverRetries = FAST_FAILOVER_RETRIES;
+        this.fastFailoverStatusCodes = new ArrayList<Integer>();
+        this.fastFailoverSuspectTime = FAST_FAILOVER_SUSPECT_TIME;
+        this.nodeConnectionKeepAliveInterval = NODE_CONNECTION_KEEP_ALIVE_INTERVAL;
+        this.compactHeaders = COMPACT_HEADERS;
+        this.maxUdpMessageSize = MAX_UDP_MESSAGE_SIZE;
     }
 
 	public AlgorithmConfiguration getAlgorithmConfiguration() {
@@ -289,6 +373,234 @@ public class SipConfiguration {
 		this.maxResponseTime = maxResponseTime;
 	}
 
+	public Integer getPipelineRoutingWorkers() {
+		return pipelineRoutingWorkers;
+	}
+
+	public void setPipelineRoutingWorkers(Integer pipelineRoutingWorkers) {
+		this.pipelineRoutingWorkers = pipelineRoutingWorkers;
+	}
+
+	public Integer getPipelineRoutingQueueSize() {
+		return pipelineRoutingQueueSize;
+	}
+
+	public void setPipelineRoutingQueueSize(Integer pipelineRoutingQueueSize) {
+		this.pipelineRoutingQueueSize = pipelineRoutingQueueSize;
+	}
+
+	public Long getPipelineMaxRoutingLatency() {
+		return pipelineMaxRoutingLatency;
+	}
+
+	public void setPipelineMaxRoutingLatency(Long pipelineMaxRoutingLatency) {
+		this.pipelineMaxRoutingLatency = pipelineMaxRoutingLatency;
+	}
+
+	public Integer getPipelineRetryAfter() {
+		return pipelineRetryAfter;
+	}
+
+	public void setPipelineRetryAfter(Integer pipelineRetryAfter) {
+		this.pipelineRetryAfter = pipelineRetryAfter;
+	}
+
+	public String getAccessLogFile() {
+		return accessLogFile;
+	}
+
+	public void setAccessLogFile(String accessLogFile) {
+		this.accessLogFile = accessLogFile;
+	}
+
+	public Integer getAccessLogSamplingPercentage() {
+		return accessLogSamplingPercentage;
+	}
+
+	public void setAccessLogSamplingPercentage(Integer accessLogSamplingPercentage) {
+		if (accessLogSamplingPercentage < 0 || accessLogSamplingPercentage > 100) 
+        {
+            throw new IllegalArgumentException("accessLogSamplingPercentage is out of range");
+        }
+		this.accessLogSamplingPercentage = accessLogSamplingPercentage;
+	}
+
+	public Long getAccessLogMaxFileSize() {
+		return accessLogMaxFileSize;
+	}
+
+	public void setAccessLogMaxFileSize(Long accessLogMaxFileSize) {
+		this.accessLogMaxFileSize = accessLogMaxFileSize;
+	}
+
+	public Integer getAccessLogMaxBackupIndex() {
+		return accessLogMaxBackupIndex;
+	}
+
+	public void setAccessLogMaxBackupIndex(Integer accessLogMaxBackupIndex) {
+		this.accessLogMaxBackupIndex = accessLogMaxBackupIndex;
+	}
+
+	public String getBlockedValuesFile() {
+		return blockedValuesFile;
+	}
+
+	public void setBlockedValuesFile(String blockedValuesFile) {
+		this.blockedValuesFile = blockedValuesFile;
+	}
+
+	public Integer getBlockedValuesReloadPeriod() {
+		return blockedValuesReloadPeriod;
+	}
+
+	public void setBlockedValuesReloadPeriod(Integer blockedValuesReloadPeriod) {
+		this.blockedValuesReloadPeriod = blockedValuesReloadPeriod;
+	}
+
+	public Long getOutlierDetectionInterval() {
+		return outlierDetectionInterval;
+	}
+
+	public void setOutlierDetectionInterval(Long outlierDetectionInterval) {
+		this.outlierDetectionInterval = outlierDetectionInterval;
+	}
+
+	public Integer getOutlierMinimumRequests() {
+		return outlierMinimumRequests;
+	}
+
+	public void setOutlierMinimumRequests(Integer outlierMinimumRequests) {
+		this.outlierMinimumRequests = outlierMinimumRequests;
+	}
+
+	public Integer getOutlierFailurePercentage() {
+		return outlierFailurePercentage;
+	}
+
+	public void setOutlierFailurePercentage(Integer outlierFailurePercentage) {
+		this.outlierFailurePercentage = outlierFailurePercentage;
+	}
+
+	public Long getOutlierBaseEjectionTime() {
+		return outlierBaseEjectionTime;
+	}
+
+	public void setOutlierBaseEjectionTime(Long outlierBaseEjectionTime) {
+		this.outlierBaseEjectionTime = outlierBaseEjectionTime;
+	}
+
+	public Integer getOutlierMaxEjectionPercentage() {
+		return outlierMaxEjectionPercentage;
+	}
+
+	public void setOutlierMaxEjectionPercentage(Integer outlierMaxEjectionPercentage) {
+		this.outlierMaxEjectionPercentage = outlierMaxEjectionPercentage;
+	}
+
+	public Long getOutlierSlowStartTime() {
+		return outlierSlowStartTime;
+	}
+
+	public void setOutlierSlowStartTime(Long outlierSlowStartTime) {
+		this.outlierSlowStartTime = outlierSlowStartTime;
+	}
+
+	public Long getNodeProbeInterval() {
+		return nodeProbeInterval;
+	}
+
+	public void setNodeProbeInterval(Long nodeProbeInterval) {
+		this.nodeProbeInterval = nodeProbeInterval;
+	}
+
+	public Long getNodeProbeTimeout() {
+		return nodeProbeTimeout;
+	}
+
+	public void setNodeProbeTimeout(Long nodeProbeTimeout) {
+		this.nodeProbeTimeout = nodeProbeTimeout;
+	}
+
+	public Integer getNodeProbeMaxFailures() {
+		return nodeProbeMaxFailures;
+	}
+
+	public void setNodeProbeMaxFailures(Integer nodeProbeMaxFailures) {
+		this.nodeProbeMaxFailures = nodeProbeMaxFailures;
+	}
+
+	public Boolean getOverloadControl() {
+		return overloadControl;
+	}
+
+	public void setOverloadControl(Boolean overloadControl) {
+		this.overloadControl = overloadControl;
+	}
+
+	public Integer getOverloadRetryAfter() {
+		return overloadRetryAfter;
+	}
+
+	public void setOverloadRetryAfter(Integer overloadRetryAfter) {
+		this.overloadRetryAfter = overloadRetryAfter;
+	}
+
+	public Long getFastFailoverTime() {
+		return fastFailoverTime;
+	}
+
+	public void setFastFailoverTime(Long fastFailoverTime) {
+		this.fastFailoverTime = fastFailoverTime;
+	}
+
+	public Integer getFastFailoverRetries() {
+		return fastFailoverRetries;
+	}
+
+	public void setFastFailoverRetries(Integer fastFailoverRetries) {
+		this.fastFailoverRetries = fastFailoverRetries;
+	}
+
+	public List<Integer> getFastFailoverStatusCodes() {
+		return fastFailoverStatusCodes;
+	}
+
+	public void setFastFailoverStatusCodes(List<Integer> fastFailoverStatusCodes) {
+		this.fastFailoverStatusCodes = fastFailoverStatusCodes;
+	}
+
+	public Long getFastFailoverSuspectTime() {
+		return fastFailoverSuspectTime;
+	}
+
+	public void setFastFailoverSuspectTime(Long fastFailoverSuspectTime) {
+		this.fastFailoverSuspectTime = fastFailoverSuspectTime;
+	}
+
+	public Long getNodeConnectionKeepAliveInterval() {
+		return nodeConnectionKeepAliveInterval;
+	}
+
+	public void setNodeConnectionKeepAliveInterval(Long nodeConnectionKeepAliveInterval) {
+		this.nodeConnectionKeepAliveInterval = nodeConnectionKeepAliveInterval;
+	}
+
+	public Boolean getCompactHeaders() {
+		return compactHeaders;
+	}
+
+	public void setCompactHeaders(Boolean compactHeaders) {
+		this.compactHeaders = compactHeaders;
+	}
+
+	public Integer getMaxUdpMessageSize() {
+		return maxUdpMessageSize;
+	}
+
+	public void setMaxUdpMessageSize(Integer maxUdpMessageSize) {
+		this.maxUdpMessageSize = maxUdpMessageSize;
+	}
+
 	public ArrayList<RoutingRule> getRoutingRulesIpv4() {
 		return routingRulesIpv4;
 	}
@@ -9,6 +9,9 @@ public class SslConfiguration {
 	 public static final String TRUST_STORE_PASSWORD = null;
 	 public static final String TLS_CLIENT_PROTOCOLS = null;
 	 public static final String ENABLED_CIPHER_SUITES = null;
+	 public static final Integer SESSION_CACHE_SIZE = 20480;
+	 public static final Integer SESSION_TIMEOUT = 86400;
+	 public static final Integer CERTIFICATE_RELOAD_PERIOD = null;
 	 
 	 private Boolean terminateTLSTraffic;
 	 private String keyStore;
@@ -17,6 +20,9 @@ public class SslConfiguration {
 	 private String trustStorePassword;
 	 private String tlsClientProtocols;
 	 private String enabledCipherSuites;
+	 private Integer sessionCacheSize;
+	 private Integer sessionTimeout;
+	 private Integer certificateReloadPeriod;
 	 
 	 public SslConfiguration(){
 		 
@@ -27,6 +33,9 @@ public class SslConfiguration {
 		 this.trustStorePassword = TRUST_STORE_PASSWORD;
 		 this.tlsClientProtocols = TLS_CLIENT_PROTOCOLS;
 		 this.enabledCipherSuites = ENABLED_CIPHER_SUITES;
+		 this.sessionCacheSize = SESSION_CACHE_SIZE;
+		 this.sessionTimeout = SESSION_TIMEOUT;
+		 this.certificateReloadPeriod = CERTIFICATE_RELOAD_PERIOD;
 	 }
 
 	public Boolean getTerminateTLSTraffic() {
@@ -84,6 +93,30 @@ public class SslConfiguration {
 	public void setEnabledCipherSuites(String enabledCipherSuites) {
 		this.enabledCipherSuites = enabledCipherSuites;
 	}
+
+	public Integer getSessionCacheSize() {
+		return sessionCacheSize;
+	}
+
+	public void setSessionCacheSize(Integer sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+	}
+
+	public Integer getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	public void setSessionTimeout(Integer sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	public Integer getCertificateReloadPeriod() {
+		return certificateReloadPeriod;
+	}
+
+	public void setCertificateReloadPeriod(Integer certificateReloadPeriod) {
+		this.certificateReloadPeriod = certificateReloadPeriod;
+	}
 	 
 
 }
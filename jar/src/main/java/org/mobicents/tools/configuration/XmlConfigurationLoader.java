@@ -93,6 +93,7 @@ public class XmlConfigurationLoader{
         dst.setLogin(src.getString("login", CommonConfiguration.LOGIN));
         dst.setPassword(src.getString("password", CommonConfiguration.PASSWORD));
         dst.setCacheConfigFile(src.getString("cacheConfigFile",CommonConfiguration.CACHE_CONFIG_FILE));
+        dst.setUseVirtualThreads(src.getBoolean("useVirtualThreads", CommonConfiguration.USE_VIRTUAL_THREADS));
     }
 
     private static void configureSip(XMLConfiguration xml, SipConfiguration dst) {
@@ -142,6 +143,68 @@ public class XmlConfigurationLoader{
         	dst.setMaxRequestNumberWithoutResponse(src.getInteger("maxRequestNumberWithoutResponse", SipConfiguration.MAX_REQUEST_NUMBER_WITHOUT_RESPONSE));
         if(src.getString("maxResponseTime") != null && !src.getString("maxResponseTime").equals(""))
         	dst.setMaxResponseTime(src.getLong("maxResponseTime", SipConfiguration.MAX_RESPONSE_TIME));
+        if(src.getString("pipelineRoutingWorkers") != null && !src.getString("pipelineRoutingWorkers").equals(""))
+        	dst.setPipelineRoutingWorkers(src.getInteger("pipelineRoutingWorkers", SipConfiguration.PIPELINE_ROUTING_WORKERS));
+        if(src.getString("pipelineRoutingQueueSize") != null && !src.getString("pipelineRoutingQueueSize").equals(""))
+        	dst.setPipelineRoutingQueueSize(src.getInteger("pipelineRoutingQueueSize", SipConfiguration.PIPELINE_ROUTING_QUEUE_SIZE));
+        if(src.getString("pipelineMaxRoutingLatency") != null && !src.getString("pipelineMaxRoutingLatency").equals(""))
+        	dst.setPipelineMaxRoutingLatency(src.getLong("pipelineMaxRoutingLatency", SipConfiguration.PIPELINE_MAX_ROUTING_LATENCY));
+        if(src.getString("pipelineRetryAfter") != null && !src.getString("pipelineRetryAfter").equals(""))
+        	dst.setPipelineRetryAfter(src.getInteger("pipelineRetryAfter", SipConfiguration.PIPELINE_RETRY_AFTER));
+        if(src.getString("accessLogFile") != null && !src.getString("accessLogFile").equals(""))
+        	dst.setAccessLogFile(src.getString("accessLogFile", SipConfiguration.ACCESS_LOG_FILE));
+        if(src.getString("accessLogSamplingPercentage") != null && !src.getString("accessLogSamplingPercentage").equals(""))
+        	dst.setAccessLogSamplingPercentage(src.getInteger("accessLogSamplingPercentage", SipConfiguration.ACCESS_LOG_SAMPLING_PERCENTAGE));
+        if(src.getString("accessLogMaxFileSize") != null && !src.getString("accessLogMaxFileSize").equals(""))
+        	dst.setAccessLogMaxFileSize(src.getLong("accessLogMaxFileSize", SipConfiguration.ACCESS_LOG_MAX_FILE_SIZE));
+        if(src.getString("accessLogMaxBackupIndex") != null && !src.getString("accessLogMaxBackupIndex").equals(""))
+        	dst.setAccessLogMaxBackupIndex(src.getInteger("accessLogMaxBackupIndex", SipConfiguration.ACCESS_LOG_MAX_BACKUP_INDEX));
+        if(src.getString("blockedValuesFile") != null && !src.getString("blockedValuesFile").equals(""))
+        	dst.setBlockedValuesFile(src.getString("blockedValuesFile", SipConfiguration.BLOCKED_VALUES_FILE));
+        if(src.getString("blockedValuesReloadPeriod") != null && !src.getString("blockedValuesReloadPeriod").equals(""))
+        	dst.setBlockedValuesReloadPeriod(src.getInteger("blockedValuesReloadPeriod", SipConfiguration.BLOCKED_VALUES_RELOAD_PERIOD));
+        if(src.getString("outlierDetectionInterval") != null && !src.getString("outlierDetectionInterval").equals(""))
+        	dst.setOutlierDetectionInterval(src.getLong("outlierDetectionInterval", SipConfiguration.OUTLIER_DETECTION_INTERVAL));
+        if(src.getString("outlierMinimumRequests") != null && !src.getString("outlierMinimumRequests").equals(""))
+        	dst.setOutlierMinimumRequests(src.getInteger("outlierMinimumRequests", SipConfiguration.OUTLIER_MINIMUM_REQUESTS));
+        if(src.getString("outlierFailurePercentage") != null && !src.getString("outlierFailurePercentage").equals(""))
+        	dst.setOutlierFailurePercentage(src.getInteger("outlierFailurePercentage", SipConfiguration.OUTLIER_FAILURE_PERCENTAGE));
+        if(src.getString("outlierBaseEjectionTime") != null && !src.getString("outlierBaseEjectionTime").equals(""))
+        	dst.setOutlierBaseEjectionTime(src.getLong("outlierBaseEjectionTime", SipConfiguration.OUTLIER_BASE_EJECTION_TIME));
+        if(src.getString("outlierMaxEjectionPercentage") != null && !src.getString("outlierMaxEjectionPercentage").equals(""))
+        	dst.setOutlierMaxEjectionPercentage(src.getInteger("outlierMaxEjectionPercentage", SipConfiguration.OUTLIER_MAX_EJECTION_PERCENTAGE));
+        if(src.getString("outlierSlowStartTime") != null && !src.getString("outlierSlowStartTime").equals(""))
+        	dst.setOutlierSlowStartTime(src.getLong("outlierSlowStartTime", SipConfiguration.OUTLIER_SLOW_START_TIME));
+        if(src.getString("nodeProbeInterval") != null && !src.getString("nodeProbeInterval").equals(""))
+        	dst.setNodeProbeInterval(src.getLong("nodeProbeInterval", SipConfiguration.NODE_PROBE_INTERVAL));
+        if(src.getString("nodeProbeTimeout") != null && !src.getString("nodeProbeTimeout").equals(""))
+        	dst.setNodeProbeTimeout(src.getLong("nodeProbeTimeout", SipConfiguration.NODE_PROBE_TIMEOUT));
+        if(src.getString("nodeProbeMaxFailures") != null && !src.getString("nodeProbeMaxFailures").equals(""))
+        	dst.setNodeProbeMaxFailures(src.getInteger("nodeProbeMaxFailures", SipConfiguration.NODE_PROBE_MAX_FAILURES));
+        if(src.getString("overloadControl") != null && !src.getString("overloadControl").equals(""))
+        	dst.setOverloadControl(src.getBoolean("overloadControl", SipConfiguration.OVERLOAD_CONTROL));
+        if(src.getString("overloadRetryAfter") != null && !src.getString("overloadRetryAfter").equals(""))
+        	dst.setOverloadRetryAfter(src.getInteger("overloadRetryAfter", SipConfiguration.OVERLOAD_RETRY_AFTER));
+        if(src.getString("fastFailoverTime") != null && !src.getString("fastFailoverTime").equals(""))
+        	dst.setFastFailoverTime(src.getLong("fastFailoverTime", SipConfiguration.FAST_FAILOVER_TIME));
+        if(src.getString("fastFailoverRetries") != null && !src.getString("fastFailoverRetries").equals(""))
+        	dst.setFastFailoverRetries(src.getInteger("fastFailoverRetries", SipConfiguration.FAST_FAILOVER_RETRIES));
+        if(src.getString("fastFailoverSuspectTime") != null && !src.getString("fastFailoverSuspectTime").equals(""))
+        	dst.setFastFailoverSuspectTime(src.getLong("fastFailoverSuspectTime", SipConfiguration.FAST_FAILOVER_SUSPECT_TIME));
+        String fastFailoverStatusCodes = src.getString("fastFailoverStatusCodes", SipConfiguration.FAST_FAILOVER_STATUS_CODES);
+        if(fastFailoverStatusCodes != null) {
+        	List<Integer> fastFailoverStatusCodesList = new ArrayList<Integer>();
+        	StringTokenizer tokens = new StringTokenizer(fastFailoverStatusCodes, ",");
+        	while (tokens.hasMoreTokens())
+        		fastFailoverStatusCodesList.add(Integer.parseInt(tokens.nextToken().trim()));
+        	dst.setFastFailoverStatusCodes(fastFailoverStatusCodesList);
+        }
+        if(src.getString("nodeConnectionKeepAliveInterval") != null && !src.getString("nodeConnectionKeepAliveInterval").equals(""))
+        	dst.setNodeConnectionKeepAliveInterval(src.getLong("nodeConnectionKeepAliveInterval", SipConfiguration.NODE_CONNECTION_KEEP_ALIVE_INTERVAL));
+        if(src.getString("compactHeaders") != null && !src.getString("compactHeaders").equals(""))
+        	dst.setCompactHeaders(src.getBoolean("compactHeaders", SipConfiguration.COMPACT_HEADERS));
+        if(src.getString("maxUdpMessageSize") != null && !src.getString("maxUdpMessageSize").equals(""))
+        	dst.setMaxUdpMessageSize(src.getInteger("maxUdpMessageSize", SipConfiguration.MAX_UDP_MESSAGE_SIZE));
 
         //Routing rules
         if(srcRoutingRulesIpv4!=null)
@@ -173,6 +236,16 @@ public class XmlConfigurationLoader{
         alg.setHttpAffinityKey(src.getString("algorithm.httpAffinityKey",AlgorithmConfiguration.HTTP_AFFINITY_KEY));
         alg.setSubclusterMap(src.getString("subclusterMap",AlgorithmConfiguration.SUBCLUSTER_MAP));
         alg.setEarlyDialogWorstCase(src.getBoolean("earlyDialogWorstCase",AlgorithmConfiguration.EARLY_DIALOG_WORST_CASE));
+        if(src.getString("algorithm.callIdAffinityReplicationPort") != null && !src.getString("algorithm.callIdAffinityReplicationPort").equals(""))
+        	alg.setCallIdAffinityReplicationPort(src.getInteger("algorithm.callIdAffinityReplicationPort",AlgorithmConfiguration.CALL_ID_AFFINITY_REPLICATION_PORT));
+        if(src.getString("algorithm.callIdAffinityReplicationPeers") != null && !src.getString("algorithm.callIdAffinityReplicationPeers").equals(""))
+        	alg.setCallIdAffinityReplicationPeers(src.getString("algorithm.callIdAffinityReplicationPeers"));
+        if(src.getString("algorithm.callIdAffinityReplicationBatchPeriod") != null && !src.getString("algorithm.callIdAffinityReplicationBatchPeriod").equals(""))
+        	alg.setCallIdAffinityReplicationBatchPeriod(src.getInteger("algorithm.callIdAffinityReplicationBatchPeriod",AlgorithmConfiguration.CALL_ID_AFFINITY_REPLICATION_BATCH_PERIOD));
+        if(src.getString("algorithm.affinityStoreFile") != null && !src.getString("algorithm.affinityStoreFile").equals(""))
+        	alg.setAffinityStoreFile(src.getString("algorithm.affinityStoreFile"));
+        if(src.getString("algorithm.affinityStoreSnapshotPeriod") != null && !src.getString("algorithm.affinityStoreSnapshotPeriod").equals(""))
+        	alg.setAffinityStoreSnapshotPeriod(src.getInteger("algorithm.affinityStoreSnapshotPeriod",AlgorithmConfiguration.AFFINITY_STORE_SNAPSHOT_PERIOD));
         //external leg configuration
         ex.setHost(src.getString("external.host",ExternalLegConfiguration.HOST));
         String externalIpLoadBalancerAddresses = src.getString("external.ipLoadBalancerAddress", ExternalLegConfiguration.IP_LOAD_BALANCER_ADRESS);
@@ -317,6 +390,33 @@ public class XmlConfigurationLoader{
         	dst.setUnavailableHost(src.getString("unavailableHost", HttpConfiguration.UNAVAILABLE_HOST));
         	dst.setRequestCheckPattern(src.getString("requestCheckPattern", HttpConfiguration.REQUEST_CHECK_PATTERN));
         }
+        if(src.getString("maxIdleConnectionsPerNode") != null && !src.getString("maxIdleConnectionsPerNode").equals(""))
+        	dst.setMaxIdleConnectionsPerNode(src.getInteger("maxIdleConnectionsPerNode", HttpConfiguration.MAX_IDLE_CONNECTIONS_PER_NODE));
+        if(src.getString("maxConnectionsPerNode") != null && !src.getString("maxConnectionsPerNode").equals(""))
+        	dst.setMaxConnectionsPerNode(src.getInteger("maxConnectionsPerNode", HttpConfiguration.MAX_CONNECTIONS_PER_NODE));
+        if(src.getString("idleConnectionTimeout") != null && !src.getString("idleConnectionTimeout").equals(""))
+        	dst.setIdleConnectionTimeout(src.getLong("idleConnectionTimeout", HttpConfiguration.IDLE_CONNECTION_TIMEOUT));
+        if(src.getString("http2Port") != null && !src.getString("http2Port").equals(""))
+        	dst.setHttp2Port(src.getInteger("http2Port", HttpConfiguration.HTTP2_PORT));
+        if(src.getString("http2CleartextPort") != null && !src.getString("http2CleartextPort").equals(""))
+        	dst.setHttp2CleartextPort(src.getInteger("http2CleartextPort", HttpConfiguration.HTTP2_CLEARTEXT_PORT));
+        if(src.getString("maxContentLength") != null && !src.getString("maxContentLength").equals(""))
+        	dst.setMaxContentLength(src.getInteger("maxContentLength", HttpConfiguration.MAX_CONTENT_LENGTH));
+        if(src.getString("ioWorkerThreads") != null && !src.getString("ioWorkerThreads").equals(""))
+        	dst.setIoWorkerThreads(src.getInteger("ioWorkerThreads", HttpConfiguration.IO_WORKER_THREADS));
+        dst.setUseEpoll(src.getBoolean("useEpoll", HttpConfiguration.USE_EPOLL));
+        dst.setDirectBuffers(src.getBoolean("directBuffers", HttpConfiguration.DIRECT_BUFFERS));
+        if(src.getString("writeBufferHighWaterMark") != null && !src.getString("writeBufferHighWaterMark").equals(""))
+        	dst.setWriteBufferHighWaterMark(src.getInteger("writeBufferHighWaterMark", HttpConfiguration.WRITE_BUFFER_HIGH_WATER_MARK));
+        if(src.getString("writeBufferLowWaterMark") != null && !src.getString("writeBufferLowWaterMark").equals(""))
+        	dst.setWriteBufferLowWaterMark(src.getInteger("writeBufferLowWaterMark", HttpConfiguration.WRITE_BUFFER_LOW_WATER_MARK));
+        // Netty refuses it for every channel opened otherwise
+        if(dst.getWriteBufferLowWaterMark() > dst.getWriteBufferHighWaterMark())
+        	throw new IllegalArgumentException("writeBufferLowWaterMark is above writeBufferHighWaterMark");
+        if(src.getString("cachePathPattern") != null && !src.getString("cachePathPattern").equals(""))
+        	dst.setCachePathPattern(src.getString("cachePathPattern", HttpConfiguration.CACHE_PATH_PATTERN));
+        if(src.getString("cacheMaxSize") != null && !src.getString("cacheMaxSize").equals(""))
+        	dst.setCacheMaxSize(src.getLong("cacheMaxSize", HttpConfiguration.CACHE_MAX_SIZE));
         setFilterConfig(xml, dst);
      }
 
@@ -370,6 +470,12 @@ public class XmlConfigurationLoader{
             if(!src.getString("enabledCipherSuites").equals(""))
                 dst.setEnabledCipherSuites(src.getString("enabledCipherSuites",SslConfiguration.ENABLED_CIPHER_SUITES));
         }
+        if(src.getString("sessionCacheSize") != null && !src.getString("sessionCacheSize").equals(""))
+        	dst.setSessionCacheSize(src.getInteger("sessionCacheSize", SslConfiguration.SESSION_CACHE_SIZE));
+        if(src.getString("sessionTimeout") != null && !src.getString("sessionTimeout").equals(""))
+        	dst.setSessionTimeout(src.getInteger("sessionTimeout", SslConfiguration.SESSION_TIMEOUT));
+        if(src.getString("certificateReloadPeriod") != null && !src.getString("certificateReloadPeriod").equals(""))
+        	dst.setCertificateReloadPeriod(src.getInteger("certificateReloadPeriod", SslConfiguration.CERTIFICATE_RELOAD_PERIOD));
 
         
     }
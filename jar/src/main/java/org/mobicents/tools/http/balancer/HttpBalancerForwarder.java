@@ -20,20 +20,28 @@
 package org.mobicents.tools.http.balancer;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
 import org.apache.log4j.Logger;
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.Bootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioWorkerPool;
+import org.mobicents.tools.configuration.HttpConfiguration;
 import org.mobicents.tools.http.urlrewriting.BalancerUrlRewriteFilter;
+import org.mobicents.tools.http2.balancer.Http2BalancerForwarder;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 
 /**
@@ -48,16 +56,33 @@ public class HttpBalancerForwarder {
 	NioClientSocketChannelFactory nioClientSocketChannelFactory = null;
 	Channel serverChannel;
 	Channel serverSecureChannel;
+	Http2BalancerForwarder http2Forwarder;
 	
 	public void start() {
 		executor = Executors.newCachedThreadPool();
-		nioServerSocketChannelFactory = new NioServerSocketChannelFactory(executor,	executor);		
-		nioClientSocketChannelFactory = new NioClientSocketChannelFactory(executor, executor);
+		// a fixed number of I/O threads for the client connections and as many for the node connections,
+		// a client connection waiting for the connection to its node mustn't hold the thread connecting it
+		Integer ioWorkerThreads = balancerRunner.balancerContext.lbConfig.getHttpConfiguration().getIoWorkerThreads();
+		if(ioWorkerThreads == null)
+			ioWorkerThreads = Runtime.getRuntime().availableProcessors() * 2;
+		logger.info("HTTP LB I/O worker threads : " + ioWorkerThreads + " for the clients, " + ioWorkerThreads + " for the nodes");
+		nioServerSocketChannelFactory = new NioServerSocketChannelFactory(executor, new NioWorkerPool(executor, ioWorkerThreads));		
+		nioClientSocketChannelFactory = new NioClientSocketChannelFactory(executor, 1, new NioWorkerPool(executor, ioWorkerThreads));
 		HttpChannelAssociations.serverBootstrap = new ServerBootstrap(nioServerSocketChannelFactory);
 		HttpChannelAssociations.serverSecureBootstrap = new ServerBootstrap(nioServerSocketChannelFactory);
 		HttpChannelAssociations.serverApiBootstrap = new ServerBootstrap(nioServerSocketChannelFactory);
 		HttpChannelAssociations.inboundBootstrap = new ClientBootstrap(nioClientSocketChannelFactory);
+		if(balancerRunner.balancerContext.lbConfig.getHttpConfiguration().getDirectBuffers())
+		{
+			logger.info("HTTP LB messages read in direct buffers");
+			setDirectBuffers(HttpChannelAssociations.serverBootstrap, "child.");
+			setDirectBuffers(HttpChannelAssociations.serverSecureBootstrap, "child.");
+			setDirectBuffers(HttpChannelAssociations.serverApiBootstrap, "child.");
+			setDirectBuffers(HttpChannelAssociations.inboundBootstrap, "");
+		}
 		HttpChannelAssociations.channels = new ConcurrentHashMap<AdvancedChannel, AdvancedChannel>();
+		HttpChannelAssociations.responseSlots = new ConcurrentHashMap<Channel, HttpResponseSequencer.Slot>();
+		HttpChannelAssociations.cacheRequests = new ConcurrentHashMap<Channel, HttpResponseCache.PendingResponse>();
 		if(balancerRunner.getConfiguration().getHttpConfiguration().getUrlrewriteRule()!=null)
 		{
 			HttpChannelAssociations.urlRewriteFilter = new BalancerUrlRewriteFilter();
@@ -81,11 +106,19 @@ public class HttpBalancerForwarder {
 		if(httpsPort != null)
 		{
 			logger.info("HTTPS LB listening on port " + httpsPort);
+			try {
+				HttpChannelAssociations.sslContext = new HttpSslContext(balancerRunner.balancerContext.lbConfig.getSslConfiguration(), balancerRunner.balancerContext);
+				HttpChannelAssociations.sslContext.start();
+			} catch (Exception e) {
+				throw new IllegalStateException("Can't create the SSL context of the HTTPS listener due to [ " + e.getMessage() + " ] ", e);
+			}
 			HttpChannelAssociations.serverSecureBootstrap.setPipelineFactory(new HttpServerPipelineFactory(balancerRunner, true));
 			serverSecureChannel = HttpChannelAssociations.serverSecureBootstrap.bind(new InetSocketAddress(httpsPort));
 			if(!balancerRunner.balancerContext.terminateTLSTraffic)
 			{
 				HttpChannelAssociations.inboundSecureBootstrap = new ClientBootstrap(nioClientSocketChannelFactory);
+				if(balancerRunner.balancerContext.lbConfig.getHttpConfiguration().getDirectBuffers())
+					setDirectBuffers(HttpChannelAssociations.inboundSecureBootstrap, "");
 				HttpChannelAssociations.inboundSecureBootstrap.setPipelineFactory(new HttpClientPipelineFactory(balancerRunner, true));
 				HttpChannelAssociations.inboundSecureBootstrap.setOption("child.tcpNoDelay", true);
 				HttpChannelAssociations.inboundSecureBootstrap.setOption("child.keepAlive", true);
@@ -101,10 +134,67 @@ public class HttpBalancerForwarder {
 		}
 		
 		HttpChannelAssociations.inboundBootstrap.setPipelineFactory(new HttpClientPipelineFactory(balancerRunner, false));		
+		
+		HttpConfiguration httpConfiguration = balancerRunner.balancerContext.lbConfig.getHttpConfiguration();
+		if(httpConfiguration.getMaxIdleConnectionsPerNode() != null)
+		{
+			logger.info("Keep-alive connections to the nodes, max idle per node : " + httpConfiguration.getMaxIdleConnectionsPerNode()
+					+ ", max per node : " + httpConfiguration.getMaxConnectionsPerNode());
+			HttpChannelAssociations.inboundBootstrap.setOption("keepAlive", true);
+			HttpChannelAssociations.connectionPool = new HttpConnectionPool(HttpChannelAssociations.inboundBootstrap, 
+					httpConfiguration.getMaxIdleConnectionsPerNode(), httpConfiguration.getMaxConnectionsPerNode(), httpConfiguration.getIdleConnectionTimeout());
+			if(HttpChannelAssociations.inboundSecureBootstrap != null)
+				HttpChannelAssociations.secureConnectionPool = new HttpConnectionPool(HttpChannelAssociations.inboundSecureBootstrap, 
+						httpConfiguration.getMaxIdleConnectionsPerNode(), httpConfiguration.getMaxConnectionsPerNode(), httpConfiguration.getIdleConnectionTimeout());
+		}
+		
+		if(httpConfiguration.getCachePathPattern() != null)
+		{
+			// a pooled connection carries one request at a time, its response is known to be the one of the request
+			if(HttpChannelAssociations.connectionPool == null)
+				logger.warn("The HTTP response cache needs the keep-alive connections to the nodes (maxIdleConnectionsPerNode), it is disabled");
+			else
+			{
+				logger.info("HTTP response cache for " + httpConfiguration.getCachePathPattern() + ", max size : " + httpConfiguration.getCacheMaxSize());
+				HttpChannelAssociations.responseCache = new HttpResponseCache(Pattern.compile(httpConfiguration.getCachePathPattern()), httpConfiguration.getCacheMaxSize());
+			}
+		}
+		
+		if(httpConfiguration.getHttp2Port() != null || httpConfiguration.getHttp2CleartextPort() != null)
+		{
+			http2Forwarder = new Http2BalancerForwarder(balancerRunner);
+			try {
+				http2Forwarder.start();
+			} catch (Exception e) {
+				http2Forwarder.stop();
+				http2Forwarder = null;
+				throw new IllegalStateException("Can't start the HTTP/2 listener due to [ " + e.getMessage() + " ] ", e);
+			}
+		}
 	}
 
 	public void stop() {
 		if(executor == null) return; // already stopped
+		if(http2Forwarder!=null)
+		{
+			http2Forwarder.stop();
+			http2Forwarder = null;
+		}
+		if(HttpChannelAssociations.connectionPool!=null)
+		{
+			HttpChannelAssociations.connectionPool.close();
+			HttpChannelAssociations.connectionPool = null;
+		}
+		if(HttpChannelAssociations.secureConnectionPool!=null)
+		{
+			HttpChannelAssociations.secureConnectionPool.close();
+			HttpChannelAssociations.secureConnectionPool = null;
+		}
+		if(HttpChannelAssociations.responseCache!=null)
+		{
+			HttpChannelAssociations.responseCache.clear();
+			HttpChannelAssociations.responseCache = null;
+		}
 		for (Entry<AdvancedChannel, AdvancedChannel> entry : HttpChannelAssociations.channels.entrySet()) {
 			entry.getKey().getChannel().unbind();
 			entry.getKey().getChannel().close();
@@ -124,6 +214,11 @@ public class HttpBalancerForwarder {
 			serverSecureChannel.close();
 			serverSecureChannel.getCloseFuture().awaitUninterruptibly();
 		}
+		if(HttpChannelAssociations.sslContext!=null)
+		{
+			HttpChannelAssociations.sslContext.stop();
+			HttpChannelAssociations.sslContext = null;
+		}
 		if(HttpChannelAssociations.serverApiChannel!=null)
 		{
 			HttpChannelAssociations.serverApiChannel.unbind();
@@ -207,4 +302,102 @@ public class HttpBalancerForwarder {
 	{
 		return HttpChannelAssociations.channels.size();
 	}
+	
+	/**
+     * @return the connections opened by the keep-alive pools
+     */
+	public long getNumberOfHttpPoolConnectionsCreated()
+	{
+		long count = 0;
+		for(HttpConnectionPool pool : connectionPools())
+			count += pool.getConnectionsCreated();
+		return count;
+	}
+	
+	/**
+     * @return the requests sent on a connection already used
+     */
+	public long getNumberOfHttpPoolConnectionsReused()
+	{
+		long count = 0;
+		for(HttpConnectionPool pool : connectionPools())
+			count += pool.getConnectionsReused();
+		return count;
+	}
+	
+	/**
+     * @return the requests which waited for a connection, maxConnectionsPerNode being reached
+     */
+	public long getNumberOfHttpPoolRequestsQueued()
+	{
+		long count = 0;
+		for(HttpConnectionPool pool : connectionPools())
+			count += pool.getRequestsQueued();
+		return count;
+	}
+	
+	public int getHttpPoolIdleConnections()
+	{
+		int count = 0;
+		for(HttpConnectionPool pool : connectionPools())
+			count += pool.getIdleConnections();
+		return count;
+	}
+	
+	public int getHttpPoolOpenConnections()
+	{
+		int count = 0;
+		for(HttpConnectionPool pool : connectionPools())
+			count += pool.getOpenConnections();
+		return count;
+	}
+	
+	public long getNumberOfHttpCacheHits()
+	{
+		return HttpChannelAssociations.responseCache == null ? 0 : HttpChannelAssociations.responseCache.getHits();
+	}
+	
+	public long getNumberOfHttpCacheMisses()
+	{
+		return HttpChannelAssociations.responseCache == null ? 0 : HttpChannelAssociations.responseCache.getMisses();
+	}
+	
+	/**
+     * @return the conditional requests answered with a 304 by the cache
+     */
+	public long getNumberOfHttpCacheNotModified()
+	{
+		return HttpChannelAssociations.responseCache == null ? 0 : HttpChannelAssociations.responseCache.getNotModified();
+	}
+	
+	public int getHttpCacheEntries()
+	{
+		return HttpChannelAssociations.responseCache == null ? 0 : HttpChannelAssociations.responseCache.getEntries();
+	}
+	
+	public long getHttpCacheSize()
+	{
+		return HttpChannelAssociations.responseCache == null ? 0 : HttpChannelAssociations.responseCache.getSize();
+	}
+	
+	private List<HttpConnectionPool> connectionPools()
+	{
+		List<HttpConnectionPool> pools = new ArrayList<HttpConnectionPool>(2);
+		if(HttpChannelAssociations.connectionPool != null)
+			pools.add(HttpChannelAssociations.connectionPool);
+		if(HttpChannelAssociations.secureConnectionPool != null)
+			pools.add(HttpChannelAssociations.secureConnectionPool);
+		return pools;
+	}
+	
+	/**
+	 * Netty 3 has no pooled allocator. The direct buffer factory slices the buffers of the small messages
+	 * out of preallocated chunks of direct memory instead of allocating a heap array for each read, and a
+	 * direct buffer is written to the socket without the copy into a direct one a heap buffer needs
+	 * @param prefix "child." for the channels accepted by a server bootstrap
+	 */
+	private static void setDirectBuffers(Bootstrap bootstrap, String prefix)
+	{
+		bootstrap.setOption(prefix + "bufferFactory", DirectChannelBufferFactory.getInstance());
+	}
 }
@@ -39,7 +39,13 @@ public class HttpChannelAssociations {
     static ClientBootstrap inboundBootstrap;
     static ClientBootstrap inboundSecureBootstrap;
     static ConcurrentHashMap<AdvancedChannel, AdvancedChannel> channels;
+    static ConcurrentHashMap<Channel, HttpResponseSequencer.Slot> responseSlots;
     public static Channel serverApiChannel;
     static BalancerUrlRewriteFilter urlRewriteFilter;
+    static HttpSslContext sslContext;
+    static HttpConnectionPool connectionPool;
+    static HttpConnectionPool secureConnectionPool;
+    static HttpResponseCache responseCache;
+    static ConcurrentHashMap<Channel, HttpResponseCache.PendingResponse> cacheRequests;
 
 }
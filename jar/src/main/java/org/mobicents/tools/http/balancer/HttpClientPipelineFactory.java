@@ -21,19 +21,13 @@ package org.mobicents.tools.http.balancer;
 
 import static org.jboss.netty.channel.Channels.*;
 
-import javax.net.ssl.SSLEngine;
-
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
 import org.jboss.netty.handler.codec.http.HttpRequestEncoder;
 import org.jboss.netty.handler.codec.http.HttpResponseDecoder;
-import org.jboss.netty.handler.ssl.SslHandler;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 
-import com.cloudhopper.smpp.ssl.SslConfiguration;
-import com.cloudhopper.smpp.ssl.SslContextFactory;
-
 /**
  * @author The Netty Project (netty-dev@lists.jboss.org)
  * @author Andy Taylor (andy.taylor@jboss.org)
@@ -62,16 +56,12 @@ public class HttpClientPipelineFactory implements ChannelPipelineFactory {
         // http://code.google.com/p/commscale/issues/detail?id=5 support for HttpChunks, 
         // https://telestax.atlassian.net/browse/LB-8 if commented accessing the RestComm Management console fails, so making the maxContentLength Configurable
         //pipeline.addLast("aggregator", new HttpChunkAggregator(maxContentLength));
+        pipeline.addLast("flowControl", new HttpFlowControlHandler(balancerRunner.balancerContext));
         pipeline.addLast("handler", new HttpResponseHandler(balancerRunner));
         if(isUseSsl){
-        	SslConfiguration sslConfig = new SslConfiguration();
-   	     	sslConfig.setTrustAll(true);
-   	     	sslConfig.setValidateCerts(true);
-   	     	sslConfig.setValidatePeerCerts(true);
-        	SslContextFactory factory = new SslContextFactory(sslConfig);
-    	    SSLEngine sslEngine = factory.newSslEngine();
-    	    sslEngine.setUseClientMode(true);
-            pipeline.addFirst("ssl", new SslHandler(sslEngine));
+        	// replaced by the SslHandler on connect, the engine needs the node address to resume a session
+            pipeline.addFirst("ssl", HttpChannelAssociations.sslContext.new ClientSslHandler());
+            pipeline.addAfter("ssl", "sslStatistics", HttpChannelAssociations.sslContext.new HandshakeStatisticsHandler(true));
         }
         
         return pipeline;
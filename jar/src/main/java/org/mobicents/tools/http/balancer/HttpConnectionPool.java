@@ -0,0 +1,269 @@
+package org.mobicents.tools.http.balancer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
+
+/**
+ * Keep-alive connections from the HTTP balancer to the nodes. A connection is borrowed for one request,
+ * and returned once the whole response has been sent to the client. Every request of a client goes
+ * through the balancer algorithm and pipelined requests are sent on separate connections, the
+ * {@link HttpResponseSequencer} of the client puts the responses back in order.
+ *
+ * At most maxIdlePerNode idle connections are kept for a node, idle connections older than idleTimeout
+ * are closed when met. When maxPerNode connections are open to a node, the requests wait for a
+ * connection to be returned.
+ */
+public class HttpConnectionPool {
+	private static final Logger logger = Logger.getLogger(HttpConnectionPool.class.getCanonicalName());
+
+	private final ClientBootstrap bootstrap;
+	private final int maxIdlePerNode;
+	private final int maxPerNode;
+	private final long idleTimeout;
+	private final ConcurrentHashMap<InetSocketAddress, NodePool> pools = new ConcurrentHashMap<InetSocketAddress, NodePool>();
+
+	private final AtomicLong created = new AtomicLong(0);
+	private final AtomicLong reused = new AtomicLong(0);
+	private final AtomicLong queued = new AtomicLong(0);
+
+	public HttpConnectionPool(ClientBootstrap bootstrap, int maxIdlePerNode, int maxPerNode, long idleTimeout)
+	{
+		this.bootstrap = bootstrap;
+		this.maxIdlePerNode = maxIdlePerNode;
+		this.maxPerNode = maxPerNode;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Borrows a connection to the node, the listener is notified with the future of a new connection
+	 * or with a succeeded future of a pooled one. The connection must be returned with
+	 * {@link #responseCompleted(Channel, boolean)}
+	 * @return false if the request waits for a connection of the node to be returned, the listener
+	 * may be notified on another thread meanwhile
+	 */
+	public boolean acquire(InetSocketAddress address, ChannelFutureListener listener) throws Exception
+	{
+		NodePool pool = pools.get(address);
+		if(pool == null) {
+			pool = new NodePool(address);
+			NodePool existing = pools.putIfAbsent(address, pool);
+			if(existing != null)
+				pool = existing;
+		}
+
+		PooledChannel pooled;
+		while((pooled = pool.idle.pollFirst()) != null) {
+			pool.idleCount.decrementAndGet();
+			if(pooled.channel.isConnected() && System.currentTimeMillis() - pooled.idleSince < idleTimeout) {
+				reused.incrementAndGet();
+				pooled.borrowed.set(true);
+				listener.operationComplete(Channels.succeededFuture(pooled.channel));
+				return true;
+			}
+			pooled.channel.close();
+		}
+
+		if(pool.open.incrementAndGet() > maxPerNode) {
+			pool.open.decrementAndGet();
+			queued.incrementAndGet();
+			pool.waiting.offer(listener);
+			// a connection may have been closed or returned meanwhile
+			pool.serveWaiting();
+			return false;
+		}
+		pool.connect(listener);
+		return true;
+	}
+
+	public static boolean isPooled(Channel channel)
+	{
+		return pooledChannel(channel) != null;
+	}
+
+	/**
+	 * Called when a response has been sent to the client, the connection returns to the pool
+	 * @param keepAlive false if the node closes the connection after the response
+	 */
+	public static void responseCompleted(Channel channel, boolean keepAlive)
+	{
+		PooledChannel pooled = pooledChannel(channel);
+		if(pooled == null || !pooled.borrowed.compareAndSet(true, false))
+			return;
+		if(!keepAlive)
+			// the client is closed with the connection, like an unpooled one
+			return;
+		AdvancedChannel client = HttpChannelAssociations.channels.remove(new AdvancedChannel(channel));
+		if(client != null)
+			HttpChannelAssociations.channels.remove(client, new AdvancedChannel(channel));
+		pooled.pool.release(pooled);
+	}
+
+	private static PooledChannel pooledChannel(Channel channel)
+	{
+		Object attachment = channel.getAttachment();
+		return attachment instanceof PooledChannel ? (PooledChannel) attachment : null;
+	}
+
+	public void close()
+	{
+		for(NodePool pool : pools.values()) {
+			PooledChannel pooled;
+			while((pooled = pool.idle.pollFirst()) != null)
+				pooled.channel.close();
+			pool.idleCount.set(0);
+			pool.waiting.clear();
+		}
+	}
+
+	public long getConnectionsCreated()
+	{
+		return created.get();
+	}
+
+	public long getConnectionsReused()
+	{
+		return reused.get();
+	}
+
+	public long getRequestsQueued()
+	{
+		return queued.get();
+	}
+
+	public int getIdleConnections()
+	{
+		int count = 0;
+		for(NodePool pool : pools.values())
+			count += pool.idleCount.get();
+		return count;
+	}
+
+	public int getOpenConnections()
+	{
+		int count = 0;
+		for(NodePool pool : pools.values())
+			count += pool.open.get();
+		return count;
+	}
+
+	private class NodePool {
+		final InetSocketAddress address;
+		final ConcurrentLinkedDeque<PooledChannel> idle = new ConcurrentLinkedDeque<PooledChannel>();
+		final AtomicInteger idleCount = new AtomicInteger(0);
+		final AtomicInteger open = new AtomicInteger(0);
+		final ConcurrentLinkedQueue<ChannelFutureListener> waiting = new ConcurrentLinkedQueue<ChannelFutureListener>();
+
+		NodePool(InetSocketAddress address)
+		{
+			this.address = address;
+		}
+
+		void connect(final ChannelFutureListener listener) throws Exception
+		{
+			created.incrementAndGet();
+			ChannelFuture future = bootstrap.connect(address);
+			final Channel channel = future.getChannel();
+			final PooledChannel pooled = new PooledChannel(this, channel);
+			channel.setAttachment(pooled);
+			channel.getCloseFuture().addListener(new ChannelFutureListener() {
+				public void operationComplete(ChannelFuture future) throws Exception {
+					open.decrementAndGet();
+					if(idle.remove(pooled))
+						idleCount.decrementAndGet();
+					if(HttpChannelAssociations.cacheRequests != null)
+						HttpChannelAssociations.cacheRequests.remove(channel);
+					// closed in the middle of a response, the client is closed below
+					HttpChannelAssociations.responseSlots.remove(channel);
+					AdvancedChannel client = HttpChannelAssociations.channels.remove(new AdvancedChannel(channel));
+					if(client != null) {
+						HttpChannelAssociations.channels.remove(client, new AdvancedChannel(channel));
+						client.getChannel().close();
+					}
+					serveWaiting();
+				}
+			});
+			future.addListener(listener);
+		}
+
+		void release(PooledChannel pooled)
+		{
+			if(!pooled.channel.isConnected())
+				return;
+			ChannelFutureListener listener = waiting.poll();
+			if(listener != null) {
+				reused.incrementAndGet();
+				pooled.borrowed.set(true);
+				notify(listener, Channels.succeededFuture(pooled.channel));
+				return;
+			}
+			if(idleCount.incrementAndGet() > maxIdlePerNode) {
+				idleCount.decrementAndGet();
+				pooled.channel.close();
+				return;
+			}
+			pooled.idleSince = System.currentTimeMillis();
+			idle.offerFirst(pooled);
+		}
+
+		void serveWaiting()
+		{
+			while(!waiting.isEmpty()) {
+				PooledChannel pooled = idle.pollFirst();
+				if(pooled != null) {
+					idleCount.decrementAndGet();
+					release(pooled);
+					continue;
+				}
+				if(open.incrementAndGet() > maxPerNode) {
+					open.decrementAndGet();
+					return;
+				}
+				ChannelFutureListener listener = waiting.poll();
+				if(listener == null) {
+					open.decrementAndGet();
+					return;
+				}
+				try {
+					connect(listener);
+				} catch (Exception e) {
+					logger.error("Couldn't connect to the node " + address, e);
+				}
+			}
+		}
+
+		private void notify(ChannelFutureListener listener, ChannelFuture future)
+		{
+			try {
+				listener.operationComplete(future);
+			} catch (Exception e) {
+				logger.error("Couldn't send a request to the node " + address, e);
+			}
+		}
+	}
+
+	private static class PooledChannel {
+		final NodePool pool;
+		final Channel channel;
+		final AtomicBoolean borrowed = new AtomicBoolean(true);
+		volatile long idleSince;
+
+		PooledChannel(NodePool pool, Channel channel)
+		{
+			this.pool = pool;
+			this.channel = channel;
+		}
+	}
+
+}
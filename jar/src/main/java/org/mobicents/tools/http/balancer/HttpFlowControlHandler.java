@@ -0,0 +1,97 @@
+package org.mobicents.tools.http.balancer;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+import org.mobicents.tools.configuration.HttpConfiguration;
+import org.mobicents.tools.sip.balancer.BalancerContext;
+
+/**
+ * Stops reading the associated channel while the write buffer of this channel is above its high water mark,
+ * and reads it again once the buffer is back under the low water mark, so a slow node or client doesn't
+ * make the load balancer queue the whole body it is sent.
+ */
+public class HttpFlowControlHandler extends SimpleChannelUpstreamHandler {
+	private static final Logger logger = Logger.getLogger(HttpFlowControlHandler.class.getCanonicalName());
+
+	private final BalancerContext balancerContext;
+	// the peer is kept, a pooled node connection may be released before this channel is writable again
+	private volatile Channel pausedPeer;
+
+	public HttpFlowControlHandler(BalancerContext balancerContext)
+	{
+		this.balancerContext = balancerContext;
+	}
+
+	@Override
+	public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception
+	{
+		HttpConfiguration httpConfiguration = balancerContext.lbConfig.getHttpConfiguration();
+		setWaterMarks(e.getChannel().getConfig(), httpConfiguration.getWriteBufferHighWaterMark(), httpConfiguration.getWriteBufferLowWaterMark());
+		super.channelOpen(ctx, e);
+	}
+
+	@Override
+	public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception
+	{
+		Channel channel = e.getChannel();
+		if(!channel.isWritable())
+			pausePeer(channel);
+		else
+			resumePeer();
+		super.channelInterestChanged(ctx, e);
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception
+	{
+		resumePeer();
+		super.channelClosed(ctx, e);
+	}
+
+	private void pausePeer(Channel channel)
+	{
+		if(pausedPeer != null)
+			return;
+		AdvancedChannel peer = HttpChannelAssociations.channels.get(new AdvancedChannel(channel));
+		if(peer == null || !peer.getChannel().isReadable())
+			return;
+		if(logger.isDebugEnabled())
+			logger.debug("Write buffer of " + channel.getRemoteAddress() + " is full, suspending reads from " + peer.getChannel().getRemoteAddress());
+		pausedPeer = peer.getChannel();
+		pausedPeer.setReadable(false);
+		balancerContext.httpReadsPaused.incrementAndGet();
+		balancerContext.httpPausedChannels.incrementAndGet();
+	}
+
+	private void resumePeer()
+	{
+		Channel peer = pausedPeer;
+		if(peer == null)
+			return;
+		pausedPeer = null;
+		if(logger.isDebugEnabled())
+			logger.debug("Resuming reads from " + peer.getRemoteAddress());
+		peer.setReadable(true);
+		balancerContext.httpPausedChannels.decrementAndGet();
+	}
+
+	private static void setWaterMarks(ChannelConfig config, int high, int low)
+	{
+		if(!(config instanceof NioSocketChannelConfig))
+			return;
+		NioSocketChannelConfig nioConfig = (NioSocketChannelConfig) config;
+		// the low water mark can't be set above the current high one, and the reverse
+		if(low > nioConfig.getWriteBufferHighWaterMark()) {
+			nioConfig.setWriteBufferHighWaterMark(high);
+			nioConfig.setWriteBufferLowWaterMark(low);
+		} else {
+			nioConfig.setWriteBufferLowWaterMark(low);
+			nioConfig.setWriteBufferHighWaterMark(high);
+		}
+	}
+}
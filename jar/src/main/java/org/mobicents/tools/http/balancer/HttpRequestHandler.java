@@ -30,6 +30,7 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Set;
@@ -64,7 +65,6 @@ import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
-import org.jboss.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import org.jboss.netty.handler.codec.http.websocketx.WebSocketFrame;
 import org.mobicents.tools.heartbeat.api.Node;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
@@ -73,6 +73,7 @@ import org.mobicents.tools.sip.balancer.InvocationContext;
 import org.mobicents.tools.sip.balancer.KeySip;
 import org.mobicents.tools.sip.balancer.LbUtils;
 import org.mobicents.tools.sip.balancer.NodesInfoObject;
+import org.mobicents.tools.sip.balancer.RegexRoutingTable;
 import org.mobicents.tools.sip.balancer.StatisticObject;
 
 import com.google.gson.Gson;
@@ -96,11 +97,15 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
     private volatile boolean wsrequest;
     private String wsVersion;
     private WebsocketModifyClientPipelineFactory websocketServerPipelineFactory;
+    private volatile Channel wsNodeChannel;
     private volatile Node node;
+    private volatile boolean closeListenerAdded;
+    private HttpResponseSequencer responseSequencer;
     private boolean isSecured;
     private Pattern pattern;
     private Semaphore semaphore;
 	private ConcurrentHashMap<String, Semaphore> semaphoreMap = new ConcurrentHashMap<>();
+	private final ArrayDeque<MessageEvent> deferredMessages = new ArrayDeque<MessageEvent>();
 
     private BalancerRunner balancerRunner;
 
@@ -193,20 +198,22 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 	}
 
 	private void handleWebSocketFrame(ChannelHandlerContext ctx, final MessageEvent e) {
-		Object msg = e.getMessage();
-		final String request = ((TextWebSocketFrame) msg).getText();
+		WebSocketFrame frame = (WebSocketFrame) e.getMessage();
 		if (logger.isDebugEnabled()) {
-			logger.debug(String.format("Channel %s received WebSocket request %s", ctx.getChannel().getId(), request));
+			logger.debug(String.format("Channel %s received WebSocket %s of %d bytes", ctx.getChannel().getId(), frame.getClass().getSimpleName(), frame.getBinaryData().readableBytes()));
 		}
-		// Modify the Client Pipeline - Phase 2
-		Channel channel = HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel())).getChannel();
-		ChannelPipeline p = channel.getPipeline();
-		websocketServerPipelineFactory.upgradeClientPipelineFactoryPhase2(p, wsVersion);
-
-		if (channel != null) {
-			channel.write(new TextWebSocketFrame(request));
+		Channel channel = wsNodeChannel;
+		if (channel == null) {
+			AdvancedChannel ac = HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel()));
+			if (ac == null)
+				return;
+			channel = ac.getChannel();
+			// Modify the Client Pipeline - Phase 2, once the node connection is known
+			websocketServerPipelineFactory.upgradeClientPipelineFactoryPhase2(channel.getPipeline(), wsVersion);
+			wsNodeChannel = channel;
 		}
-
+		// the frame and its buffer are written as they are, whatever their type
+		channel.write(frame);
 	}
 
 	private void handleHttpRequest(ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
@@ -219,12 +226,51 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 				semaphore = tempSemaphore;
 		}
 
+		// the I/O worker never waits for the semaphore, the message is processed once it is released
+		synchronized (deferredMessages) {
+			if (!deferredMessages.isEmpty() || !semaphore.tryAcquire()) {
+				deferredMessages.add(e);
+				e.getChannel().setReadable(false);
+				return;
+			}
+		}
+		dispatch(e);
+	}
+
+	/**
+	 * Releases the semaphore of the client or hands it over to the next message deferred meanwhile
+	 */
+	private void releaseClient() {
+		MessageEvent next;
+		synchronized (deferredMessages) {
+			next = deferredMessages.poll();
+			if (next == null) {
+				semaphore.release();
+				return;
+			}
+			if (deferredMessages.isEmpty())
+				next.getChannel().setReadable(true);
+		}
 		try {
-			semaphore.acquire();
-		} catch (InterruptedException ex) {
+			dispatch(next);
+		} catch (Exception ex) {
+			logger.warn("Problem while dispatching a deferred message of " + next.getRemoteAddress(), ex);
+			next.getChannel().close();
+		}
+	}
 
+	// called with the semaphore held, released on every path unless a dispatch to the node takes it over
+	private void dispatch(final MessageEvent e) throws Exception {
+		boolean handedOver = false;
+		try {
+			handedOver = dispatchMessage(e);
+		} finally {
+			if (!handedOver)
+				releaseClient();
 		}
+	}
 
+	private boolean dispatchMessage(final MessageEvent e) throws Exception {
 		if (!readingChunks && e.getMessage() instanceof HttpRequest) {
 			request = (HttpRequest) e.getMessage();
 
@@ -240,6 +286,16 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 			if (currentAC != null)
 				associatedChannel = currentAC.getChannel();
 
+			final HttpConnectionPool connectionPool = isSecured ? HttpChannelAssociations.secureConnectionPool : HttpChannelAssociations.connectionPool;
+			final String cacheKey = connectionPool != null && HttpChannelAssociations.responseCache != null ? HttpChannelAssociations.responseCache.cacheKey(request) : null;
+			if (cacheKey != null && HttpHeaders.isKeepAlive(request)) {
+				HttpResponse cachedResponse = HttpChannelAssociations.responseCache.get(cacheKey, request);
+				if (cachedResponse != null) {
+					writeCachedResponse(e, cachedResponse);
+					return false;
+				}
+			}
+
 			InvocationContext invocationContext = balancerRunner.getLatestInvocationContext();
 
 			// SIPNode node = null;
@@ -253,7 +309,7 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 				logger.warn("Problem in balancer algorithm", ex);
 
 				writeResponse(e, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Load Balancer Error: Exception in the balancer algorithm:\n" + sw.toString());
-				return;
+				return false;
 			}
 
 			if (node == null) {
@@ -261,23 +317,103 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 					logger.info("Service unavailable. No server is available.");
 				}
 				writeResponse(e, HttpResponseStatus.SERVICE_UNAVAILABLE, IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream("500.html")));
-				return;
+				return false;
 			}
 
-			if (associatedChannel != null && associatedChannel.isConnected()) {
-				semaphore.release();
+			// with the keep-alive pool every request is dispatched on its own, the node chosen above
+			// is used even if the client is already associated to another one
+			if (connectionPool == null && associatedChannel != null && associatedChannel.isConnected()) {
 				associatedChannel.write(request);
 			} else {
 
-				e.getChannel().getCloseFuture().addListener(new ChannelFutureListener() {
+				if (!closeListenerAdded) {
+					closeListenerAdded = true;
+					e.getChannel().getCloseFuture().addListener(new ChannelFutureListener() {
+						public void operationComplete(ChannelFuture arg0) throws Exception {
+							closeChannelPair(arg0.getChannel());
+						}
+					});
+				}
+				final HttpRequest currentRequest = request;
+				Set<String> headers = request.getHeaderNames();
+				final HttpResponseSequencer.Slot slot;
+				if (connectionPool != null && !headers.contains("Sec-WebSocket-Protocol")) {
+					if (responseSequencer == null)
+						responseSequencer = new HttpResponseSequencer(e.getChannel());
+					slot = responseSequencer.nextSlot();
+				} else {
+					slot = null;
+				}
+				// the semaphore is held until the request is written to the node, a request waiting for a
+				// pooled connection defers the next messages of the client and stops reading it meanwhile
+				ChannelFutureListener connectListener = new ChannelFutureListener() {
+
 					public void operationComplete(ChannelFuture arg0) throws Exception {
-						closeChannelPair(arg0.getChannel());
+						try {
+							nodeConnected(arg0);
+						} finally {
+							releaseClient();
+						}
 					}
-				});
+
+					private void nodeConnected(ChannelFuture arg0) throws Exception {
+						Channel channel = arg0.getChannel();
+						boolean pooled = HttpConnectionPool.isPooled(channel);
+
+						if (pooled && !e.getChannel().isConnected()) {
+							// the client left while waiting for a connection
+							HttpConnectionPool.responseCompleted(channel, true);
+							return;
+						}
+						if (pooled && !arg0.isSuccess()) {
+							// the later responses can't be sent before this one, the client is closed as for an unpooled connection
+							logger.warn("Couldn't connect to the node for " + currentRequest.getUri() + " : " + arg0.getCause());
+							e.getChannel().close();
+							return;
+						}
+
+						if (pattern != null && pattern.matcher(currentRequest.getUri()).find()) {
+							logger.info("request : " + currentRequest.getUri() + " matches to pattern : " + pattern);
+							HttpChannelAssociations.channels.put(new AdvancedChannel(e.getChannel(), true), new AdvancedChannel(channel, true));
+							HttpChannelAssociations.channels.put(new AdvancedChannel(channel, true), new AdvancedChannel(e.getChannel(), true));
+						} else {
+							HttpChannelAssociations.channels.put(new AdvancedChannel(e.getChannel(), false), new AdvancedChannel(channel, false));
+							HttpChannelAssociations.channels.put(new AdvancedChannel(channel, false), new AdvancedChannel(e.getChannel(), false));
+						}
+
+						if (currentRequest.isChunked()) {
+							readingChunks = true;
+						}
+
+						if (pooled)
+							HttpChannelAssociations.responseSlots.put(channel, slot);
+						if (pooled && cacheKey != null)
+							HttpChannelAssociations.cacheRequests.put(channel, new HttpResponseCache.PendingResponse(cacheKey, currentRequest));
+
+						channel.write(currentRequest);
+
+						if (wsrequest) {
+							if (logger.isDebugEnabled()) {
+								logger.debug("This is a websocket request, changing the pipeline");
+							}
+							// Modify the Client Pipeline - Phase 1
+							ChannelPipeline p = channel.getPipeline();
+							websocketServerPipelineFactory.upgradeClientPipelineFactoryPhase1(p, wsVersion);
+						}
+
+						// the pool closes the client with its connections
+						if (!pooled) {
+							channel.getCloseFuture().addListener(new ChannelFutureListener() {
+								public void operationComplete(ChannelFuture arg0) throws Exception {
+									closeChannelPair(arg0.getChannel());
+								}
+							});
+						}
+					}
+				};
 
 				// Start the connection attempt.
 				ChannelFuture future = null;
-				Set<String> headers = request.getHeaderNames();
 				if (headers.contains("Sec-WebSocket-Protocol")) {
 					if (request.getHeader("Sec-WebSocket-Protocol").equalsIgnoreCase("sip")) {
 						if (logger.isDebugEnabled()) {
@@ -295,63 +431,40 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 						if (logger.isDebugEnabled()) {
 							logger.debug("Dispatching HTTP request to node: " + node.getIp() + " port: " + node.getProperties().get("httpPort"));
 						}
-						future = HttpChannelAssociations.inboundBootstrap.connect(new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("httpPort"))));
+						InetSocketAddress address = new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("httpPort")));
+						if (connectionPool != null) {
+							connectionPool.acquire(address, connectListener);
+							return true;
+						}
+						future = HttpChannelAssociations.inboundBootstrap.connect(address);
 					} else {
 						if (logger.isDebugEnabled()) {
 							logger.debug("Dispatching HTTPS request to node: " + node.getIp() + " port: " + node.getProperties().get("sslPort"));
 						}
-						future = HttpChannelAssociations.inboundSecureBootstrap.connect(new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("sslPort"))));
+						InetSocketAddress address = new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("sslPort")));
+						if (connectionPool != null) {
+							connectionPool.acquire(address, connectListener);
+							return true;
+						}
+						future = HttpChannelAssociations.inboundSecureBootstrap.connect(address);
 					}
 				}
 
-				future.addListener(new ChannelFutureListener() {
-
-					public void operationComplete(ChannelFuture arg0) throws Exception {
-						Channel channel = arg0.getChannel();
-
-						if (pattern != null && pattern.matcher(request.getUri()).find()) {
-							logger.info("request : " + request.getUri() + " matches to pattern : " + pattern);
-							HttpChannelAssociations.channels.put(new AdvancedChannel(e.getChannel(), true), new AdvancedChannel(channel, true));
-							HttpChannelAssociations.channels.put(new AdvancedChannel(channel, true), new AdvancedChannel(e.getChannel(), true));
-						} else {
-							HttpChannelAssociations.channels.put(new AdvancedChannel(e.getChannel(), false), new AdvancedChannel(channel, false));
-							HttpChannelAssociations.channels.put(new AdvancedChannel(channel, false), new AdvancedChannel(e.getChannel(), false));
-						}
-
-						if (request.isChunked()) {
-							readingChunks = true;
-						}
-
-						semaphore.release();
-						channel.write(request);
-
-						if (wsrequest) {
-							if (logger.isDebugEnabled()) {
-								logger.debug("This is a websocket request, changing the pipeline");
-							}
-							// Modify the Client Pipeline - Phase 1
-							ChannelPipeline p = channel.getPipeline();
-							websocketServerPipelineFactory.upgradeClientPipelineFactoryPhase1(p, wsVersion);
-						}
-
-						channel.getCloseFuture().addListener(new ChannelFutureListener() {
-							public void operationComplete(ChannelFuture arg0) throws Exception {
-								closeChannelPair(arg0.getChannel());
-							}
-						});
-					}
-				});
+				if (future == null)
+					return false;
+				future.addListener(connectListener);
+				return true;
 			}
 		} else {
 			HttpChunk chunk = (HttpChunk) e.getMessage();
 			if (chunk.isLast()) {
 				readingChunks = false;
 			}
-			semaphore.release();
 			HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel())).getChannel().write(chunk);
 			if (logger.isDebugEnabled())
 				logger.debug("Send chunked request from : " + e.getChannel().getLocalAddress() + " to : " + e.getChannel().getRemoteAddress() + " capacity : " + chunk.getContent().capacity());
 		}
+		return false;
 	}
 
 	private void closeChannelPair(Channel channel) {
@@ -393,6 +506,20 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 		}
 	}
 
+	/**
+	 * Sends a response of the cache, after the responses of the previous requests of the client
+	 */
+	private void writeCachedResponse(MessageEvent e, HttpResponse response) {
+		if (logger.isDebugEnabled())
+			logger.debug("Response of " + request.getUri() + " found in the cache, status " + response.getStatus().getCode());
+		if (request.getProtocolVersion().equals(HttpVersion.HTTP_1_0))
+			response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		balancerRunner.balancerContext.httpBytesToClient.addAndGet(response.getContent().readableBytes());
+		if (responseSequencer == null)
+			responseSequencer = new HttpResponseSequencer(e.getChannel());
+		responseSequencer.nextSlot().write(response, true);
+	}
+
 	private void writeResponse(MessageEvent e, HttpResponseStatus status, String responseString) {
 		// Convert the response content to a ChannelBuffer.
 		ChannelBuffer buf = ChannelBuffers.copiedBuffer(responseString, Charset.forName("UTF-8"));
@@ -520,21 +647,23 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
     	if(regex!=null&&ip!=null&&port!=null)
     	{
     		KeySip keySip = new KeySip(ip,Integer.parseInt(port),isIpV6);
-    		if(balancerRunner.balancerContext.regexMap==null)
+    		String priority = getUrlParameters(((HttpRequest)e.getMessage()).getUri()).get("priority");
+    		try
     		{
-    			balancerRunner.balancerContext.regexMap = new ConcurrentHashMap<String,KeySip>();
-    			balancerRunner.balancerContext.regexMap.put(regex, keySip);
+    			balancerRunner.balancerContext.regexRoutingTable.put(regex, keySip, 
+    					priority != null ? Integer.parseInt(priority) : RegexRoutingTable.DEFAULT_PRIORITY);
     			return true;
     		}
-    		else
+    		catch(IllegalArgumentException ex)
     		{
-    			balancerRunner.balancerContext.regexMap.put(regex, keySip);
-    			return true;
+    			// invalid expression or priority
+    			logger.info("regex not set : " + ex.getMessage());
+    			return false;
     		}
     	}
     	else if(regex!=null)
     	{
-  			KeySip keySip = balancerRunner.balancerContext.regexMap.remove(regex);
+  			KeySip keySip = balancerRunner.balancerContext.regexRoutingTable.remove(regex);
   			if(keySip!=null)
   			{
   				logger.info("regex removed from map : " + regex);
@@ -0,0 +1,466 @@
+package org.mobicents.tools.http.balancer;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+/**
+ * In-memory cache of the GET responses of the nodes for the uris matching the cachePathPattern. The
+ * responses are kept for their Cache-Control max-age (s-maxage first), the variants of a uri are told
+ * apart with the request headers named in their Vary header. Conditional requests matching the ETag or
+ * the Last-Modified date of a fresh response are answered with a 304.
+ *
+ * The cache is bounded by the size of the stored bodies and headers, the least recently used uris are
+ * evicted first. Requests with credentials and responses setting cookies are never cached.
+ */
+public class HttpResponseCache {
+	private static final Logger logger = Logger.getLogger(HttpResponseCache.class.getCanonicalName());
+
+	private static final String[] HOP_BY_HOP_HEADERS = { Names.CONNECTION, "Keep-Alive", Names.TRANSFER_ENCODING, Names.TE,
+			Names.TRAILER, Names.UPGRADE, Names.PROXY_AUTHENTICATE, Names.PROXY_AUTHORIZATION, Names.AGE };
+	// response headers copied in a 304, RFC 7232 section 4.1
+	private static final String[] NOT_MODIFIED_HEADERS = { Names.CACHE_CONTROL, Names.CONTENT_LOCATION, Names.DATE, Names.ETAG,
+			Names.EXPIRES, Names.VARY };
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private final Pattern pathPattern;
+	private final long maxSize;
+	private final long maxEntrySize;
+	private final LinkedHashMap<String, Variants> entries = new LinkedHashMap<String, Variants>(64, 0.75f, true);
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong notModified = new AtomicLong(0);
+
+	/**
+	 * @param maxSize bytes of bodies and headers kept, a response takes at most a tenth of it
+	 */
+	public HttpResponseCache(Pattern pathPattern, long maxSize)
+	{
+		this.pathPattern = pathPattern;
+		this.maxSize = maxSize;
+		this.maxEntrySize = maxSize / 10;
+	}
+
+	/**
+	 * @return the key of the request if its response may be served from or stored in the cache, null otherwise
+	 */
+	public String cacheKey(HttpRequest request)
+	{
+		if(!HttpMethod.GET.equals(request.getMethod()) || request.isChunked())
+			return null;
+		if(request.getHeader(Names.AUTHORIZATION) != null || request.getHeader(Names.UPGRADE) != null)
+			return null;
+		if(hasDirective(request.getHeader(Names.CACHE_CONTROL), "no-store"))
+			return null;
+		if(!pathPattern.matcher(request.getUri()).find())
+			return null;
+		return request.getMethod().getName() + ' ' + request.getUri();
+	}
+
+	/**
+	 * @return the response to send to the client, or null when the request has to go to a node
+	 */
+	public HttpResponse get(String key, HttpRequest request)
+	{
+		String cacheControl = request.getHeader(Names.CACHE_CONTROL);
+		long maxAge = maxAge(cacheControl);
+		if(hasDirective(cacheControl, "no-cache") || maxAge == 0
+				|| (cacheControl == null && "no-cache".equalsIgnoreCase(request.getHeader(Names.PRAGMA)))) {
+			misses.incrementAndGet();
+			return null;
+		}
+		CachedResponse cached;
+		synchronized (this) {
+			Variants variants = entries.get(key);
+			cached = variants == null ? null : variants.responses.get(varyKey(variants.vary, request));
+			if(cached != null && cached.expires <= System.currentTimeMillis()) {
+				remove(key, variants, cached);
+				cached = null;
+			}
+		}
+		// the client wants a response younger than this one, which is still fresh for the others
+		if(cached != null && maxAge > 0 && cached.age() > maxAge)
+			cached = null;
+		if(cached == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		if(isNotModified(cached, request)) {
+			notModified.incrementAndGet();
+			return cached.notModifiedResponse();
+		}
+		return cached.response();
+	}
+
+	/**
+	 * Stores the response of a request whose key was given by {@link #cacheKey(HttpRequest)}
+	 * @param content the whole body, the response may have been chunked
+	 * @return true if the response was stored
+	 */
+	public boolean put(String key, HttpRequest request, HttpResponse response, byte[] content)
+	{
+		if(!isCacheable(response) || content.length > maxEntrySize)
+			return false;
+		long maxAge = maxAge(response.getHeader(Names.CACHE_CONTROL));
+		String age = response.getHeader(Names.AGE);
+		if(age != null) {
+			try {
+				maxAge -= Long.parseLong(age.trim());
+			} catch (NumberFormatException e) {
+				// ignored, the response is kept for its whole max-age
+			}
+		}
+		if(maxAge <= 0)
+			return false;
+
+		String[] vary = varyHeaders(response.getHeader(Names.VARY));
+		CachedResponse cached = new CachedResponse(response, content, System.currentTimeMillis() + maxAge * 1000);
+		if(cached.size > maxEntrySize)
+			return false;
+		synchronized (this) {
+			Variants variants = entries.get(key);
+			if(variants != null && !Arrays.equals(variants.vary, vary)) {
+				// the node changed the Vary header of the uri, the previous variants can't be found anymore
+				removeAll(key, variants);
+				variants = null;
+			}
+			if(variants == null) {
+				variants = new Variants(vary);
+				entries.put(key, variants);
+			}
+			String varyKey = varyKey(vary, request);
+			CachedResponse previous = variants.responses.put(varyKey, cached);
+			if(previous != null)
+				size -= previous.size;
+			size += cached.size;
+			evict();
+		}
+		if(logger.isDebugEnabled())
+			logger.debug("Cached the response of " + key + " for " + maxAge + " s");
+		return true;
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Variants>> eldest = entries.entrySet().iterator();
+		while(size > maxSize && eldest.hasNext()) {
+			Variants variants = eldest.next().getValue();
+			for(CachedResponse cached : variants.responses.values())
+				size -= cached.size;
+			eldest.remove();
+		}
+	}
+
+	private void remove(String key, Variants variants, CachedResponse cached)
+	{
+		Iterator<CachedResponse> responses = variants.responses.values().iterator();
+		while(responses.hasNext()) {
+			if(responses.next() == cached) {
+				responses.remove();
+				size -= cached.size;
+			}
+		}
+		if(variants.responses.isEmpty())
+			entries.remove(key);
+	}
+
+	private void removeAll(String key, Variants variants)
+	{
+		for(CachedResponse cached : variants.responses.values())
+			size -= cached.size;
+		entries.remove(key);
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return true if the headers of the response allow a shared cache to store it
+	 */
+	static boolean isCacheable(HttpResponse response)
+	{
+		if(response.getStatus().getCode() != HttpResponseStatus.OK.getCode())
+			return false;
+		String cacheControl = response.getHeader(Names.CACHE_CONTROL);
+		if(cacheControl == null || hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "no-cache")
+				|| hasDirective(cacheControl, "private"))
+			return false;
+		if(response.getHeader(Names.SET_COOKIE) != null || response.getHeader(Names.SET_COOKIE2) != null)
+			return false;
+		String vary = response.getHeader(Names.VARY);
+		if(vary != null && vary.trim().equals("*"))
+			return false;
+		return maxAge(cacheControl) > 0;
+	}
+
+	/**
+	 * @return the s-maxage, or the max-age, of the Cache-Control header in seconds, -1 when absent
+	 */
+	static long maxAge(String cacheControl)
+	{
+		if(cacheControl == null)
+			return -1;
+		long maxAge = -1;
+		for(String directive : cacheControl.split(",")) {
+			directive = directive.trim();
+			int equals = directive.indexOf('=');
+			if(equals < 0)
+				continue;
+			String name = directive.substring(0, equals).trim();
+			boolean shared = name.equalsIgnoreCase("s-maxage");
+			if(!shared && !name.equalsIgnoreCase("max-age"))
+				continue;
+			try {
+				long value = Long.parseLong(directive.substring(equals + 1).trim().replace("\"", ""));
+				if(shared)
+					return value;
+				maxAge = value;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return maxAge;
+	}
+
+	static boolean hasDirective(String cacheControl, String directive)
+	{
+		if(cacheControl == null)
+			return false;
+		for(String value : cacheControl.split(",")) {
+			// private and no-cache may be given field names
+			int equals = value.indexOf('=');
+			String name = equals < 0 ? value.trim() : value.substring(0, equals).trim();
+			if(name.equalsIgnoreCase(directive))
+				return true;
+		}
+		return false;
+	}
+
+	private static String[] varyHeaders(String vary)
+	{
+		if(vary == null || vary.trim().length() == 0)
+			return new String[0];
+		List<String> names = new ArrayList<String>();
+		for(String name : vary.split(","))
+			if(name.trim().length() > 0)
+				names.add(name.trim().toLowerCase());
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+
+	private static String varyKey(String[] vary, HttpRequest request)
+	{
+		if(vary.length == 0)
+			return "";
+		StringBuilder key = new StringBuilder();
+		for(String name : vary) {
+			List<String> values = request.getHeaders(name);
+			for(String value : values)
+				key.append(value.trim()).append(',');
+			key.append('\n');
+		}
+		return key.toString();
+	}
+
+	private static boolean isNotModified(CachedResponse cached, HttpRequest request)
+	{
+		String ifNoneMatch = request.getHeader(Names.IF_NONE_MATCH);
+		if(ifNoneMatch != null) {
+			if(cached.etag == null)
+				return false;
+			for(String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				// weak comparison
+				if(tag.equals("*") || opaqueTag(tag).equals(opaqueTag(cached.etag)))
+					return true;
+			}
+			return false;
+		}
+		String ifModifiedSince = request.getHeader(Names.IF_MODIFIED_SINCE);
+		if(ifModifiedSince == null || cached.lastModified == null)
+			return false;
+		Date since = parseDate(ifModifiedSince);
+		return since != null && !cached.lastModified.after(since);
+	}
+
+	/**
+	 * @return the date of an RFC 1123 header, null if it is absent or in another format
+	 */
+	private static Date parseDate(String value)
+	{
+		if(value == null)
+			return null;
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value.trim());
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	private static String opaqueTag(String etag)
+	{
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getNotModified()
+	{
+		return notModified.get();
+	}
+
+	public synchronized int getEntries()
+	{
+		int count = 0;
+		for(Variants variants : entries.values())
+			count += variants.responses.size();
+		return count;
+	}
+
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	long getMaxEntrySize()
+	{
+		return maxEntrySize;
+	}
+
+	/**
+	 * A request sent to a node whose response may be stored, and the body of a chunked response
+	 */
+	static class PendingResponse {
+		final String key;
+		final HttpRequest request;
+		HttpResponse response;
+		ChannelBuffer content;
+
+		PendingResponse(String key, HttpRequest request)
+		{
+			this.key = key;
+			this.request = request;
+		}
+	}
+
+	private static class Variants {
+		final String[] vary;
+		final HashMap<String, CachedResponse> responses = new HashMap<String, CachedResponse>(2);
+
+		Variants(String[] vary)
+		{
+			this.vary = vary;
+		}
+	}
+
+	private static class CachedResponse {
+		final List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+		final byte[] content;
+		final String etag;
+		final Date lastModified;
+		final long stored;
+		final long initialAge;
+		final long expires;
+		final long size;
+
+		CachedResponse(HttpResponse response, byte[] content, long expires)
+		{
+			long headersSize = 0;
+			for(Map.Entry<String, String> header : response.getHeaders()) {
+				if(isHopByHop(header.getKey()) || header.getKey().equalsIgnoreCase(Names.CONTENT_LENGTH))
+					continue;
+				headers.add(header);
+				headersSize += header.getKey().length() + header.getValue().length();
+			}
+			this.content = content;
+			this.etag = response.getHeader(Names.ETAG);
+			this.lastModified = parseDate(response.getHeader(Names.LAST_MODIFIED));
+			this.stored = System.currentTimeMillis();
+			long initialAge = 0;
+			try {
+				if(response.getHeader(Names.AGE) != null)
+					initialAge = Long.parseLong(response.getHeader(Names.AGE).trim());
+			} catch (NumberFormatException e) {
+				// the age is counted from now
+			}
+			this.initialAge = initialAge;
+			this.expires = expires;
+			this.size = content.length + 2 * headersSize + ENTRY_OVERHEAD;
+		}
+
+		HttpResponse response()
+		{
+			HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+			for(Map.Entry<String, String> header : headers)
+				response.addHeader(header.getKey(), header.getValue());
+			ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(content);
+			response.setContent(buffer);
+			response.setHeader(Names.CONTENT_LENGTH, String.valueOf(content.length));
+			response.setHeader(Names.AGE, String.valueOf(age()));
+			return response;
+		}
+
+		HttpResponse notModifiedResponse()
+		{
+			HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+			for(Map.Entry<String, String> header : headers)
+				for(String name : NOT_MODIFIED_HEADERS)
+					if(name.equalsIgnoreCase(header.getKey()))
+						response.addHeader(header.getKey(), header.getValue());
+			response.setHeader(Names.AGE, String.valueOf(age()));
+			return response;
+		}
+
+		private long age()
+		{
+			return initialAge + (System.currentTimeMillis() - stored) / 1000;
+		}
+	}
+
+	private static boolean isHopByHop(String name)
+	{
+		for(String hopByHop : HOP_BY_HOP_HEADERS)
+			if(hopByHop.equalsIgnoreCase(name))
+				return true;
+		return false;
+	}
+}
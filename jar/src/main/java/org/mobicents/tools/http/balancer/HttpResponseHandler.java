@@ -26,6 +26,8 @@ import java.net.InetSocketAddress;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
@@ -35,9 +37,9 @@ import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
 import org.jboss.netty.handler.codec.http.HttpResponse;
-import org.jboss.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import org.jboss.netty.handler.codec.http.websocketx.WebSocketFrame;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 import org.mobicents.tools.sip.balancer.InvocationContext;
@@ -56,8 +58,11 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 	private static final Logger logger = Logger.getLogger(HttpResponseHandler.class.getCanonicalName());
 	private volatile boolean readingChunks;
 	private volatile HttpResponse response;
+	private volatile boolean keepAlive;
 	private volatile String wsVersion;
 	private volatile WebsocketModifyServerPipelineFactory websocketModifyServerPipelineFactory;
+	private volatile Channel wsClientChannel;
+	private volatile HttpResponseCache.PendingResponse cachedResponse;
 	private BalancerRunner balancerRunner;
 	
 	public HttpResponseHandler (BalancerRunner balancerRunner)
@@ -76,18 +81,21 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 	}
 	
 	private void handleWebSocketFrame(ChannelHandlerContext ctx, MessageEvent e) {
-		Object msg = e.getMessage();
-		final String response = ((TextWebSocketFrame) msg).getText();
+		WebSocketFrame frame = (WebSocketFrame) e.getMessage();
 		if(logger.isDebugEnabled()) {
-			logger.debug(String.format("Channel %s received WebSocket response %s", ctx.getChannel().getId(), response));
+			logger.debug(String.format("Channel %s received WebSocket %s of %d bytes", ctx.getChannel().getId(), frame.getClass().getSimpleName(), frame.getBinaryData().readableBytes()));
 		}
-				
-		Channel channel = HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel())).getChannel();
-//		channel.getPipeline().remove(HttpResponseDecoder.class);
 		
-		if(channel != null) {
-			channel.write(new TextWebSocketFrame(response));
-		} 
+		Channel channel = wsClientChannel;
+		if(channel == null) {
+			AdvancedChannel ac = HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel()));
+			if(ac == null)
+				return;
+			channel = ac.getChannel();
+			wsClientChannel = channel;
+		}
+		// the frame and its buffer are written as they are, whatever their type
+		channel.write(frame);
 	}
 
 	private void handleHttpResponse(ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
@@ -102,12 +110,15 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			Channel channel = null;
 			if(ac!=null)
 				channel = ac.getChannel();
+			cacheChunk(chunk);
 			if(channel != null) 
 			{
 				if(logger.isDebugEnabled())
 					logger.debug("Send chunked response from : " + e.getChannel().getRemoteAddress() + " to : " + channel.getRemoteAddress() + " capacity : " + chunk.getContent().capacity());
-				channel.write(chunk);				
+				writeToClient(e.getChannel(), channel, chunk, chunk.isLast());
 			}
+			if (chunk.isLast())
+				HttpConnectionPool.responseCompleted(e.getChannel(), keepAlive);
 		}
 		else if(!readingChunks || !(e.getMessage() instanceof DefaultHttpChunk))
 		{
@@ -148,6 +159,9 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			if(response.isChunked()){
 				readingChunks = true;
 			}
+			keepAlive = HttpHeaders.isKeepAlive(response);
+			if(stsusCode >= 200)
+				cacheResponse(e.getChannel(), response);
 
 			AdvancedChannel ac = HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel()));
 			Channel channel = null;
@@ -156,8 +170,11 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			if(channel != null) {
 				if(logger.isDebugEnabled())
 					logger.debug("Send response from : " + e.getChannel().getRemoteAddress() + " to : " + channel.getRemoteAddress() + " capacity : " + response.getContent().capacity());
-				channel.write(response);
+				// interim responses are followed by the final one
+				writeToClient(e.getChannel(), channel, response, !response.isChunked() && stsusCode >= 200);
 			}
+			if(!response.isChunked() && stsusCode >= 200)
+				HttpConnectionPool.responseCompleted(e.getChannel(), keepAlive);
 
 			Set<String> headers = response.getHeaderNames();
 			if(headers.contains("Sec-WebSocket-Protocol")) {
@@ -186,15 +203,77 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			Channel channel = null;
 			if(ac!=null)
 				channel = ac.getChannel();
+			cacheChunk(chunk);
 			if(channel != null) 
 			{
 				if(logger.isDebugEnabled())
 					logger.debug("Send chunked response from : " + e.getChannel().getRemoteAddress() + " to : " + channel.getRemoteAddress() + " capacity : " + chunk.getContent().capacity());
-				channel.write(chunk);				
+				writeToClient(e.getChannel(), channel, chunk, chunk.isLast());
 			}
+			if (chunk.isLast())
+				HttpConnectionPool.responseCompleted(e.getChannel(), keepAlive);
+		}
+	}
+
+	/**
+	 * Stores the response if its request was sent for the cache, a chunked response once its last chunk is received
+	 */
+	private void cacheResponse(Channel node, HttpResponse response)
+	{
+		cachedResponse = null;
+		HttpResponseCache cache = HttpChannelAssociations.responseCache;
+		if(cache == null)
+			return;
+		HttpResponseCache.PendingResponse pending = HttpChannelAssociations.cacheRequests.remove(node);
+		if(pending == null || !HttpResponseCache.isCacheable(response))
+			return;
+		if(!response.isChunked()) {
+			cache.put(pending.key, pending.request, response, bytes(response.getContent()));
+			return;
+		}
+		pending.response = response;
+		pending.content = ChannelBuffers.dynamicBuffer();
+		cachedResponse = pending;
+	}
+
+	private void cacheChunk(HttpChunk chunk)
+	{
+		HttpResponseCache.PendingResponse pending = cachedResponse;
+		HttpResponseCache cache = HttpChannelAssociations.responseCache;
+		if(pending == null || cache == null)
+			return;
+		ChannelBuffer content = chunk.getContent();
+		if(pending.content.readableBytes() + content.readableBytes() > cache.getMaxEntrySize()) {
+			cachedResponse = null;
+			return;
+		}
+		pending.content.writeBytes(content, content.readerIndex(), content.readableBytes());
+		if(chunk.isLast()) {
+			cachedResponse = null;
+			cache.put(pending.key, pending.request, pending.response, bytes(pending.content));
 		}
 	}
 
+	private static byte[] bytes(ChannelBuffer buffer)
+	{
+		// the buffer is still to be written to the client, its indexes are left as they are
+		byte[] bytes = new byte[buffer.readableBytes()];
+		buffer.getBytes(buffer.readerIndex(), bytes);
+		return bytes;
+	}
+
+	/**
+	 * Requests dispatched on pooled connections are answered in the order of the client requests
+	 */
+	private void writeToClient(Channel node, Channel client, Object message, boolean last)
+	{
+		HttpResponseSequencer.Slot slot = last ? HttpChannelAssociations.responseSlots.remove(node) : HttpChannelAssociations.responseSlots.get(node);
+		if(slot != null)
+			slot.write(message, last);
+		else
+			client.write(message);
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
 			throws Exception {
@@ -0,0 +1,75 @@
+package org.mobicents.tools.http.balancer;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Keeps the responses to a client in the order of its requests when the requests of a persistent
+ * connection are dispatched to different nodes. Each request takes a slot, the messages of a response
+ * are written as soon as its slot is the oldest one and are buffered until then.
+ */
+public class HttpResponseSequencer {
+
+	private final Channel client;
+	private final LinkedList<Slot> slots = new LinkedList<Slot>();
+
+	public HttpResponseSequencer(Channel client)
+	{
+		this.client = client;
+	}
+
+	/**
+	 * @return the slot of the next request, taken before the request is dispatched
+	 */
+	public Slot nextSlot()
+	{
+		Slot slot = new Slot();
+		synchronized (this) {
+			slots.add(slot);
+		}
+		return slot;
+	}
+
+	private synchronized void write(Slot slot, Object message, boolean last)
+	{
+		if(slots.peekFirst() != slot) {
+			slot.messages.add(message);
+			slot.completed = last;
+			return;
+		}
+		client.write(message);
+		if(!last)
+			return;
+		slots.removeFirst();
+		while(!slots.isEmpty()) {
+			Slot head = slots.peekFirst();
+			for(Object buffered : head.messages)
+				client.write(buffered);
+			head.messages.clear();
+			if(!head.completed)
+				return;
+			slots.removeFirst();
+		}
+	}
+
+	synchronized int getPendingResponses()
+	{
+		return slots.size();
+	}
+
+	public class Slot {
+		private final List<Object> messages = new ArrayList<Object>(1);
+		private boolean completed;
+
+		/**
+		 * @param last true for the last message of the response
+		 */
+		public void write(Object message, boolean last)
+		{
+			HttpResponseSequencer.this.write(this, message, last);
+		}
+	}
+}
@@ -21,8 +21,6 @@ package org.mobicents.tools.http.balancer;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
-import javax.net.ssl.SSLEngine;
-
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
@@ -31,9 +29,6 @@ import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 
-import com.cloudhopper.smpp.ssl.SslConfiguration;
-import com.cloudhopper.smpp.ssl.SslContextFactory;
-
 /**
  * @author The Netty Project (netty-dev@lists.jboss.org)
  * @author Andy Taylor (andy.taylor@jboss.org)
@@ -59,27 +54,8 @@ public class HttpServerPipelineFactory implements ChannelPipelineFactory {
         
         if(isSecure)
         {
-        	SslConfiguration sslConfig = new SslConfiguration();
-	        sslConfig.setKeyStorePath(balancerRunner.balancerContext.lbConfig.getSslConfiguration().getKeyStore());
-	        sslConfig.setKeyStorePassword(balancerRunner.balancerContext.lbConfig.getSslConfiguration().getKeyStorePassword());
-	        sslConfig.setTrustStorePath(balancerRunner.balancerContext.lbConfig.getSslConfiguration().getTrustStore());
-	        sslConfig.setTrustStorePassword(balancerRunner.balancerContext.lbConfig.getSslConfiguration().getTrustStorePassword());
-	        String sProtocols = balancerRunner.balancerContext.lbConfig.getSslConfiguration().getTlsClientProtocols();
-	        String sCipherSuites = balancerRunner.balancerContext.lbConfig.getSslConfiguration().getEnabledCipherSuites();
-	        if(sProtocols!=null)
-	        {
-	        	String [] protocols = sProtocols.split(",");
-	        	sslConfig.setIncludeProtocols(protocols);
-	        }
-	        if(sCipherSuites!=null)
-	        {
-	        	String [] cipherSuites = sCipherSuites.split(",");
-	        	sslConfig.setIncludeCipherSuites(cipherSuites);
-	        }
-        	SslContextFactory factory = new SslContextFactory(sslConfig);
-    	    SSLEngine sslEngine = factory.newSslEngine();
-    	    sslEngine.setUseClientMode(false);
-            pipeline.addLast("ssl", new SslHandler(sslEngine));
+            pipeline.addLast("ssl", new SslHandler(HttpChannelAssociations.sslContext.newServerEngine()));
+            pipeline.addLast("sslStatistics", HttpChannelAssociations.sslContext.new HandshakeStatisticsHandler(false));
         }
 
         pipeline.addLast("decoder", new HttpRequestDecoder());
@@ -89,6 +65,7 @@ public class HttpServerPipelineFactory implements ChannelPipelineFactory {
         pipeline.addLast("encoder", new HttpResponseEncoder());
         // Remove the following line if you don't want automatic content compression.
         //pipeline.addLast("deflater", new HttpContentCompressor());
+        pipeline.addLast("flowControl", new HttpFlowControlHandler(balancerRunner.balancerContext));
         if(balancerRunner.balancerContext.terminateTLSTraffic)
         	pipeline.addLast("handler", new HttpRequestHandler(balancerRunner,false));
         else
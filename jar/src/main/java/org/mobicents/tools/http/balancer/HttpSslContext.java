@@ -0,0 +1,184 @@
+package org.mobicents.tools.http.balancer;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.mobicents.tools.sip.balancer.BalancerContext;
+
+import com.cloudhopper.smpp.ssl.SslConfiguration;
+import com.cloudhopper.smpp.ssl.SslContextFactory;
+
+/**
+ * SSL contexts of the HTTPS/WSS listener and of the connections to the nodes, built once when the
+ * HTTP balancer starts instead of for every connection. Reusing the contexts also reuses their
+ * session caches : clients resuming a session and connections to nodes skip the full handshake.
+ *
+ * The key store and the trust store are polled and the listener context is rebuilt when one of them
+ * changes, connections already established keep their engine.
+ */
+public class HttpSslContext {
+	private static final Logger logger = Logger.getLogger(HttpSslContext.class.getCanonicalName());
+
+	private org.mobicents.tools.configuration.SslConfiguration configuration;
+	private BalancerContext balancerContext;
+	private volatile SslContextFactory serverFactory;
+	private SslContextFactory clientFactory;
+	private long keyStoreModified;
+	private long trustStoreModified;
+	private Timer reloadTimer;
+
+	public HttpSslContext(org.mobicents.tools.configuration.SslConfiguration configuration, BalancerContext balancerContext) throws Exception
+	{
+		this.configuration = configuration;
+		this.balancerContext = balancerContext;
+		keyStoreModified = lastModified(configuration.getKeyStore());
+		trustStoreModified = lastModified(configuration.getTrustStore());
+		serverFactory = createServerFactory();
+
+		SslConfiguration clientConfig = new SslConfiguration();
+		clientConfig.setTrustAll(true);
+		clientConfig.setValidateCerts(true);
+		clientConfig.setValidatePeerCerts(true);
+		clientFactory = new SslContextFactory(clientConfig);
+		configureSessions(clientFactory.getSslContext().getClientSessionContext());
+	}
+
+	private SslContextFactory createServerFactory() throws Exception
+	{
+		SslConfiguration sslConfig = new SslConfiguration();
+		sslConfig.setKeyStorePath(configuration.getKeyStore());
+		sslConfig.setKeyStorePassword(configuration.getKeyStorePassword());
+		sslConfig.setTrustStorePath(configuration.getTrustStore());
+		sslConfig.setTrustStorePassword(configuration.getTrustStorePassword());
+		if(configuration.getTlsClientProtocols() != null)
+			sslConfig.setIncludeProtocols(configuration.getTlsClientProtocols().split(","));
+		if(configuration.getEnabledCipherSuites() != null)
+			sslConfig.setIncludeCipherSuites(configuration.getEnabledCipherSuites().split(","));
+		SslContextFactory factory = new SslContextFactory(sslConfig);
+		configureSessions(factory.getSslContext().getServerSessionContext());
+		return factory;
+	}
+
+	private void configureSessions(SSLSessionContext sessionContext)
+	{
+		sessionContext.setSessionCacheSize(configuration.getSessionCacheSize());
+		sessionContext.setSessionTimeout(configuration.getSessionTimeout());
+	}
+
+	public void start()
+	{
+		Integer reloadPeriod = configuration.getCertificateReloadPeriod();
+		if(reloadPeriod == null || reloadPeriod <= 0)
+			return;
+		reloadTimer = new Timer("HttpSslContextReload", true);
+		reloadTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				reloadIfChanged();
+			}
+		}, reloadPeriod, reloadPeriod);
+	}
+
+	public void stop()
+	{
+		if(reloadTimer != null)
+			reloadTimer.cancel();
+	}
+
+	void reloadIfChanged()
+	{
+		long keyStore = lastModified(configuration.getKeyStore());
+		long trustStore = lastModified(configuration.getTrustStore());
+		if(keyStore == keyStoreModified && trustStore == trustStoreModified)
+			return;
+		try {
+			serverFactory = createServerFactory();
+			keyStoreModified = keyStore;
+			trustStoreModified = trustStore;
+			logger.info("Key store " + configuration.getKeyStore() + " changed, HTTPS certificates reloaded");
+		} catch (Exception e) {
+			// the file may still be written, retried on the next period
+			logger.error("Couldn't reload the HTTPS certificates from " + configuration.getKeyStore() + ", keeping the current ones", e);
+		}
+	}
+
+	private static long lastModified(String path)
+	{
+		return path == null ? 0 : new File(path).lastModified();
+	}
+
+	public SSLEngine newServerEngine()
+	{
+		SSLEngine engine = serverFactory.newSslEngine();
+		engine.setUseClientMode(false);
+		return engine;
+	}
+
+	/**
+	 * The peer is needed for the engine to look up a session to resume
+	 */
+	public SSLEngine newClientEngine(String host, int port)
+	{
+		SSLEngine engine = clientFactory.newSslEngine(host, port);
+		engine.setUseClientMode(true);
+		return engine;
+	}
+
+	/**
+	 * Placeholder of the client pipeline replaced by the SslHandler once the node address is known
+	 */
+	public class ClientSslHandler extends SimpleChannelDownstreamHandler {
+		@Override
+		public void connectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+			InetSocketAddress address = (InetSocketAddress) e.getValue();
+			ctx.getPipeline().replace(this, "ssl", new SslHandler(newClientEngine(address.getHostString(), address.getPort())));
+			ctx.sendDownstream(e);
+		}
+	}
+
+	/**
+	 * Counts the handshakes of a connection when its first message is decoded, the session was
+	 * resumed if it was created before the connection
+	 */
+	public class HandshakeStatisticsHandler extends SimpleChannelUpstreamHandler {
+		private final long connectionTime = System.currentTimeMillis();
+		private final boolean toNode;
+
+		public HandshakeStatisticsHandler(boolean toNode) {
+			this.toNode = toNode;
+		}
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+			SslHandler sslHandler = ctx.getPipeline().get(SslHandler.class);
+			if(sslHandler != null) {
+				SSLSession session = sslHandler.getEngine().getSession();
+				boolean resumed = session.getCreationTime() < connectionTime;
+				if(toNode) {
+					balancerContext.sslNodeHandshakes.incrementAndGet();
+					if(resumed)
+						balancerContext.sslNodeResumedHandshakes.incrementAndGet();
+				} else {
+					balancerContext.sslHandshakes.incrementAndGet();
+					if(resumed)
+						balancerContext.sslResumedHandshakes.incrementAndGet();
+				}
+			}
+			ctx.getPipeline().remove(this);
+			ctx.sendUpstream(e);
+		}
+	}
+}
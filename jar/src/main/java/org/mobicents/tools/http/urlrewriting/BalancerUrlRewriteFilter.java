@@ -39,6 +39,7 @@ import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 import org.tuckey.web.filters.urlrewrite.Conf;
+import org.w3c.dom.Document;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -56,12 +57,16 @@ public class BalancerUrlRewriteFilter {
 	private static final Logger log = Logger.getLogger(BalancerUrlRewriteFilter.class.getCanonicalName());
 
 	private BalancerUrlRewriter urlRewriter = null;
+	private UrlRewriteEngine urlRewriteEngine = null;
 
     public void init(BalancerRunner balancerRunner) throws ServletException 
     {
         log.info("filter init called");
-        Conf conf = new BalancerConf(balancerRunner.getConfiguration().getHttpConfiguration().getUrlrewriteRule());
+        Document rules = balancerRunner.getConfiguration().getHttpConfiguration().getUrlrewriteRule();
+        Conf conf = new BalancerConf(rules);
         checkConfLocal(conf);
+        if (urlRewriter != null)
+            urlRewriteEngine = UrlRewriteEngine.compile(rules.getDocumentElement());
     }
     private void checkConfLocal(Conf conf) {
         if (log.isDebugEnabled()) {
@@ -97,6 +102,17 @@ public class BalancerUrlRewriteFilter {
      */
     public void doFilter(final HttpRequest httpRequest, MessageEvent e) throws IOException, ServletException  {
     	
+    	if (urlRewriteEngine != null) {
+    		String newUrl = urlRewriteEngine.rewrite(httpRequest.getUri());
+    		if (newUrl != null) {
+    			if (!newUrl.equals(httpRequest.getUri())) {
+    				if (log.isDebugEnabled())
+    					log.debug("request rewrited from : [" + httpRequest.getUri() + "] to : ["+newUrl+"]");
+    				httpRequest.setUri(newUrl);
+    			}
+    			return;
+    		}
+    	}
     	HttpServletRequest servletRequest = new NettyHttpServletRequestAdaptor(httpRequest, e.getChannel());
         final HttpServletRequest hsRequest = (HttpServletRequest) servletRequest;
         if (urlRewriter != null) {
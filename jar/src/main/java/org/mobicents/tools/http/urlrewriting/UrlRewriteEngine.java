@@ -0,0 +1,250 @@
+package org.mobicents.tools.http.urlrewriting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.sip.balancer.LbUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+/**
+ * Applies the urlrewrite rules directly on the request uri, without the servlet request adaptor and the
+ * rule chain. The regular expressions are compiled once, the rules whose expression starts with a literal
+ * are indexed in a prefix trie so a uri matching none of them is rejected without running any expression.
+ *
+ * Only plain regex rules are compiled (from, to, last). A configuration using conditions, runs, set
+ * attributes, class rules or wildcard matching is left to the {@link BalancerUrlRewriter}, as are the
+ * uris which would have to be decoded first.
+ */
+public class UrlRewriteEngine {
+
+    private static final Logger log = Logger.getLogger(UrlRewriteEngine.class.getCanonicalName());
+
+    private final CompiledRule[] rules;
+    private final TrieNode prefixes = new TrieNode((char) 0);
+    private final boolean hasPrefixes;
+
+    private UrlRewriteEngine(List<CompiledRule> rules)
+    {
+        this.rules = rules.toArray(new CompiledRule[rules.size()]);
+        boolean indexed = false;
+        for (int i = 0; i < this.rules.length; i++) {
+            if (this.rules[i].prefix != null) {
+                prefixes.add(this.rules[i].prefix, 0, i);
+                indexed = true;
+            }
+        }
+        this.hasPrefixes = indexed;
+    }
+
+    /**
+     * @return the engine, or null when the rules use features which are only handled by the servlet filter
+     */
+    public static UrlRewriteEngine compile(Element urlrewrite)
+    {
+        if (!isBlank(urlrewrite.getAttribute("default-match-type")) && !"regex".equalsIgnoreCase(urlrewrite.getAttribute("default-match-type")))
+            return unsupported("default-match-type " + urlrewrite.getAttribute("default-match-type"));
+
+        List<CompiledRule> rules = new ArrayList<CompiledRule>();
+        NodeList children = urlrewrite.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            Element element = (Element) node;
+            if (element.getTagName().equals("class-rule"))
+                return unsupported("class-rule");
+            if (!element.getTagName().equals("rule"))
+                continue; // outbound rules and catch elements are not used for the requests
+            if ("false".equalsIgnoreCase(element.getAttribute("enabled")))
+                continue;
+            if (!isBlank(element.getAttribute("match-type")) && !"regex".equalsIgnoreCase(element.getAttribute("match-type")))
+                return unsupported("match-type " + element.getAttribute("match-type"));
+            for (String tag : new String[] { "condition", "run", "gzip", "set" })
+                if (element.getElementsByTagName(tag).getLength() > 0)
+                    return unsupported(tag);
+
+            Element fromNode = (Element) element.getElementsByTagName("from").item(0);
+            Element toNode = (Element) element.getElementsByTagName("to").item(0);
+            String from = getNodeValue(fromNode);
+            String to = getNodeValue(toNode);
+            if (from == null || to == null || to.equals("null") || to.equals("-"))
+                return unsupported("rule without replacement");
+            if (to.contains("%{") || to.contains("${") || to.contains("\\"))
+                return unsupported("variables or functions in " + to);
+            if ("true".equalsIgnoreCase(toNode.getAttribute("qsappend")) || "true".equalsIgnoreCase(toNode.getAttribute("encode"))
+                    || !isBlank(toNode.getAttribute("context")))
+                return unsupported("to attributes of " + to);
+
+            boolean caseSensitive = "true".equalsIgnoreCase(fromNode.getAttribute("casesensitive"));
+            rules.add(new CompiledRule(from, to, caseSensitive, "true".equalsIgnoreCase(toNode.getAttribute("last"))));
+        }
+        if (log.isDebugEnabled())
+            log.debug("compiled " + rules.size() + " url rewrite rules");
+        return new UrlRewriteEngine(rules);
+    }
+
+    private static UrlRewriteEngine unsupported(String feature)
+    {
+        log.info("url rewrite rules use " + feature + ", requests are rewritten by the servlet filter");
+        return null;
+    }
+
+    /**
+     * @return the rewritten uri, the same instance when no rule matched, or null when the uri has to be
+     * decoded and is left to the servlet filter
+     */
+    public String rewrite(String uri)
+    {
+        if (uri.indexOf('%') >= 0 || uri.indexOf('+') >= 0)
+            return null;
+        String url = uri.length() == 0 ? "/" : uri;
+        boolean[] candidates = hasPrefixes ? prefixes.match(url, rules.length) : null;
+        for (int i = 0; i < rules.length; i++) {
+            CompiledRule rule = rules[i];
+            if (rule.prefix != null) {
+                if (!candidates[i])
+                    continue;
+            } else if (rule.literal != null && !contains(url, rule.literal)) {
+                continue;
+            }
+            Matcher matcher = rule.from.matcher(url);
+            if (!matcher.find())
+                continue;
+            url = matcher.replaceAll(rule.to);
+            if (rule.last)
+                break;
+            if (hasPrefixes)
+                candidates = prefixes.match(url, rules.length);
+        }
+        return url;
+    }
+
+    private static boolean contains(String url, String literal)
+    {
+        int last = url.length() - literal.length();
+        for (int i = 0; i <= last; i++)
+            if (url.regionMatches(true, i, literal, 0, literal.length()))
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the literal a match of the expression starts with from the given index, or null
+     */
+    static String leadingLiteral(String regex, int start)
+    {
+        return LbUtils.leadingLiteral(regex, start);
+    }
+
+    private static char lowerCase(char c)
+    {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isAscii(String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+            if (value.charAt(i) > 127)
+                return false;
+        return true;
+    }
+
+    private static boolean isBlank(String value)
+    {
+        return value == null || value.trim().length() == 0;
+    }
+
+    private static String getNodeValue(Node node)
+    {
+        if (node == null || node.getFirstChild() == null || node.getFirstChild().getNodeType() != Node.TEXT_NODE)
+            return null;
+        return ((Text) node.getFirstChild()).getData().trim();
+    }
+
+    private static final class CompiledRule {
+        final Pattern from;
+        final String to;
+        final boolean last;
+        // literal the uri starts with when the rule matches
+        final String prefix;
+        // literal the uri contains when the rule matches
+        final String literal;
+
+        CompiledRule(String from, String to, boolean caseSensitive, boolean last)
+        {
+            this.from = Pattern.compile(from, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE);
+            this.to = to;
+            this.last = last;
+            String leading = leadingLiteral(from, from.startsWith("^") ? 1 : 0);
+            // the case insensitive comparisons only fold ascii letters, like the expression
+            if (leading != null && !caseSensitive && !isAscii(leading))
+                leading = null;
+            this.prefix = from.startsWith("^") ? leading : null;
+            this.literal = from.startsWith("^") ? null : leading;
+        }
+    }
+
+    /**
+     * Trie of the rule prefixes, on lower case ascii letters. Case sensitive rules may be found as
+     * candidates for a uri they don't match, their expression rejects it.
+     */
+    private static final class TrieNode {
+        final char key;
+        TrieNode[] children = new TrieNode[0];
+        int[] rules = new int[0];
+
+        TrieNode(char key)
+        {
+            this.key = key;
+        }
+
+        void add(String prefix, int index, int rule)
+        {
+            if (index == prefix.length()) {
+                int[] extended = new int[rules.length + 1];
+                System.arraycopy(rules, 0, extended, 0, rules.length);
+                extended[rules.length] = rule;
+                rules = extended;
+                return;
+            }
+            char c = lowerCase(prefix.charAt(index));
+            TrieNode child = child(c);
+            if (child == null) {
+                child = new TrieNode(c);
+                TrieNode[] extended = new TrieNode[children.length + 1];
+                System.arraycopy(children, 0, extended, 0, children.length);
+                extended[children.length] = child;
+                children = extended;
+            }
+            child.add(prefix, index + 1, rule);
+        }
+
+        TrieNode child(char c)
+        {
+            for (TrieNode child : children)
+                if (child.key == c)
+                    return child;
+            return null;
+        }
+
+        boolean[] match(String url, int ruleCount)
+        {
+            boolean[] candidates = new boolean[ruleCount];
+            TrieNode node = this;
+            for (int i = 0; i < url.length() && node.children.length > 0; i++) {
+                node = node.child(lowerCase(url.charAt(i)));
+                if (node == null)
+                    break;
+                for (int rule : node.rules)
+                    candidates[rule] = true;
+            }
+            return candidates;
+        }
+    }
+}
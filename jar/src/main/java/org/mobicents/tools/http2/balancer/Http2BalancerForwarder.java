@@ -0,0 +1,215 @@
+package org.mobicents.tools.http2.balancer;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelPoolMap;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.configuration.HttpConfiguration;
+import org.mobicents.tools.configuration.SslConfiguration;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+
+/**
+ * HTTP/2 listener of the HTTP balancer, built on Netty 4. The secure port negotiates h2 or http/1.1 with
+ * ALPN, the cleartext port accepts h2c with prior knowledge or with an upgrade from HTTP/1.1.
+ *
+ * Every stream is sent to a node as an HTTP/1.1 request over keep-alive connections pooled per node,
+ * so many streams of a client share one TCP/TLS connection to the load balancer. Buffers come from the
+ * pooled allocator and the native epoll transport is used when enabled and available.
+ */
+public class Http2BalancerForwarder {
+	private static final Logger logger = Logger.getLogger(Http2BalancerForwarder.class.getCanonicalName());
+
+	private BalancerRunner balancerRunner;
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	private Class<? extends ServerChannel> serverChannelClass;
+	private Channel serverChannel;
+	private Channel serverCleartextChannel;
+	private Bootstrap nodeBootstrap;
+	private AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> nodeConnections;
+	private AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> secureNodeConnections;
+
+	public Http2BalancerForwarder(BalancerRunner balancerRunner)
+	{
+		this.balancerRunner = balancerRunner;
+	}
+
+	public void start() throws Exception
+	{
+		HttpConfiguration httpConfiguration = balancerRunner.balancerContext.lbConfig.getHttpConfiguration();
+		SslConfiguration sslConfiguration = balancerRunner.balancerContext.lbConfig.getSslConfiguration();
+		// 0 lets Netty use twice the number of cores
+		int ioWorkerThreads = httpConfiguration.getIoWorkerThreads() != null ? httpConfiguration.getIoWorkerThreads() : 0;
+		Class<? extends Channel> nodeChannelClass;
+		if(httpConfiguration.getUseEpoll() && Epoll.isAvailable())
+		{
+			bossGroup = new EpollEventLoopGroup(1);
+			workerGroup = new EpollEventLoopGroup(ioWorkerThreads);
+			serverChannelClass = EpollServerSocketChannel.class;
+			nodeChannelClass = EpollSocketChannel.class;
+		}
+		else
+		{
+			if(httpConfiguration.getUseEpoll())
+				logger.warn("Native epoll transport not available, falling back to NIO : " + Epoll.unavailabilityCause());
+			bossGroup = new NioEventLoopGroup(1);
+			workerGroup = new NioEventLoopGroup(ioWorkerThreads);
+			serverChannelClass = NioServerSocketChannel.class;
+			nodeChannelClass = NioSocketChannel.class;
+		}
+
+		nodeBootstrap = new Bootstrap()
+				.group(workerGroup)
+				.channel(nodeChannelClass)
+				.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.option(ChannelOption.TCP_NODELAY, true)
+				.option(ChannelOption.SO_KEEPALIVE, true);
+		nodeConnections = nodeConnections(null);
+
+		Integer http2Port = httpConfiguration.getHttp2Port();
+		if(http2Port != null)
+		{
+			SslContext sslContext = SslContextBuilder.forServer(keyManagerFactory(sslConfiguration))
+					.sslProvider(SslProvider.JDK)
+					.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+					.sessionCacheSize(sslConfiguration.getSessionCacheSize())
+					.sessionTimeout(sslConfiguration.getSessionTimeout())
+					.applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN,
+							SelectorFailureBehavior.NO_ADVERTISE, SelectedListenerFailureBehavior.ACCEPT,
+							ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1))
+					.build();
+			if(!balancerRunner.balancerContext.terminateTLSTraffic)
+				secureNodeConnections = nodeConnections(SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build());
+			logger.info("HTTP/2 LB listening on port " + http2Port);
+			serverChannel = serverBootstrap(new Http2ServerInitializer(this, sslContext))
+					.bind(new InetSocketAddress(http2Port)).sync().channel();
+		}
+		Integer http2CleartextPort = httpConfiguration.getHttp2CleartextPort();
+		if(http2CleartextPort != null)
+		{
+			logger.info("HTTP/2 cleartext LB listening on port " + http2CleartextPort);
+			serverCleartextChannel = serverBootstrap(new Http2ServerInitializer(this, null))
+					.bind(new InetSocketAddress(http2CleartextPort)).sync().channel();
+		}
+	}
+
+	private AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> nodeConnections(final SslContext nodeSslContext)
+	{
+		final int maxContentLength = getMaxContentLength();
+		final int maxConnectionsPerNode = balancerRunner.balancerContext.lbConfig.getHttpConfiguration().getMaxConnectionsPerNode();
+		return new AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool>() {
+			@Override
+			protected FixedChannelPool newPool(final InetSocketAddress address) {
+				return new FixedChannelPool(nodeBootstrap.clone().remoteAddress(address), new AbstractChannelPoolHandler() {
+					@Override
+					public void channelCreated(Channel channel) throws Exception {
+						if(nodeSslContext != null)
+							channel.pipeline().addLast(nodeSslContext.newHandler(channel.alloc(), address.getHostString(), address.getPort()));
+						channel.pipeline().addLast(new HttpClientCodec());
+						channel.pipeline().addLast(new HttpObjectAggregator(maxContentLength));
+						channel.pipeline().addLast(new Http2NodeResponseHandler());
+					}
+				}, maxConnectionsPerNode);
+			}
+		};
+	}
+
+	private ServerBootstrap serverBootstrap(Http2ServerInitializer initializer)
+	{
+		return new ServerBootstrap()
+				.group(bossGroup, workerGroup)
+				.channel(serverChannelClass)
+				.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childOption(ChannelOption.SO_KEEPALIVE, true)
+				.childHandler(initializer);
+	}
+
+	private static KeyManagerFactory keyManagerFactory(SslConfiguration sslConfiguration) throws Exception
+	{
+		if(sslConfiguration.getKeyStore() == null)
+			throw new IllegalStateException("http2Port needs the keyStore of the ssl configuration");
+		char[] password = sslConfiguration.getKeyStorePassword() == null ? null : sslConfiguration.getKeyStorePassword().toCharArray();
+		KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		InputStream in = new FileInputStream(sslConfiguration.getKeyStore());
+		try {
+			keyStore.load(in, password);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, password);
+		return keyManagerFactory;
+	}
+
+	public void stop()
+	{
+		if(serverChannel != null)
+			serverChannel.close().awaitUninterruptibly();
+		if(serverCleartextChannel != null)
+			serverCleartextChannel.close().awaitUninterruptibly();
+		if(nodeConnections != null)
+			nodeConnections.close();
+		if(secureNodeConnections != null)
+			secureNodeConnections.close();
+		if(bossGroup != null)
+			bossGroup.shutdownGracefully().awaitUninterruptibly();
+		if(workerGroup != null)
+			workerGroup.shutdownGracefully().awaitUninterruptibly();
+	}
+
+	BalancerRunner getBalancerRunner()
+	{
+		return balancerRunner;
+	}
+
+	/**
+	 * @param secure true for the streams of the secure port, sent to the sslPort of the nodes unless the
+	 * TLS traffic is terminated by the load balancer
+	 */
+	ChannelPoolMap<InetSocketAddress, FixedChannelPool> getNodeConnections(boolean secure)
+	{
+		return secure && secureNodeConnections != null ? secureNodeConnections : nodeConnections;
+	}
+
+	int getMaxContentLength()
+	{
+		return balancerRunner.balancerContext.lbConfig.getHttpConfiguration().getMaxContentLength();
+	}
+}
@@ -0,0 +1,51 @@
+package org.mobicents.tools.http2.balancer;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hands the response of a node to the stream borrowing the node connection and gives the connection back
+ * to its pool.
+ */
+public class Http2NodeResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+	private static final Logger logger = Logger.getLogger(Http2NodeResponseHandler.class.getCanonicalName());
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) throws Exception
+	{
+		Http2Stream stream = ctx.channel().attr(Http2Stream.KEY).getAndSet(null);
+		if(stream == null) {
+			logger.warn("Unexpected response from node " + ctx.channel().remoteAddress() + ", closing the connection");
+			ctx.close();
+			return;
+		}
+		if(!HttpUtil.isKeepAlive(response))
+			ctx.close();
+		stream.releaseNodeChannel(ctx.channel());
+		stream.respond(response.retain());
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		Http2Stream stream = ctx.channel().attr(Http2Stream.KEY).getAndSet(null);
+		if(stream != null) {
+			logger.warn("Node " + ctx.channel().remoteAddress() + " closed the connection before responding");
+			stream.releaseNodeChannel(ctx.channel());
+			stream.fail(HttpResponseStatus.BAD_GATEWAY);
+		}
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
+	{
+		logger.warn("Error on the connection to node " + ctx.channel().remoteAddress(), cause);
+		ctx.close();
+	}
+}
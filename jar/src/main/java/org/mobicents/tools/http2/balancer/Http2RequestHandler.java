@@ -0,0 +1,234 @@
+package org.mobicents.tools.http2.balancer;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeEvent;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.sip.balancer.BalancerContext;
+import org.mobicents.tools.sip.balancer.InvocationContext;
+
+/**
+ * Sends the requests decoded from the HTTP/2 streams, or from an HTTP/1.1 connection, to the node chosen
+ * by the balancer algorithm. The streams of a connection are dispatched independently, the requests of an
+ * HTTP/1.1 connection one after the other so the responses keep their order.
+ */
+public class Http2RequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+	private static final Logger logger = Logger.getLogger(Http2RequestHandler.class.getCanonicalName());
+
+	private final Http2BalancerForwarder forwarder;
+	private final boolean secure;
+	private final BalancerContext balancerContext;
+	private final ArrayDeque<FullHttpRequest> http1Requests = new ArrayDeque<FullHttpRequest>();
+	private boolean http1RequestPending;
+
+	public Http2RequestHandler(Http2BalancerForwarder forwarder, boolean secure)
+	{
+		this.forwarder = forwarder;
+		this.secure = secure;
+		this.balancerContext = forwarder.getBalancerRunner().balancerContext;
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception
+	{
+		if(evt instanceof UpgradeEvent) {
+			// the request carrying the h2c upgrade is answered on the stream 1
+			FullHttpRequest request = ((UpgradeEvent) evt).upgradeRequest().retainedDuplicate();
+			request.headers().setInt(ExtensionHeaderNames.STREAM_ID.text(), 1);
+			channelRead0(ctx, request);
+			request.release();
+		}
+		super.userEventTriggered(ctx, evt);
+	}
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception
+	{
+		Integer streamId = request.headers().getInt(ExtensionHeaderNames.STREAM_ID.text());
+		if(streamId == null) {
+			// HTTP/1.1 : one request at a time
+			if(http1RequestPending) {
+				http1Requests.add(request.retain());
+				return;
+			}
+			http1RequestPending = true;
+		}
+		dispatch(ctx.channel(), request, streamId);
+	}
+
+	private void dispatch(final Channel client, final FullHttpRequest request, final Integer streamId)
+	{
+		balancerContext.httpRequests.incrementAndGet();
+		AtomicLong methodCounter = balancerContext.httpRequestsProcessedByMethod.get(request.method().name());
+		if(methodCounter != null)
+			methodCounter.incrementAndGet();
+		balancerContext.httpBytesToServer.addAndGet(request.content().readableBytes());
+		if(streamId != null) {
+			balancerContext.http2Streams.incrementAndGet();
+			balancerContext.activeHttp2Streams.incrementAndGet();
+		}
+
+		Node node;
+		try {
+			InvocationContext invocationContext = forwarder.getBalancerRunner().getLatestInvocationContext();
+			node = invocationContext.balancerAlgorithm.processHttpRequest(toBalancerRequest(request));
+		} catch (Exception e) {
+			logger.warn("Problem in balancer algorithm", e);
+			respondError(client, request, streamId, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+			return;
+		}
+		if(node == null) {
+			if(logger.isInfoEnabled())
+				logger.info("Service unavailable. No server is available.");
+			respondError(client, request, streamId, HttpResponseStatus.SERVICE_UNAVAILABLE);
+			return;
+		}
+
+		String portName = secure && !balancerContext.terminateTLSTraffic ? "sslPort" : "httpPort";
+		InetSocketAddress address;
+		try {
+			address = new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get(portName)));
+		} catch (NumberFormatException e) {
+			// only this stream fails, the other streams of the connection go on
+			logger.warn("Node " + node + " selected for " + request.uri() + " has no valid " + portName + " : " + node.getProperties().get(portName));
+			respondError(client, request, streamId, HttpResponseStatus.BAD_GATEWAY);
+			return;
+		}
+		if(logger.isDebugEnabled())
+			logger.debug("Dispatching " + (streamId != null ? "HTTP/2 stream " + streamId : "HTTP/1.1 request") + " " + request.uri() + " to node " + address);
+
+		final FixedChannelPool pool = forwarder.getNodeConnections(secure).get(address);
+		final Http2Stream stream = new Http2Stream(this, balancerContext, client, streamId, HttpUtil.isKeepAlive(request), pool);
+		final FullHttpRequest nodeRequest = toNodeRequest(request.retain());
+		pool.acquire().addListener(new FutureListener<Channel>() {
+			@Override
+			public void operationComplete(Future<Channel> future) throws Exception {
+				if(!future.isSuccess()) {
+					nodeRequest.release();
+					logger.warn("Couldn't connect to the node for " + nodeRequest.uri() + " : " + future.cause());
+					stream.fail(HttpResponseStatus.BAD_GATEWAY);
+					return;
+				}
+				final Channel nodeChannel = future.getNow();
+				nodeChannel.attr(Http2Stream.KEY).set(stream);
+				nodeChannel.writeAndFlush(nodeRequest).addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						if(!future.isSuccess()) {
+							nodeChannel.attr(Http2Stream.KEY).set(null);
+							nodeChannel.close();
+							pool.release(nodeChannel);
+							stream.fail(HttpResponseStatus.BAD_GATEWAY);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Called by the stream once its response has been written
+	 */
+	void responseWritten(final Channel client, Integer streamId, boolean keepAlive)
+	{
+		if(streamId != null)
+			return;
+		if(!keepAlive) {
+			client.close();
+			return;
+		}
+		client.eventLoop().execute(new Runnable() {
+			@Override
+			public void run() {
+				FullHttpRequest next = http1Requests.poll();
+				if(next == null) {
+					http1RequestPending = false;
+					return;
+				}
+				dispatch(client, next, null);
+				next.release();
+			}
+		});
+	}
+
+	private void respondError(Channel client, FullHttpRequest request, Integer streamId, HttpResponseStatus status)
+	{
+		new Http2Stream(this, balancerContext, client, streamId, HttpUtil.isKeepAlive(request), null).fail(status);
+	}
+
+	/**
+	 * The balancer algorithms read the uri and the headers of a Netty 3 request
+	 */
+	private static org.jboss.netty.handler.codec.http.HttpRequest toBalancerRequest(FullHttpRequest request)
+	{
+		org.jboss.netty.handler.codec.http.HttpRequest balancerRequest = new org.jboss.netty.handler.codec.http.DefaultHttpRequest(
+				org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1,
+				org.jboss.netty.handler.codec.http.HttpMethod.valueOf(request.method().name()), request.uri());
+		for(Entry<String, String> header : request.headers())
+			balancerRequest.headers().add(header.getKey(), header.getValue());
+		return balancerRequest;
+	}
+
+	private static FullHttpRequest toNodeRequest(FullHttpRequest request)
+	{
+		request.setProtocolVersion(HttpVersion.HTTP_1_1);
+		request.headers().remove(ExtensionHeaderNames.STREAM_ID.text());
+		request.headers().remove(ExtensionHeaderNames.SCHEME.text());
+		request.headers().remove(ExtensionHeaderNames.PATH.text());
+		request.headers().remove(ExtensionHeaderNames.STREAM_WEIGHT.text());
+		request.headers().remove(ExtensionHeaderNames.STREAM_DEPENDENCY_ID.text());
+		request.headers().remove(HttpHeaderNames.UPGRADE);
+		// the body is already aggregated
+		request.headers().remove(HttpHeaderNames.EXPECT);
+		request.headers().remove(HttpHeaderNames.TRANSFER_ENCODING);
+		request.headers().remove("HTTP2-Settings");
+		HttpUtil.setKeepAlive(request, true);
+		HttpUtil.setContentLength(request, request.content().readableBytes());
+		return request;
+	}
+
+	static FullHttpResponse errorResponse(HttpResponseStatus status)
+	{
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.EMPTY_BUFFER);
+		HttpUtil.setContentLength(response, 0);
+		return response;
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		FullHttpRequest request;
+		while((request = http1Requests.poll()) != null)
+			request.release();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
+	{
+		logger.warn("HTTP/2 connection " + ctx.channel().remoteAddress() + " closed on error", cause);
+		ctx.close();
+	}
+}
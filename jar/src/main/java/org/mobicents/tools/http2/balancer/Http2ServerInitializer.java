@@ -0,0 +1,101 @@
+package org.mobicents.tools.http2.balancer;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodecFactory;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.AsciiString;
+
+/**
+ * Pipeline of the HTTP/2 listener. The streams are converted to full HTTP/1.1 messages carrying their
+ * stream id, so the {@link Http2RequestHandler} handles HTTP/2 and HTTP/1.1 clients the same way.
+ */
+public class Http2ServerInitializer extends ChannelInitializer<SocketChannel> {
+
+	private final Http2BalancerForwarder forwarder;
+	private final SslContext sslContext;
+
+	/**
+	 * @param sslContext null for the cleartext port
+	 */
+	public Http2ServerInitializer(Http2BalancerForwarder forwarder, SslContext sslContext)
+	{
+		this.forwarder = forwarder;
+		this.sslContext = sslContext;
+	}
+
+	@Override
+	protected void initChannel(SocketChannel channel) throws Exception
+	{
+		if(sslContext != null)
+			configureSecure(channel);
+		else
+			configureCleartext(channel);
+	}
+
+	private void configureSecure(SocketChannel channel)
+	{
+		channel.pipeline().addLast(sslContext.newHandler(channel.alloc()));
+		channel.pipeline().addLast(new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+			@Override
+			protected void configurePipeline(ChannelHandlerContext ctx, String protocol) throws Exception {
+				if(ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+					ctx.pipeline().addLast(newHttp2Handler());
+				} else if(ApplicationProtocolNames.HTTP_1_1.equals(protocol)) {
+					ctx.pipeline().addLast(new HttpServerCodec());
+					ctx.pipeline().addLast(new HttpObjectAggregator(forwarder.getMaxContentLength()));
+				} else {
+					throw new IllegalStateException("Unknown protocol " + protocol);
+				}
+				ctx.pipeline().addLast(new Http2RequestHandler(forwarder, true));
+			}
+		});
+	}
+
+	private void configureCleartext(SocketChannel channel)
+	{
+		HttpServerCodec sourceCodec = new HttpServerCodec();
+		HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(sourceCodec, new UpgradeCodecFactory() {
+			@Override
+			public UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+				if(AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol))
+					return new Http2ServerUpgradeCodec(newHttp2Handler());
+				return null;
+			}
+		}, forwarder.getMaxContentLength());
+		ChannelPipeline pipeline = channel.pipeline();
+		// prior knowledge, upgrade from HTTP/1.1 or plain HTTP/1.1
+		pipeline.addLast(new CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler, newHttp2Handler()));
+		// aggregates the HTTP/1.1 requests, full requests decoded from the streams pass through
+		pipeline.addLast(new HttpObjectAggregator(forwarder.getMaxContentLength()));
+		pipeline.addLast(new Http2RequestHandler(forwarder, false));
+	}
+
+	private HttpToHttp2ConnectionHandler newHttp2Handler()
+	{
+		DefaultHttp2Connection connection = new DefaultHttp2Connection(true);
+		return new HttpToHttp2ConnectionHandlerBuilder()
+				.connection(connection)
+				.frameListener(new InboundHttp2ToHttpAdapterBuilder(connection)
+						.maxContentLength(forwarder.getMaxContentLength())
+						.propagateSettings(false)
+						.validateHttpHeaders(false)
+						.build())
+				.build();
+	}
+}
@@ -0,0 +1,85 @@
+package org.mobicents.tools.http2.balancer;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mobicents.tools.sip.balancer.BalancerContext;
+
+/**
+ * A request waiting for the response of a node, attached to the node connection while it is borrowed
+ */
+class Http2Stream {
+	static final AttributeKey<Http2Stream> KEY = AttributeKey.valueOf("http2Stream");
+
+	private final Http2RequestHandler handler;
+	private final BalancerContext balancerContext;
+	private final Channel client;
+	private final Integer streamId;
+	private final boolean keepAlive;
+	private final ChannelPool pool;
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * @param streamId null for an HTTP/1.1 request
+	 */
+	Http2Stream(Http2RequestHandler handler, BalancerContext balancerContext, Channel client, Integer streamId, boolean keepAlive, ChannelPool pool)
+	{
+		this.handler = handler;
+		this.balancerContext = balancerContext;
+		this.client = client;
+		this.streamId = streamId;
+		this.keepAlive = keepAlive;
+		this.pool = pool;
+	}
+
+	void releaseNodeChannel(Channel nodeChannel)
+	{
+		if(pool != null)
+			pool.release(nodeChannel);
+	}
+
+	void fail(HttpResponseStatus status)
+	{
+		if(streamId != null)
+			balancerContext.http2StreamErrors.incrementAndGet();
+		respond(Http2RequestHandler.errorResponse(status));
+	}
+
+	void respond(FullHttpResponse response)
+	{
+		balancerContext.httpBytesToClient.addAndGet(response.content().readableBytes());
+		AtomicLong codeCounter = balancerContext.httpResponseProcessedByCode.get(response.status().code() / 100 + "XX");
+		if(codeCounter != null)
+			codeCounter.incrementAndGet();
+
+		if(streamId != null) {
+			balancerContext.activeHttp2Streams.decrementAndGet();
+			balancerContext.http2StreamTime.addAndGet(System.nanoTime() - startTime);
+			response.headers().setInt(ExtensionHeaderNames.STREAM_ID.text(), streamId);
+			// connection specific headers are forbidden in HTTP/2
+			response.headers().remove(HttpHeaderNames.CONNECTION);
+			response.headers().remove(HttpHeaderNames.KEEP_ALIVE);
+			response.headers().remove(HttpHeaderNames.PROXY_CONNECTION);
+			response.headers().remove(HttpHeaderNames.TRANSFER_ENCODING);
+			response.headers().remove(HttpHeaderNames.UPGRADE);
+		} else {
+			HttpUtil.setKeepAlive(response, keepAlive);
+		}
+		client.writeAndFlush(response).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				handler.responseWritten(client, streamId, keepAlive);
+			}
+		});
+	}
+}
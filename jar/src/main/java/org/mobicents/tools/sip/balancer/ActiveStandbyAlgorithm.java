@@ -129,6 +129,12 @@ public class ActiveStandbyAlgorithm extends DefaultBalancerAlgorithm {
 		
 	}
 	
+	@Override
+	public void reassign(Request request, Node node)
+	{
+		// the active node stays, the dialog follows the Record-Route of the node taking the request
+	}
+	
 	@Override
 	public synchronized Node processHttpRequest(HttpRequest request)
 	{
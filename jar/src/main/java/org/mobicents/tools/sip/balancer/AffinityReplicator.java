@@ -0,0 +1,204 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Replicates affinity map deltas (call-id to node assignments) between load balancers
+ * sprayed behind the same IP load balancer. Assignments are queued, sent in batches
+ * over UDP to every configured peer and applied by the receiving side only if they are
+ * newer than the assignment it already knows about.
+ *
+ * Every line of a datagram is one entry : callId ip port isIpV6 timestamp
+ */
+public class AffinityReplicator {
+	private static final Logger logger = Logger.getLogger(AffinityReplicator.class.getCanonicalName());
+
+	public static final int MAX_DATAGRAM_SIZE = 1400;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public interface Listener {
+		void entryReplicated(String callId, String ip, int port, boolean isIpV6, long timestamp);
+	}
+
+	private int port;
+	private String host;
+	private int batchPeriod;
+	private ArrayList<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+	private Listener listener;
+
+	private ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>();
+	private DatagramSocket socket;
+	private Thread receiver;
+	private Timer flushTimer;
+	private volatile boolean running;
+
+	private AtomicLong entriesSent = new AtomicLong(0);
+	private AtomicLong entriesReceived = new AtomicLong(0);
+	private AtomicLong datagramsSent = new AtomicLong(0);
+
+	/**
+	 * @param host local address to bind
+	 * @param port local port to bind
+	 * @param peers comma separated list of host:port of the other load balancers
+	 * @param batchPeriod period in milliseconds between two batches
+	 */
+	public AffinityReplicator(String host, int port, String peers, int batchPeriod, Listener listener)
+	{
+		this.host = host;
+		this.port = port;
+		this.batchPeriod = batchPeriod;
+		this.listener = listener;
+		if(peers != null)
+			for(String peer : peers.split(","))
+			{
+				peer = peer.trim();
+				int semi = peer.lastIndexOf(':');
+				if(semi > 0)
+					this.peers.add(new InetSocketAddress(peer.substring(0, semi), Integer.parseInt(peer.substring(semi + 1))));
+				else if(peer.length() > 0)
+					logger.warn("Affinity replication peer " + peer + " has no port, ignoring it");
+			}
+	}
+
+	public void start()
+	{
+		try {
+			socket = new DatagramSocket(new InetSocketAddress(host, port));
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to bind affinity replication socket on " + host + ":" + port, e);
+		}
+		running = true;
+		receiver = new Thread("AffinityReplicator-" + port) {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[MAX_DATAGRAM_SIZE * 2];
+				while(running) {
+					DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+					try {
+						socket.receive(packet);
+						processBatch(new String(packet.getData(), 0, packet.getLength(), UTF_8));
+					} catch (Exception e) {
+						if(running)
+							logger.warn("Error while receiving affinity replication batch", e);
+					}
+				}
+			}
+		};
+		receiver.setDaemon(true);
+		receiver.start();
+
+		flushTimer = new Timer("AffinityReplicatorFlush-" + port, true);
+		flushTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					logger.warn("Error while sending affinity replication batch", e);
+				}
+			}
+		}, batchPeriod, batchPeriod);
+		logger.info("Affinity replication started on " + host + ":" + port + " with peers " + peers);
+	}
+
+	public void stop()
+	{
+		running = false;
+		if(flushTimer != null)
+			flushTimer.cancel();
+		if(socket != null)
+			socket.close();
+		if(receiver != null)
+			receiver.interrupt();
+	}
+
+	/**
+	 * Queues an assignment, it will be sent with the next batch
+	 */
+	public void replicate(String callId, String ip, int port, boolean isIpV6, long timestamp)
+	{
+		if(!running || peers.isEmpty())
+			return;
+
+		StringBuilder entry = new StringBuilder(callId.length() + ip.length() + 32);
+		entry.append(callId).append(' ').append(ip).append(' ').append(port).append(' ')
+			.append(isIpV6).append(' ').append(timestamp).append('\n');
+		pending.offer(entry.toString());
+	}
+
+	void flush() throws Exception
+	{
+		StringBuilder batch = new StringBuilder(MAX_DATAGRAM_SIZE);
+		String entry;
+		int entries = 0;
+		while((entry = pending.poll()) != null) {
+			if(batch.length() + entry.length() > MAX_DATAGRAM_SIZE && batch.length() > 0) {
+				send(batch, entries);
+				batch.setLength(0);
+				entries = 0;
+			}
+			batch.append(entry);
+			entries++;
+		}
+		if(batch.length() > 0)
+			send(batch, entries);
+	}
+
+	private void send(StringBuilder batch, int entries) throws Exception
+	{
+		byte[] data = batch.toString().getBytes(UTF_8);
+		for(InetSocketAddress peer : peers)
+		{
+			socket.send(new DatagramPacket(data, data.length, peer));
+			datagramsSent.incrementAndGet();
+		}
+		entriesSent.addAndGet(entries);
+		if(logger.isTraceEnabled())
+			logger.trace("Sent " + entries + " affinity entries to " + peers);
+	}
+
+	void processBatch(String batch)
+	{
+		int start = 0;
+		int end;
+		while((end = batch.indexOf('\n', start)) >= 0)
+		{
+			String line = batch.substring(start, end);
+			start = end + 1;
+			String[] fields = line.split(" ");
+			if(fields.length != 5)
+			{
+				logger.warn("Malformed affinity replication entry " + line);
+				continue;
+			}
+			try {
+				listener.entryReplicated(fields[0], fields[1], Integer.parseInt(fields[2]), Boolean.parseBoolean(fields[3]), Long.parseLong(fields[4]));
+				entriesReceived.incrementAndGet();
+			} catch (NumberFormatException e) {
+				logger.warn("Malformed affinity replication entry for call-id " + fields[0]);
+			}
+		}
+	}
+
+	public long getEntriesSent() {
+		return entriesSent.get();
+	}
+
+	public long getEntriesReceived() {
+		return entriesReceived.get();
+	}
+
+	public long getDatagramsSent() {
+		return datagramsSent.get();
+	}
+}
@@ -0,0 +1,426 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Keeps the affinity map (call-id or user to node) of the balancer algorithm on disk so a restart
+ * or a rolling upgrade of the load balancer keeps the sessions sticky.
+ *
+ * Changes are queued by the algorithm and appended periodically to a memory mapped log file.
+ * When the log contains too many overwritten entries it is compacted into a new file holding
+ * only the live entries. On start the log is replayed, restored entries are resolved lazily
+ * against the registered nodes as the nodes only register after the load balancer started.
+ *
+ * The timestamp of an entry is refreshed by the traffic routed with it, at most once per refresh
+ * period. A restored entry is aged from the restart with the idle time it had when the log was
+ * last written, the time the load balancer was down doesn't count. It is kept until its node
+ * registers again or it expires.
+ *
+ * Record layout : PUT keyLength key ipLength ip port isIpV6 timestamp | REMOVE keyLength key
+ */
+public class AffinityStore {
+	private static final Logger logger = Logger.getLogger(AffinityStore.class.getCanonicalName());
+
+	private static final int MAGIC = 0x4C424153;
+	private static final byte END = 0;
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final int REGION_SIZE = 16 * 1024 * 1024;
+	private static final int MIN_RECORDS_BEFORE_COMPACTION = 100000;
+	private static final long REFRESH_PERIOD = 60000;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static class StoredEntry {
+		final String ip;
+		final int port;
+		final boolean isIpV6;
+		final long timestamp;
+
+		StoredEntry(String ip, int port, boolean isIpV6, long timestamp) {
+			this.ip = ip;
+			this.port = port;
+			this.isIpV6 = isIpV6;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private File file;
+	private int snapshotPeriod;
+	private volatile long refreshPeriod = REFRESH_PERIOD;
+
+	// entries written in the log, source of the compaction
+	private ConcurrentHashMap<String, StoredEntry> live = new ConcurrentHashMap<String, StoredEntry>();
+	// entries loaded at start which were not claimed by the algorithm yet
+	private ConcurrentHashMap<String, StoredEntry> restored = new ConcurrentHashMap<String, StoredEntry>();
+	private ConcurrentLinkedQueue<Object[]> pending = new ConcurrentLinkedQueue<Object[]>();
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long position;
+	private long records;
+	private Timer snapshotTimer;
+
+	public AffinityStore(String fileName, int snapshotPeriod)
+	{
+		this.file = new File(fileName);
+		this.snapshotPeriod = snapshotPeriod;
+	}
+
+	/**
+	 * Replays the log, must be called before start
+	 * @return number of entries restored
+	 */
+	public int load() throws IOException
+	{
+		long startTime = System.nanoTime();
+		position = 4;
+		records = 0;
+		if(file.exists() && file.length() > 4)
+		{
+			if(file.length() > Integer.MAX_VALUE)
+				throw new IOException("Affinity store " + file + " is too big to be loaded " + file.length());
+
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+				// sized for the log content to avoid rehashing while replaying
+				int expectedEntries = (int) (in.length() / 48);
+				live = new ConcurrentHashMap<String, StoredEntry>(expectedEntries);
+				if(buffer.getInt() != MAGIC)
+				{
+					logger.warn("Affinity store " + file + " has an unknown format, it will be overwritten");
+				}
+				else
+				{
+					replay(buffer);
+					position = buffer.position();
+				}
+			} finally {
+				in.close();
+			}
+		}
+		restored = new ConcurrentHashMap<String, StoredEntry>(live.size());
+		long newest = 0;
+		for(StoredEntry entry : live.values())
+			newest = Math.max(newest, entry.timestamp);
+		// the entries are as idle as they were when the log was last written
+		long now = System.currentTimeMillis();
+		for(Entry<String, StoredEntry> entry : live.entrySet()) {
+			StoredEntry stored = entry.getValue();
+			restored.put(entry.getKey(), new StoredEntry(stored.ip, stored.port, stored.isIpV6, now - (newest - stored.timestamp)));
+		}
+		logger.info("Affinity store " + file + " loaded " + live.size() + " entries in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+		return live.size();
+	}
+
+	private void replay(MappedByteBuffer buffer)
+	{
+		byte[] bytes = new byte[256];
+		// there are only a few nodes, reuse their address instead of decoding it for every entry
+		HashMap<ByteBuffer, String> ips = new HashMap<ByteBuffer, String>();
+		int recordStart = buffer.position();
+		try {
+			while(buffer.hasRemaining())
+			{
+				recordStart = buffer.position();
+				byte op = buffer.get();
+				if(op != PUT && op != REMOVE)
+				{
+					buffer.position(recordStart);
+					return;
+				}
+				int keyLength = buffer.getShort() & 0xFFFF;
+				if(bytes.length < keyLength)
+					bytes = new byte[keyLength];
+				buffer.get(bytes, 0, keyLength);
+				String key = new String(bytes, 0, keyLength, UTF_8);
+				if(op == REMOVE)
+				{
+					live.remove(key);
+					// the removals stay in the log until the next compaction too
+					records++;
+					continue;
+				}
+				int ipLength = buffer.get() & 0xFF;
+				buffer.get(bytes, 0, ipLength);
+				ByteBuffer ipBytes = ByteBuffer.wrap(bytes, 0, ipLength);
+				String ip = ips.get(ipBytes);
+				if(ip == null)
+				{
+					ip = new String(bytes, 0, ipLength, UTF_8);
+					ips.put(ByteBuffer.wrap(Arrays.copyOf(bytes, ipLength)), ip);
+				}
+				int port = buffer.getInt();
+				boolean isIpV6 = buffer.get() == 1;
+				long timestamp = buffer.getLong();
+				live.put(key, new StoredEntry(ip, port, isIpV6, timestamp));
+				records++;
+			}
+		} catch (BufferUnderflowException e) {
+			// last record was only partially written before the load balancer stopped
+			logger.warn("Affinity store " + file + " ends with a truncated record, ignoring it");
+			buffer.position(recordStart);
+		}
+	}
+
+	public void start() throws IOException
+	{
+		openLog();
+		snapshotTimer = new Timer("AffinityStoreSnapshot", true);
+		snapshotTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					snapshot();
+				} catch (Exception e) {
+					logger.warn("Failed to write the affinity store snapshot to " + file, e);
+				}
+			}
+		}, snapshotPeriod, snapshotPeriod);
+	}
+
+	public synchronized void stop()
+	{
+		if(snapshotTimer != null)
+			snapshotTimer.cancel();
+		try {
+			snapshot();
+		} catch (Exception e) {
+			logger.warn("Failed to write the last affinity store snapshot to " + file, e);
+		}
+		closeLog();
+	}
+
+	public void put(String key, Node node, Boolean isIpV6)
+	{
+		KeySip keySip = new KeySip(node, isIpV6);
+		if(keySip.getPorts().isEmpty())
+			return;
+		pending.offer(new Object[] {key, new StoredEntry(keySip.getIp(), keySip.getPorts().get(0), isIpV6, System.currentTimeMillis())});
+		// the key has a node again, the restored one doesn't matter anymore
+		if(!restored.isEmpty())
+			restored.remove(key);
+	}
+
+	/**
+	 * Refreshes the timestamp of an entry a message was routed with, if it was written more than
+	 * a refresh period ago
+	 */
+	public void touch(String key, Node node, Boolean isIpV6)
+	{
+		StoredEntry entry = live.get(key);
+		long now = System.currentTimeMillis();
+		// an entry not written yet is still pending
+		if(entry == null || now - entry.timestamp < refreshPeriod)
+			return;
+		KeySip keySip = new KeySip(node, isIpV6);
+		if(keySip.getPorts().isEmpty())
+			return;
+		StoredEntry touched = new StoredEntry(keySip.getIp(), keySip.getPorts().get(0), isIpV6, now);
+		// written once even if several messages of the key are routed meanwhile
+		if(live.replace(key, entry, touched))
+			pending.offer(new Object[] {key, touched});
+	}
+
+	/**
+	 * @param refreshPeriod milliseconds between two writes of the timestamp of an entry in use
+	 */
+	public void setRefreshPeriod(long refreshPeriod)
+	{
+		this.refreshPeriod = refreshPeriod;
+	}
+
+	public void remove(String key)
+	{
+		pending.offer(new Object[] {key, null});
+	}
+
+	/**
+	 * Claims an entry restored from the log if its node is registered, the entry is kept for the
+	 * node to register otherwise
+	 * @return the node or null if nothing was restored for the key or the node isn't registered
+	 */
+	public Node restore(String key, ConcurrentMap<KeySip, Node> nodes)
+	{
+		if(restored.isEmpty())
+			return null;
+		StoredEntry entry = restored.get(key);
+		if(entry == null)
+			return null;
+		Node node = nodes.get(new KeySip(entry.ip, entry.port, entry.isIpV6));
+		if(node != null)
+			restored.remove(key, entry);
+		return node;
+	}
+
+	/**
+	 * Forgets restored entries not claimed since the given time, counted from the restart
+	 */
+	public void evictRestored(long olderThan)
+	{
+		Iterator<Entry<String, StoredEntry>> iterator = restored.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			Entry<String, StoredEntry> entry = iterator.next();
+			if(entry.getValue().timestamp < olderThan)
+			{
+				iterator.remove();
+				remove(entry.getKey());
+			}
+		}
+	}
+
+	public int getRestoredSize()
+	{
+		return restored.size();
+	}
+
+	public int getLiveSize()
+	{
+		return live.size();
+	}
+
+	/**
+	 * @return number of records in the log, overwritten and removed entries included
+	 */
+	long getRecords()
+	{
+		return records;
+	}
+
+	synchronized void snapshot() throws IOException
+	{
+		if(channel == null)
+			return;
+		Object[] change;
+		while((change = pending.poll()) != null)
+		{
+			String key = (String) change[0];
+			StoredEntry entry = (StoredEntry) change[1];
+			if(entry == null)
+			{
+				if(live.remove(key) != null)
+					write(key, null);
+			}
+			else
+			{
+				live.put(key, entry);
+				write(key, entry);
+			}
+		}
+		if(records > MIN_RECORDS_BEFORE_COMPACTION && records > 2 * live.size())
+			compact();
+	}
+
+	private void write(String key, StoredEntry entry) throws IOException
+	{
+		byte[] keyBytes = key.getBytes(UTF_8);
+		if(keyBytes.length > 0xFFFF)
+		{
+			logger.warn("Affinity key is too long to be stored " + key);
+			return;
+		}
+		byte[] ipBytes = entry == null ? null : entry.ip.getBytes(UTF_8);
+		int size = 3 + keyBytes.length + (entry == null ? 0 : 1 + ipBytes.length + 13) + 1;
+		if(position + size > regionStart + region.capacity())
+			map(position, Math.max(REGION_SIZE, size));
+		region.position((int) (position - regionStart));
+		region.put(entry == null ? REMOVE : PUT);
+		region.putShort((short) keyBytes.length);
+		region.put(keyBytes);
+		if(entry != null)
+		{
+			region.put((byte) ipBytes.length);
+			region.put(ipBytes);
+			region.putInt(entry.port);
+			region.put((byte) (entry.isIpV6 ? 1 : 0));
+			region.putLong(entry.timestamp);
+		}
+		// marks the end of the log for the next load, overwritten by the next record
+		region.put(END);
+		position += size - 1;
+		records++;
+	}
+
+	private void compact() throws IOException
+	{
+		long startTime = System.nanoTime();
+		File compacted = new File(file.getPath() + ".compact");
+		if(compacted.exists())
+			compacted.delete();
+		closeLog();
+		File original = file;
+		file = compacted;
+		try {
+			position = 4;
+			openLog();
+			records = 0;
+			for(Entry<String, StoredEntry> entry : live.entrySet())
+				write(entry.getKey(), entry.getValue());
+			region.force();
+			closeLog();
+		} finally {
+			file = original;
+		}
+		Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		openLog();
+		if(logger.isInfoEnabled())
+			logger.info("Affinity store " + file + " compacted to " + live.size() + " entries in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+	}
+
+	private void openLog() throws IOException
+	{
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		map(0, REGION_SIZE);
+		region.putInt(0, MAGIC);
+		map(position, REGION_SIZE);
+	}
+
+	private void map(long start, int size) throws IOException
+	{
+		if(region != null)
+			region.force();
+		regionStart = start;
+		region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+	}
+
+	private void closeLog()
+	{
+		if(channel == null)
+			return;
+		try {
+			region.force();
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close the affinity store " + file, e);
+		}
+		region = null;
+		channel = null;
+		raf = null;
+	}
+}
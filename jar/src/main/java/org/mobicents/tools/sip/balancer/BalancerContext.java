@@ -60,7 +60,8 @@ public class BalancerContext {
 	public HashSet<Node> allNodesEver = new HashSet<Node>();
 	public CopyOnWriteArrayList<Node> aliveNodes = null;
 	public ConcurrentHashMap<String, Node> jvmRouteToSipNode;
-	public ConcurrentHashMap<String, KeySip> regexMap;
+	public RegexRoutingTable regexRoutingTable = new RegexRoutingTable();
+	public AffinityStore affinityStore;
 	public String algorithmClassName;
 	public String smppToNodeAlgorithmClassName;
 	public String smppToProviderAlgorithmClassName;
@@ -88,12 +89,23 @@ public class BalancerContext {
 	public int shutdownTimeout;
 	public Integer maxRequestNumberWithoutResponse;
 	public Long maxResponseTime;
+	public Integer overloadRetryAfter;
 	public ArrayList <RoutingRule> routingRulesIpv4;
 	public ArrayList <RoutingRule> routingRulesIpv6;
+	public RoutingRuleTable routingRuleTableIpv4;
+	public RoutingRuleTable routingRuleTableIpv6;
 	
 	public Object parameters;
 	
 	SIPBalancerForwarder forwarder;
+	public SipPipeline sipPipeline;
+	public SipAccessLog accessLog;
+	public OutlierDetector outlierDetector;
+	public NodeProber nodeProber;
+	public OverloadController overloadController;
+	public EgressEncoder egressEncoder;
+	public InFlightRequests inFlightRequests;
+	public NodeConnections nodeConnections;
 
 	public SipProvider externalSipProvider;
 	public SipProvider externalIpv6SipProvider;
@@ -154,7 +166,7 @@ public class BalancerContext {
 	
 	public InetAddress publicIPv6Host;
 	
-	public ArrayList<String> blockedList;
+	public BlockedValuesScanner blockedValues;
 	
 	public AddressFactory addressFactory;
 	public HeaderFactory headerFactory;
@@ -225,6 +237,16 @@ public class BalancerContext {
     public AtomicLong httpRequests = new AtomicLong(0);
     public AtomicLong httpBytesToServer = new AtomicLong(0);
     public AtomicLong httpBytesToClient = new AtomicLong(0);
+    public AtomicLong sslHandshakes = new AtomicLong(0);
+    public AtomicLong sslResumedHandshakes = new AtomicLong(0);
+    public AtomicLong sslNodeHandshakes = new AtomicLong(0);
+    public AtomicLong sslNodeResumedHandshakes = new AtomicLong(0);
+    public AtomicLong http2Streams = new AtomicLong(0);
+    public AtomicLong http2StreamErrors = new AtomicLong(0);
+    public AtomicLong http2StreamTime = new AtomicLong(0);
+    public AtomicInteger activeHttp2Streams = new AtomicInteger(0);
+    public AtomicLong httpReadsPaused = new AtomicLong(0);
+    public AtomicInteger httpPausedChannels = new AtomicInteger(0);
     
     public Map<String, AtomicLong> httpRequestsProcessedByMethod = new ConcurrentHashMap<String, AtomicLong>();
     public Map<String, AtomicLong> httpResponseProcessedByCode = new ConcurrentHashMap<String, AtomicLong>();
@@ -168,7 +168,20 @@ public class BalancerRunner implements BalancerRunnerMBean {
 		if(lbConfig.getSmppConfiguration().isMuxMode())
 			balancerContext.smppToNodeAlgorithmClassName = lbConfig.getSmppConfiguration().getSmppToNodeAlgorithmClass();
 		balancerContext.shutdownTimeout = lbConfig.getCommonConfiguration().getShutdownTimeout();
+		VirtualThreads.setEnabled(lbConfig.getCommonConfiguration().getUseVirtualThreads());
 		
+		String affinityStoreFile = lbConfig.getSipConfiguration().getAlgorithmConfiguration().getAffinityStoreFile();
+		if(affinityStoreFile != null) {
+			try {
+				balancerContext.affinityStore = new AffinityStore(affinityStoreFile, lbConfig.getSipConfiguration().getAlgorithmConfiguration().getAffinityStoreSnapshotPeriod());
+				balancerContext.affinityStore.load();
+				balancerContext.affinityStore.start();
+			} catch (Exception e) {
+				logger.error("Couldn't open the affinity store " + affinityStoreFile + ", sessions won't be kept across restarts", e);
+				balancerContext.affinityStore = null;
+			}
+		}
+
 		try {
 			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
 			RouterImpl.setRegister(reg);			
@@ -367,6 +380,13 @@ public class BalancerRunner implements BalancerRunnerMBean {
 				ctx.smppToProviderBalancerAlgorithm.stop();
 			}
 			
+			if(balancerContext.affinityStore != null)
+			{
+				logger.info("Stopping the affinity store");
+				balancerContext.affinityStore.stop();
+				balancerContext.affinityStore = null;
+			}
+			
 			logger.info("Stopping the node registry");
 			reg.stopRegistry();
 			reg = null;
@@ -425,6 +445,101 @@ public class BalancerRunner implements BalancerRunnerMBean {
 	{
 		return sipForwarder.getNumberOfActiveCalls();
 	}
+	public int getSipPipelineQueueDepth()
+	{
+		SipPipeline pipeline = balancerContext.sipPipeline;
+		return pipeline == null ? 0 : pipeline.getQueueDepth();
+	}
+	public long getSipPipelineRoutingLatency()
+	{
+		SipPipeline pipeline = balancerContext.sipPipeline;
+		return pipeline == null ? 0 : pipeline.getAverageRoutingLatency();
+	}
+	public long getNumberOfInvitesRejectedByPipeline()
+	{
+		SipPipeline pipeline = balancerContext.sipPipeline;
+		return pipeline == null ? 0 : pipeline.getInvitesRejected();
+	}
+	public long getNumberOfMessagesDelayedByIngress()
+	{
+		SipPipeline pipeline = balancerContext.sipPipeline;
+		return pipeline == null ? 0 : pipeline.getDelayedByIngress();
+	}
+	public long getNumberOfSipRequestsBlocked()
+	{
+		BlockedValuesScanner blockedValues = balancerContext.blockedValues;
+		return blockedValues == null ? 0 : blockedValues.getBlocked();
+	}
+	public Map<String, AtomicLong> getNumberOfSipRequestsBlockedByValue()
+	{
+		BlockedValuesScanner blockedValues = balancerContext.blockedValues;
+		return blockedValues == null ? new ConcurrentHashMap<String, AtomicLong>() : blockedValues.getBlockedByValue();
+	}
+	public long getSipRequestsBlockedByValue(String value)
+	{
+		BlockedValuesScanner blockedValues = balancerContext.blockedValues;
+		return blockedValues == null ? 0 : blockedValues.getBlocked(value);
+	}
+	public long getNumberOfSipNodeEjections()
+	{
+		OutlierDetector outlierDetector = balancerContext.outlierDetector;
+		return outlierDetector == null ? 0 : outlierDetector.getEjections();
+	}
+	public int getNumberOfEjectedSipNodes()
+	{
+		OutlierDetector outlierDetector = balancerContext.outlierDetector;
+		return outlierDetector == null ? 0 : outlierDetector.getEjected();
+	}
+	public long getNumberOfSipNodeProbeFailures()
+	{
+		NodeProber nodeProber = balancerContext.nodeProber;
+		return nodeProber == null ? 0 : nodeProber.getFailures();
+	}
+	public int getNumberOfSipNodesDown()
+	{
+		NodeProber nodeProber = balancerContext.nodeProber;
+		return nodeProber == null ? 0 : nodeProber.getNodesDown();
+	}
+	public long getNumberOfSipRequestsAdmittedByOverloadControl()
+	{
+		OverloadController overloadController = balancerContext.overloadController;
+		return overloadController == null ? 0 : overloadController.getAdmitted();
+	}
+	public long getNumberOfSipRequestsThrottled()
+	{
+		OverloadController overloadController = balancerContext.overloadController;
+		return overloadController == null ? 0 : overloadController.getThrottled();
+	}
+	public long getNumberOfSipFastFailovers()
+	{
+		InFlightRequests inFlightRequests = balancerContext.inFlightRequests;
+		return inFlightRequests == null ? 0 : inFlightRequests.getFailovers();
+	}
+	public int getNumberOfSipNodeConnections()
+	{
+		NodeConnections nodeConnections = balancerContext.nodeConnections;
+		return nodeConnections == null ? 0 : nodeConnections.getConnected();
+	}
+	public long getNumberOfSipNodeReconnects()
+	{
+		NodeConnections nodeConnections = balancerContext.nodeConnections;
+		return nodeConnections == null ? 0 : nodeConnections.getReconnects();
+	}
+	public String[] getSipNodeConnections()
+	{
+		NodeConnections nodeConnections = balancerContext.nodeConnections;
+		return nodeConnections == null ? new String[0] : nodeConnections.getConnections();
+	}
+	public long getNumberOfSipBytesSavedByCompactHeaders()
+	{
+		EgressEncoder egressEncoder = balancerContext.egressEncoder;
+		return egressEncoder == null ? 0 : egressEncoder.getBytesSaved();
+	}
+	public long getNumberOfSipRequestsSwitchedToTcp()
+	{
+		EgressEncoder egressEncoder = balancerContext.egressEncoder;
+		return egressEncoder == null ? 0 : egressEncoder.getSwitchedToTcp();
+	}
 	//HTTP balancer
 	
 	public long getNumberOfHttpRequests() 
@@ -452,11 +567,114 @@ public class BalancerRunner implements BalancerRunnerMBean {
 		return httpBalancerForwarder.getHttpResponseProcessedByCode(code);
 	}
 	
+	public long getNumberOfSslHandshakes()
+	{
+		return balancerContext.sslHandshakes.get();
+	}
+	
+	public double getSslSessionResumptionRatio()
+	{
+		long handshakes = balancerContext.sslHandshakes.get();
+		return handshakes == 0 ? 0 : (double) balancerContext.sslResumedHandshakes.get() / handshakes;
+	}
+	
+	public long getNumberOfSslNodeHandshakes()
+	{
+		return balancerContext.sslNodeHandshakes.get();
+	}
+	
+	public double getSslNodeSessionResumptionRatio()
+	{
+		long handshakes = balancerContext.sslNodeHandshakes.get();
+		return handshakes == 0 ? 0 : (double) balancerContext.sslNodeResumedHandshakes.get() / handshakes;
+	}
+	
 	public int getNumberOfActiveHttpConnections()
 	{
 		return httpBalancerForwarder.getNumberOfActiveHttpConnections();
 	}
 	
+	public long getNumberOfHttpPoolConnectionsCreated()
+	{
+		return httpBalancerForwarder.getNumberOfHttpPoolConnectionsCreated();
+	}
+	
+	public long getNumberOfHttpPoolConnectionsReused()
+	{
+		return httpBalancerForwarder.getNumberOfHttpPoolConnectionsReused();
+	}
+	
+	public long getNumberOfHttpPoolRequestsQueued()
+	{
+		return httpBalancerForwarder.getNumberOfHttpPoolRequestsQueued();
+	}
+	
+	public int getHttpPoolIdleConnections()
+	{
+		return httpBalancerForwarder.getHttpPoolIdleConnections();
+	}
+	
+	public int getHttpPoolOpenConnections()
+	{
+		return httpBalancerForwarder.getHttpPoolOpenConnections();
+	}
+	
+	public long getNumberOfHttp2Streams()
+	{
+		return balancerContext.http2Streams.get();
+	}
+	
+	public int getNumberOfActiveHttp2Streams()
+	{
+		return balancerContext.activeHttp2Streams.get();
+	}
+	
+	public long getNumberOfHttp2StreamErrors()
+	{
+		return balancerContext.http2StreamErrors.get();
+	}
+	
+	public long getHttp2StreamAverageTime()
+	{
+		long completed = balancerContext.http2Streams.get() - balancerContext.activeHttp2Streams.get();
+		return completed <= 0 ? 0 : balancerContext.http2StreamTime.get() / completed / 1000;
+	}
+	
+	public long getNumberOfHttpReadsPaused()
+	{
+		return balancerContext.httpReadsPaused.get();
+	}
+	
+	public int getNumberOfHttpPausedChannels()
+	{
+		return balancerContext.httpPausedChannels.get();
+	}
+	
+	public long getNumberOfHttpCacheHits()
+	{
+		return httpBalancerForwarder.getNumberOfHttpCacheHits();
+	}
+	
+	public long getNumberOfHttpCacheMisses()
+	{
+		return httpBalancerForwarder.getNumberOfHttpCacheMisses();
+	}
+	
+	public long getNumberOfHttpCacheNotModified()
+	{
+		return httpBalancerForwarder.getNumberOfHttpCacheNotModified();
+	}
+	
+	public int getHttpCacheEntries()
+	{
+		return httpBalancerForwarder.getHttpCacheEntries();
+	}
+	
+	public long getHttpCacheSize()
+	{
+		return httpBalancerForwarder.getHttpCacheSize();
+	}
+	
 	//SMPP balancer
 	public long getNumberOfSmppRequestsToServer() 
 	{
@@ -66,6 +66,56 @@ public interface BalancerRunnerMBean {
 	
 	int getNumberOfActiveSipConnections();
 	
+	/**
+	 * @return number of SIP messages waiting in the routing stage, 0 if the pipeline is disabled
+	 */
+	int getSipPipelineQueueDepth();
+	/**
+	 * @return average time in microseconds a SIP message spends in the routing stage
+	 */
+	long getSipPipelineRoutingLatency();
+	long getNumberOfInvitesRejectedByPipeline();
+	/**
+	 * @return number of SIP messages held on the transport thread until their routing lane had room
+	 */
+	long getNumberOfMessagesDelayedByIngress();
+	/**
+	 * @return number of external requests rejected by the security check, in total and per blocked value
+	 */
+	long getNumberOfSipRequestsBlocked();
+	Map<String, AtomicLong> getNumberOfSipRequestsBlockedByValue();
+	long getSipRequestsBlockedByValue(String value);
+	/**
+	 * @return number of ejections of the outlier detection and number of nodes ejected now
+	 */
+	long getNumberOfSipNodeEjections();
+	int getNumberOfEjectedSipNodes();
+	/**
+	 * @return number of OPTIONS probes failed and number of nodes marked bad by the probes
+	 */
+	long getNumberOfSipNodeProbeFailures();
+	int getNumberOfSipNodesDown();
+	/**
+	 * @return number of new requests the overload control of the nodes let through and rejected
+	 */
+	long getNumberOfSipRequestsAdmittedByOverloadControl();
+	long getNumberOfSipRequestsThrottled();
+	/**
+	 * @return number of requests creating a dialog sent to another node after the first one failed
+	 */
+	long getNumberOfSipFastFailovers();
+	/**
+	 * @return number of connections to the nodes kept open, times they were opened again and state of each one
+	 */
+	int getNumberOfSipNodeConnections();
+	long getNumberOfSipNodeReconnects();
+	String[] getSipNodeConnections();
+	/**
+	 * @return bytes saved by the compact header names and number of requests sent to a node over TCP for their size
+	 */
+	long getNumberOfSipBytesSavedByCompactHeaders();
+	long getNumberOfSipRequestsSwitchedToTcp();
+	
 	List<Node> getNodes();
 	String[] getNodeList();
 	//TODO:
@@ -81,6 +131,45 @@ public interface BalancerRunnerMBean {
 	long getHttpResponseProcessedByCode(String code);
 	
 	int getNumberOfActiveHttpConnections();
+	long getNumberOfHttpPoolConnectionsCreated();
+	/**
+	 * @return requests sent on a keep-alive connection to a node which was already used
+	 */
+	long getNumberOfHttpPoolConnectionsReused();
+	long getNumberOfHttpPoolRequestsQueued();
+	int getHttpPoolIdleConnections();
+	int getHttpPoolOpenConnections();
+	long getNumberOfHttp2Streams();
+	int getNumberOfActiveHttp2Streams();
+	long getNumberOfHttp2StreamErrors();
+	/**
+	 * @return average time in microseconds between the request of a stream and its response
+	 */
+	long getHttp2StreamAverageTime();
+	/**
+	 * @return times the reads of a channel were suspended because its peer couldn't write fast enough
+	 */
+	long getNumberOfHttpReadsPaused();
+	int getNumberOfHttpPausedChannels();
+	long getNumberOfHttpCacheHits();
+	long getNumberOfHttpCacheMisses();
+	/**
+	 * @return conditional requests answered with a 304 by the HTTP response cache
+	 */
+	long getNumberOfHttpCacheNotModified();
+	int getHttpCacheEntries();
+	/**
+	 * @return bytes of the responses kept by the HTTP response cache
+	 */
+	long getHttpCacheSize();
+	
+	long getNumberOfSslHandshakes();
+	/**
+	 * @return part of the HTTPS handshakes which resumed a session
+	 */
+	double getSslSessionResumptionRatio();
+	long getNumberOfSslNodeHandshakes();
+	double getSslNodeSessionResumptionRatio();
 		
 	//SMPP balancer
 	long getNumberOfSmppRequestsToServer();
@@ -0,0 +1,212 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Values blocked by the security check of the external requests, like the user agents of the SIP
+ * scanners. The values of the blockedValues setting and of the optional deny list file, one value
+ * per line, are searched case insensitively in one pass over the text with an Aho-Corasick
+ * automaton, whatever their number.
+ *
+ * The file is reloaded when it changes, the lookups read the current automaton without locking.
+ * The number of matches of each value is kept across the reloads.
+ */
+public class BlockedValuesScanner {
+	private static final Logger logger = Logger.getLogger(BlockedValuesScanner.class.getCanonicalName());
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final List<String> configuredValues;
+	private final String fileName;
+	private volatile Values values;
+	private long fileModified;
+	private Timer reloadTimer;
+
+	private final AtomicLong blocked = new AtomicLong(0);
+	private final ConcurrentHashMap<String, AtomicLong> blockedByValue = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @param configuredValues comma separated values
+	 * @param fileName deny list file, null if there is none
+	 */
+	public BlockedValuesScanner(String configuredValues, String fileName)
+	{
+		this.configuredValues = new ArrayList<String>();
+		if(configuredValues != null)
+			for(String value : configuredValues.split(","))
+				this.configuredValues.add(value);
+		this.fileName = fileName;
+		List<String> fileValues = Collections.emptyList();
+		if(fileName != null) {
+			fileModified = new File(fileName).lastModified();
+			try {
+				fileValues = readFile(fileName);
+			} catch (IOException e) {
+				logger.error("Couldn't read the blocked values from " + fileName + ", using the configured ones only", e);
+			}
+		}
+		this.values = new Values(this.configuredValues, fileValues);
+	}
+
+	/**
+	 * Checks the deny list file for changes every reloadPeriod milliseconds
+	 */
+	public void start(Integer reloadPeriod)
+	{
+		if(fileName == null || reloadPeriod == null || reloadPeriod <= 0)
+			return;
+		reloadTimer = new Timer("BlockedValuesReload", true);
+		reloadTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				reloadIfChanged();
+			}
+		}, reloadPeriod, reloadPeriod);
+	}
+
+	public void stop()
+	{
+		if(reloadTimer != null)
+			reloadTimer.cancel();
+	}
+
+	void reloadIfChanged()
+	{
+		long modified = new File(fileName).lastModified();
+		if(modified == fileModified)
+			return;
+		try {
+			Values reloaded = new Values(configuredValues, readFile(fileName));
+			values = reloaded;
+			fileModified = modified;
+			logger.info("Blocked values file " + fileName + " changed, " + reloaded.values.length + " values loaded");
+		} catch (IOException e) {
+			// the file may still be written, retried on the next period
+			logger.error("Couldn't reload the blocked values from " + fileName + ", keeping the current ones", e);
+		}
+	}
+
+	/**
+	 * @return the first blocked value found in the text, lower cased, null if there is none
+	 */
+	public String match(CharSequence text)
+	{
+		Values current = values;
+		LiteralAutomaton node = current.root;
+		for(int i = 0; i < text.length(); i++) {
+			node = node.next(fold(text.charAt(i)));
+			if(node.terminal)
+				return current.values[node.ids[0]];
+			if(node.output != null)
+				return current.values[node.output.ids[0]];
+		}
+		return null;
+	}
+
+	/**
+	 * Counts a request blocked because it contained the value
+	 */
+	public void blocked(String value)
+	{
+		blocked.incrementAndGet();
+		AtomicLong counter = blockedByValue.get(value);
+		if(counter == null) {
+			AtomicLong created = new AtomicLong(0);
+			counter = blockedByValue.putIfAbsent(value, created);
+			if(counter == null)
+				counter = created;
+		}
+		counter.incrementAndGet();
+	}
+
+	public int size()
+	{
+		return values.values.length;
+	}
+
+	public long getBlocked()
+	{
+		return blocked.get();
+	}
+
+	public Map<String, AtomicLong> getBlockedByValue()
+	{
+		return blockedByValue;
+	}
+
+	public long getBlocked(String value)
+	{
+		AtomicLong counter = blockedByValue.get(fold(value));
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return the values of the file, the lines which are blank or start with # are skipped
+	 */
+	static List<String> readFile(String fileName) throws IOException
+	{
+		List<String> values = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(!line.isEmpty() && !line.startsWith("#"))
+					values.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return values;
+	}
+
+	private static char fold(char c)
+	{
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static String fold(String value)
+	{
+		StringBuilder folded = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++)
+			folded.append(fold(value.charAt(i)));
+		return folded.toString();
+	}
+
+	private static final class Values {
+		final String[] values;
+		final LiteralAutomaton root = new LiteralAutomaton();
+
+		Values(List<String> configured, List<String> file)
+		{
+			// an empty value would block every request
+			Set<String> folded = new LinkedHashSet<String>();
+			for(String value : configured)
+				if(!value.trim().isEmpty())
+					folded.add(fold(value.trim()));
+			for(String value : file)
+				folded.add(fold(value));
+			this.values = folded.toArray(new String[folded.size()]);
+			for(int i = 0; i < values.length; i++)
+				root.add(values[i], i);
+			root.link();
+		}
+	}
+}
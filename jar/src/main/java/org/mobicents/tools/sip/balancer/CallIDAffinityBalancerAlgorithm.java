@@ -36,13 +36,14 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
+import org.mobicents.tools.configuration.AlgorithmConfiguration;
 import org.mobicents.tools.heartbeat.api.Node;
 
 import javax.sip.ListeningPoint;
 import javax.sip.message.Request;
 import javax.sip.message.Response;
 
-public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
+public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm implements AffinityReplicator.Listener {
 	private static Logger logger = Logger.getLogger(CallIDAffinityBalancerAlgorithm.class.getCanonicalName());
 	
 	protected String headerName = "Call-ID";
@@ -54,6 +55,11 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 
 	protected Timer cacheEvictionTimer = new Timer();
 	
+	// assignment times used to resolve conflicts between replicated entries, only filled when replication is on
+	protected ConcurrentHashMap<String, Long> callIdAssignments = new ConcurrentHashMap<String, Long>();
+	protected AffinityReplicator affinityReplicator;
+	protected AffinityStore affinityStore;
+	
 	public void processInternalRequest(Request request) {
 		logger.debug("internal request");
 	}
@@ -97,7 +103,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		}
 		if(!found) {
 			String callId = ((SIPHeader) response.getHeader(headerName)).getValue();
-			Node node = callIdMap.get(callId);
+			Node node = lookupNode(callId, isIpV6);
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, callId, isIpV6);
@@ -146,7 +152,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		}
 		if(!found) {
 			String callId = ((SIPHeader) response.getHeader(headerName)).getValue();
-			Node node = callIdMap.get(callId);
+			Node node = lookupNode(callId, isIpV6);
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, callId, isIpV6);
@@ -195,7 +201,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		String callId = ((SIPHeader) request.getHeader(headerName))
 		.getValue();
 		Node node;
-		node = callIdMap.get(callId);
+		node = lookupNode(callId, isIpV6);
 		callIdTimestamps.put(callId, System.currentTimeMillis());
 
 		if(node == null) { //
@@ -205,7 +211,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 				node = nextAvailableNode(isIpV6);
 			
 			if(node == null) return null;
-			callIdMap.put(callId, node);
+			recordAssignment(callId, node, isIpV6);
 			if(logger.isDebugEnabled()) {
 	    		logger.debug("No node found in the affinity map. It is null. We select new node: " + node);
 	    	}
@@ -254,7 +260,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		    	}
 				return null;
 			}
-			callIdMap.put(callId, node);
+			recordAssignment(callId, node, isIpV6);
 		}
 		
 		if(logger.isDebugEnabled()) {
@@ -338,6 +344,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 
 	public void stop() {
 		this.cacheEvictionTimer.cancel();
+		stopReplication();
 	}
 	
 	public void init() {
@@ -368,7 +375,12 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 						for(String key : oldCalls) {
 							callIdMap.remove(key);
 							callIdTimestamps.remove(key);
+							callIdAssignments.remove(key);
+							if(affinityStore != null)
+								affinityStore.remove(key);
 						}
+						if(affinityStore != null)
+							affinityStore.evictRestored(System.currentTimeMillis() - 1000L*maxCallIdleTime);
 						if(oldCalls.size()>0) {
 							logger.info("Reaping idle calls... Evicted " + oldCalls.size() + " calls.");
 						}}
@@ -383,16 +395,124 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 			this.groupedFailover = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().isCallIdAffinityGroupFailover();
 		}
 		logger.info("Grouped failover is set to " + this.groupedFailover);
+
+		if(balancerContext != null) {
+			this.affinityStore = balancerContext.affinityStore;
+		}
+		// the timestamps in the store are at most a tenth of the idle time late
+		if(affinityStore != null)
+			affinityStore.setRefreshPeriod(100L*maxCallIdleTime);
+
+		if(getConfiguration() != null) {
+			AlgorithmConfiguration algConfig = getConfiguration().getSipConfiguration().getAlgorithmConfiguration();
+			if(algConfig.getCallIdAffinityReplicationPort() != null && algConfig.getCallIdAffinityReplicationPeers() != null) {
+				affinityReplicator = new AffinityReplicator(getConfiguration().getCommonConfiguration().getHost(),
+						algConfig.getCallIdAffinityReplicationPort(), algConfig.getCallIdAffinityReplicationPeers(),
+						algConfig.getCallIdAffinityReplicationBatchPeriod(), this);
+				affinityReplicator.start();
+			}
+		}
 	}
 	public void configurationChanged() {
 		this.cacheEvictionTimer.cancel();
 		this.cacheEvictionTimer = new Timer();
+		stopReplication();
 		init();
 	}
 	
 	public void assignToNode(String id, Node node) {
-		callIdMap.put(id, node);
 		callIdTimestamps.put(id, System.currentTimeMillis());
+		recordAssignment(id, node, LbUtils.isValidInet6Address(node.getIp()));
+	}
+
+	@Override
+	public void reassign(Request request, Node node) {
+		assignToNode(((SIPHeader) request.getHeader(headerName)).getValue(), node);
+	}
+
+	/**
+	 * Looks up the affinity map, falling back to the entries restored from the affinity store at start.
+	 * The entry found is refreshed in the store
+	 */
+	protected Node lookupNode(String callId, Boolean isIpV6) {
+		Node node = callIdMap.get(callId);
+		if(node != null && affinityStore != null)
+			affinityStore.touch(callId, node, isIpV6);
+		if(node == null && affinityStore != null) {
+			node = affinityStore.restore(callId, invocationContext.sipNodeMap(isIpV6));
+			if(node != null) {
+				callIdMap.put(callId, node);
+				callIdTimestamps.put(callId, System.currentTimeMillis());
+				if(logger.isDebugEnabled()) {
+					logger.debug("Restored node " + node + " for call-id " + callId + " from the affinity store");
+				}
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Assigns the call-id to the node, under the lock of the replicated entries so an older one
+	 * received meanwhile can't overwrite it. Without replication nor affinity store there is nothing
+	 * to keep consistent and no lock is taken
+	 */
+	protected void recordAssignment(String callId, Node node, Boolean isIpV6) {
+		if(affinityReplicator == null && affinityStore == null) {
+			callIdMap.put(callId, node);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (callIdAssignments) {
+			callIdMap.put(callId, node);
+			if(affinityReplicator != null)
+				callIdAssignments.put(callId, now);
+			if(affinityStore != null)
+				affinityStore.put(callId, node, isIpV6);
+		}
+		if(affinityReplicator == null)
+			return;
+		KeySip key = new KeySip(node, isIpV6);
+		if(key.getPorts().isEmpty())
+			return;
+		affinityReplicator.replicate(callId, key.getIp(), key.getPorts().get(0), isIpV6, now);
+	}
+
+	/**
+	 * Applies an assignment made by another load balancer. The most recent assignment wins,
+	 * entries pointing to a node this load balancer doesn't know are ignored.
+	 */
+	public void entryReplicated(String callId, String ip, int port, boolean isIpV6, long timestamp) {
+		Node node = invocationContext.sipNodeMap(isIpV6).get(new KeySip(ip, port, isIpV6));
+		if(node == null) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Replicated entry for call-id " + callId + " points to unknown node " + ip + ":" + port);
+			}
+			return;
+		}
+		synchronized (callIdAssignments) {
+			Long assignedAt = callIdAssignments.get(callId);
+			if(assignedAt != null && assignedAt >= timestamp)
+				return;
+			callIdAssignments.put(callId, timestamp);
+			callIdMap.put(callId, node);
+			callIdTimestamps.put(callId, System.currentTimeMillis());
+			if(affinityStore != null)
+				affinityStore.put(callId, node, isIpV6);
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Replicated entry applied : call-id " + callId + " assigned to " + node);
+		}
+	}
+
+	protected void stopReplication() {
+		if(affinityReplicator != null) {
+			affinityReplicator.stop();
+			affinityReplicator = null;
+		}
+	}
+
+	public AffinityReplicator getAffinityReplicator() {
+		return affinityReplicator;
 	}
 
 	@Override
@@ -401,11 +521,13 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 			Node oldNode = getBalancerContext().jvmRouteToSipNode.get(fromJvmRoute);
 			Node newNode = getBalancerContext().jvmRouteToSipNode.get(toJvmRoute);
 			if(oldNode != null && newNode != null) {
+				Boolean isIpV6 = LbUtils.isValidInet6Address(newNode.getIp());
 				int updatedRoutes = 0;
 				for(String key : callIdMap.keySet()) {
 					Node n = callIdMap.get(key);
 					if(n.equals(oldNode)) {
-						callIdMap.replace(key, newNode);
+						// replicated and stored as any other assignment
+						recordAssignment(key, newNode, isIpV6);
 						updatedRoutes++;
 					}
 				}
@@ -429,11 +551,13 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 	synchronized public void groupedFailover(Node oldNode, Node newNode) {
 		try {
 			if(oldNode != null && newNode != null) {
+				Boolean isIpV6 = LbUtils.isValidInet6Address(newNode.getIp());
 				int updatedRoutes = 0;
 				for(String key : callIdMap.keySet()) {
 					Node n = callIdMap.get(key);
 					if(n.equals(oldNode)) {
-						callIdMap.replace(key, newNode);
+						// replicated and stored as any other assignment
+						recordAssignment(key, newNode, isIpV6);
 						updatedRoutes++;
 					}
 				}
@@ -26,11 +26,11 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -41,8 +41,6 @@ import javax.sip.message.Response;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
-import org.jboss.netty.handler.codec.http.Cookie;
-import org.jboss.netty.handler.codec.http.CookieDecoder;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.mobicents.tools.configuration.LoadBalancerConfiguration;
 import org.mobicents.tools.heartbeat.api.Node;
@@ -65,6 +63,7 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 	protected AtomicLong cycleStartTimeIpV6 = new AtomicLong(0);
 	protected AtomicLong cycleStartTimeIpV4 = new AtomicLong(0);
 	private Semaphore semaphore = new Semaphore(1);
+	private AtomicInteger selectIndex = new AtomicInteger(0);
 
 	public LoadBalancerConfiguration getConfiguration() {
 		return lbConfig;
@@ -177,7 +176,7 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 			}
 			
 			String httpSessionId = null;
-			httpSessionId = getUrlParameters(request.getUri()).get("jsessionid");
+			httpSessionId = HttpAffinity.getQueryParameter(request.getUri(), "jsessionid");
 			
 			if(httpSessionId == null) 
 				httpSessionId = getParameterFromCookie(request, "jsessionid");
@@ -245,56 +244,13 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 		return assignedNode;
 	}
 
-	private HashMap<String,String> getUrlParameters(String url) {
-		HashMap<String,String> parameters = new HashMap<String, String>();
-    	int start = url.lastIndexOf('?');
-    	if(start>0 && url.length() > start +1) {
-    		url = url.substring(start + 1);
-    	} else {
-    		return parameters;
-    	}
-    	String[] tokens = url.split("&");
-    	for(String token : tokens) {
-    		String[] params = token.split("=");
-    		if(params.length<2) {
-    			parameters.put(token, "");
-    		} else {
-    			parameters.put(params[0], params[1]);
-    		}
-    	}
-    	return parameters;
-    }
-	
 	protected String getInstanceId(HttpRequest request)
 	{
-		String url = request.getUri();
-		String[] tokens = url.split("/");
-		if(tokens.length>6&&tokens[3].equals("Accounts")&&tokens[5].startsWith("Calls"))
-		{
-			if(tokens[6].split("-").length>1)
-			{
-				String instanceId = tokens[6].substring(0,34);
-				return instanceId;
-			}
-		}	
-		return null;
+		return HttpAffinity.getRestcommInstanceId(request.getUri());
 	}
 	
 	private String getParameterFromCookie(HttpRequest request, String parameter){
-		
-			CookieDecoder cookieDocoder = new CookieDecoder();
-			String cookieString = request.getHeader("Cookie");
-			if(cookieString != null) {
-				Set<Cookie> cookies = cookieDocoder.decode(cookieString);
-				Iterator<Cookie> cookieIterator = cookies.iterator();
-				while(cookieIterator.hasNext()) {
-					Cookie c = cookieIterator.next();
-					if(c.getName().equalsIgnoreCase("jsessionid")) {
-						return c.getValue();
-					}
-				}
-			}
-		return null;
+		return HttpAffinity.getCookie(request.getHeader("Cookie"), parameter);
 	}
 	
 	public void processInternalResponse(Response response,Boolean isIpV6) {
@@ -370,6 +326,29 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 		
 	}	
 	
+	/**
+	 * Chooses another node for a request the node given by {@link #processExternalRequest(Request, Boolean)}
+	 * can't take now, in turn among the nodes in service not excluded. Nothing is recorded, the node used
+	 * is given the request with {@link #reassign(Request, Node)}
+	 * @return null if there is no other node
+	 */
+	public Node selectNode(Boolean isIpV6, Collection<Node> exclude)
+	{
+		List<Node> candidates = new ArrayList<Node>();
+		for(Node node : invocationContext.sipNodeMap(isIpV6).values())
+			if(!node.isBad() && !node.isGracefulShutdown() && !exclude.contains(node))
+				candidates.add(node);
+		if(candidates.isEmpty())
+			return null;
+		return candidates.get((selectIndex.getAndIncrement() & Integer.MAX_VALUE) % candidates.size());
+	}
+	
+	/**
+	 * Gives the request, and the later ones following it by affinity, to a node chosen by
+	 * {@link #selectNode(Boolean, Collection)}
+	 */
+	public abstract void reassign(Request request, Node node);
+	
 	protected Node getNodeByInstanceId(String instanceId)
 	{
 		if(logger.isDebugEnabled())
@@ -0,0 +1,216 @@
+package org.mobicents.tools.sip.balancer;
+
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.header.SIPHeaderList;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.ListeningPoint;
+import javax.sip.address.SipURI;
+import javax.sip.address.URI;
+import javax.sip.header.ContentLengthHeader;
+import javax.sip.header.RouteHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Keeps the messages the balancer sends small enough for UDP, where the Via and Record-Route it
+ * adds push the INVITEs with a big SDP over the MTU. With compactHeaders the headers having a
+ * compact form (RFC 3261 7.3.3 and the extensions defining one) are sent with it, the balancer
+ * itself still sees the full names. A request for a node still bigger than maxUdpMessageSize
+ * goes over TCP instead, as RFC 3261 18.1.1 asks, when the node and the balancer listen on TCP.
+ */
+public class EgressEncoder {
+	private static final Logger logger = Logger.getLogger(EgressEncoder.class.getCanonicalName());
+
+	private static final Map<String, String> COMPACT_NAMES = new HashMap<String, String>();
+	private static final Map<String, String> FULL_NAMES = new HashMap<String, String>();
+	static {
+		compactName("Call-ID", "i");
+		compactName("Contact", "m");
+		compactName("Content-Encoding", "e");
+		compactName("Content-Length", "l");
+		compactName("Content-Type", "c");
+		compactName("From", "f");
+		compactName("Subject", "s");
+		compactName("Supported", "k");
+		compactName("To", "t");
+		compactName("Via", "v");
+		compactName("Event", "o");
+		compactName("Allow-Events", "u");
+		compactName("Refer-To", "r");
+		compactName("Referred-By", "b");
+		compactName("Session-Expires", "x");
+	}
+
+	private final boolean compactHeaders;
+	private final Integer maxUdpMessageSize;
+
+	private final AtomicLong bytesSaved = new AtomicLong(0);
+	private final AtomicLong switchedToTcp = new AtomicLong(0);
+
+	/**
+	 * @param compactHeaders true to send the header names in compact form
+	 * @param maxUdpMessageSize bytes above which a request for a node goes over TCP, null to keep UDP
+	 */
+	public EgressEncoder(boolean compactHeaders, Integer maxUdpMessageSize)
+	{
+		this.compactHeaders = compactHeaders;
+		this.maxUdpMessageSize = maxUdpMessageSize;
+	}
+
+	private static void compactName(String name, String compact)
+	{
+		COMPACT_NAMES.put(name.toLowerCase(), compact);
+		FULL_NAMES.put(compact, name);
+	}
+
+	/**
+	 * Sends a request for a node over TCP if it is too big for UDP, its Via and the next hop
+	 * toward the node are changed for TCP
+	 * @param tcpViaPort port of the Via of the balancer over TCP on the leg of the node
+	 * @return true if the request goes over TCP now
+	 */
+	public boolean switchToTcp(Request request, Node node, int tcpViaPort)
+	{
+		if(maxUdpMessageSize == null || tcpViaPort <= 0)
+			return false;
+		ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
+		if(via == null || !ListeningPoint.UDP.equalsIgnoreCase(via.getTransport()))
+			return false;
+		String udpPort = node.getProperties().get("udpPort");
+		String tcpPort = node.getProperties().get("tcpPort");
+		if(udpPort == null || tcpPort == null)
+			return false;
+		int size = size((SIPMessage) request);
+		if(size <= maxUdpMessageSize)
+			return false;
+		SipURI nextHop = nextHop(request, node.getIp(), Integer.parseInt(udpPort));
+		if(nextHop == null)
+			return false;
+		try {
+			via.setTransport(ListeningPoint.TCP);
+			via.setPort(tcpViaPort);
+			nextHop.setPort(Integer.parseInt(tcpPort));
+			nextHop.setTransportParam(ListeningPoint.TCP);
+		} catch (Exception e) {
+			logger.error("Can't send the request of " + size + " bytes for " + node + " over TCP", e);
+			return false;
+		}
+		switchedToTcp.incrementAndGet();
+		if(logger.isDebugEnabled())
+			logger.debug("Request of " + size + " bytes sent to " + node + " over TCP");
+		return true;
+	}
+
+	/**
+	 * Writes the names of the headers in compact form, until {@link #expand(SIPMessage)}
+	 */
+	public void compact(SIPMessage message)
+	{
+		if(!compactHeaders)
+			return;
+		long saved = 0;
+		for(Iterator<SIPHeader> it = message.getHeaders(); it.hasNext(); ) {
+			SIPHeader header = it.next();
+			String compact = COMPACT_NAMES.get(header.getName().toLowerCase());
+			if(compact == null)
+				continue;
+			saved += header.getName().length() - compact.length();
+			rename(header, compact);
+		}
+		bytesSaved.addAndGet(saved);
+	}
+
+	/**
+	 * Gives the headers their full names back once the message is sent, the stack finds the
+	 * headers of the message it creates from it by these names
+	 */
+	public void expand(SIPMessage message)
+	{
+		if(!compactHeaders)
+			return;
+		for(Iterator<SIPHeader> it = message.getHeaders(); it.hasNext(); ) {
+			SIPHeader header = it.next();
+			String name = FULL_NAMES.get(header.getName());
+			if(name != null)
+				rename(header, name);
+		}
+	}
+
+	public long getBytesSaved()
+	{
+		return bytesSaved.get();
+	}
+
+	public long getSwitchedToTcp()
+	{
+		return switchedToTcp.get();
+	}
+
+	/**
+	 * @return bytes the compact form would save on the message
+	 */
+	int saving(SIPMessage message)
+	{
+		if(!compactHeaders)
+			return 0;
+		int saving = 0;
+		for(Iterator<SIPHeader> it = message.getHeaders(); it.hasNext(); ) {
+			String name = it.next().getName();
+			String compact = COMPACT_NAMES.get(name.toLowerCase());
+			if(compact != null)
+				saving += name.length() - compact.length();
+		}
+		return saving;
+	}
+
+	/**
+	 * @return bytes of the message once sent, from its Content-Length and the size of its start line
+	 * and headers, without encoding the body. The headers aren't looked at when the body alone is
+	 * too big for UDP
+	 */
+	int size(SIPMessage message)
+	{
+		ContentLengthHeader contentLength = message.getContentLength();
+		int size = contentLength != null ? contentLength.getContentLength() : 0;
+		if(size > maxUdpMessageSize)
+			return size;
+		if(message instanceof SIPRequest)
+			size += ((SIPRequest) message).getRequestLine().encode().length();
+		for(Iterator<SIPHeader> it = message.getHeaders(); it.hasNext(); )
+			size += it.next().encode().length();
+		// the empty line before the body
+		return size + 2 - saving(message);
+	}
+
+	private static void rename(SIPHeader header, String name)
+	{
+		header.setHeaderName(name);
+		// the values of a list are encoded on their own lines with usePrettyEncoding
+		if(header instanceof SIPHeaderList)
+			for(Object value : (SIPHeaderList<?>) header)
+				((SIPHeader) value).setHeaderName(name);
+	}
+
+	/**
+	 * @return the URI the stack sends the request to, if it is the UDP port of the node
+	 */
+	private static SipURI nextHop(Request request, String ip, int port)
+	{
+		RouteHeader route = (RouteHeader) request.getHeader(RouteHeader.NAME);
+		URI uri = route != null ? route.getAddress().getURI() : request.getRequestURI();
+		if(!uri.isSipURI())
+			return null;
+		SipURI sipUri = (SipURI) uri;
+		return ip.equals(sipUri.getHost()) && sipUri.getPort() == port ? sipUri : null;
+	}
+}
@@ -26,7 +26,6 @@ import gov.nist.javax.sip.header.SIPHeader;
 import gov.nist.javax.sip.header.Via;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -109,6 +108,11 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 		}
 	}
 
+	@Override
+	public void reassign(Request request, Node node) {
+		// the hash isn't changed, the dialog follows the Record-Route of the node taking the request
+	}
+
 	@Override
 	public synchronized void nodeAdded(Node node) {
 		Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());
@@ -174,7 +178,7 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 	}
 	
 	public Node processHttpRequest(HttpRequest request) {
-		String affinityKeyword = getUrlParameters(request.getUri()).get(this.httpAffinityKey);
+		String affinityKeyword = HttpAffinity.getQueryParameter(request.getUri(), this.httpAffinityKey);
 		if(affinityKeyword == null) {
 			return super.processHttpRequest(request);
 		}
@@ -199,26 +203,6 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 	}
 
 
-    HashMap<String,String> getUrlParameters(String url) {
-    	HashMap<String,String> parameters = new HashMap<String, String>();
-    	int start = url.lastIndexOf('?');
-    	if(start>0 && url.length() > start +1) {
-    		url = url.substring(start + 1);
-    	} else {
-    		return parameters;
-    	}
-    	String[] tokens = url.split("&");
-    	for(String token : tokens) {
-    		String[] params = token.split("=");
-    		if(params.length<2) {
-    			parameters.put(token, "");
-    		} else {
-    			parameters.put(params[0], params[1]);
-    		}
-    	}
-    	return parameters;
-    }
-
     public void init() {
     	this.httpAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getHttpAffinityKey();
     	this.sipHeaderAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getSipHeaderAffinityKey();
@@ -0,0 +1,148 @@
+package org.mobicents.tools.sip.balancer;
+
+/**
+ * Finds the values the HTTP requests are routed on (query parameter, session cookie, Restcomm instance id)
+ * with one scan of the uri or of the header, without splitting it or decoding every parameter and cookie.
+ */
+public class HttpAffinity {
+
+	private static final int INSTANCE_ID_LENGTH = 34;
+
+	/**
+	 * @return the value of the last parameter with this name in the query string, "" for a parameter
+	 * without value, null when absent
+	 */
+	public static String getQueryParameter(String uri, String name)
+	{
+		int start = uri.lastIndexOf('?');
+		if(name == null || start <= 0 || uri.length() <= start + 1)
+			return null;
+		String value = null;
+		int tokenStart = start + 1;
+		while(tokenStart <= uri.length())
+		{
+			int tokenEnd = uri.indexOf('&', tokenStart);
+			if(tokenEnd < 0)
+				tokenEnd = uri.length();
+			String tokenValue = parameterValue(uri, tokenStart, tokenEnd, name);
+			if(tokenValue != null)
+				value = tokenValue;
+			tokenStart = tokenEnd + 1;
+		}
+		return value;
+	}
+
+	private static String parameterValue(String uri, int start, int end, String name)
+	{
+		int equals = uri.indexOf('=', start);
+		if(equals < 0 || equals >= end)
+			return regionEquals(uri, start, end, name) ? "" : null;
+		// "name=" and "name==" have no value, the whole token is the name
+		int valueStart = equals + 1;
+		while(valueStart < end && uri.charAt(valueStart) == '=')
+			valueStart++;
+		if(valueStart == end)
+			return regionEquals(uri, start, end, name) ? "" : null;
+		if(!regionEquals(uri, start, equals, name))
+			return null;
+		// like split("="), the value stops at the next '='
+		int valueEnd = equals + 1;
+		while(valueEnd < end && uri.charAt(valueEnd) != '=')
+			valueEnd++;
+		return uri.substring(equals + 1, valueEnd);
+	}
+
+	private static boolean regionEquals(String value, int start, int end, String expected)
+	{
+		return end - start == expected.length() && value.regionMatches(start, expected, 0, expected.length());
+	}
+
+	/**
+	 * @return the value of the first cookie with this name, case insensitive, without its quotes
+	 */
+	public static String getCookie(String cookieHeader, String name)
+	{
+		if(cookieHeader == null)
+			return null;
+		int length = cookieHeader.length();
+		int i = 0;
+		while(i < length)
+		{
+			while(i < length && (cookieHeader.charAt(i) == ' ' || cookieHeader.charAt(i) == ';' || cookieHeader.charAt(i) == ','))
+				i++;
+			int nameStart = i;
+			while(i < length && cookieHeader.charAt(i) != '=' && cookieHeader.charAt(i) != ';' && cookieHeader.charAt(i) != ',')
+				i++;
+			int nameEnd = i;
+			while(nameEnd > nameStart && cookieHeader.charAt(nameEnd - 1) == ' ')
+				nameEnd--;
+			boolean found = nameEnd - nameStart == name.length() && cookieHeader.regionMatches(true, nameStart, name, 0, name.length());
+			if(i >= length || cookieHeader.charAt(i) != '=')
+			{
+				if(found)
+					return "";
+				continue;
+			}
+			i++;
+			while(i < length && cookieHeader.charAt(i) == ' ')
+				i++;
+			int valueStart = i;
+			int valueEnd;
+			if(i < length && cookieHeader.charAt(i) == '"')
+			{
+				valueStart = ++i;
+				while(i < length && cookieHeader.charAt(i) != '"')
+					i += cookieHeader.charAt(i) == '\\' ? 2 : 1;
+				valueEnd = Math.min(i, length);
+				i++;
+			}
+			else
+			{
+				while(i < length && cookieHeader.charAt(i) != ';' && cookieHeader.charAt(i) != ',')
+					i++;
+				valueEnd = i;
+				while(valueEnd > valueStart && cookieHeader.charAt(valueEnd - 1) == ' ')
+					valueEnd--;
+			}
+			if(found)
+				return cookieHeader.substring(valueStart, valueEnd);
+			while(i < length && cookieHeader.charAt(i) != ';' && cookieHeader.charAt(i) != ',')
+				i++;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the Restcomm instance id prefixing the call sid of /{app}/{version}/Accounts/{account}/Calls/{sid}
+	 * uris, null for other uris
+	 */
+	public static String getRestcommInstanceId(String uri)
+	{
+		// the uri is read as split("/") would give its segments
+		int segmentStart = 0;
+		for(int segment = 0; segment < 6; segment++)
+		{
+			int segmentEnd = uri.indexOf('/', segmentStart);
+			if(segmentEnd < 0)
+				return null;
+			if(segment == 3 && !regionEquals(uri, segmentStart, segmentEnd, "Accounts"))
+				return null;
+			if(segment == 5 && !uri.startsWith("Calls", segmentStart))
+				return null;
+			segmentStart = segmentEnd + 1;
+		}
+		int segmentEnd = uri.indexOf('/', segmentStart);
+		if(segmentEnd < 0)
+			segmentEnd = uri.length();
+		// the call sid has the instance id, a '-' and the call id
+		int dash = uri.indexOf('-', segmentStart);
+		if(dash < 0 || dash >= segmentEnd)
+			return null;
+		boolean afterDash = false;
+		for(int i = dash + 1; i < segmentEnd && !afterDash; i++)
+			afterDash = uri.charAt(i) != '-';
+		if(!afterDash || segmentEnd - segmentStart < INSTANCE_ID_LENGTH)
+			return null;
+		return uri.substring(segmentStart, segmentStart + INSTANCE_ID_LENGTH);
+	}
+}
@@ -0,0 +1,398 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.SipProvider;
+import javax.sip.header.RetryAfterHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+/**
+ * Remembers the requests creating a dialog for a short time after they are sent to the node the
+ * algorithm chose, so they can be sent to another node at once when the chosen one can't be
+ * reached or answers one of the failover status codes before any provisional response, instead
+ * of waiting for the retransmission of the UA.
+ *
+ * A request is kept as it was received, by the branch of the UA, with each of its attempts by the
+ * branch of the balancer, which ends with the number of the attempt after a failover. The request,
+ * its retransmissions and its CANCEL then go to the node of the last attempt. The attempts given up
+ * stay known until the request is forgotten so the retransmissions of their responses aren't forwarded.
+ *
+ * The node of an attempt given up is suspect for suspectTime: it gets no new request but stays in the
+ * cluster, its heartbeats keep it alive, and it is in service again afterwards unless the outlier
+ * detection or the prober holds it down meanwhile. A 503 with Retry-After or an oc Via parameter is
+ * the overload control of the node, not a failure, it is forwarded.
+ */
+public class InFlightRequests {
+	private static final Logger logger = Logger.getLogger(InFlightRequests.class.getCanonicalName());
+
+	/** the response is forwarded as usual */
+	public static final int FORWARD = 0;
+	/** the response is for an attempt given up, it is dropped */
+	public static final int DROP = 1;
+	/** the request is sent to another node, the response is dropped */
+	public static final int FAILOVER = 2;
+
+	private final long keepTime;
+	private final int maxRetries;
+	private final List<Integer> statusCodes;
+	private final long suspectTime;
+
+	private final ConcurrentHashMap<String, InFlight> requests = new ConcurrentHashMap<String, InFlight>();
+	private final ConcurrentHashMap<String, Attempt> attempts = new ConcurrentHashMap<String, Attempt>();
+	// suspect nodes by session, with the end of their hold-down
+	private final ConcurrentHashMap<String, Suspect> suspects = new ConcurrentHashMap<String, Suspect>();
+	private final AtomicLong failovers = new AtomicLong(0);
+	private Timer timer;
+	private volatile OutlierDetector outlierDetector;
+	private volatile NodeProber nodeProber;
+
+	/**
+	 * @param keepTime milliseconds a request is remembered after it was received
+	 * @param maxRetries number of other nodes tried at most
+	 * @param statusCodes responses of a node sending the request to another node
+	 * @param suspectTime milliseconds the node of an attempt given up gets no new request
+	 */
+	public InFlightRequests(long keepTime, int maxRetries, List<Integer> statusCodes, long suspectTime)
+	{
+		this.keepTime = keepTime;
+		this.maxRetries = maxRetries;
+		this.statusCodes = statusCodes;
+		this.suspectTime = suspectTime;
+	}
+
+	/**
+	 * Gives the other hold-downs of the nodes, a suspect node isn't put back in service while one holds it
+	 */
+	public void setHoldDowns(OutlierDetector outlierDetector, NodeProber nodeProber)
+	{
+		this.outlierDetector = outlierDetector;
+		this.nodeProber = nodeProber;
+	}
+
+	public void start()
+	{
+		timer = new Timer("InFlightRequestsCleanup", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				expire(System.currentTimeMillis());
+			}
+		}, keepTime, keepTime);
+	}
+
+	public void stop()
+	{
+		if(timer != null)
+			timer.cancel();
+	}
+
+	/**
+	 * @return true for a request out of dialog creating a dialog
+	 */
+	public static boolean isDialogCreating(Request request)
+	{
+		String method = request.getMethod();
+		if(!Request.INVITE.equals(method) && !Request.SUBSCRIBE.equals(method) && !Request.REFER.equals(method))
+			return false;
+		ToHeader to = (ToHeader) request.getHeader(ToHeader.NAME);
+		return to == null || to.getTag() == null;
+	}
+
+	/**
+	 * Remembers an attempt of a request
+	 * @param original the request as received, cloned before it is changed for the node
+	 * @param forwarded the request sent to the node, with the Via of the balancer on top
+	 */
+	public void sent(Request original, Request forwarded, SipProvider provider, boolean isIpv6, Node node)
+	{
+		String clientBranch = ((ViaHeader) original.getHeader(ViaHeader.NAME)).getBranch();
+		String branch = ((ViaHeader) forwarded.getHeader(ViaHeader.NAME)).getBranch();
+		// a retransmission of the UA sent the same way
+		if(clientBranch == null || branch == null || attempts.containsKey(branch))
+			return;
+		InFlight inFlight = requests.get(clientBranch);
+		if(inFlight == null) {
+			InFlight created = new InFlight(original, provider, isIpv6, System.currentTimeMillis());
+			inFlight = requests.putIfAbsent(clientBranch, created);
+			if(inFlight == null)
+				inFlight = created;
+		}
+		Attempt attempt = new Attempt(inFlight, node, (Request) forwarded.clone());
+		synchronized (inFlight) {
+			inFlight.attempts.add(attempt);
+		}
+		attempts.put(branch, attempt);
+	}
+
+	/**
+	 * @param clientBranch branch of the Via of the UA
+	 */
+	public InFlight getInFlight(String clientBranch)
+	{
+		return clientBranch == null ? null : requests.get(clientBranch);
+	}
+
+	public Attempt getAttempt(String branch)
+	{
+		return branch == null ? null : attempts.get(branch);
+	}
+
+	/**
+	 * @return the attempt of the branch if the request can be sent to another node, it is given up
+	 */
+	public Attempt failed(String branch)
+	{
+		Attempt attempt = branch == null ? null : attempts.get(branch);
+		if(attempt == null)
+			return null;
+		InFlight inFlight = attempt.inFlight;
+		synchronized (inFlight) {
+			if(attempt.answered || attempt.givenUp || inFlight.attempts.size() > maxRetries)
+				return null;
+			attempt.givenUp = true;
+		}
+		failovers.incrementAndGet();
+		return attempt;
+	}
+
+	/**
+	 * @return FORWARD, DROP or FAILOVER, the attempt is given up in the last two cases
+	 */
+	public int responseReceived(String branch, Response response)
+	{
+		Attempt attempt = branch == null ? null : attempts.get(branch);
+		if(attempt == null)
+			return FORWARD;
+		InFlight inFlight = attempt.inFlight;
+		synchronized (inFlight) {
+			if(attempt.givenUp)
+				return DROP;
+			if(!attempt.answered && statusCodes.contains(response.getStatusCode()) && !isOverloaded(response)
+					&& inFlight.attempts.size() <= maxRetries) {
+				attempt.givenUp = true;
+				failovers.incrementAndGet();
+				return FAILOVER;
+			}
+			// no failover after a provisional response, the node has the call
+			attempt.answered = true;
+		}
+		return FORWARD;
+	}
+
+	/**
+	 * @return the attempts to a node that can't be reached and that can be sent to another node, they are given up
+	 */
+	public List<Attempt> unreachable(String host, int port, String transport)
+	{
+		List<Attempt> unreachable = new ArrayList<Attempt>();
+		String portProperty = transport == null ? null : transport.toLowerCase() + "Port";
+		for(Attempt attempt : attempts.values()) {
+			Node node = attempt.node;
+			if(!host.equals(node.getIp()) || portProperty == null || !Integer.toString(port).equals(node.getProperties().get(portProperty)))
+				continue;
+			InFlight inFlight = attempt.inFlight;
+			synchronized (inFlight) {
+				if(attempt.answered || attempt.givenUp || inFlight.attempts.size() > maxRetries)
+					continue;
+				attempt.givenUp = true;
+			}
+			failovers.incrementAndGet();
+			unreachable.add(attempt);
+		}
+		return unreachable;
+	}
+
+	/**
+	 * @return true for a 503 of the overload control of the node
+	 */
+	static boolean isOverloaded(Response response)
+	{
+		if(response.getStatusCode() != Response.SERVICE_UNAVAILABLE)
+			return false;
+		if(response.getHeader(RetryAfterHeader.NAME) != null)
+			return true;
+		ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+		return via != null && via.getParameter(OverloadController.OC) != null;
+	}
+
+	/**
+	 * Holds the node down for suspectTime, it stays in the cluster
+	 */
+	public void suspect(Node node)
+	{
+		node.setBad(true);
+		suspects.put(suspectKey(node), new Suspect(node, System.currentTimeMillis() + suspectTime));
+	}
+
+	/**
+	 * @return true while the node is held down as suspect
+	 */
+	public boolean isSuspect(Node node)
+	{
+		return suspects.containsKey(suspectKey(node));
+	}
+
+	private static String suspectKey(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		return sessionId != null ? sessionId : node.getIp() + node.getPorts();
+	}
+
+	public long getFailovers()
+	{
+		return failovers.get();
+	}
+
+	void expire(long now)
+	{
+		for(Iterator<Suspect> it = suspects.values().iterator(); it.hasNext(); ) {
+			Suspect suspect = it.next();
+			if(suspect.until > now)
+				continue;
+			it.remove();
+			OutlierDetector outlierDetector = this.outlierDetector;
+			NodeProber nodeProber = this.nodeProber;
+			if((outlierDetector == null || !outlierDetector.isEjected(suspect.node))
+					&& (nodeProber == null || !nodeProber.isDown(suspect.node))) {
+				suspect.node.setBad(false);
+				logger.info("Node " + suspect.node + " isn't suspect anymore");
+			}
+		}
+		for(Iterator<InFlight> it = requests.values().iterator(); it.hasNext(); ) {
+			InFlight inFlight = it.next();
+			if(now - inFlight.received < keepTime)
+				continue;
+			it.remove();
+			synchronized (inFlight) {
+				for(Attempt attempt : inFlight.attempts)
+					attempts.remove(((ViaHeader) attempt.forwarded.getHeader(ViaHeader.NAME)).getBranch());
+			}
+		}
+		if(logger.isTraceEnabled())
+			logger.trace(requests.size() + " requests in flight");
+	}
+
+	public static final class InFlight {
+		final Request original;
+		final SipProvider provider;
+		final boolean isIpv6;
+		final long received;
+		final List<Attempt> attempts = new ArrayList<Attempt>(2);
+		// the node of the last failover and its number, none before
+		Node retryNode;
+		int retries;
+
+		InFlight(Request original, SipProvider provider, boolean isIpv6, long received)
+		{
+			this.original = original;
+			this.provider = provider;
+			this.isIpv6 = isIpv6;
+			this.received = received;
+		}
+
+		/**
+		 * @return a copy of the request as received, to forward again
+		 */
+		public Request getRequest()
+		{
+			return (Request) original.clone();
+		}
+
+		public SipProvider getProvider()
+		{
+			return provider;
+		}
+
+		public boolean isIpv6()
+		{
+			return isIpv6;
+		}
+
+		/**
+		 * @return the nodes already tried
+		 */
+		public synchronized Node[] getNodes()
+		{
+			Node[] nodes = new Node[attempts.size()];
+			for(int i = 0; i < nodes.length; i++)
+				nodes[i] = attempts.get(i).node;
+			return nodes;
+		}
+
+		/**
+		 * Sends the request and its retransmissions to another node, with a branch of their own
+		 */
+		public synchronized void retry(Node node)
+		{
+			retries++;
+			retryNode = node;
+		}
+
+		public synchronized Node getRetryNode()
+		{
+			return retryNode;
+		}
+
+		public synchronized int getRetries()
+		{
+			return retries;
+		}
+	}
+
+	private static final class Suspect {
+		final Node node;
+		final long until;
+
+		Suspect(Node node, long until)
+		{
+			this.node = node;
+			this.until = until;
+		}
+	}
+
+	public static final class Attempt {
+		final InFlight inFlight;
+		final Node node;
+		final Request forwarded;
+		boolean answered;
+		boolean givenUp;
+
+		Attempt(InFlight inFlight, Node node, Request forwarded)
+		{
+			this.inFlight = inFlight;
+			this.node = node;
+			this.forwarded = forwarded;
+		}
+
+		public InFlight getInFlight()
+		{
+			return inFlight;
+		}
+
+		public Node getNode()
+		{
+			return node;
+		}
+
+		/**
+		 * @return the request as it was sent to the node
+		 */
+		public Request getForwarded()
+		{
+			return forwarded;
+		}
+	}
+}
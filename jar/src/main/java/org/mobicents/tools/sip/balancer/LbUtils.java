@@ -4,6 +4,8 @@ import org.apache.commons.validator.routines.InetAddressValidator;
 
 public class LbUtils {
 
+	private static final String REGEX_METACHARACTERS = ".[]{}()*+?^$|";
+
 	public static boolean isValidInet6Address(String ipAddress)
 	{
 		String str = ipAddress;
@@ -12,4 +14,43 @@ public class LbUtils {
 			str = str.substring(0,index);
         return InetAddressValidator.getInstance().isValidInet6Address(str);
 	}
+
+	/**
+	 * @return the literal a match of the regular expression starts with from the given index, or null
+	 */
+	public static String leadingLiteral(String regex, int start)
+	{
+		if(regex.indexOf('|') >= 0)
+			return null;
+		StringBuilder literal = new StringBuilder();
+		int i = start;
+		while(i < regex.length())
+		{
+			char c = regex.charAt(i);
+			int next = i + 1;
+			if(c == '\\')
+			{
+				if(next >= regex.length() || Character.isLetterOrDigit(regex.charAt(next)))
+					break;
+				c = regex.charAt(next);
+				next++;
+			}
+			else if(REGEX_METACHARACTERS.indexOf(c) >= 0)
+				break;
+			if(next < regex.length())
+			{
+				char quantifier = regex.charAt(next);
+				if(quantifier == '?' || quantifier == '*' || quantifier == '{')
+					break;
+				if(quantifier == '+')
+				{
+					literal.append(c);
+					break;
+				}
+			}
+			literal.append(c);
+			i = next;
+		}
+		return literal.length() == 0 ? null : literal.toString();
+	}
 }
@@ -0,0 +1,104 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * State of an Aho-Corasick automaton searching a set of literals in one pass over a text. The
+ * literals are added to the root, each with an id, then {@link #link()} is called once before the
+ * automaton is walked with {@link #next(char)}. An automaton is not changed once linked, it is
+ * rebuilt instead.
+ */
+final class LiteralAutomaton {
+	private char[] keys = new char[0];
+	private LiteralAutomaton[] children = new LiteralAutomaton[0];
+	private LiteralAutomaton failure;
+	// next state of the failure chain ending a literal
+	LiteralAutomaton output;
+	// ids of the literals ending at this state
+	int[] ids = new int[0];
+	boolean terminal;
+
+	void add(String literal, int id)
+	{
+		LiteralAutomaton node = this;
+		for(int i = 0; i < literal.length(); i++) {
+			LiteralAutomaton child = node.child(literal.charAt(i));
+			if(child == null) {
+				child = new LiteralAutomaton();
+				int index = -Arrays.binarySearch(node.keys, literal.charAt(i)) - 1;
+				node.keys = insert(node.keys, index, literal.charAt(i));
+				node.children = insert(node.children, index, child);
+			}
+			node = child;
+		}
+		node.ids = Arrays.copyOf(node.ids, node.ids.length + 1);
+		node.ids[node.ids.length - 1] = id;
+		node.terminal = true;
+	}
+
+	private LiteralAutomaton child(char c)
+	{
+		int index = Arrays.binarySearch(keys, c);
+		return index < 0 ? null : children[index];
+	}
+
+	/**
+	 * Sets the failure and output links, breadth first from the root
+	 */
+	void link()
+	{
+		ArrayDeque<LiteralAutomaton> queue = new ArrayDeque<LiteralAutomaton>();
+		for(LiteralAutomaton child : children) {
+			child.failure = this;
+			queue.add(child);
+		}
+		while(!queue.isEmpty()) {
+			LiteralAutomaton node = queue.poll();
+			for(int i = 0; i < node.keys.length; i++) {
+				LiteralAutomaton child = node.children[i];
+				LiteralAutomaton failure = node.failure;
+				while(failure != null && failure.child(node.keys[i]) == null)
+					failure = failure.failure;
+				child.failure = failure == null ? this : failure.child(node.keys[i]);
+				child.output = child.failure.terminal ? child.failure : child.failure.output;
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @return the state after reading c, the literals found end at this state when it is terminal
+	 * and at the states of its output chain
+	 */
+	LiteralAutomaton next(char c)
+	{
+		LiteralAutomaton node = this;
+		while(true) {
+			LiteralAutomaton child = node.child(c);
+			if(child != null)
+				return child;
+			if(node.failure == null)
+				return node;
+			node = node.failure;
+		}
+	}
+
+	private static char[] insert(char[] array, int index, char value)
+	{
+		char[] extended = new char[array.length + 1];
+		System.arraycopy(array, 0, extended, 0, index);
+		extended[index] = value;
+		System.arraycopy(array, index, extended, index + 1, array.length - index);
+		return extended;
+	}
+
+	private static LiteralAutomaton[] insert(LiteralAutomaton[] array, int index, LiteralAutomaton value)
+	{
+		LiteralAutomaton[] extended = new LiteralAutomaton[array.length + 1];
+		System.arraycopy(array, 0, extended, 0, index);
+		extended[index] = value;
+		System.arraycopy(array, index, extended, index + 1, array.length - index);
+		return extended;
+	}
+}
@@ -0,0 +1,266 @@
+package org.mobicents.tools.sip.balancer;
+
+import gov.nist.javax.sip.stack.MessageChannel;
+import gov.nist.javax.sip.stack.MessageProcessor;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.ListeningPoint;
+import javax.sip.SipProvider;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Keeps the TCP and TLS connections toward the SIP nodes open, so the first request for a node,
+ * like the first INVITE after a failover, doesn't wait for the connection to be set up. These are
+ * the connections of the SIP stack, which caches one per address of a node and transport : it is
+ * opened as soon as the node is added, checked again on each of its heartbeats and every interval,
+ * and gets a double CRLF keep-alive of RFC 5626 every interval so it isn't closed while idle and a
+ * broken one is found out and opened again before a request needs it.
+ */
+public class NodeConnections {
+	private static final Logger logger = Logger.getLogger(NodeConnections.class.getCanonicalName());
+
+	private static final String[] TRANSPORTS = { ListeningPoint.TCP, ListeningPoint.TLS };
+	private static final byte[] KEEP_ALIVE = "\r\n\r\n".getBytes();
+
+	private final BalancerRunner balancerRunner;
+	private final long interval;
+
+	private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+	private final AtomicLong reconnects = new AtomicLong(0);
+	private ScheduledExecutorService scheduler;
+
+	public NodeConnections(BalancerRunner balancerRunner, long interval)
+	{
+		this.balancerRunner = balancerRunner;
+		this.interval = interval;
+	}
+
+	public void start()
+	{
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SipNodeConnections");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					round();
+				} catch (Exception e) {
+					logger.error("Keep-alive of the connections to the SIP nodes failed", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop()
+	{
+		if(scheduler != null)
+			scheduler.shutdownNow();
+	}
+
+	/**
+	 * Opens the connections to a node just added, or opens again the ones lost, when a heartbeat
+	 * of the node comes. Returns at once, the connections are opened by the thread of the keep-alive.
+	 */
+	public void connect(Node node, boolean isIpv6)
+	{
+		final List<Connection> targets = connections(node, isIpv6);
+		if(targets.isEmpty() || scheduler == null)
+			return;
+		try {
+			scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					for(Connection connection : targets)
+						ensure(connection, false);
+				}
+			});
+		} catch (Exception e) {
+			// stopped meanwhile
+			if(logger.isDebugEnabled())
+				logger.debug("Can't connect to " + node, e);
+		}
+	}
+
+	/**
+	 * @return number of the connections to the nodes open now
+	 */
+	public int getConnected()
+	{
+		int connected = 0;
+		for(Connection connection : connections.values())
+			if(connection.channel != null)
+				connected++;
+		return connected;
+	}
+
+	public long getReconnects()
+	{
+		return reconnects.get();
+	}
+
+	/**
+	 * @return the state of each connection, for the JMX console
+	 */
+	public String[] getConnections()
+	{
+		long now = System.currentTimeMillis();
+		List<String> list = new ArrayList<String>();
+		for(Connection connection : connections.values()) {
+			StringBuilder state = new StringBuilder();
+			state.append(connection.transport).append(" ").append(connection.node.getIp()).append(":").append(connection.port)
+				.append(" of ").append(connection.node.getHostName()).append(" ");
+			if(connection.channel != null)
+				state.append("open for ").append(now - connection.since).append(" ms");
+			else
+				state.append("closed").append(connection.error == null ? "" : " : " + connection.error);
+			state.append(", ").append(connection.reconnects).append(" reconnects");
+			list.add(state.toString());
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	/**
+	 * Lists the connections of the current nodes, forgets the ones of the nodes removed and keeps
+	 * the others alive
+	 */
+	private void round()
+	{
+		List<Connection> current = new ArrayList<Connection>();
+		for(InvocationContext ctx : balancerRunner.contexts.values())
+			for(int v = 0; v < 2; v++)
+				for(Node node : ctx.sipNodeMap(v == 1).values())
+					current.addAll(connections(node, v == 1));
+		connections.values().retainAll(current);
+		for(Connection connection : current)
+			ensure(connection, true);
+	}
+
+	private List<Connection> connections(Node node, boolean isIpv6)
+	{
+		BalancerContext balancerContext = balancerRunner.balancerContext;
+		List<Connection> list = new ArrayList<Connection>(2);
+		for(String transport : TRANSPORTS) {
+			// the nodes are only reached over the internal transport
+			if(balancerContext.internalTransport != null && !balancerContext.internalTransport.equalsIgnoreCase(transport))
+				continue;
+			if(balancerContext.terminateTLSTraffic && ListeningPoint.TLS.equals(transport))
+				continue;
+			String port = node.getProperties().get(transport.toLowerCase() + "Port");
+			if(port == null)
+				continue;
+			String key = node.getIp() + ":" + port + "/" + transport;
+			Connection connection = connections.get(key);
+			if(connection == null) {
+				Connection created = new Connection(node, transport, Integer.parseInt(port), isIpv6);
+				connection = connections.putIfAbsent(key, created);
+				if(connection == null)
+					connection = created;
+			}
+			// the node object is replaced when the node restarts
+			connection.node = node;
+			list.add(connection);
+		}
+		return list;
+	}
+
+	/**
+	 * Gets the channel of the stack to the node, opened again if the stack closed it
+	 * @param keepAlive true to write the keep-alive on it
+	 */
+	private void ensure(Connection connection, boolean keepAlive)
+	{
+		MessageProcessor processor = processor(connection.transport, connection.isIpv6);
+		if(processor == null)
+			return;
+		MessageChannel channel = null;
+		try {
+			InetAddress address = InetAddress.getByName(connection.node.getIp());
+			channel = processor.createMessageChannel(address, connection.port);
+			if(channel != connection.channel) {
+				if(connection.opened) {
+					connection.reconnects++;
+					reconnects.incrementAndGet();
+					logger.info("Connection " + connection.transport + " to " + connection.node + " opened again");
+				} else if(logger.isDebugEnabled()) {
+					logger.debug("Connection " + connection.transport + " to " + connection.node + " opened");
+				}
+				connection.opened = true;
+				connection.channel = channel;
+				connection.since = System.currentTimeMillis();
+				connection.error = null;
+			}
+			if(keepAlive)
+				channel.sendMessage(KEEP_ALIVE, address, connection.port, false);
+		} catch (Exception e) {
+			connection.channel = null;
+			connection.error = e.getMessage();
+			// so the stack doesn't give the broken channel again
+			if(channel != null)
+				channel.close();
+			if(logger.isDebugEnabled())
+				logger.debug("Can't keep the connection " + connection.transport + " to " + connection.node, e);
+		}
+	}
+
+	/**
+	 * @return the message processor of the listening point the requests to the nodes are sent from
+	 */
+	private MessageProcessor processor(String transport, boolean isIpv6)
+	{
+		BalancerContext balancerContext = balancerRunner.balancerContext;
+		if(balancerContext.sipStack == null)
+			return null;
+		SipProvider provider;
+		if(balancerContext.isTwoEntrypoints())
+			provider = isIpv6 ? balancerContext.internalIpv6SipProvider : balancerContext.internalSipProvider;
+		else
+			provider = isIpv6 ? balancerContext.externalIpv6SipProvider : balancerContext.externalSipProvider;
+		ListeningPoint listeningPoint = provider == null ? null : provider.getListeningPoint(transport);
+		if(listeningPoint == null)
+			return null;
+		for(MessageProcessor processor : balancerContext.sipStack.getMessageProcessors()) {
+			if(processor.getTransport().equalsIgnoreCase(transport) && processor.getPort() == listeningPoint.getPort()
+					&& processor.getIpAddress().getHostAddress().equals(listeningPoint.getIPAddress()))
+				return processor;
+		}
+		return null;
+	}
+
+	private static final class Connection {
+		volatile Node node;
+		final String transport;
+		final int port;
+		final boolean isIpv6;
+		volatile MessageChannel channel;
+		volatile long since;
+		volatile String error;
+		// accessed by the thread of the keep-alive only
+		boolean opened;
+		int reconnects;
+
+		Connection(Node node, String transport, int port, boolean isIpv6)
+		{
+			this.node = node;
+			this.transport = transport;
+			this.port = port;
+			this.isIpv6 = isIpv6;
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.ListeningPoint;
+import javax.sip.SipProvider;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Sends OPTIONS to every transport a SIP node advertises, from its own scheduler, so a node
+ * whose heartbeats keep coming while its SIP stack doesn't answer stops getting calls. The probes
+ * of a round are spread over the interval instead of being sent at once. A target is down after
+ * maxFailures probes in a row without answer, or answered with 503, and its node is marked bad
+ * until a probe is answered again. The round trip times go to the outlier detection, if any,
+ * like the latencies of the forwarded requests.
+ */
+public class NodeProber {
+	private static final Logger logger = Logger.getLogger(NodeProber.class.getCanonicalName());
+
+	// recognizes the responses to the probes among the forwarded ones
+	static final String BRANCH_PREFIX = "z9hG4bKlbprobe";
+	private static final String[] TRANSPORTS = { ListeningPoint.UDP, ListeningPoint.TCP, ListeningPoint.TLS };
+
+	private final BalancerRunner balancerRunner;
+	private final long interval;
+	private final long timeout;
+	private final int maxFailures;
+
+	private final ConcurrentHashMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+	private final ConcurrentHashMap<String, Probe> probes = new ConcurrentHashMap<String, Probe>();
+	private final AtomicLong sequence = new AtomicLong(0);
+	private final AtomicLong failures = new AtomicLong(0);
+	private ScheduledExecutorService scheduler;
+
+	public NodeProber(BalancerRunner balancerRunner, long interval, long timeout, int maxFailures)
+	{
+		this.balancerRunner = balancerRunner;
+		this.interval = interval;
+		this.timeout = timeout;
+		this.maxFailures = maxFailures;
+	}
+
+	public void start()
+	{
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SipNodeProber");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					round();
+				} catch (Exception e) {
+					logger.error("Probing of the SIP nodes failed", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop()
+	{
+		if(scheduler != null)
+			scheduler.shutdownNow();
+	}
+
+	/**
+	 * @return true if the response answers a probe, it isn't forwarded then
+	 */
+	public boolean responseReceived(Response response)
+	{
+		ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+		String branch = via == null ? null : via.getBranch();
+		if(branch == null || !branch.startsWith(BRANCH_PREFIX))
+			return false;
+		if(response.getStatusCode() < 200)
+			return true;
+		Probe probe = probes.remove(branch);
+		if(probe != null)
+			answered(probe, response.getStatusCode(), System.nanoTime());
+		return true;
+	}
+
+	/**
+	 * @return true if the probes of one of the transports of the node fail
+	 */
+	public boolean isDown(Node node)
+	{
+		for(Target target : targets.values())
+			if(target.node == node && target.down)
+				return true;
+		return false;
+	}
+
+	public long getFailures()
+	{
+		return failures.get();
+	}
+
+	public int getNodesDown()
+	{
+		List<Node> down = new ArrayList<Node>();
+		for(Target target : targets.values())
+			if(target.down && !down.contains(target.node))
+				down.add(target.node);
+		return down.size();
+	}
+
+	/**
+	 * Lists the transports of the current nodes and schedules their probes evenly over the interval
+	 */
+	private void round()
+	{
+		BalancerContext balancerContext = balancerRunner.balancerContext;
+		List<Target> current = new ArrayList<Target>();
+		for(InvocationContext ctx : balancerRunner.contexts.values()) {
+			for(int v = 0; v < 2; v++) {
+				boolean isIpv6 = v == 1;
+				for(Node node : ctx.sipNodeMap(isIpv6).values()) {
+					for(String transport : TRANSPORTS) {
+						// the nodes are only reached over the internal transport
+						if(balancerContext.internalTransport != null && !balancerContext.internalTransport.equalsIgnoreCase(transport))
+							continue;
+						if(balancerContext.terminateTLSTraffic && ListeningPoint.TLS.equals(transport))
+							continue;
+						String port = node.getProperties().get(transport.toLowerCase() + "Port");
+						if(port == null)
+							continue;
+						String key = node.getIp() + ":" + port + "/" + transport;
+						Target target = targets.get(key);
+						if(target == null) {
+							target = new Target(node, transport, Integer.parseInt(port), isIpv6);
+							targets.put(key, target);
+						}
+						// the node object is replaced when the node restarts
+						target.node = node;
+						current.add(target);
+					}
+				}
+			}
+		}
+		targets.values().retainAll(current);
+
+		for(int i = 0; i < current.size(); i++) {
+			final Target target = current.get(i);
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					send(target);
+				}
+			}, interval * i / current.size(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void send(Target target)
+	{
+		BalancerContext balancerContext = balancerRunner.balancerContext;
+		final long number = sequence.incrementAndGet();
+		final String branch = BRANCH_PREFIX + number;
+		SipProvider provider;
+		try {
+			AddressFactory addressFactory = balancerContext.addressFactory;
+			HeaderFactory headerFactory = balancerContext.headerFactory;
+			String viaHost;
+			int viaPort;
+			if(balancerContext.isTwoEntrypoints()) {
+				provider = target.isIpv6 ? balancerContext.internalIpv6SipProvider : balancerContext.internalSipProvider;
+				viaHost = target.isIpv6 ? balancerContext.internalIpv6ViaHost : balancerContext.internalViaHost;
+				viaPort = balancerContext.getInternalViaPortByTransport(target.transport, target.isIpv6);
+			} else {
+				provider = target.isIpv6 ? balancerContext.externalIpv6SipProvider : balancerContext.externalSipProvider;
+				viaHost = target.isIpv6 ? balancerContext.externalIpv6ViaHost : balancerContext.externalViaHost;
+				viaPort = balancerContext.getExternalViaPortByTransport(target.transport, target.isIpv6);
+			}
+			if(provider == null || viaPort <= 0)
+				return;
+
+			SipURI uri = addressFactory.createSipURI(null, target.node.getIp());
+			uri.setPort(target.port);
+			uri.setTransportParam(target.transport);
+			SipURI from = addressFactory.createSipURI(null, viaHost);
+			from.setPort(viaPort);
+			List<ViaHeader> vias = new ArrayList<ViaHeader>();
+			vias.add(headerFactory.createViaHeader(viaHost, viaPort, target.transport, branch));
+			Request request = balancerContext.messageFactory.createRequest(uri, Request.OPTIONS,
+					provider.getNewCallId(),
+					headerFactory.createCSeqHeader(1L, Request.OPTIONS),
+					headerFactory.createFromHeader(addressFactory.createAddress(from), Long.toString(number)),
+					headerFactory.createToHeader(addressFactory.createAddress(uri), null),
+					vias,
+					headerFactory.createMaxForwardsHeader(70));
+
+			probes.put(branch, new Probe(target, System.nanoTime()));
+			provider.sendRequest(request);
+		} catch (Exception e) {
+			// the balancer can't reach the transport, it says nothing of the node
+			probes.remove(branch);
+			if(logger.isDebugEnabled())
+				logger.debug("Can't probe " + target.node + " over " + target.transport, e);
+			return;
+		}
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				Probe probe = probes.remove(branch);
+				if(probe != null)
+					failed(probe.target, "no answer in " + timeout + " ms");
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void answered(Probe probe, int statusCode, long now)
+	{
+		Target target = probe.target;
+		// any other answer shows the stack is alive, even 404 or 405
+		if(statusCode == Response.SERVICE_UNAVAILABLE) {
+			failed(target, "503 answered");
+			return;
+		}
+		long rtt = TimeUnit.NANOSECONDS.toMicros(now - probe.sent);
+		target.failures.set(0);
+		OutlierDetector outlierDetector = balancerRunner.balancerContext.outlierDetector;
+		if(outlierDetector != null)
+			outlierDetector.latencyMeasured(target.node, rtt);
+		if(target.down) {
+			target.down = false;
+			InFlightRequests inFlightRequests = balancerRunner.balancerContext.inFlightRequests;
+			if(!isDown(target.node) && (outlierDetector == null || !outlierDetector.isEjected(target.node))
+					&& (inFlightRequests == null || !inFlightRequests.isSuspect(target.node))) {
+				target.node.setBad(false);
+				logger.info("Node " + target.node + " answers the probes over " + target.transport + " again");
+			}
+		}
+	}
+
+	private void failed(Target target, String reason)
+	{
+		failures.incrementAndGet();
+		if(logger.isDebugEnabled())
+			logger.debug("Probe of " + target.node + " over " + target.transport + " failed : " + reason);
+		if(target.failures.incrementAndGet() >= maxFailures) {
+			if(!target.down) {
+				target.down = true;
+				logger.error("Node " + target.node + " marked bad, " + maxFailures + " probes over "
+						+ target.transport + " failed, last one : " + reason);
+			}
+			// the outlier detection may have re-admitted it meanwhile
+			target.node.setBad(true);
+		}
+	}
+
+	private static final class Target {
+		volatile Node node;
+		final String transport;
+		final int port;
+		final boolean isIpv6;
+		final AtomicInteger failures = new AtomicInteger(0);
+		volatile boolean down;
+
+		Target(Node node, String transport, int port, boolean isIpv6)
+		{
+			this.node = node;
+			this.transport = transport;
+			this.port = port;
+			this.isIpv6 = isIpv6;
+		}
+	}
+
+	private static final class Probe {
+		final Target target;
+		final long sent;
+
+		Probe(Target target, long sent)
+		{
+			this.target = target;
+			this.sent = sent;
+		}
+	}
+}
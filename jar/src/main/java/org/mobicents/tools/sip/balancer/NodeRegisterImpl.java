@@ -263,6 +263,8 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
                     ctx.sipNodeMap(isIpV6).remove(new KeySip(node,isIpV6));
                     ctx.sessionNodeMap(isIpV6).remove(new KeySession(node.getProperties().get(Protocol.SESSION_ID)));
                     ctx.balancerAlgorithm.nodeRemoved(node);
+                    if(balancerRunner.balancerContext.overloadController != null)
+                    	balancerRunner.balancerContext.overloadController.nodeRemoved(node);
                         logger.warn("NodeExpirationTimerTask Run NSync["
                                 + node + "] removed. Last timestamp: " + node.getTimeStamp() + 
                                 ", current: " + System.currentTimeMillis()
@@ -303,7 +305,9 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	                                
 	                //if bad node changed sessioId it means that the node was restarted so we remove it from map of bad nodes
 	                KeySip keySip = new KeySip(pingNode,isIpV6);	                	                
-	                if(ctx.sipNodeMap(isIpV6).get(keySip)!=null&&ctx.sipNodeMap(isIpV6).get(keySip).isBad())
+	                //a node ejected by the outlier detection, failing the probes or suspect after a failover is kept alive, it will be re-admitted
+	                if(ctx.sipNodeMap(isIpV6).get(keySip)!=null&&ctx.sipNodeMap(isIpV6).get(keySip).isBad()
+	                		&&!isHeldDown(ctx.sipNodeMap(isIpV6).get(keySip)))
 	                {
 	                	if(ctx.sipNodeMap(isIpV6).get(keySip).getProperties().get("sessionId").equals(pingNode.getProperties().get("sessionId")))
 	                		continue;
@@ -325,11 +329,15 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	                }
 
 	                Node nodePresent = ctx.sipNodeMap(isIpV6).get(keySip);
+	                if(balancerRunner.balancerContext.overloadController != null)
+	                	balancerRunner.balancerContext.overloadController.heartbeatReceived(nodePresent != null ? nodePresent : pingNode,
+	                			pingNode.getProperties().get(Protocol.OVERLOAD_REDUCTION));
 	                
 	                // adding done afterwards to avoid ConcurrentModificationException when adding the node while going through the iterator
 	                if(nodePresent != null) 
 	                {
 	                    nodePresent.updateTimerStamp();
+	                    connect(nodePresent, isIpV6);
 	                    if(logger.isTraceEnabled()) {
 	                        logger.trace("Ping " + nodePresent.getTimeStamp());
 	                    }
@@ -369,6 +377,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	                    	
 	                    
 	                    ctx.balancerAlgorithm.nodeAdded(pingNode);
+	                    connect(pingNode, isIpV6);
 	                    balancerRunner.balancerContext.allNodesEver.add(pingNode);
 	                    pingNode.updateTimerStamp();
 	                    if(logger.isInfoEnabled()) {
@@ -381,6 +390,28 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
         }
     }
 
+    /**
+     * @return true if the node is bad because of the outlier detection or of the probes, and not
+     * because of its heartbeats
+     */
+    private boolean isHeldDown(Node node) {
+    	OutlierDetector outlierDetector = balancerRunner.balancerContext.outlierDetector;
+    	NodeProber nodeProber = balancerRunner.balancerContext.nodeProber;
+    	InFlightRequests inFlightRequests = balancerRunner.balancerContext.inFlightRequests;
+    	return (outlierDetector != null && outlierDetector.isEjected(node))
+    			|| (nodeProber != null && nodeProber.isDown(node))
+    			|| (inFlightRequests != null && inFlightRequests.isSuspect(node));
+    }
+
+    /**
+     * Opens the connections kept to the node, or the ones it lost
+     */
+    private void connect(Node node, boolean isIpv6) {
+    	NodeConnections nodeConnections = balancerRunner.balancerContext.nodeConnections;
+    	if(nodeConnections != null)
+    		nodeConnections.connect(node, isIpv6);
+    }
+
     public String getLatestVersion() {
         return latestVersion;
     }
@@ -417,6 +448,8 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
             	
                 balancerRunner.balancerContext.aliveNodes.remove(pingNode);
                 ctx.balancerAlgorithm.nodeRemoved(pingNode);
+                if(balancerRunner.balancerContext.overloadController != null)
+                	balancerRunner.balancerContext.overloadController.nodeRemoved(pingNode);
                 if(logger.isInfoEnabled()) {
                     logger.info("NodeExpirationTimerTask Run NSync["
                             + pingNode + "] forcibly removed due to a clean shutdown of a node. Numbers of nodes present in the balancer : " 
@@ -533,6 +566,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 					if(instanseId!=null)
 	            		ctx.httpNodeMap.get(new KeyHttp(instanseId)).setBad(false);
 	            	nodePresent.setFailCounter(0);
+	            	connect(nodePresent, isIpV6);
 	            }
 	            else
 	            {
@@ -549,6 +583,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	                if(node.getProperties().get("smppPort")!=null)
 	                  	ctx.smppNodeMap.put(new KeySmpp(node), node);
 	                 ctx.balancerAlgorithm.nodeAdded(node);
+	                 connect(node, isIpV6);
 	                 balancerRunner.balancerContext.allNodesEver.add(node);
 	                 node.updateTimerStamp();
 	                 if(logger.isInfoEnabled())
@@ -574,11 +609,13 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 			if(nodePresentIPv4!=null)
 			{
 				nodePresentIPv4.updateTimerStamp();
+				connect(nodePresentIPv4, false);
 				was = true;
 			}
 			else if((nodePresentIPv6 = ctx.sessionNodeMap(true).get(keySession))!=null)
 			{
 				nodePresentIPv6.updateTimerStamp();
+				connect(nodePresentIPv6, true);
 				was = true;
 			}
 		}
@@ -663,6 +700,8 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 				balancerRunner.balancerContext.aliveNodes.remove(nodePresent);
 			
 				ctx.balancerAlgorithm.nodeRemoved(nodePresent);
+				if(balancerRunner.balancerContext.overloadController != null)
+					balancerRunner.balancerContext.overloadController.nodeRemoved(nodePresent);
 				if(logger.isInfoEnabled())
 					logger.info(" LB got STOP request from node : " + nodePresent + ". So it will be rmoved : "  + balancerRunner.balancerContext.aliveNodes.size());
 			}
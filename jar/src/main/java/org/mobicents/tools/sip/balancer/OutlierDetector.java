@@ -0,0 +1,423 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+/**
+ * Ejects the SIP nodes answering worse than the rest of the cluster. For each node the final
+ * responses, the transactions left without response and the time to the first response are
+ * counted in a sliding window of WINDOW_BUCKETS intervals. Every interval a background task
+ * ejects the nodes
+ * <ul>
+ * <li>with more failures than failurePercentage</li>
+ * <li>with a success rate more than STDEV_FACTOR standard deviations under the mean of the
+ * cluster, when there are enough nodes for it to mean anything</li>
+ * <li>answering LATENCY_FACTOR times slower than the median of the cluster, and slower than
+ * LATENCY_MINIMUM</li>
+ * </ul>
+ * The transactions without any response in the window count as failures. An ejected node is
+ * marked bad for baseEjectionTime, doubled for each ejection in a row, and gets back its share of
+ * the new requests over slowStartTime. No more than maxEjectionPercentage of the nodes, rounded up,
+ * is ejected at a time, at least one if it isn't 0, and never the last node not ejected. A re-admitted
+ * node the prober finds down stays bad until a probe is answered.
+ *
+ * The forwarding threads only increment counters, the statistics are computed by the background
+ * task.
+ */
+public class OutlierDetector {
+	private static final Logger logger = Logger.getLogger(OutlierDetector.class.getCanonicalName());
+
+	static final int WINDOW_BUCKETS = 6;
+	static final double STDEV_FACTOR = 1.9;
+	static final int SUCCESS_RATE_MINIMUM_NODES = 5;
+	static final double LATENCY_FACTOR = 3;
+	static final int LATENCY_MINIMUM_NODES = 3;
+	// in microseconds, the differences between fast nodes are noise
+	static final long LATENCY_MINIMUM = 100000;
+	static final int MAX_EJECTION_MULTIPLIER = 16;
+	// share of the new requests a node gets as soon as it is re-admitted
+	static final double SLOW_START_MINIMUM_WEIGHT = 0.1;
+
+	// counters of a bucket
+	private static final int SUCCESSES = 0;
+	private static final int FAILURES = 1;
+	private static final int LATENCY_SUM = 2;
+	private static final int LATENCY_COUNT = 3;
+	private static final int COUNTERS = 4;
+
+	private final long interval;
+	private final int minimumRequests;
+	private final int failurePercentage;
+	private final long baseEjectionTime;
+	private final int maxEjectionPercentage;
+	private final long slowStartTime;
+	private final List<Integer> failureStatusCodes;
+
+	private final ConcurrentHashMap<String, NodeStats> nodes = new ConcurrentHashMap<String, NodeStats>();
+	private final ConcurrentHashMap<String, Transaction> transactions = new ConcurrentHashMap<String, Transaction>();
+	private volatile int currentBucket;
+	private Timer timer;
+	private volatile NodeProber nodeProber;
+
+	private final AtomicLong ejections = new AtomicLong(0);
+	private final AtomicInteger ejected = new AtomicInteger(0);
+
+	/**
+	 * @param failureStatusCodes status codes counted as failures besides the 5xx
+	 */
+	public OutlierDetector(long interval, int minimumRequests, int failurePercentage, long baseEjectionTime,
+			int maxEjectionPercentage, long slowStartTime, List<Integer> failureStatusCodes)
+	{
+		this.interval = interval;
+		this.minimumRequests = minimumRequests;
+		this.failurePercentage = failurePercentage;
+		this.baseEjectionTime = baseEjectionTime;
+		this.maxEjectionPercentage = maxEjectionPercentage;
+		this.slowStartTime = slowStartTime;
+		this.failureStatusCodes = failureStatusCodes == null ? Collections.<Integer>emptyList() : failureStatusCodes;
+	}
+
+	public void start()
+	{
+		timer = new Timer("OutlierDetection", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					evaluate(System.currentTimeMillis());
+				} catch (Exception e) {
+					logger.error("Outlier detection failed", e);
+				}
+			}
+		}, interval, interval);
+	}
+
+	public void stop()
+	{
+		if(timer != null)
+			timer.cancel();
+	}
+
+	/**
+	 * @param nodeProber prober keeping the nodes it finds down bad, null if the nodes aren't probed
+	 */
+	public void setNodeProber(NodeProber nodeProber)
+	{
+		this.nodeProber = nodeProber;
+	}
+
+	/**
+	 * Called when a request is sent to a node
+	 * @param branch branch of the topmost Via of the request, the one of its responses
+	 */
+	public void requestSent(Node node, String branch)
+	{
+		NodeStats stats = stats(node);
+		if(stats != null && branch != null)
+			transactions.putIfAbsent(branch, new Transaction(stats, System.nanoTime()));
+	}
+
+	/**
+	 * Called for each response of a node
+	 * @param branch branch of the topmost Via of the response
+	 */
+	public void responseReceived(String branch, int statusCode)
+	{
+		if(branch == null)
+			return;
+		Transaction transaction = statusCode < 200 ? transactions.get(branch) : transactions.remove(branch);
+		if(transaction == null)
+			return;
+		NodeStats stats = transaction.stats;
+		int bucket = currentBucket * COUNTERS;
+		if(!transaction.answered) {
+			// the latency is the time to the first response, provisional or final
+			transaction.answered = true;
+			stats.counters.addAndGet(bucket + LATENCY_SUM, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - transaction.sent));
+			stats.counters.incrementAndGet(bucket + LATENCY_COUNT);
+		}
+		if(statusCode >= 200)
+			stats.counters.incrementAndGet(bucket + (isFailure(statusCode) ? FAILURES : SUCCESSES));
+	}
+
+	/**
+	 * Called with the round trip time of a request the balancer sent itself to the node
+	 * @param latency in microseconds
+	 */
+	public void latencyMeasured(Node node, long latency)
+	{
+		NodeStats stats = stats(node);
+		if(stats == null)
+			return;
+		int bucket = currentBucket * COUNTERS;
+		stats.counters.addAndGet(bucket + LATENCY_SUM, latency);
+		stats.counters.incrementAndGet(bucket + LATENCY_COUNT);
+	}
+
+	/**
+	 * @return false if the node is coming back from an ejection and shouldn't get this new request,
+	 * the share of the requests it gets grows linearly during slowStartTime
+	 */
+	public boolean admit(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		NodeStats stats = sessionId == null ? null : nodes.get(sessionId);
+		if(stats == null || stats.readmitted == 0)
+			return true;
+		long elapsed = System.currentTimeMillis() - stats.readmitted;
+		if(elapsed >= slowStartTime)
+			return true;
+		double weight = Math.max(SLOW_START_MINIMUM_WEIGHT, (double) elapsed / slowStartTime);
+		return ThreadLocalRandom.current().nextDouble() < weight;
+	}
+
+	/**
+	 * @return true if the node is currently ejected by the detector
+	 */
+	public boolean isEjected(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		NodeStats stats = sessionId == null ? null : nodes.get(sessionId);
+		return stats != null && stats.ejectedUntil != 0;
+	}
+
+	public long getEjections()
+	{
+		return ejections.get();
+	}
+
+	public int getEjected()
+	{
+		return ejected.get();
+	}
+
+	private boolean isFailure(int statusCode)
+	{
+		return statusCode >= 500 || failureStatusCodes.contains(statusCode);
+	}
+
+	private NodeStats stats(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		if(sessionId == null)
+			return null;
+		NodeStats stats = nodes.get(sessionId);
+		if(stats == null) {
+			NodeStats created = new NodeStats(node);
+			stats = nodes.putIfAbsent(sessionId, created);
+			if(stats == null)
+				stats = created;
+		}
+		// the node object may be replaced in the node maps
+		if(stats.node != node)
+			stats.node = node;
+		stats.lastUsed = System.currentTimeMillis();
+		return stats;
+	}
+
+	/**
+	 * Moves the window, re-admits the nodes whose ejection is over and ejects the outliers
+	 */
+	void evaluate(long now)
+	{
+		int next = (currentBucket + 1) % WINDOW_BUCKETS;
+		for(NodeStats stats : nodes.values())
+			for(int i = 0; i < COUNTERS; i++)
+				stats.counters.set(next * COUNTERS + i, 0);
+		currentBucket = next;
+
+		long timeout = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(interval * WINDOW_BUCKETS);
+		for(Iterator<Transaction> it = transactions.values().iterator(); it.hasNext(); ) {
+			Transaction transaction = it.next();
+			if(transaction.sent - timeout < 0) {
+				it.remove();
+				// an answered INVITE may ring for longer than the window
+				if(!transaction.answered)
+					transaction.stats.counters.incrementAndGet(next * COUNTERS + FAILURES);
+			}
+		}
+
+		List<NodeStats> candidates = new ArrayList<NodeStats>();
+		int currentlyEjected = 0;
+		for(Iterator<Entry<String, NodeStats>> it = nodes.entrySet().iterator(); it.hasNext(); ) {
+			NodeStats stats = it.next().getValue();
+			if(stats.ejectedUntil != 0) {
+				if(stats.ejectedUntil <= now)
+					readmit(stats, now);
+				else {
+					currentlyEjected++;
+					continue;
+				}
+			} else if(now - stats.lastUsed > interval * WINDOW_BUCKETS * 2) {
+				// removed from the cluster or restarted with another session
+				it.remove();
+				continue;
+			}
+			if(stats.readmitted != 0 && now - stats.readmitted >= slowStartTime)
+				stats.readmitted = 0;
+			stats.sum();
+			if(stats.successes + stats.failures >= minimumRequests)
+				candidates.add(stats);
+		}
+
+		List<NodeStats> outliers = outliers(candidates);
+		for(NodeStats stats : nodes.values()) {
+			// the ejection time goes back down while the node is healthy
+			if(stats.ejectedUntil == 0 && stats.readmitted == 0 && stats.multiplier > 0 && !outliers.contains(stats))
+				stats.multiplier /= 2;
+		}
+		int maxEjected = maxEjectionPercentage <= 0 ? 0 : Math.max(1, (nodes.size() * maxEjectionPercentage + 99) / 100);
+		for(NodeStats stats : outliers) {
+			if(currentlyEjected >= maxEjected || currentlyEjected + 1 >= nodes.size()) {
+				logger.warn("Outlier " + stats.node + " not ejected, " + currentlyEjected + " nodes already ejected");
+				break;
+			}
+			eject(stats, now);
+			currentlyEjected++;
+		}
+		ejected.set(currentlyEjected);
+	}
+
+	/**
+	 * @return the outliers, the worst success rate first
+	 */
+	private List<NodeStats> outliers(List<NodeStats> candidates)
+	{
+		List<NodeStats> outliers = new ArrayList<NodeStats>();
+		double mean = 0;
+		for(NodeStats stats : candidates)
+			mean += stats.successRate();
+		mean = candidates.isEmpty() ? 0 : mean / candidates.size();
+		double variance = 0;
+		for(NodeStats stats : candidates)
+			variance += (stats.successRate() - mean) * (stats.successRate() - mean);
+		double stdev = candidates.isEmpty() ? 0 : Math.sqrt(variance / candidates.size());
+
+		double medianLatency = 0;
+		if(candidates.size() >= LATENCY_MINIMUM_NODES) {
+			double[] latencies = new double[candidates.size()];
+			for(int i = 0; i < latencies.length; i++)
+				latencies[i] = candidates.get(i).averageLatency();
+			Arrays.sort(latencies);
+			medianLatency = latencies[latencies.length / 2];
+		}
+
+		for(NodeStats stats : candidates) {
+			long total = stats.successes + stats.failures;
+			if(stats.failures * 100 >= total * failurePercentage) {
+				logger.warn("Outlier " + stats.node + " : " + stats.failures + " failures out of " + total + " requests");
+				outliers.add(stats);
+			} else if(candidates.size() >= SUCCESS_RATE_MINIMUM_NODES && stats.successRate() < mean - STDEV_FACTOR * stdev) {
+				logger.warn("Outlier " + stats.node + " : success rate " + stats.successRate() + ", cluster mean " + mean);
+				outliers.add(stats);
+			} else if(medianLatency > 0 && stats.averageLatency() > LATENCY_MINIMUM
+					&& stats.averageLatency() > LATENCY_FACTOR * medianLatency) {
+				logger.warn("Outlier " + stats.node + " : average latency " + (long) stats.averageLatency()
+						+ " us, cluster median " + (long) medianLatency + " us");
+				outliers.add(stats);
+			}
+		}
+		Collections.sort(outliers, new Comparator<NodeStats>() {
+			@Override
+			public int compare(NodeStats a, NodeStats b) {
+				return Double.compare(a.successRate(), b.successRate());
+			}
+		});
+		return outliers;
+	}
+
+	private void eject(NodeStats stats, long now)
+	{
+		stats.multiplier = Math.min(stats.multiplier == 0 ? 1 : stats.multiplier * 2, MAX_EJECTION_MULTIPLIER);
+		stats.ejectedUntil = now + baseEjectionTime * stats.multiplier;
+		stats.readmitted = 0;
+		ejections.incrementAndGet();
+		// the HTTP node map holds the same node
+		stats.node.setBad(true);
+		logger.error("Node " + stats.node + " ejected for " + baseEjectionTime * stats.multiplier + " ms");
+	}
+
+	private void readmit(NodeStats stats, long now)
+	{
+		stats.ejectedUntil = 0;
+		stats.readmitted = now;
+		stats.lastUsed = now;
+		for(int i = 0; i < WINDOW_BUCKETS * COUNTERS; i++)
+			stats.counters.set(i, 0);
+		// the prober marks the node good again once it answers
+		NodeProber nodeProber = this.nodeProber;
+		if(nodeProber == null || !nodeProber.isDown(stats.node))
+			stats.node.setBad(false);
+		logger.info("Node " + stats.node + " re-admitted, slow start for " + slowStartTime + " ms");
+	}
+
+	private static final class Transaction {
+		final NodeStats stats;
+		final long sent;
+		volatile boolean answered;
+
+		Transaction(NodeStats stats, long sent)
+		{
+			this.stats = stats;
+			this.sent = sent;
+		}
+	}
+
+	private static final class NodeStats {
+		volatile Node node;
+		final AtomicLongArray counters = new AtomicLongArray(WINDOW_BUCKETS * COUNTERS);
+		volatile long lastUsed;
+		// changed by the background task only
+		volatile long ejectedUntil;
+		volatile long readmitted;
+		int multiplier;
+		long successes;
+		long failures;
+		long latencySum;
+		long latencyCount;
+
+		NodeStats(Node node)
+		{
+			this.node = node;
+		}
+
+		void sum()
+		{
+			successes = failures = latencySum = latencyCount = 0;
+			for(int i = 0; i < WINDOW_BUCKETS; i++) {
+				successes += counters.get(i * COUNTERS + SUCCESSES);
+				failures += counters.get(i * COUNTERS + FAILURES);
+				latencySum += counters.get(i * COUNTERS + LATENCY_SUM);
+				latencyCount += counters.get(i * COUNTERS + LATENCY_COUNT);
+			}
+		}
+
+		double successRate()
+		{
+			long total = successes + failures;
+			return total == 0 ? 1 : (double) successes / total;
+		}
+
+		double averageLatency()
+		{
+			return latencyCount == 0 ? 0 : (double) latencySum / latencyCount;
+		}
+	}
+}
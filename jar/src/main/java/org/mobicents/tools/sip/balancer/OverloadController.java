@@ -0,0 +1,191 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.header.ViaHeader;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+/**
+ * Overload control of the nodes in the way of RFC 7339 with the loss algorithm. The balancer
+ * offers it with an oc parameter in the Via it adds toward the nodes, an overloaded node answers
+ * with oc, the percentage of the new requests to drop, valid for oc-validity milliseconds. A node
+ * can also report the percentage in its heartbeats. The balancer then rejects that share of the
+ * requests out of dialog for the node itself instead of letting it answer 503 or removing it.
+ */
+public class OverloadController {
+	private static final Logger logger = Logger.getLogger(OverloadController.class.getCanonicalName());
+
+	static final String OC = "oc";
+	static final String OC_VALIDITY = "oc-validity";
+	static final String OC_SEQ = "oc-seq";
+	static final String OC_ALGO = "oc-algo";
+	static final String LOSS = "loss";
+	// RFC 7339, when oc-validity is missing
+	static final long DEFAULT_VALIDITY = 500;
+
+	private final ConcurrentHashMap<String, Reduction> reductions = new ConcurrentHashMap<String, Reduction>();
+	private final AtomicLong admitted = new AtomicLong(0);
+	private final AtomicLong throttled = new AtomicLong(0);
+
+	/**
+	 * Marks the Via the balancer adds toward a node as supporting the overload control
+	 */
+	public void offer(ViaHeader via)
+	{
+		try {
+			via.setParameter(OC, null);
+			via.setParameter(OC_ALGO, "\"" + LOSS + "\"");
+		} catch (ParseException e) {
+			logger.error("Can't add the overload control parameters to " + via, e);
+		}
+	}
+
+	/**
+	 * Reads the overload control parameters of a response of the node
+	 * @param via the topmost Via of the response, the one the balancer added
+	 */
+	public void responseReceived(Node node, ViaHeader via)
+	{
+		String oc = via.getParameter(OC);
+		if(oc == null || oc.isEmpty())
+			return;
+		String algorithm = via.getParameter(OC_ALGO);
+		if(algorithm != null && !LOSS.equals(unquote(algorithm)))
+			return;
+		Reduction reduction = reduction(node);
+		if(reduction == null)
+			return;
+		try {
+			int percentage = Math.max(0, Math.min(100, Integer.parseInt(oc.trim())));
+			String validity = via.getParameter(OC_VALIDITY);
+			long validFor = validity == null ? DEFAULT_VALIDITY : Long.parseLong(validity.trim());
+			String seqParameter = via.getParameter(OC_SEQ);
+			double seq = seqParameter == null ? 0 : Double.parseDouble(seqParameter.trim());
+			synchronized (reduction) {
+				// the responses may come out of order
+				if(seqParameter != null && seq < reduction.seq)
+					return;
+				reduction.seq = seq;
+				if(percentage != reduction.percentage || validFor == 0) {
+					if(validFor == 0 || percentage == 0)
+						logger.info("Node " + node + " ended its overload control");
+					else
+						logger.warn("Node " + node + " overloaded, " + percentage + "% of the new requests are rejected for " + validFor + " ms");
+				}
+				reduction.percentage = validFor == 0 ? 0 : percentage;
+				reduction.expires = System.currentTimeMillis() + validFor;
+			}
+		} catch (NumberFormatException e) {
+			if(logger.isDebugEnabled())
+				logger.debug("Invalid overload control parameters in " + via + " from " + node);
+		}
+	}
+
+	/**
+	 * Reads the percentage a node reports in its heartbeats, valid until the next heartbeat
+	 */
+	public void heartbeatReceived(Node node, String percentage)
+	{
+		Reduction reduction = reduction(node);
+		if(reduction == null)
+			return;
+		int reported = 0;
+		if(percentage != null) {
+			try {
+				reported = Math.max(0, Math.min(100, Integer.parseInt(percentage.trim())));
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid " + Protocol.OVERLOAD_REDUCTION + " " + percentage + " reported by " + node);
+			}
+		}
+		if(reported != reduction.reported)
+			logger.info("Node " + node + " reports " + reported + "% of its new requests to reject");
+		reduction.reported = reported;
+	}
+
+	/**
+	 * @return false if a new request for the node has to be rejected
+	 */
+	public boolean admit(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		Reduction reduction = sessionId == null ? null : reductions.get(sessionId);
+		int percentage = reduction == null ? 0 : reduction.percentage(System.currentTimeMillis());
+		if(percentage > 0 && ThreadLocalRandom.current().nextInt(100) < percentage) {
+			throttled.incrementAndGet();
+			return false;
+		}
+		admitted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return percentage of the new requests rejected for the node now
+	 */
+	public int getPercentage(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		Reduction reduction = sessionId == null ? null : reductions.get(sessionId);
+		return reduction == null ? 0 : reduction.percentage(System.currentTimeMillis());
+	}
+
+	public void nodeRemoved(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		if(sessionId != null)
+			reductions.remove(sessionId);
+	}
+
+	public long getAdmitted()
+	{
+		return admitted.get();
+	}
+
+	public long getThrottled()
+	{
+		return throttled.get();
+	}
+
+	private Reduction reduction(Node node)
+	{
+		String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+		if(sessionId == null)
+			return null;
+		Reduction reduction = reductions.get(sessionId);
+		if(reduction == null) {
+			Reduction created = new Reduction();
+			reduction = reductions.putIfAbsent(sessionId, created);
+			if(reduction == null)
+				reduction = created;
+		}
+		return reduction;
+	}
+
+	private static String unquote(String value)
+	{
+		String unquoted = value.trim();
+		if(unquoted.length() >= 2 && unquoted.startsWith("\"") && unquoted.endsWith("\""))
+			unquoted = unquoted.substring(1, unquoted.length() - 1);
+		return unquoted.toLowerCase();
+	}
+
+	private static final class Reduction {
+		// from the Via of the responses
+		volatile int percentage;
+		volatile long expires;
+		double seq;
+		// from the heartbeats
+		volatile int reported;
+
+		int percentage(long now)
+		{
+			int fromVia = expires > now ? percentage : 0;
+			return Math.max(fromVia, reported);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Routes added at runtime through the /lbnoderegex API, tried in the order of their priority (lower
+ * first) and, for the same priority, in the order they were added. The expressions are compiled when
+ * they are added and the lookups read an immutable snapshot of the table.
+ *
+ * Most routing expressions contain a literal their matches must have, those literals are searched
+ * in one pass over the key with an Aho-Corasick automaton, so only the expressions whose literal was
+ * found, and those without literal, are run.
+ */
+public class RegexRoutingTable {
+
+	public static final int DEFAULT_PRIORITY = 0;
+	// a match of an expression starting with these contains the literal which follows them
+	private static final String[] ANY_PREFIXES = { "(.*)", "(.+)", "(.*?)", ".*?", ".*", ".+" };
+
+	private volatile Snapshot snapshot = new Snapshot(new Route[0]);
+	private long sequence;
+
+	/**
+	 * Adds a route, or replaces the target and the priority of the route with the same expression
+	 * @throws java.util.regex.PatternSyntaxException if the expression is invalid
+	 */
+	public synchronized void put(String regex, KeySip target, int priority)
+	{
+		Route route = new Route(regex, Pattern.compile(regex), target, priority, sequence++);
+		List<Route> routes = new ArrayList<Route>(Arrays.asList(snapshot.routes));
+		for(int i = 0; i < routes.size(); i++) {
+			if(routes.get(i).regex.equals(regex)) {
+				// keeps its place among the routes of the same priority
+				route = new Route(regex, route.pattern, target, priority, routes.get(i).sequence);
+				routes.remove(i);
+				break;
+			}
+		}
+		routes.add(route);
+		snapshot = new Snapshot(routes.toArray(new Route[routes.size()]));
+	}
+
+	/**
+	 * @return the target of the removed route, null if there was no route with this expression
+	 */
+	public synchronized KeySip remove(String regex)
+	{
+		Route[] routes = snapshot.routes;
+		for(int i = 0; i < routes.length; i++) {
+			if(routes[i].regex.equals(regex)) {
+				Route[] remaining = new Route[routes.length - 1];
+				System.arraycopy(routes, 0, remaining, 0, i);
+				System.arraycopy(routes, i + 1, remaining, i, routes.length - i - 1);
+				snapshot = new Snapshot(remaining);
+				return routes[i].target;
+			}
+		}
+		return null;
+	}
+
+	public boolean isEmpty()
+	{
+		return snapshot.routes.length == 0;
+	}
+
+	public int size()
+	{
+		return snapshot.routes.length;
+	}
+
+	/**
+	 * @return the routes whose expression may be found in the key, in the order they are tried, the key
+	 * is checked with {@link Route#matches(String)}
+	 */
+	public List<Route> candidates(String key)
+	{
+		return snapshot.candidates(key);
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(snapshot.routes);
+	}
+
+	public static class Route {
+		final String regex;
+		final Pattern pattern;
+		final KeySip target;
+		final int priority;
+		final long sequence;
+		// literal the matches contain, and whether it starts the key
+		final String literal;
+		final boolean anchored;
+
+		Route(String regex, Pattern pattern, KeySip target, int priority, long sequence)
+		{
+			this.regex = regex;
+			this.pattern = pattern;
+			this.target = target;
+			this.priority = priority;
+			this.sequence = sequence;
+			int start = regex.startsWith("^") ? 1 : 0;
+			boolean skipped = false;
+			for(int i = 0; i < ANY_PREFIXES.length; i++) {
+				if(regex.startsWith(ANY_PREFIXES[i], start)) {
+					start += ANY_PREFIXES[i].length();
+					skipped = true;
+					i = -1;
+				}
+			}
+			this.anchored = regex.startsWith("^") && !skipped;
+			this.literal = LbUtils.leadingLiteral(regex, start);
+		}
+
+		public boolean matches(String key)
+		{
+			return pattern.matcher(key).find();
+		}
+
+		public String getRegex()
+		{
+			return regex;
+		}
+
+		public KeySip getTarget()
+		{
+			return target;
+		}
+
+		public int getPriority()
+		{
+			return priority;
+		}
+
+		@Override
+		public String toString()
+		{
+			return regex + "=" + target + (priority != DEFAULT_PRIORITY ? " priority " + priority : "");
+		}
+	}
+
+	private static final Comparator<Route> ORDER = new Comparator<Route>() {
+		@Override
+		public int compare(Route a, Route b) {
+			if(a.priority != b.priority)
+				return a.priority < b.priority ? -1 : 1;
+			return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+		}
+	};
+
+	private static final class Snapshot {
+		final Route[] routes;
+		// indexes in routes of the routes without literal, always run
+		final int[] unindexed;
+		final LiteralAutomaton root = new LiteralAutomaton();
+
+		Snapshot(Route[] routes)
+		{
+			Arrays.sort(routes, ORDER);
+			this.routes = routes;
+			int[] unindexed = new int[routes.length];
+			int count = 0;
+			for(int i = 0; i < routes.length; i++) {
+				if(routes[i].literal == null)
+					unindexed[count++] = i;
+				else
+					root.add(routes[i].literal, i);
+			}
+			this.unindexed = Arrays.copyOf(unindexed, count);
+			root.link();
+		}
+
+		List<Route> candidates(String key)
+		{
+			int[] candidates = new int[8];
+			int count = 0;
+			LiteralAutomaton node = root;
+			for(int i = 0; i < key.length(); i++) {
+				node = node.next(key.charAt(i));
+				for(LiteralAutomaton output = node.terminal ? node : node.output; output != null; output = output.output) {
+					for(int route : output.ids) {
+						Route candidate = routes[route];
+						if(candidate.anchored && i + 1 != candidate.literal.length())
+							continue;
+						if(count == candidates.length)
+							candidates = Arrays.copyOf(candidates, count * 2);
+						candidates[count++] = route;
+					}
+				}
+			}
+			Arrays.sort(candidates, 0, count);
+
+			List<Route> ordered = new ArrayList<Route>(count + unindexed.length);
+			int next = 0;
+			int previous = -1;
+			for(int j = 0; j < unindexed.length || next < count; ) {
+				int route;
+				if(next < count && (j >= unindexed.length || candidates[next] < unindexed[j]))
+					route = candidates[next++];
+				else
+					route = unindexed[j++];
+				// a literal found several times makes the same candidate
+				if(route == previous)
+					continue;
+				previous = route;
+				ordered.add(routes[route]);
+			}
+			return ordered;
+		}
+	}
+}
@@ -2,13 +2,33 @@ package org.mobicents.tools.sip.balancer;
 
 import java.util.regex.Pattern;
 
+/**
+ * Tells if the requests of the hosts matching ipPattern are patched for NAT. The pattern is either
+ * a regular expression over the textual address or a CIDR block like 10.0.0.0/8 or fd30::/16.
+ */
 public class RoutingRule {
 	boolean isPatch;
 	Pattern ipPattern;
+	// set instead of ipPattern for the CIDR blocks
+	byte[] network;
+	int prefixLength;
 	public RoutingRule(String ipPattern, boolean isPatch)
 	{
 		this.isPatch = isPatch;
-		this.ipPattern = Pattern.compile(ipPattern);
+		int slash = ipPattern.indexOf('/');
+		if(slash > 0)
+			this.network = RoutingRuleTable.parseAddress(ipPattern.substring(0, slash));
+		if(network != null) {
+			try {
+				this.prefixLength = Integer.parseInt(ipPattern.substring(slash + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid prefix length in routing rule " + ipPattern);
+			}
+			if(prefixLength < 0 || prefixLength > network.length * 8)
+				throw new IllegalArgumentException("Invalid prefix length in routing rule " + ipPattern);
+		}
+		else
+			this.ipPattern = Pattern.compile(ipPattern);
 	}
 	public boolean isPatch() {
 		return isPatch;
@@ -16,5 +36,8 @@ public class RoutingRule {
 	public Pattern getIpPattern() {
 		return ipPattern;
 	}
-	
+	public boolean isCidr() {
+		return network != null;
+	}
+
 }
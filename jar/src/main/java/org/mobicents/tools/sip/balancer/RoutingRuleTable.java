@@ -0,0 +1,262 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routing rules of the IPv4 or of the IPv6 listening points compiled for the NAT patching decision.
+ * The CIDR rules are kept in a Patricia trie over the bits of the address, the most specific block
+ * containing the host decides, in one walk whatever the number of rules. The regular expression rules are only
+ * tried for the hosts outside of every block, as before : the host isn't patched if it matches a
+ * rule with patch false.
+ */
+public class RoutingRuleTable {
+
+	private final TrieNode ipv4Root;
+	private final TrieNode ipv6Root;
+	private final RoutingRule[] regexRules;
+
+	public RoutingRuleTable(List<RoutingRule> rules)
+	{
+		TrieNode ipv4 = null;
+		TrieNode ipv6 = null;
+		List<RoutingRule> regexRules = new ArrayList<RoutingRule>();
+		for(RoutingRule rule : rules) {
+			if(!rule.isCidr()) {
+				// only the rules with patch false change the decision
+				if(!rule.isPatch)
+					regexRules.add(rule);
+			}
+			else if(rule.network.length == 4)
+				ipv4 = insert(ipv4, mask(rule.network, rule.prefixLength), rule.prefixLength, rule.isPatch);
+			else
+				ipv6 = insert(ipv6, mask(rule.network, rule.prefixLength), rule.prefixLength, rule.isPatch);
+		}
+		this.ipv4Root = ipv4;
+		this.ipv6Root = ipv6;
+		this.regexRules = regexRules.toArray(new RoutingRule[regexRules.size()]);
+	}
+
+	/**
+	 * @param host address or host name of the request, from the received parameter of the Via
+	 * or from the Route
+	 * @return false if a rule excludes the host from the NAT patching
+	 */
+	public boolean isPatch(String host)
+	{
+		if(ipv4Root != null || ipv6Root != null) {
+			byte[] address = parseAddress(host);
+			if(address != null) {
+				Boolean patch = lookup(address.length == 4 ? ipv4Root : ipv6Root, address);
+				if(patch != null)
+					return patch;
+			}
+		}
+		for(RoutingRule rule : regexRules)
+			if(rule.ipPattern.matcher(host).matches())
+				return false;
+		return true;
+	}
+
+	private static Boolean lookup(TrieNode node, byte[] address)
+	{
+		Boolean patch = null;
+		int bits = address.length * 8;
+		while(node != null && node.length <= bits && commonPrefix(node.address, address, node.length) == node.length) {
+			if(node.patch != null)
+				patch = node.patch;
+			if(node.length == bits)
+				break;
+			node = node.children[bit(address, node.length)];
+		}
+		return patch;
+	}
+
+	/**
+	 * @return the root of the trie with the block added, the first rule of a block is kept
+	 */
+	private static TrieNode insert(TrieNode root, byte[] address, int length, boolean patch)
+	{
+		TrieNode leaf = new TrieNode(address, length, patch);
+		if(root == null)
+			return leaf;
+		TrieNode parent = null;
+		TrieNode node = root;
+		while(true) {
+			int common = commonPrefix(node.address, address, Math.min(node.length, length));
+			if(common < node.length) {
+				TrieNode branch;
+				if(common == length) {
+					// the new block contains the node
+					branch = leaf;
+				} else {
+					branch = new TrieNode(mask(address, common), common, null);
+					branch.children[bit(address, common)] = leaf;
+				}
+				branch.children[bit(node.address, common)] = node;
+				if(parent == null)
+					return branch;
+				parent.children[bit(address, parent.length)] = branch;
+				return root;
+			}
+			if(length == node.length) {
+				if(node.patch == null)
+					node.patch = patch;
+				return root;
+			}
+			TrieNode child = node.children[bit(address, node.length)];
+			if(child == null) {
+				node.children[bit(address, node.length)] = leaf;
+				return root;
+			}
+			parent = node;
+			node = child;
+		}
+	}
+
+	private static int bit(byte[] address, int index)
+	{
+		return (address[index >> 3] >> (7 - (index & 7))) & 1;
+	}
+
+	/**
+	 * @return number of leading bits, up to max, that both addresses have in common
+	 */
+	private static int commonPrefix(byte[] a, byte[] b, int max)
+	{
+		int common = 0;
+		while(common < max) {
+			int diff = (a[common >> 3] ^ b[common >> 3]) & 0xff;
+			if(diff == 0) {
+				common += 8;
+				continue;
+			}
+			common += Integer.numberOfLeadingZeros(diff) - 24;
+			break;
+		}
+		return Math.min(common, max);
+	}
+
+	private static byte[] mask(byte[] address, int length)
+	{
+		byte[] masked = new byte[address.length];
+		for(int i = 0; i < address.length; i++) {
+			int bits = Math.min(8, Math.max(0, length - i * 8));
+			masked[i] = (byte) (address[i] & (0xff00 >> bits));
+		}
+		return masked;
+	}
+
+	/**
+	 * Parses a textual IPv4 or IPv6 address, without any name resolution
+	 * @return the 4 or 16 bytes of the address, null if the text is not an address
+	 */
+	static byte[] parseAddress(String text)
+	{
+		if(text == null)
+			return null;
+		String host = text.trim();
+		if(host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		int zone = host.indexOf('%');
+		if(zone >= 0)
+			host = host.substring(0, zone);
+		if(host.indexOf(':') < 0) {
+			byte[] address = new byte[4];
+			return parseIpv4(host, address, 0) ? address : null;
+		}
+		return parseIpv6(host);
+	}
+
+	private static boolean parseIpv4(String host, byte[] address, int offset)
+	{
+		int part = 0;
+		int value = -1;
+		for(int i = 0; i <= host.length(); i++) {
+			char c = i < host.length() ? host.charAt(i) : '.';
+			if(c == '.') {
+				if(value < 0 || part == 4)
+					return false;
+				address[offset + part++] = (byte) value;
+				value = -1;
+			} else if(c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + c - '0';
+				if(value > 255)
+					return false;
+			} else
+				return false;
+		}
+		return part == 4;
+	}
+
+	private static byte[] parseIpv6(String host)
+	{
+		byte[] address = new byte[16];
+		int compressed = host.indexOf("::");
+		if(compressed >= 0 && host.indexOf("::", compressed + 1) >= 0)
+			return null;
+		String head = compressed >= 0 ? host.substring(0, compressed) : host;
+		String tail = compressed >= 0 ? host.substring(compressed + 2) : "";
+		int headLength = parseGroups(head, address, compressed < 0);
+		if(headLength < 0)
+			return null;
+		if(compressed < 0)
+			return headLength == 16 ? address : null;
+		byte[] end = new byte[16];
+		int tailLength = parseGroups(tail, end, true);
+		// :: stands for one group at least
+		if(tailLength < 0 || headLength + tailLength > 14)
+			return null;
+		System.arraycopy(end, 0, address, 16 - tailLength, tailLength);
+		return address;
+	}
+
+	/**
+	 * @return number of bytes parsed, -1 if the groups are invalid
+	 */
+	private static int parseGroups(String groups, byte[] address, boolean last)
+	{
+		if(groups.isEmpty())
+			return 0;
+		int length = 0;
+		String[] parts = groups.split(":", -1);
+		for(int i = 0; i < parts.length; i++) {
+			String part = parts[i];
+			if(last && i == parts.length - 1 && part.indexOf('.') >= 0) {
+				// IPv4 in the last 32 bits
+				if(length + 4 > 16 || !parseIpv4(part, address, length))
+					return -1;
+				length += 4;
+				continue;
+			}
+			if(part.isEmpty() || part.length() > 4 || length + 2 > 16)
+				return -1;
+			int value;
+			try {
+				value = Integer.parseInt(part, 16);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			if(value < 0)
+				return -1;
+			address[length++] = (byte) (value >> 8);
+			address[length++] = (byte) value;
+		}
+		return length;
+	}
+
+	private static final class TrieNode {
+		final byte[] address;
+		final int length;
+		// decision of the block, null for the branching nodes
+		Boolean patch;
+		final TrieNode[] children = new TrieNode[2];
+
+		TrieNode(byte[] address, int length, Boolean patch)
+		{
+			this.address = address;
+			this.length = length;
+			this.patch = patch;
+		}
+	}
+}
@@ -25,12 +25,15 @@ package org.mobicents.tools.sip.balancer;
 import gov.nist.javax.sip.ListeningPointExt;
 import gov.nist.javax.sip.SipStackImpl;
 import gov.nist.javax.sip.address.SipUri;
+import gov.nist.javax.sip.header.ExtensionHeaderImpl;
 import gov.nist.javax.sip.header.HeaderExt;
 import gov.nist.javax.sip.header.HeaderFactoryImpl;
 import gov.nist.javax.sip.header.Route;
 import gov.nist.javax.sip.header.RouteList;
+import gov.nist.javax.sip.header.To;
 import gov.nist.javax.sip.message.ResponseExt;
 import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.stack.SIPMessageValve;
 
@@ -91,6 +94,7 @@ import javax.sip.message.Response;
 
 import org.apache.log4j.Logger;
 import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.configuration.SipConfiguration;
 import org.mobicents.tools.heartbeat.api.Node;
 import org.mobicents.tools.heartbeat.api.Protocol;
 
@@ -121,6 +125,18 @@ public class SIPBalancerForwarder implements SipListener {
 
     public static final String ROUTE_PARAM_NODE_VERSION = "version";
 
+    /*
+     * Address and port a message was received from, for the nodes behind the SIP Load Balancer
+     */
+    public static final String INITIAL_REMOTE_ADDR_HEADER = "X-Sip-Balancer-InitialRemoteAddr";
+
+    public static final String INITIAL_REMOTE_PORT_HEADER = "X-Sip-Balancer-InitialRemotePort";
+
+    /*
+     * Application data of a request once sent to its next hop, otherwise it holds the reason it wasn't
+     */
+    private static final Object FORWARDED = new Object();
+
     public static final int UDP = 0;
     public static final int TCP = 1;
     public static final int TLS = 2;
@@ -206,6 +222,49 @@ public class SIPBalancerForwarder implements SipListener {
                 	balancerRunner.balancerContext.internalIpv6SipProvider = createSipProviders(listeningPointsIpv6);
             }
             setViaHostsPorts();
+            SipConfiguration sipConfiguration = balancerRunner.balancerContext.lbConfig.getSipConfiguration();
+            if(sipConfiguration.getPipelineRoutingWorkers() != null && sipConfiguration.getPipelineRoutingWorkers() > 0)
+            	balancerRunner.balancerContext.sipPipeline = new SipPipeline(this, balancerRunner.balancerContext,
+            			sipConfiguration.getPipelineRoutingWorkers(), sipConfiguration.getPipelineRoutingQueueSize(),
+            			sipConfiguration.getPipelineMaxRoutingLatency(), sipConfiguration.getPipelineRetryAfter());
+            if(sipConfiguration.getAccessLogFile() != null) {
+            	balancerRunner.balancerContext.accessLog = new SipAccessLog(sipConfiguration.getAccessLogFile(),
+            			sipConfiguration.getAccessLogSamplingPercentage(), sipConfiguration.getAccessLogMaxFileSize(),
+            			sipConfiguration.getAccessLogMaxBackupIndex());
+            	balancerRunner.balancerContext.accessLog.start();
+            }
+            if(sipConfiguration.getOutlierDetectionInterval() != null && sipConfiguration.getOutlierDetectionInterval() > 0) {
+            	balancerRunner.balancerContext.outlierDetector = new OutlierDetector(sipConfiguration.getOutlierDetectionInterval(),
+            			sipConfiguration.getOutlierMinimumRequests(), sipConfiguration.getOutlierFailurePercentage(),
+            			sipConfiguration.getOutlierBaseEjectionTime(), sipConfiguration.getOutlierMaxEjectionPercentage(),
+            			sipConfiguration.getOutlierSlowStartTime(), sipConfiguration.getResponsesStatusCodeNodeRemoval());
+            	balancerRunner.balancerContext.outlierDetector.start();
+            }
+            if(sipConfiguration.getNodeProbeInterval() != null && sipConfiguration.getNodeProbeInterval() > 0) {
+            	balancerRunner.balancerContext.nodeProber = new NodeProber(balancerRunner, sipConfiguration.getNodeProbeInterval(),
+            			sipConfiguration.getNodeProbeTimeout(), sipConfiguration.getNodeProbeMaxFailures());
+            	balancerRunner.balancerContext.nodeProber.start();
+            	if(balancerRunner.balancerContext.outlierDetector != null)
+            		balancerRunner.balancerContext.outlierDetector.setNodeProber(balancerRunner.balancerContext.nodeProber);
+            }
+            if(sipConfiguration.getOverloadControl())
+            	balancerRunner.balancerContext.overloadController = new OverloadController();
+            if(sipConfiguration.getFastFailoverTime() != null && sipConfiguration.getFastFailoverTime() > 0) {
+            	balancerRunner.balancerContext.inFlightRequests = new InFlightRequests(sipConfiguration.getFastFailoverTime(),
+            			sipConfiguration.getFastFailoverRetries(), sipConfiguration.getFastFailoverStatusCodes(),
+            			sipConfiguration.getFastFailoverSuspectTime());
+            	balancerRunner.balancerContext.inFlightRequests.setHoldDowns(balancerRunner.balancerContext.outlierDetector,
+            			balancerRunner.balancerContext.nodeProber);
+            	balancerRunner.balancerContext.inFlightRequests.start();
+            }
+            if(sipConfiguration.getCompactHeaders() || sipConfiguration.getMaxUdpMessageSize() != null)
+            	balancerRunner.balancerContext.egressEncoder = new EgressEncoder(sipConfiguration.getCompactHeaders(),
+            			sipConfiguration.getMaxUdpMessageSize());
+            if(sipConfiguration.getNodeConnectionKeepAliveInterval() != null && sipConfiguration.getNodeConnectionKeepAliveInterval() > 0) {
+            	balancerRunner.balancerContext.nodeConnections = new NodeConnections(balancerRunner,
+            			sipConfiguration.getNodeConnectionKeepAliveInterval());
+            	balancerRunner.balancerContext.nodeConnections.start();
+            }
 			balancerRunner.balancerContext.sipStack.start();
 			for(SIPMessageValve valve : balancerRunner.balancerContext.sipStack.sipMessageValves)
 				if(valve instanceof SIPBalancerValveProcessor)
@@ -247,6 +306,34 @@ public class SIPBalancerForwarder implements SipListener {
             }
             balancerRunner.balancerContext.sipStack.stop();
             balancerRunner.balancerContext.sipStack = null;
+            if(balancerRunner.balancerContext.sipPipeline != null) {
+            	balancerRunner.balancerContext.sipPipeline.stop();
+            	balancerRunner.balancerContext.sipPipeline = null;
+            }
+            if(balancerRunner.balancerContext.accessLog != null) {
+            	balancerRunner.balancerContext.accessLog.stop();
+            	balancerRunner.balancerContext.accessLog = null;
+            }
+            if(balancerRunner.balancerContext.outlierDetector != null) {
+            	balancerRunner.balancerContext.outlierDetector.stop();
+            	balancerRunner.balancerContext.outlierDetector = null;
+            }
+            if(balancerRunner.balancerContext.nodeProber != null) {
+            	balancerRunner.balancerContext.nodeProber.stop();
+            	balancerRunner.balancerContext.nodeProber = null;
+            }
+            balancerRunner.balancerContext.overloadController = null;
+            balancerRunner.balancerContext.egressEncoder = null;
+            if(balancerRunner.balancerContext.inFlightRequests != null) {
+            	balancerRunner.balancerContext.inFlightRequests.stop();
+            	balancerRunner.balancerContext.inFlightRequests = null;
+            }
+            if(balancerRunner.balancerContext.nodeConnections != null) {
+            	balancerRunner.balancerContext.nodeConnections.stop();
+            	balancerRunner.balancerContext.nodeConnections = null;
+            }
+            if(balancerRunner.balancerContext.blockedValues != null)
+            	balancerRunner.balancerContext.blockedValues.stop();
             System.gc();
             if(logger.isInfoEnabled()) {
                 logger.info("Sip forwarder SIP stack stopped");
@@ -264,7 +351,11 @@ public class SIPBalancerForwarder implements SipListener {
     }
 
     public void processIOException(IOExceptionEvent exceptionEvent) {
-        // Hopefully we wont see those either
+    	InFlightRequests inFlightRequests = balancerRunner.balancerContext.inFlightRequests;
+    	if(inFlightRequests == null)
+    		return;
+    	for(InFlightRequests.Attempt attempt : inFlightRequests.unreachable(exceptionEvent.getHost(), exceptionEvent.getPort(), exceptionEvent.getTransport()))
+    		failover(attempt, "I/O error over " + exceptionEvent.getTransport());
     }
 
     /*
@@ -272,6 +363,46 @@ public class SIPBalancerForwarder implements SipListener {
      * @see javax.sip.SipListener#processRequest(javax.sip.RequestEvent)
      */
     public void processRequest(RequestEvent requestEvent) {
+    	SipAccessLog accessLog = balancerRunner.balancerContext.accessLog;
+    	if(accessLog == null) {
+    		handleRequest(requestEvent);
+    		return;
+    	}
+    	long startTime = System.nanoTime();
+    	handleRequest(requestEvent);
+    	long processingTime = System.nanoTime() - startTime;
+
+    	SIPRequest request = (SIPRequest) requestEvent.getRequest();
+    	String destination = null;
+    	int destinationPort = -1;
+    	String reason = null;
+    	if(request.getApplicationData() == FORWARDED) {
+    		// the request was forwarded as is, its top Route or its Request-URI is the next hop
+    		URI nextHop = request.getRequestURI();
+    		RouteHeader route = (RouteHeader) request.getHeader(RouteHeader.NAME);
+    		if(route != null)
+    			nextHop = route.getAddress().getURI();
+    		if(nextHop instanceof SipURI) {
+    			destination = ((SipURI) nextHop).getHost();
+    			destinationPort = ((SipURI) nextHop).getPort();
+    		}
+    	} else {
+    		reason = request.getApplicationData() == null ? "dropped" : (String) request.getApplicationData();
+    	}
+    	accessLog.record(request.getCallId().getCallId(), request.getMethod(), 0, request.getPeerPacketSourceAddress(),
+    			request.getPeerPacketSourcePort(), destination, destinationPort, processingTime, reason);
+    }
+
+    /**
+     * Records why the request isn't forwarded, for the access log. The first reason given is kept
+     */
+    private static void notForwarded(Request request, String reason) {
+    	SIPMessage message = (SIPMessage) request;
+    	if(message.getApplicationData() == null)
+    		message.setApplicationData(reason);
+    }
+
+    private void handleRequest(RequestEvent requestEvent) {
         // This will be invoked only by external endpoint
     	BalancerAppContent content=(BalancerAppContent)requestEvent.getSource();
     	boolean isIpv6 = content.isIpv6();
@@ -298,6 +429,7 @@ public class SIPBalancerForwarder implements SipListener {
                 ArrayList<Node> list = new ArrayList<Node>();
                 list.add(node);
                 this.register.handlePingInRegister(list);
+                notForwarded(request, "heartbeat");
                 Response response = balancerRunner.balancerContext.messageFactory.createResponse(Response.OK, request);			
                 sipProvider.sendResponse(response);	
                 return;
@@ -307,31 +439,14 @@ public class SIPBalancerForwarder implements SipListener {
         }
         //Issue 10: https://telestax.atlassian.net/browse/LB-10
         if (request.getContent() != null || (requestMethod.equals(Request.REGISTER) && sipProvider != balancerRunner.balancerContext.internalSipProvider)) {
-            SIPMessage message = (SIPMessage)request;            
-
-            String initialRemoteAddr = message.getPeerPacketSourceAddress().getHostAddress();
-            String initialRemotePort = String.valueOf(message.getPeerPacketSourcePort());
-
-            Header remoteAddrHeader = null;
-            Header remotePortHeader = null;
-            try {
-                remoteAddrHeader = SipFactory.getInstance().createHeaderFactory().createHeader("X-Sip-Balancer-InitialRemoteAddr", initialRemoteAddr);
-                remotePortHeader = SipFactory.getInstance().createHeaderFactory().createHeader("X-Sip-Balancer-InitialRemotePort", initialRemotePort);
-            } catch (PeerUnavailableException e) {
-                logger.error("Unexpected exception while creating custom headers for REGISTER message ", e);
-            } catch (ParseException e) {
-                logger.error("Unexpected exception while creating custom headers for REGISTER message ", e);
-            }
-            if (remoteAddrHeader != null)
-                request.addHeader(remoteAddrHeader);
-            if (remotePortHeader != null)
-                request.addHeader(remotePortHeader);
+            addInitialRemoteAddress((SIPMessage)request);
         } 
         try {	
             updateStats(request);
             forwardRequest(sipProvider,request, isIpv6);          						
         } catch (Throwable throwable) {
             logger.error("Unexpected exception while forwarding the request " + request, throwable);
+            notForwarded(request, "error");
             if(!Request.ACK.equalsIgnoreCase(requestMethod)) {
                 try {
                     Response response = balancerRunner.balancerContext.messageFactory.createResponse(Response.SERVER_INTERNAL_ERROR, request);			
@@ -618,6 +733,9 @@ public class SIPBalancerForwarder implements SipListener {
         if(logger.isDebugEnabled()) {
             logger.debug("got request:\n"+request);
         } 
+        InFlightRequests inFlightRequests = balancerRunner.balancerContext.inFlightRequests;
+        // kept as received to send it to another node if the chosen one fails
+        Request original = inFlightRequests != null && InFlightRequests.isDialogCreating(request) ? (Request) request.clone() : null;
 
         boolean isRequestFromServer = false;
         if(!balancerRunner.balancerContext.isTwoEntrypoints()) {
@@ -625,6 +743,11 @@ public class SIPBalancerForwarder implements SipListener {
         } else {
             isRequestFromServer = sipProvider.equals(balancerRunner.balancerContext.internalSipProvider) || sipProvider.equals(balancerRunner.balancerContext.internalIpv6SipProvider);
         }
+        // after a failover the request, its retransmissions and its CANCEL go to the node of the last attempt
+        InFlightRequests.InFlight inFlight = inFlightRequests != null && !isRequestFromServer
+        		? inFlightRequests.getInFlight(((ViaHeader) request.getHeader(ViaHeader.NAME)).getBranch()) : null;
+        Node retryNode = inFlight != null ? inFlight.getRetryNode() : null;
+        String attemptSuffix = inFlight != null && inFlight.getRetries() > 0 ? String.valueOf(inFlight.getRetries()) : "";
 
         if(isRequestFromServer)
         {
@@ -765,13 +888,14 @@ public class SIPBalancerForwarder implements SipListener {
         }
 
         Node nextNode = null;
+        Node chosenNode = null;
 
         if(isRequestFromServer) {
         	if(logger.isDebugEnabled()) {
         		logger.debug("Request from server");
         	}
-            Header initialAddrHeader = request.getHeader("X-Sip-Balancer-InitialRemoteAddr");
-            Header initialPortHeader = request.getHeader("X-Sip-Balancer-InitialRemotePort");
+            Header initialAddrHeader = request.getHeader(INITIAL_REMOTE_ADDR_HEADER);
+            Header initialPortHeader = request.getHeader(INITIAL_REMOTE_PORT_HEADER);
             if(initialAddrHeader != null)
                 request.removeHeader(initialAddrHeader.getName());
             if(initialPortHeader != null)
@@ -780,6 +904,7 @@ public class SIPBalancerForwarder implements SipListener {
             if (request.getMethod().equalsIgnoreCase(Request.INVITE) && ctx.balancerAlgorithm.blockInternalRequest(request)) {
                 Response response = balancerRunner.balancerContext.messageFactory.createResponse(Response.FORBIDDEN, request);          
                 response.setReasonPhrase("Destination not allowed");
+                notForwarded(request, "destination-not-allowed");
                 sipProvider.sendResponse(response);
                 return;
             }
@@ -851,8 +976,31 @@ public class SIPBalancerForwarder implements SipListener {
                 }
                 if (!securityCheck(request)){
                     logger.warn("Request failed at the security check:\n"+request);
+                    notForwarded(request, "security-check");
                 } else {
-                    nextNode = ctx.balancerAlgorithm.processExternalRequest(request,isIpv6);
+                    nextNode = retryNode != null ? retryNode : ctx.balancerAlgorithm.processExternalRequest(request,isIpv6);
+                    Node algorithmNode = nextNode;
+                    OutlierDetector outlierDetector = balancerRunner.balancerContext.outlierDetector;
+                    if(retryNode == null && outlierDetector != null && nextNode != null && isNewRequest(request)
+                    		&& !outlierDetector.admit(nextNode)) {
+                        // slow start of a re-admitted node, the requests of its calls still go to it
+                        Node otherNode = selectOtherNode(ctx, isIpv6, nextNode);
+                        if(otherNode != null)
+                            nextNode = otherNode;
+                    }
+                    OverloadController overloadController = balancerRunner.balancerContext.overloadController;
+                    if(retryNode == null && overloadController != null && nextNode != null && isNewRequest(request)
+                    		&& !overloadController.admit(nextNode)) {
+                    	Node otherNode = selectOtherNode(ctx, isIpv6, algorithmNode, nextNode);
+                    	if(otherNode == null || !overloadController.admit(otherNode)) {
+                    		rejectOverloaded(request, sipProvider, nextNode);
+                    		return;
+                    	}
+                    	nextNode = otherNode;
+                    }
+                    if(nextNode != algorithmNode)
+                    	((DefaultBalancerAlgorithm) ctx.balancerAlgorithm).reassign(request, nextNode);
+                    chosenNode = nextNode;
                 }
                 if(nextNode instanceof NullServerNode) {
                     if(logger.isDebugEnabled()) {
@@ -973,6 +1121,7 @@ public class SIPBalancerForwarder implements SipListener {
                 if(logger.isDebugEnabled()) {
                     logger.debug("No nodes available");
                 }
+                notForwarded(request, "no-node");
                 if(!Request.ACK.equalsIgnoreCase(request.getMethod())) {
                     try {
                         Response response = balancerRunner.balancerContext.messageFactory.createResponse(Response.SERVER_INTERNAL_ERROR, request);			
@@ -986,9 +1135,9 @@ public class SIPBalancerForwarder implements SipListener {
             } else {
 
             }
-            if(balancerRunner.balancerContext.maxRequestNumberWithoutResponse!=null 
+            if(balancerRunner.balancerContext.outlierDetector == null && balancerRunner.balancerContext.maxRequestNumberWithoutResponse!=null 
             		&& balancerRunner.balancerContext.maxResponseTime!=null&&!Request.ACK.equalsIgnoreCase(request.getMethod()))
-            	nodeHealthcheck(ctx, nextNode);
+            	nodeHealthcheck(ctx, nextNode, isIpv6);
         }
         if(logger.isDebugEnabled()) {
             logger.debug("Next node " + nextNode);
@@ -1041,7 +1190,8 @@ public class SIPBalancerForwarder implements SipListener {
         }
 
         // Stateless proxies must not use internal state or ransom values when creating branch because they
-        // must repeat exactly the same branches for retransmissions
+        // must repeat exactly the same branches for retransmissions, the attempt after a failover is kept
+        // until the request is forgotten
         final ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
         String newBranch = via.getBranch() + callID.substring(0, Math.min(callID.length(), 5));
         // Add the via header to the top of the header list.
@@ -1063,24 +1213,10 @@ public class SIPBalancerForwarder implements SipListener {
 		
 		if(!isIpv6)
 		{
-			if(balancerRunner.balancerContext.routingRulesIpv4!=null&&meantHost!=null)
+			if(balancerRunner.balancerContext.routingRuleTableIpv4!=null&&meantHost!=null&&!balancerRunner.balancerContext.routingRuleTableIpv4.isPatch(meantHost))
 			{
-				boolean found = false;
-				for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv4)
-				{
-					if(rule.getIpPattern().matcher(meantHost).matches()&&!rule.isPatch)
-					{
-						found = true;
-						externalViaHost = balancerRunner.balancerContext.externalHost;
-						internalViaHost = balancerRunner.balancerContext.internalHost;
-						break;
-					}
-				}
-				if(!found)
-				{
-					externalViaHost = balancerRunner.balancerContext.externalViaHost;
-					internalViaHost = balancerRunner.balancerContext.internalViaHost;
-				}
+				externalViaHost = balancerRunner.balancerContext.externalHost;
+				internalViaHost = balancerRunner.balancerContext.internalHost;
 			}
 			else
 			{
@@ -1090,24 +1226,10 @@ public class SIPBalancerForwarder implements SipListener {
 		}
 		else
 		{
-			if(balancerRunner.balancerContext.routingRulesIpv6!=null&&meantHost!=null)
+			if(balancerRunner.balancerContext.routingRuleTableIpv6!=null&&meantHost!=null&&!balancerRunner.balancerContext.routingRuleTableIpv6.isPatch(meantHost))
 			{
-				boolean found = false;
-				for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv6)
-				{
-					if(rule.getIpPattern().matcher(meantHost).matches()&&!rule.isPatch)
-					{
-						found = true;
-						externalViaHost = balancerRunner.balancerContext.externalIpv6Host;
-						internalViaHost = balancerRunner.balancerContext.internalIpv6Host;
-						break;
-					}
-				}
-				if(!found)
-				{
-					externalViaHost = balancerRunner.balancerContext.externalIpv6ViaHost;
-					internalViaHost = balancerRunner.balancerContext.internalIpv6ViaHost;
-				}
+				externalViaHost = balancerRunner.balancerContext.externalIpv6Host;
+				internalViaHost = balancerRunner.balancerContext.internalIpv6Host;
 			}
 			else
 			{
@@ -1149,10 +1271,10 @@ public class SIPBalancerForwarder implements SipListener {
 
 			if (balancerRunner.balancerContext.isTwoEntrypoints())
 				viaHeaderInternal = balancerRunner.balancerContext.headerFactory.createViaHeader(
-								internalViaHost,balancerRunner.balancerContext.getInternalViaPortByTransport(innerTransport,isIpv6),innerTransport, newBranch + "zsd" + "_"	+ version);
+								internalViaHost,balancerRunner.balancerContext.getInternalViaPortByTransport(innerTransport,isIpv6),innerTransport, newBranch + "zsd" + attemptSuffix + "_" + version);
 			else
 				viaHeaderInternal = balancerRunner.balancerContext.headerFactory.createViaHeader(
-								externalViaHost,balancerRunner.balancerContext.getExternalViaPortByTransport(innerTransport,isIpv6),innerTransport, newBranch + "zsd" + "_" + version);
+								externalViaHost,balancerRunner.balancerContext.getExternalViaPortByTransport(innerTransport,isIpv6),innerTransport, newBranch + "zsd" + attemptSuffix + "_" + version);
 		} else {
 			if (balancerRunner.balancerContext.isTwoEntrypoints())
 				viaHeaderInternal = balancerRunner.balancerContext.headerFactory.createViaHeader(
@@ -1187,6 +1309,7 @@ public class SIPBalancerForwarder implements SipListener {
         }
         if(getLoopbackUri(request, isIpv6) != null) {
             logger.warn("Drop. Cannot forward to loopback the following request: " + request);
+            notForwarded(request, "loopback");
             return;
         }
 
@@ -1194,8 +1317,13 @@ public class SIPBalancerForwarder implements SipListener {
         {
         	if (!isRequestFromServer) {
         		request.addHeader(viaHeaderExternal);
-        		if (viaHeaderInternal != null)
+        		if (viaHeaderInternal != null) {
+        			if(balancerRunner.balancerContext.overloadController != null)
+        				balancerRunner.balancerContext.overloadController.offer(viaHeaderInternal);
         			request.addHeader(viaHeaderInternal);
+        		}
+        		if(balancerRunner.balancerContext.outlierDetector != null && nextNode != null && !Request.ACK.equals(request.getMethod()))
+        			balancerRunner.balancerContext.outlierDetector.requestSent(nextNode, ((ViaHeader) request.getHeader(ViaHeader.NAME)).getBranch());
 
         		if(balancerRunner.balancerContext.terminateTLSTraffic) {
         			// https://github.com/RestComm/load-balancer/issues/67
@@ -1234,24 +1362,31 @@ public class SIPBalancerForwarder implements SipListener {
 	                }
         		}
         		
+        		EgressEncoder egressEncoder = balancerRunner.balancerContext.egressEncoder;
+        		if(egressEncoder != null && nextNode != null)
+        			egressEncoder.switchToTcp(request, nextNode, balancerRunner.balancerContext.isTwoEntrypoints()
+        					? balancerRunner.balancerContext.getInternalViaPortByTransport(ListeningPoint.TCP, isIpv6)
+        					: balancerRunner.balancerContext.getExternalViaPortByTransport(ListeningPoint.TCP, isIpv6));
+        		if(original != null && chosenNode != null)
+        			inFlightRequests.sent(original, request, sipProvider, isIpv6, chosenNode);
         		if(logger.isDebugEnabled()) {
                     logger.debug("Sending the request:\n" + request);
                 }
         		if (balancerRunner.balancerContext.isTwoEntrypoints())
         		{
         			if(!isIpv6)
-        				balancerRunner.balancerContext.internalSipProvider.sendRequest(request);
+        				sendRequest(balancerRunner.balancerContext.internalSipProvider, request);
         			else
         			{
-        				balancerRunner.balancerContext.internalIpv6SipProvider.sendRequest(request);
+        				sendRequest(balancerRunner.balancerContext.internalIpv6SipProvider, request);
         			}
         		}
         		else
         		{
         			if(!isIpv6)
-        				balancerRunner.balancerContext.externalSipProvider.sendRequest(request);
+        				sendRequest(balancerRunner.balancerContext.externalSipProvider, request);
         			else
-        				balancerRunner.balancerContext.externalIpv6SipProvider.sendRequest(request);
+        				sendRequest(balancerRunner.balancerContext.externalIpv6SipProvider, request);
         		}
         	} else {
         		// Check if the next hop is actually the load balancer again
@@ -1288,13 +1423,21 @@ public class SIPBalancerForwarder implements SipListener {
                     logger.debug("Sending the request:\n" + request);
                 }
         		if(!isIpv6)
-        			balancerRunner.balancerContext.externalSipProvider.sendRequest(request);
+        			sendRequest(balancerRunner.balancerContext.externalSipProvider, request);
         		else
-        			balancerRunner.balancerContext.externalIpv6SipProvider.sendRequest(request);
+        			sendRequest(balancerRunner.balancerContext.externalIpv6SipProvider, request);
         	}
         }
         catch (Exception e) 
         {
+        	if(original != null) {
+        		InFlightRequests.Attempt attempt = inFlightRequests.failed(((ViaHeader) request.getHeader(ViaHeader.NAME)).getBranch());
+        		if(attempt != null && failover(attempt, "sending failed : " + e.getMessage())) {
+        			notForwarded(request, "failover");
+        			return;
+        		}
+        	}
+        	notForwarded(request, "send-failed");
         	if((request.getMethod().equalsIgnoreCase(Request.OPTIONS)||e.getMessage().equals("Operation not permitted (sendto failed)"))
         			&&isRequestFromServer)
         			logger.warn("Problem with sending OPTIONS to external side possibly due to closed window in broweser");
@@ -1307,8 +1450,7 @@ public class SIPBalancerForwarder implements SipListener {
 					response.removeFirst(ViaHeader.NAME);
         			if(balancerRunner.balancerContext.isSend5xxResponseReasonHeader!=null)
         			{
-        				HeaderFactory hf=SipFactory.getInstance().createHeaderFactory();
-        				ReasonHeader reasonHeader = hf.createReasonHeader(transport, 
+        				ReasonHeader reasonHeader = balancerRunner.balancerContext.headerFactory.createReasonHeader(transport, 
         								balancerRunner.balancerContext.isSend5xxResponseSatusCode, 
         								balancerRunner.balancerContext.isSend5xxResponseReasonHeader);
         				response.setHeader(reasonHeader);
@@ -1341,14 +1483,17 @@ public class SIPBalancerForwarder implements SipListener {
         Header toHeader = request.getHeader("To");
         Header fromHeader = request.getHeader("From");
 
-        for (String blockedValue: balancerRunner.balancerContext.blockedList){
-            if(userAgentHeader != null && userAgentHeader.toString().toLowerCase().contains(blockedValue.toLowerCase())) {
-                return false;
-            } else if (toHeader != null && toHeader.toString().toLowerCase().contains(blockedValue.toLowerCase())) {
-                return false;
-            } else if (fromHeader != null && fromHeader.toString().toLowerCase().contains(blockedValue.toLowerCase())) {
-                return false;
-            }
+        BlockedValuesScanner blockedValues = balancerRunner.balancerContext.blockedValues;
+        String blockedValue = null;
+        if(userAgentHeader != null)
+            blockedValue = blockedValues.match(userAgentHeader.toString());
+        if(blockedValue == null && toHeader != null)
+            blockedValue = blockedValues.match(toHeader.toString());
+        if(blockedValue == null && fromHeader != null)
+            blockedValue = blockedValues.match(fromHeader.toString());
+        if(blockedValue != null) {
+            blockedValues.blocked(blockedValue);
+            return false;
         }
         return true;
     }
@@ -1489,24 +1634,10 @@ public class SIPBalancerForwarder implements SipListener {
 			RecordRouteHeader currInternalRR = null;
 			if(!isIpv6)
 			{
-				if(balancerRunner.balancerContext.routingRulesIpv4!=null&&received!=null)
+				if(balancerRunner.balancerContext.routingRuleTableIpv4!=null&&received!=null&&!balancerRunner.balancerContext.routingRuleTableIpv4.isPatch(received))
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv4)
-					{
-						if(rule.getIpPattern().matcher(received).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[transportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[internalTransportIndex];
-							break;
-						}
-					}
-					if(!found)
-					{
-						currExternalRR = balancerRunner.balancerContext.activeExternalHeader[transportIndex];
-						currInternalRR = balancerRunner.balancerContext.activeInternalHeader[internalTransportIndex];
-					}
+					currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[transportIndex];
+					currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[internalTransportIndex];
 				}
 				else
 				{
@@ -1516,24 +1647,10 @@ public class SIPBalancerForwarder implements SipListener {
 			}
 			else
 			{
-				if(balancerRunner.balancerContext.routingRulesIpv6!=null&&received!=null)
+				if(balancerRunner.balancerContext.routingRuleTableIpv6!=null&&received!=null&&!balancerRunner.balancerContext.routingRuleTableIpv6.isPatch(received))
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv6)
-					{
-						if(rule.getIpPattern().matcher(received).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[transportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[internalTransportIndex];
-							break;
-						}
-					}
-					if(!found)
-					{
-						currExternalRR = balancerRunner.balancerContext.activeExternalIpv6Header[transportIndex];
-						currInternalRR = balancerRunner.balancerContext.activeInternalIpv6Header[internalTransportIndex];
-					}
+					currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[transportIndex];
+					currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[internalTransportIndex];
 				}
 				else
 				{
@@ -1580,24 +1697,10 @@ public class SIPBalancerForwarder implements SipListener {
 			RecordRouteHeader currInternalRR = null;
 			if(!isIpv6)
 			{
-				if(balancerRunner.balancerContext.routingRulesIpv4!=null&&routeHost!=null)
+				if(balancerRunner.balancerContext.routingRuleTableIpv4!=null&&routeHost!=null&&!balancerRunner.balancerContext.routingRuleTableIpv4.isPatch(routeHost))
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv4)
-					{
-						if(rule.getIpPattern().matcher(routeHost).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[externalTransportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[transportIndex];
-							break;
-						}
-					}
-					if(!found)
-					{
-						currExternalRR = balancerRunner.balancerContext.activeExternalHeader[externalTransportIndex];
-						currInternalRR = balancerRunner.balancerContext.activeInternalHeader[transportIndex];
-					}
+					currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[externalTransportIndex];
+					currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[transportIndex];
 				}
 				else
 				{
@@ -1607,24 +1710,10 @@ public class SIPBalancerForwarder implements SipListener {
 			}
 			else
 			{
-				if(balancerRunner.balancerContext.routingRulesIpv6!=null&&routeHost!=null)
+				if(balancerRunner.balancerContext.routingRuleTableIpv6!=null&&routeHost!=null&&!balancerRunner.balancerContext.routingRuleTableIpv6.isPatch(routeHost))
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv6)
-					{
-						if(rule.getIpPattern().matcher(routeHost).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[externalTransportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[transportIndex];
-							break;
-						}
-					}
-					if(!found)
-					{
-						currExternalRR = balancerRunner.balancerContext.activeExternalIpv6Header[externalTransportIndex];
-						currInternalRR = balancerRunner.balancerContext.activeInternalIpv6Header[transportIndex];
-					}
+					currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[externalTransportIndex];
+					currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[transportIndex];
 				}
 				else
 				{
@@ -2027,6 +2116,27 @@ public class SIPBalancerForwarder implements SipListener {
      * @see javax.sip.SipListener#processResponse(javax.sip.ResponseEvent)
      */
     public void processResponse(ResponseEvent responseEvent) {
+    	NodeProber nodeProber = balancerRunner.balancerContext.nodeProber;
+    	if(nodeProber != null && nodeProber.responseReceived(responseEvent.getResponse()))
+    		return;
+    	SipAccessLog accessLog = balancerRunner.balancerContext.accessLog;
+    	if(accessLog == null) {
+    		handleResponse(responseEvent);
+    		return;
+    	}
+    	long startTime = System.nanoTime();
+    	handleResponse(responseEvent);
+    	long processingTime = System.nanoTime() - startTime;
+
+    	// our Via headers were removed, the top one is the next hop
+    	SIPResponse response = (SIPResponse) responseEvent.getResponse();
+    	ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+    	accessLog.record(response.getCallId().getCallId(), response.getCSeq().getMethod(), response.getStatusCode(),
+    			response.getPeerPacketSourceAddress(), response.getPeerPacketSourcePort(),
+    			via == null ? null : via.getHost(), via == null ? -1 : via.getPort(), processingTime, null);
+    }
+
+    private void handleResponse(ResponseEvent responseEvent) {
     	BalancerAppContent content=(BalancerAppContent)responseEvent.getSource();
     	boolean isIpv6 = content.isIpv6();
         SipProvider sipProvider = content.getProvider();
@@ -2051,6 +2161,21 @@ public class SIPBalancerForwarder implements SipListener {
         ViaHeader viaHeader = (ViaHeader) response.getHeader(ViaHeader.NAME);
 
         String branch = viaHeader.getBranch();
+        if(balancerRunner.balancerContext.overloadController != null && senderNode != null)
+        	balancerRunner.balancerContext.overloadController.responseReceived(senderNode, viaHeader);
+        InFlightRequests inFlightRequests = balancerRunner.balancerContext.inFlightRequests;
+        if(inFlightRequests != null) {
+        	int action = inFlightRequests.responseReceived(branch, response);
+        	if(action != InFlightRequests.FORWARD) {
+        		InFlightRequests.Attempt attempt = inFlightRequests.getAttempt(branch);
+        		// without another node the response is the answer of the UA
+        		if(attempt == null || action == InFlightRequests.DROP || failover(attempt, response.getStatusCode() + " answered")) {
+        			if(attempt != null && response.getStatusCode() >= 300)
+        				ackGivenUpAttempt(attempt, response);
+        			return;
+        		}
+        	}
+        }
         int versionDelimiter = branch.lastIndexOf('_');
         String version = branch.substring(versionDelimiter + 1);
 
@@ -2111,7 +2236,10 @@ public class SIPBalancerForwarder implements SipListener {
         	}
         }
 
-        if(fromServer) {
+        if(balancerRunner.balancerContext.outlierDetector != null && senderNode != null)
+        	balancerRunner.balancerContext.outlierDetector.responseReceived(branch, response.getStatusCode());
+
+        if(fromServer && balancerRunner.balancerContext.outlierDetector == null) {
         	if(senderNode!=null&&senderNode.getIp()!=null)
         	{
         		
@@ -2135,7 +2263,7 @@ public class SIPBalancerForwarder implements SipListener {
         	    		logger.warn("Node is null, we will not reset counters");
         	    	}
         		}
-        		mediaFailureDetection(response, ctx, senderNode);
+        		mediaFailureDetection(response, ctx, senderNode, isIpv6);
         	}
             /*
 			if("true".equals(balancerRunner.balancerContext.properties.getProperty("removeNodesOn500Response")) && response.getStatusCode() == 500) {
@@ -2168,9 +2296,9 @@ public class SIPBalancerForwarder implements SipListener {
                     logger.debug("from server sending response externally " + response);
                 }
                 if(!isIpv6)
-                	balancerRunner.balancerContext.externalSipProvider.sendResponse(response);
+                	sendResponse(balancerRunner.balancerContext.externalSipProvider, response);
                 else
-                	balancerRunner.balancerContext.externalIpv6SipProvider.sendResponse(response);
+                	sendResponse(balancerRunner.balancerContext.externalIpv6SipProvider, response);
 
             } catch (Exception ex) {
                 logger.error("Unexpected exception while forwarding the response \n" + response, ex);
@@ -2180,23 +2308,7 @@ public class SIPBalancerForwarder implements SipListener {
                 SIPMessage message = (SIPMessage)response;
 
                 String initialRemoteAddr = message.getPeerPacketSourceAddress().getHostAddress();
-                String initialRemotePort = String.valueOf(message.getPeerPacketSourcePort());
-
-                Header remoteAddrHeader = null;
-                Header remotePortHeader = null;
-                try {
-                	HeaderFactory hf=SipFactory.getInstance().createHeaderFactory();
-                    remoteAddrHeader = hf.createHeader("X-Sip-Balancer-InitialRemoteAddr", initialRemoteAddr);
-                    remotePortHeader = hf.createHeader("X-Sip-Balancer-InitialRemotePort", initialRemotePort);
-                } catch (PeerUnavailableException e) {
-                    logger.error("Unexpected exception while creating custom headers for REGISTER message ", e);
-                } catch (ParseException e) {
-                    logger.error("Unexpected exception while creating custom headers for REGISTER message ", e);
-                }
-                if (remoteAddrHeader != null)
-                    response.addHeader(remoteAddrHeader);
-                if (remotePortHeader != null)
-                    response.addHeader(remotePortHeader);
+                addInitialRemoteAddress(message);
                                 
                 if(balancerRunner.balancerContext.isTwoEntrypoints()) {
             	    ctx.balancerAlgorithm.processExternalResponse(response,isIpv6);
@@ -2205,9 +2317,9 @@ public class SIPBalancerForwarder implements SipListener {
                         logger.debug("two entry points: from external sending response " + response);
                     }
                     if(!isIpv6)
-                    	balancerRunner.balancerContext.internalSipProvider.sendResponse(response);
+                    	sendResponse(balancerRunner.balancerContext.internalSipProvider, response);
                     else
-                    	balancerRunner.balancerContext.internalIpv6SipProvider.sendResponse(response);
+                    	sendResponse(balancerRunner.balancerContext.internalIpv6SipProvider, response);
                 } else {
                 	if(!comesFromInternalNode(response,ctx,initialRemoteAddr,message.getPeerPacketSourcePort(),transport,isIpv6))
                 		ctx.balancerAlgorithm.processExternalResponse(response,isIpv6);
@@ -2218,9 +2330,9 @@ public class SIPBalancerForwarder implements SipListener {
                         logger.debug("one entry point: from external sending response " + response);
                     }
                     if(!isIpv6)
-                    	balancerRunner.balancerContext.externalSipProvider.sendResponse(response);
+                    	sendResponse(balancerRunner.balancerContext.externalSipProvider, response);
                     else
-                    	balancerRunner.balancerContext.externalIpv6SipProvider.sendResponse(response);
+                    	sendResponse(balancerRunner.balancerContext.externalIpv6SipProvider, response);
                 }
             } catch (Exception ex) {
                 logger.error("Unexpected exception while forwarding the response \n" + response, ex);
@@ -2228,9 +2340,147 @@ public class SIPBalancerForwarder implements SipListener {
         }
     }
 
-    private void mediaFailureDetection(Response response, InvocationContext ctx, Node node)
+    /**
+     * Records the address and port the message was received from for the nodes. The headers are
+     * built directly, their values need no parsing.
+     */
+    static void addInitialRemoteAddress(SIPMessage message)
+    {
+        message.addHeader(new ExtensionHeaderImpl(INITIAL_REMOTE_ADDR_HEADER,
+                message.getPeerPacketSourceAddress().getHostAddress()));
+        message.addHeader(new ExtensionHeaderImpl(INITIAL_REMOTE_PORT_HEADER,
+                String.valueOf(message.getPeerPacketSourcePort())));
+    }
+
+    /**
+     * Sends a forwarded request with the header names in compact form, if configured
+     */
+    private void sendRequest(SipProvider provider, Request request) throws SipException
+    {
+    	EgressEncoder egressEncoder = balancerRunner.balancerContext.egressEncoder;
+    	if(egressEncoder == null) {
+    		provider.sendRequest(request);
+    		((SIPMessage) request).setApplicationData(FORWARDED);
+    		return;
+    	}
+    	egressEncoder.compact((SIPMessage) request);
+    	try {
+    		provider.sendRequest(request);
+    	} finally {
+    		egressEncoder.expand((SIPMessage) request);
+    	}
+    	((SIPMessage) request).setApplicationData(FORWARDED);
+    }
+
+    /**
+     * Sends a forwarded response with the header names in compact form, if configured
+     */
+    private void sendResponse(SipProvider provider, Response response) throws SipException
+    {
+    	EgressEncoder egressEncoder = balancerRunner.balancerContext.egressEncoder;
+    	if(egressEncoder == null) {
+    		provider.sendResponse(response);
+    		return;
+    	}
+    	egressEncoder.compact((SIPMessage) response);
+    	try {
+    		provider.sendResponse(response);
+    	} finally {
+    		egressEncoder.expand((SIPMessage) response);
+    	}
+    }
+
+    /**
+     * Marks the node of a failed attempt suspect for a while and sends the request as received again,
+     * to a node not tried yet
+     * @return false if there is no other node, the node isn't suspect then
+     */
+    private boolean failover(InFlightRequests.Attempt attempt, String reason)
+    {
+    	Node node = attempt.getNode();
+    	InFlightRequests.InFlight inFlight = attempt.getInFlight();
+    	InvocationContext ctx = balancerRunner.getLatestInvocationContext();
+    	Node otherNode = selectOtherNode(ctx, inFlight.isIpv6(), inFlight.getNodes());
+    	if(otherNode == null) {
+    		logger.warn("Node " + node + " failed, " + reason + ", no other node for the " + attempt.getForwarded().getMethod());
+    		return false;
+    	}
+    	// the node stays in the cluster, its heartbeats are still accepted
+    	balancerRunner.balancerContext.inFlightRequests.suspect(node);
+    	logger.warn("Node " + node + " suspect, " + reason + ", " + attempt.getForwarded().getMethod() + " sent to " + otherNode);
+    	Request request = inFlight.getRequest();
+    	inFlight.retry(otherNode);
+    	((DefaultBalancerAlgorithm) ctx.balancerAlgorithm).reassign(request, otherNode);
+    	try {
+    		forwardRequest(inFlight.getProvider(), request, inFlight.isIpv6());
+    	} catch (Exception e) {
+    		logger.error("Unexpected exception while sending the request to another node", e);
+    	}
+    	return true;
+    }
+
+    /**
+     * Acknowledges the error response to an INVITE given up, it isn't forwarded to the UA that would do it
+     */
+    private void ackGivenUpAttempt(InFlightRequests.Attempt attempt, Response response)
+    {
+    	SIPRequest invite = (SIPRequest) attempt.getForwarded();
+    	if(!Request.INVITE.equals(invite.getMethod()))
+    		return;
+    	try {
+    		Request ack = invite.createErrorAck((To) response.getHeader(ToHeader.NAME));
+    		boolean isIpv6 = attempt.getInFlight().isIpv6();
+    		if(balancerRunner.balancerContext.isTwoEntrypoints())
+    			(isIpv6 ? balancerRunner.balancerContext.internalIpv6SipProvider : balancerRunner.balancerContext.internalSipProvider).sendRequest(ack);
+    		else
+    			(isIpv6 ? balancerRunner.balancerContext.externalIpv6SipProvider : balancerRunner.balancerContext.externalSipProvider).sendRequest(ack);
+    	} catch (Exception e) {
+    		logger.error("Unexpected exception while acknowledging " + response.getStatusCode() + " to " + attempt.getNode(), e);
+    	}
+    }
+
+    /**
+     * @return a node for the request other than the excluded ones, without changing the state of the
+     * algorithm, or null if there is none or the algorithm can't tell
+     */
+    private Node selectOtherNode(InvocationContext ctx, boolean isIpv6, Node... exclude)
+    {
+    	if(!(ctx.balancerAlgorithm instanceof DefaultBalancerAlgorithm))
+    		return null;
+    	return ((DefaultBalancerAlgorithm) ctx.balancerAlgorithm).selectNode(isIpv6, Arrays.asList(exclude));
+    }
+
+    /**
+     * @return true for the requests out of dialog the overload control may reject
+     */
+    private boolean isNewRequest(Request request)
+    {
+    	String method = request.getMethod();
+    	if(Request.ACK.equals(method) || Request.CANCEL.equals(method) || Request.BYE.equals(method) || Request.PRACK.equals(method))
+    		return false;
+    	ToHeader to = (ToHeader) request.getHeader(ToHeader.NAME);
+    	return to == null || to.getTag() == null;
+    }
+
+    private void rejectOverloaded(Request request, SipProvider sipProvider, Node node)
+    {
+    	notForwarded(request, "overload");
+    	if(logger.isDebugEnabled())
+    		logger.debug("Request rejected by the overload control of " + node + " :\n" + request);
+    	try {
+    		Response response = balancerRunner.balancerContext.messageFactory.createResponse(Response.SERVICE_UNAVAILABLE, request);
+    		response.setReasonPhrase("Overload control");
+    		Integer retryAfter = balancerRunner.balancerContext.overloadRetryAfter;
+    		if(retryAfter != null && retryAfter > 0)
+    			response.addHeader(balancerRunner.balancerContext.headerFactory.createRetryAfterHeader(retryAfter));
+    		sipProvider.sendResponse(response);
+    	} catch (Exception e) {
+    		logger.error("Unexpected exception while trying to reject this request for overload " + request, e);
+    	}
+    }
+
+    private void mediaFailureDetection(Response response, InvocationContext ctx, Node node, Boolean isIpV6)
     {
-    	Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	        
     	KeySip keySip = new KeySip(node,isIpV6);
     	// adding null check for https://github.com/RestComm/load-balancer/issues/83
     	Node currNode = ctx.sipNodeMap(isIpV6).get(keySip);
@@ -2255,9 +2505,8 @@ public class SIPBalancerForwarder implements SipListener {
     	}
     }
     
-    private void nodeHealthcheck(InvocationContext ctx, Node node)
+    private void nodeHealthcheck(InvocationContext ctx, Node node, Boolean isIpV6)
     {
-    	Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	        
     	KeySip keySip = new KeySip(node,isIpV6);
     	Node currNode = ctx.sipNodeMap(isIpV6).get(keySip);
     	long currentTime = System.currentTimeMillis();
@@ -2359,7 +2608,7 @@ public class SIPBalancerForwarder implements SipListener {
 			ListIterator<RecordRouteHeader> recordRouteHeaderList = sipMessage.getHeaders(RecordRouteHeader.NAME);
             
             try {
-                HeaderFactory headerFactory = SipFactory.getInstance().createHeaderFactory(); 
+                HeaderFactory headerFactory = balancerRunner.balancerContext.headerFactory;
                 Header contactHeader = null;
                 
                 if (!recordRouteHeaderList.hasNext()) {
@@ -2410,8 +2659,6 @@ public class SIPBalancerForwarder implements SipListener {
                 if(logger.isDebugEnabled() && contactHeader != null) {
                 		logger.debug("Patched the Contact header with : "+contactHeader.toString());
                 }
-            } catch (PeerUnavailableException peerUnavailableException) {
-                logger.error("Unexpected exception while forwarding the response \n" + sipMessage, peerUnavailableException);
             } catch (ParseException parseException) {
                 logger.error("Unexpected exception while forwarding the response \n" + sipMessage, parseException);
             } catch (NullPointerException e) {
@@ -2804,11 +3051,17 @@ public class SIPBalancerForwarder implements SipListener {
     	balancerRunner.balancerContext.matchingHostnameForRoute = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getMatchingHostnameForRoute();
     	balancerRunner.balancerContext.isFilterSubdomain = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getIsFilterSubdomain();
     	balancerRunner.balancerContext.internalTransport = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getInternalTransport();
-    	balancerRunner.balancerContext.blockedList = new ArrayList<String>(Arrays.asList(balancerRunner.balancerContext.lbConfig.getSipConfiguration().getBlockedValues().split(",")));
+    	if(balancerRunner.balancerContext.blockedValues != null)
+    		balancerRunner.balancerContext.blockedValues.stop();
+    	balancerRunner.balancerContext.blockedValues = new BlockedValuesScanner(balancerRunner.balancerContext.lbConfig.getSipConfiguration().getBlockedValues(), balancerRunner.balancerContext.lbConfig.getSipConfiguration().getBlockedValuesFile());
+    	balancerRunner.balancerContext.blockedValues.start(balancerRunner.balancerContext.lbConfig.getSipConfiguration().getBlockedValuesReloadPeriod());
     	balancerRunner.balancerContext.maxRequestNumberWithoutResponse = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getMaxRequestNumberWithoutResponse();
     	balancerRunner.balancerContext.maxResponseTime = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getMaxResponseTime();
+    	balancerRunner.balancerContext.overloadRetryAfter = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getOverloadRetryAfter();
     	balancerRunner.balancerContext.routingRulesIpv4 = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getRoutingRulesIpv4();
     	balancerRunner.balancerContext.routingRulesIpv6 = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getRoutingRulesIpv6();
+    	balancerRunner.balancerContext.routingRuleTableIpv4 = balancerRunner.balancerContext.routingRulesIpv4 == null ? null : new RoutingRuleTable(balancerRunner.balancerContext.routingRulesIpv4);
+    	balancerRunner.balancerContext.routingRuleTableIpv6 = balancerRunner.balancerContext.routingRulesIpv6 == null ? null : new RoutingRuleTable(balancerRunner.balancerContext.routingRulesIpv6);
     	
 	}
     
@@ -2856,8 +3109,14 @@ public class SIPBalancerForwarder implements SipListener {
             throw new IllegalStateException("Cant create stack due to["+pue.getMessage()+"]", pue);
         }
         balancerRunner.balancerContext.headerFactory = sipFactory.createHeaderFactory();
-        if(balancerRunner.balancerContext.lbConfig.getSipConfiguration().isUsePrettyEncoding())
-            ((HeaderFactoryImpl)balancerRunner.balancerContext.headerFactory).setPrettyEncoding(true);
+        SipConfiguration sipConfiguration = balancerRunner.balancerContext.lbConfig.getSipConfiguration();
+        if(sipConfiguration.isUsePrettyEncoding()) {
+            // the values of the Via and Record-Route lists on one line are shorter
+            if(sipConfiguration.getCompactHeaders())
+                logger.warn("usePrettyEncoding ignored, compactHeaders is set");
+            else
+                ((HeaderFactoryImpl)balancerRunner.balancerContext.headerFactory).setPrettyEncoding(true);
+        }
         balancerRunner.balancerContext.addressFactory = sipFactory.createAddressFactory();
         balancerRunner.balancerContext.messageFactory = sipFactory.createMessageFactory();
         
@@ -70,7 +70,11 @@ public class SIPBalancerValveProcessor implements SIPMessageValve {
 			}
 			
 			RequestEvent event = new RequestEvent(new BalancerAppContent(p,isIpv6), null, null, request);			
-			balancerRunner.balancerContext.forwarder.processRequest(event);
+			SipPipeline pipeline = balancerRunner.balancerContext.sipPipeline;
+			if(pipeline != null)
+				pipeline.processRequest(event);
+			else
+				balancerRunner.balancerContext.forwarder.processRequest(event);
 		} catch (Exception e) {
 			logger.error("A Problem happened in the BalancerValve on request " + request, e);
 			return false;
@@ -107,7 +111,11 @@ public class SIPBalancerValveProcessor implements SIPMessageValve {
 			}
 			
 			ResponseEvent event = new ResponseEvent(new BalancerAppContent(p,isIpv6), null, null, response);			
-			balancerRunner.balancerContext.forwarder.processResponse(event);
+			SipPipeline pipeline = balancerRunner.balancerContext.sipPipeline;
+			if(pipeline != null)
+				pipeline.processResponse(event);
+			else
+				balancerRunner.balancerContext.forwarder.processResponse(event);
 		} catch (Exception e) {
 			logger.error("A Problem happened in the BalancerValve on response " + response, e);
 			return false;
@@ -0,0 +1,262 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Access log of the SIP traffic, one line per request or response received :
+ * timestamp callIdHash method status source:port destination:port processingMicros reason
+ *
+ * The destination of a request not forwarded, rejected or dropped, is - and the reason tells why,
+ * the reason of a forwarded message is -.
+ *
+ * The forwarding threads only copy references and primitives into a preallocated ring buffer, the
+ * formatting and the file I/O are done by a background writer. When the buffer is full the record
+ * is dropped instead of blocking the SIP traffic. Sampling is done on the Call-ID so a call is
+ * either fully logged or not at all. The file is rolled over like the log4j RollingFileAppender.
+ */
+public class SipAccessLog {
+	private static final Logger logger = Logger.getLogger(SipAccessLog.class.getCanonicalName());
+
+	public static final int DEFAULT_CAPACITY = 65536;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxBackupIndex;
+	private final int samplingPercentage;
+
+	private final int mask;
+	private final AtomicLongArray published;
+	private final long[] timestamps;
+	private final int[] callIdHashes;
+	private final String[] methods;
+	private final int[] statuses;
+	private final InetAddress[] sources;
+	private final int[] sourcePorts;
+	private final String[] destinations;
+	private final int[] destinationPorts;
+	private final long[] processingTimes;
+	private final String[] reasons;
+
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final AtomicLong written = new AtomicLong(0);
+
+	private Thread writerThread;
+	private volatile boolean running;
+	private Writer writer;
+	private long fileSize;
+
+	public SipAccessLog(String fileName, int samplingPercentage, long maxFileSize, int maxBackupIndex)
+	{
+		this(fileName, samplingPercentage, maxFileSize, maxBackupIndex, DEFAULT_CAPACITY);
+	}
+
+	SipAccessLog(String fileName, int samplingPercentage, long maxFileSize, int maxBackupIndex, int capacity)
+	{
+		this.file = new File(fileName);
+		this.samplingPercentage = samplingPercentage;
+		this.maxFileSize = maxFileSize;
+		this.maxBackupIndex = maxBackupIndex;
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = size - 1;
+		this.published = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++)
+			published.set(i, -1);
+		this.timestamps = new long[size];
+		this.callIdHashes = new int[size];
+		this.methods = new String[size];
+		this.statuses = new int[size];
+		this.sources = new InetAddress[size];
+		this.sourcePorts = new int[size];
+		this.destinations = new String[size];
+		this.destinationPorts = new int[size];
+		this.processingTimes = new long[size];
+		this.reasons = new String[size];
+	}
+
+	public void start() throws IOException
+	{
+		openFile();
+		running = true;
+		writerThread = new Thread("SipAccessLogWriter") {
+			@Override
+			public void run() {
+				while(running || tail.get() < head.get()) {
+					try {
+						if(drain() == 0)
+							LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+					} catch (Exception e) {
+						logger.warn("Failed to write the SIP access log " + file, e);
+						LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+					}
+				}
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+		logger.info("SIP access log " + file + " started, sampling " + samplingPercentage + "%");
+	}
+
+	public void stop()
+	{
+		running = false;
+		if(writerThread != null) {
+			try {
+				writerThread.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			if(writer != null)
+				writer.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close the SIP access log " + file, e);
+		}
+	}
+
+	/**
+	 * @param status 0 for a request
+	 * @param processingTime nanoseconds spent by the load balancer on the message
+	 * @param reason why the message wasn't forwarded, null if it was
+	 */
+	public void record(String callId, String method, int status, InetAddress source, int sourcePort,
+			String destination, int destinationPort, long processingTime, String reason)
+	{
+		int callIdHash = callId == null ? 0 : callId.hashCode();
+		if(samplingPercentage < 100 && (callIdHash & Integer.MAX_VALUE) % 100 >= samplingPercentage)
+			return;
+
+		long sequence;
+		do {
+			sequence = head.get();
+			if(sequence - tail.get() > mask) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while(!head.compareAndSet(sequence, sequence + 1));
+
+		int index = (int) (sequence & mask);
+		timestamps[index] = System.currentTimeMillis();
+		callIdHashes[index] = callIdHash;
+		methods[index] = method;
+		statuses[index] = status;
+		sources[index] = source;
+		sourcePorts[index] = sourcePort;
+		destinations[index] = destination;
+		destinationPorts[index] = destinationPort;
+		processingTimes[index] = processingTime;
+		reasons[index] = reason;
+		published.lazySet(index, sequence);
+	}
+
+	/**
+	 * Writes the published records to the file
+	 * @return number of records written
+	 */
+	int drain() throws IOException
+	{
+		StringBuilder line = new StringBuilder(128);
+		int count = 0;
+		long sequence = tail.get();
+		while(sequence < head.get())
+		{
+			int index = (int) (sequence & mask);
+			if(published.get(index) != sequence)
+				// claimed but not yet filled by its producer
+				break;
+			line.setLength(0);
+			line.append(timestamps[index]).append(' ')
+				.append(Integer.toHexString(callIdHashes[index])).append(' ')
+				.append(methods[index]).append(' ')
+				.append(statuses[index]).append(' ');
+			appendAddress(line, sources[index] == null ? null : sources[index].getHostAddress(), sourcePorts[index]);
+			line.append(' ');
+			appendAddress(line, reasons[index] == null ? destinations[index] : null, destinationPorts[index]);
+			line.append(' ').append(processingTimes[index] / 1000).append(' ')
+				.append(reasons[index] == null ? "-" : reasons[index]).append('\n');
+			sources[index] = null;
+			destinations[index] = null;
+			methods[index] = null;
+			reasons[index] = null;
+			sequence++;
+			tail.lazySet(sequence);
+			write(line);
+			count++;
+		}
+		if(count > 0) {
+			writer.flush();
+			written.addAndGet(count);
+		}
+		return count;
+	}
+
+	private static void appendAddress(StringBuilder line, String host, int port)
+	{
+		if(host == null) {
+			line.append('-');
+			return;
+		}
+		line.append(host);
+		if(port > 0)
+			line.append(':').append(port);
+	}
+
+	private void write(StringBuilder line) throws IOException
+	{
+		if(maxFileSize > 0 && fileSize + line.length() > maxFileSize)
+			rollOver();
+		writer.append(line);
+		fileSize += line.length();
+	}
+
+	private void rollOver() throws IOException
+	{
+		writer.close();
+		if(maxBackupIndex > 0) {
+			File oldest = new File(file.getPath() + "." + maxBackupIndex);
+			if(oldest.exists())
+				oldest.delete();
+			for(int i = maxBackupIndex - 1; i >= 1; i--) {
+				File backup = new File(file.getPath() + "." + i);
+				if(backup.exists())
+					backup.renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+			file.renameTo(new File(file.getPath() + ".1"));
+		} else {
+			file.delete();
+		}
+		openFile();
+	}
+
+	private void openFile() throws IOException
+	{
+		fileSize = file.exists() ? file.length() : 0;
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8), 64 * 1024);
+	}
+
+	public long getRecordsWritten()
+	{
+		return written.get();
+	}
+
+	public long getRecordsDropped()
+	{
+		return dropped.get();
+	}
+}
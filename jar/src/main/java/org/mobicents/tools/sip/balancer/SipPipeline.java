@@ -0,0 +1,246 @@
+package org.mobicents.tools.sip.balancer;
+
+import gov.nist.javax.sip.message.SIPRequest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.message.Message;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Staged processing of the SIP traffic. The ingress stage runs on the JAIN SIP transport threads
+ * (the valve), it only does admission control and hands the message to the routing stage. The
+ * routing stage is made of lanes, a lane is a single worker thread with a bounded queue, the lane
+ * is chosen by Call-ID so messages of the same call are still processed in order. The egress
+ * (sendRequest/sendResponse) is done at the end of the routing by the lane thread as a failed send
+ * has to be answered right away.
+ *
+ * When the oldest message waiting in a lane is older than the maximum routing latency, or the lane
+ * is full, new INVITEs are answered with 503 and Retry-After. Requests inside a dialog and responses
+ * are never shed, if the lane is full the ingress thread waits for room in it so the messages of a
+ * call are never processed out of order, the transport threads then stop reading (back-pressure).
+ * ACKs are never answered, an ACK coming while the pipeline is stopping is dropped.
+ */
+public class SipPipeline {
+	private static final Logger logger = Logger.getLogger(SipPipeline.class.getCanonicalName());
+
+	private SIPBalancerForwarder forwarder;
+	private BalancerContext balancerContext;
+	private Lane[] lanes;
+	private long maxRoutingLatency;
+	private int retryAfter;
+
+	private AtomicLong invitesRejected = new AtomicLong(0);
+	private AtomicLong delayedByIngress = new AtomicLong(0);
+	// exponential moving average of the time spent in the routing stage, queueing included
+	private volatile long averageRoutingLatency;
+
+	private abstract class StageTask implements Runnable {
+		final long enqueued = System.nanoTime();
+
+		public void run() {
+			try {
+				process();
+			} catch (Throwable t) {
+				logger.error("Unexpected exception in the routing stage", t);
+			}
+			long latency = System.nanoTime() - enqueued;
+			averageRoutingLatency = averageRoutingLatency + ((latency - averageRoutingLatency) >> 4);
+		}
+
+		abstract void process();
+	}
+
+	private static class Lane extends ThreadPoolExecutor {
+		Lane(int id, int queueSize) {
+			super(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory(id));
+			// the ingress stage may put the messages straight in the queue, the worker has to be there
+			prestartAllCoreThreads();
+		}
+
+		// a lane blocks on DNS lookups and logging, a virtual thread releases its carrier meanwhile
+		private static ThreadFactory threadFactory(final int id) {
+			ThreadFactory virtualThreadFactory = VirtualThreads.newThreadFactory("SipRouting-" + id);
+			if(virtualThreadFactory != null)
+				return virtualThreadFactory;
+			return new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SipRouting-" + id);
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+
+		long oldestWaitingTime() {
+			StageTask head = (StageTask) getQueue().peek();
+			if(head == null)
+				return 0;
+			return System.nanoTime() - head.enqueued;
+		}
+	}
+
+	/**
+	 * @param workers number of routing lanes
+	 * @param queueSize maximum number of messages waiting in each lane
+	 * @param maxRoutingLatency milliseconds a message may wait in a lane before new INVITEs are rejected, null to never reject
+	 * @param retryAfter seconds sent in the Retry-After header of the 503
+	 */
+	public SipPipeline(SIPBalancerForwarder forwarder, BalancerContext balancerContext, int workers, int queueSize, Long maxRoutingLatency, int retryAfter)
+	{
+		this.forwarder = forwarder;
+		this.balancerContext = balancerContext;
+		this.retryAfter = retryAfter;
+		this.maxRoutingLatency = maxRoutingLatency == null ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maxRoutingLatency);
+		this.lanes = new Lane[workers];
+		for(int i = 0; i < workers; i++)
+			lanes[i] = new Lane(i, queueSize);
+		logger.info("SIP pipeline started with " + workers + " routing lanes of " + queueSize + " messages, max routing latency " + maxRoutingLatency + " ms");
+	}
+
+	public void stop()
+	{
+		for(Lane lane : lanes)
+			lane.shutdown();
+		for(Lane lane : lanes)
+		{
+			try {
+				lane.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public void processRequest(final RequestEvent requestEvent)
+	{
+		Request request = requestEvent.getRequest();
+		Lane lane = lane(request);
+		boolean isInitialInvite = Request.INVITE.equals(request.getMethod()) && ((ToHeader) request.getHeader(ToHeader.NAME)).getTag() == null;
+		if(isInitialInvite && lane.oldestWaitingTime() > maxRoutingLatency)
+		{
+			reject(requestEvent, "overload");
+			return;
+		}
+		StageTask task = new StageTask() {
+			void process() {
+				forwarder.processRequest(requestEvent);
+			}
+		};
+		try {
+			lane.execute(task);
+		} catch (RejectedExecutionException e) {
+			if(lane.isShutdown())
+				reject(requestEvent, "stopping");
+			else if(isInitialInvite || !waitForRoom(lane, task))
+				reject(requestEvent, "overload");
+		}
+	}
+
+	public void processResponse(final ResponseEvent responseEvent)
+	{
+		Lane lane = lane(responseEvent.getResponse());
+		StageTask task = new StageTask() {
+			void process() {
+				forwarder.processResponse(responseEvent);
+			}
+		};
+		try {
+			lane.execute(task);
+		} catch (RejectedExecutionException e) {
+			if(!waitForRoom(lane, task))
+				logger.warn("SIP pipeline stopped, dropping response " + responseEvent.getResponse().getStatusCode());
+		}
+	}
+
+	// blocks the ingress thread until the lane has room, false if the lane is stopped
+	private boolean waitForRoom(Lane lane, StageTask task)
+	{
+		if(lane.isShutdown())
+			return false;
+		delayedByIngress.incrementAndGet();
+		try {
+			lane.getQueue().put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	private Lane lane(Message message)
+	{
+		if(lanes.length == 1)
+			return lanes[0];
+		CallIdHeader callId = (CallIdHeader) message.getHeader(CallIdHeader.NAME);
+		int hash = callId == null ? 0 : callId.getCallId().hashCode();
+		return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+	}
+
+	private void reject(RequestEvent requestEvent, String reason)
+	{
+		Request request = requestEvent.getRequest();
+		SipAccessLog accessLog = balancerContext.accessLog;
+		if(accessLog != null)
+			accessLog.record(((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId(), request.getMethod(), 0,
+					((SIPRequest) request).getPeerPacketSourceAddress(), ((SIPRequest) request).getPeerPacketSourcePort(), null, -1, 0, reason);
+		if(Request.ACK.equals(request.getMethod()))
+		{
+			if(logger.isDebugEnabled())
+				logger.debug("SIP pipeline stopped, dropping ACK " + ((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId());
+			return;
+		}
+		if(Request.INVITE.equals(request.getMethod()))
+			invitesRejected.incrementAndGet();
+		if(logger.isDebugEnabled())
+			logger.debug("Routing stage overloaded, rejecting " + request.getMethod() + " " + ((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId());
+		try {
+			Response response = balancerContext.messageFactory.createResponse(Response.SERVICE_UNAVAILABLE, request);
+			response.addHeader(balancerContext.headerFactory.createRetryAfterHeader(retryAfter));
+			((BalancerAppContent) requestEvent.getSource()).getProvider().sendResponse(response);
+		} catch (Exception e) {
+			logger.error("Unexpected exception while rejecting a request because of overload", e);
+		}
+	}
+
+	public int getQueueDepth()
+	{
+		int depth = 0;
+		for(Lane lane : lanes)
+			depth += lane.getQueue().size();
+		return depth;
+	}
+
+	/**
+	 * @return average time in microseconds a message spends in the routing stage
+	 */
+	public long getAverageRoutingLatency()
+	{
+		return TimeUnit.NANOSECONDS.toMicros(averageRoutingLatency);
+	}
+
+	public long getInvitesRejected()
+	{
+		return invitesRejected.get();
+	}
+
+	/**
+	 * @return number of messages the ingress thread had to hold until their lane had room
+	 */
+	public long getDelayedByIngress()
+	{
+		return delayedByIngress.get();
+	}
+}
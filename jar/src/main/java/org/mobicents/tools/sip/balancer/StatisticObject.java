@@ -28,6 +28,42 @@ public class StatisticObject
 	private Long NumberOfSmppRequestsToClient;
 	private Long NumberOfSmppRequestsToServer;
 	private Integer NumberOfActiveCalls;
+	private Integer SipPipelineQueueDepth;
+	private Long SipPipelineRoutingLatency;
+	private Long NumberOfInvitesRejectedByPipeline;
+	private Long NumberOfMessagesDelayedByIngress;
+	private Long NumberOfSslHandshakes;
+	private Double SslSessionResumptionRatio;
+	private Long NumberOfSslNodeHandshakes;
+	private Double SslNodeSessionResumptionRatio;
+	private Long NumberOfHttpPoolConnectionsCreated;
+	private Long NumberOfHttpPoolConnectionsReused;
+	private Long NumberOfHttpPoolRequestsQueued;
+	private Integer HttpPoolIdleConnections;
+	private Integer HttpPoolOpenConnections;
+	private Long NumberOfHttp2Streams;
+	private Integer NumberOfActiveHttp2Streams;
+	private Long NumberOfHttp2StreamErrors;
+	private Long Http2StreamAverageTime;
+	private Long NumberOfHttpReadsPaused;
+	private Integer NumberOfHttpPausedChannels;
+	private Long NumberOfHttpCacheHits;
+	private Long NumberOfHttpCacheMisses;
+	private Long NumberOfHttpCacheNotModified;
+	private Integer HttpCacheEntries;
+	private Long HttpCacheSize;
+	private Long NumberOfSipRequestsBlocked;
+	private Long NumberOfSipNodeEjections;
+	private Integer NumberOfEjectedSipNodes;
+	private Long NumberOfSipNodeProbeFailures;
+	private Integer NumberOfSipNodesDown;
+	private Long NumberOfSipRequestsAdmittedByOverloadControl;
+	private Long NumberOfSipRequestsThrottled;
+	private Long NumberOfSipFastFailovers;
+	private Integer NumberOfSipNodeConnections;
+	private Long NumberOfSipNodeReconnects;
+	private Long NumberOfSipBytesSavedByCompactHeaders;
+	private Long NumberOfSipRequestsSwitchedToTcp;
 	
 	public StatisticObject(BalancerRunner balancerRunner){
 		
@@ -60,6 +96,42 @@ public class StatisticObject
 		this.NumberOfSmppRequestsToClient = balancerRunner.getNumberOfSmppRequestsToClient();
 		this.NumberOfSmppRequestsToServer = balancerRunner.getNumberOfSmppRequestsToServer();
 		this.NumberOfActiveCalls = balancerRunner.getNumberOfActiveCalls();
+		this.SipPipelineQueueDepth = balancerRunner.getSipPipelineQueueDepth();
+		this.SipPipelineRoutingLatency = balancerRunner.getSipPipelineRoutingLatency();
+		this.NumberOfInvitesRejectedByPipeline = balancerRunner.getNumberOfInvitesRejectedByPipeline();
+		this.NumberOfMessagesDelayedByIngress = balancerRunner.getNumberOfMessagesDelayedByIngress();
+		this.NumberOfSslHandshakes = balancerRunner.getNumberOfSslHandshakes();
+		this.SslSessionResumptionRatio = balancerRunner.getSslSessionResumptionRatio();
+		this.NumberOfSslNodeHandshakes = balancerRunner.getNumberOfSslNodeHandshakes();
+		this.SslNodeSessionResumptionRatio = balancerRunner.getSslNodeSessionResumptionRatio();
+		this.NumberOfHttpPoolConnectionsCreated = balancerRunner.getNumberOfHttpPoolConnectionsCreated();
+		this.NumberOfHttpPoolConnectionsReused = balancerRunner.getNumberOfHttpPoolConnectionsReused();
+		this.NumberOfHttpPoolRequestsQueued = balancerRunner.getNumberOfHttpPoolRequestsQueued();
+		this.HttpPoolIdleConnections = balancerRunner.getHttpPoolIdleConnections();
+		this.HttpPoolOpenConnections = balancerRunner.getHttpPoolOpenConnections();
+		this.NumberOfHttp2Streams = balancerRunner.getNumberOfHttp2Streams();
+		this.NumberOfActiveHttp2Streams = balancerRunner.getNumberOfActiveHttp2Streams();
+		this.NumberOfHttp2StreamErrors = balancerRunner.getNumberOfHttp2StreamErrors();
+		this.Http2StreamAverageTime = balancerRunner.getHttp2StreamAverageTime();
+		this.NumberOfHttpReadsPaused = balancerRunner.getNumberOfHttpReadsPaused();
+		this.NumberOfHttpPausedChannels = balancerRunner.getNumberOfHttpPausedChannels();
+		this.NumberOfHttpCacheHits = balancerRunner.getNumberOfHttpCacheHits();
+		this.NumberOfHttpCacheMisses = balancerRunner.getNumberOfHttpCacheMisses();
+		this.NumberOfHttpCacheNotModified = balancerRunner.getNumberOfHttpCacheNotModified();
+		this.HttpCacheEntries = balancerRunner.getHttpCacheEntries();
+		this.HttpCacheSize = balancerRunner.getHttpCacheSize();
+		this.NumberOfSipRequestsBlocked = balancerRunner.getNumberOfSipRequestsBlocked();
+		this.NumberOfSipNodeEjections = balancerRunner.getNumberOfSipNodeEjections();
+		this.NumberOfEjectedSipNodes = balancerRunner.getNumberOfEjectedSipNodes();
+		this.NumberOfSipNodeProbeFailures = balancerRunner.getNumberOfSipNodeProbeFailures();
+		this.NumberOfSipNodesDown = balancerRunner.getNumberOfSipNodesDown();
+		this.NumberOfSipRequestsAdmittedByOverloadControl = balancerRunner.getNumberOfSipRequestsAdmittedByOverloadControl();
+		this.NumberOfSipRequestsThrottled = balancerRunner.getNumberOfSipRequestsThrottled();
+		this.NumberOfSipFastFailovers = balancerRunner.getNumberOfSipFastFailovers();
+		this.NumberOfSipNodeConnections = balancerRunner.getNumberOfSipNodeConnections();
+		this.NumberOfSipNodeReconnects = balancerRunner.getNumberOfSipNodeReconnects();
+		this.NumberOfSipBytesSavedByCompactHeaders = balancerRunner.getNumberOfSipBytesSavedByCompactHeaders();
+		this.NumberOfSipRequestsSwitchedToTcp = balancerRunner.getNumberOfSipRequestsSwitchedToTcp();
 		this.activeNodes = balancerRunner.getLatestInvocationContext().sipNodeMap(false).size() + 
 				balancerRunner.getLatestInvocationContext().sipNodeMap(true).size();
 	}
@@ -194,6 +266,294 @@ public class StatisticObject
 		NumberOfActiveCalls = numberOfActiveCalls;
 	}
 
+	public Integer getSipPipelineQueueDepth() {
+		return SipPipelineQueueDepth;
+	}
+
+	public void setSipPipelineQueueDepth(Integer sipPipelineQueueDepth) {
+		SipPipelineQueueDepth = sipPipelineQueueDepth;
+	}
+
+	public Long getSipPipelineRoutingLatency() {
+		return SipPipelineRoutingLatency;
+	}
+
+	public void setSipPipelineRoutingLatency(Long sipPipelineRoutingLatency) {
+		SipPipelineRoutingLatency = sipPipelineRoutingLatency;
+	}
+
+	public Long getNumberOfInvitesRejectedByPipeline() {
+		return NumberOfInvitesRejectedByPipeline;
+	}
+
+	public void setNumberOfInvitesRejectedByPipeline(Long numberOfInvitesRejectedByPipeline) {
+		NumberOfInvitesRejectedByPipeline = numberOfInvitesRejectedByPipeline;
+	}
+
+	public Long getNumberOfMessagesDelayedByIngress() {
+		return NumberOfMessagesDelayedByIngress;
+	}
+
+	public void setNumberOfMessagesDelayedByIngress(Long numberOfMessagesDelayedByIngress) {
+		NumberOfMessagesDelayedByIngress = numberOfMessagesDelayedByIngress;
+	}
+
+	public Long getNumberOfSslHandshakes() {
+		return NumberOfSslHandshakes;
+	}
+
+	public void setNumberOfSslHandshakes(Long numberOfSslHandshakes) {
+		NumberOfSslHandshakes = numberOfSslHandshakes;
+	}
+
+	public Double getSslSessionResumptionRatio() {
+		return SslSessionResumptionRatio;
+	}
+
+	public void setSslSessionResumptionRatio(Double sslSessionResumptionRatio) {
+		SslSessionResumptionRatio = sslSessionResumptionRatio;
+	}
+
+	public Long getNumberOfSslNodeHandshakes() {
+		return NumberOfSslNodeHandshakes;
+	}
+
+	public void setNumberOfSslNodeHandshakes(Long numberOfSslNodeHandshakes) {
+		NumberOfSslNodeHandshakes = numberOfSslNodeHandshakes;
+	}
+
+	public Double getSslNodeSessionResumptionRatio() {
+		return SslNodeSessionResumptionRatio;
+	}
+
+	public void setSslNodeSessionResumptionRatio(Double sslNodeSessionResumptionRatio) {
+		SslNodeSessionResumptionRatio = sslNodeSessionResumptionRatio;
+	}
+
+	public Long getNumberOfHttpPoolConnectionsCreated() {
+		return NumberOfHttpPoolConnectionsCreated;
+	}
+
+	public void setNumberOfHttpPoolConnectionsCreated(Long numberOfHttpPoolConnectionsCreated) {
+		NumberOfHttpPoolConnectionsCreated = numberOfHttpPoolConnectionsCreated;
+	}
+
+	public Long getNumberOfHttpPoolConnectionsReused() {
+		return NumberOfHttpPoolConnectionsReused;
+	}
+
+	public void setNumberOfHttpPoolConnectionsReused(Long numberOfHttpPoolConnectionsReused) {
+		NumberOfHttpPoolConnectionsReused = numberOfHttpPoolConnectionsReused;
+	}
+
+	public Long getNumberOfHttpPoolRequestsQueued() {
+		return NumberOfHttpPoolRequestsQueued;
+	}
+
+	public void setNumberOfHttpPoolRequestsQueued(Long numberOfHttpPoolRequestsQueued) {
+		NumberOfHttpPoolRequestsQueued = numberOfHttpPoolRequestsQueued;
+	}
+
+	public Integer getHttpPoolIdleConnections() {
+		return HttpPoolIdleConnections;
+	}
+
+	public void setHttpPoolIdleConnections(Integer httpPoolIdleConnections) {
+		HttpPoolIdleConnections = httpPoolIdleConnections;
+	}
+
+	public Integer getHttpPoolOpenConnections() {
+		return HttpPoolOpenConnections;
+	}
+
+	public void setHttpPoolOpenConnections(Integer httpPoolOpenConnections) {
+		HttpPoolOpenConnections = httpPoolOpenConnections;
+	}
+
+	public Long getNumberOfHttp2Streams() {
+		return NumberOfHttp2Streams;
+	}
+
+	public void setNumberOfHttp2Streams(Long numberOfHttp2Streams) {
+		NumberOfHttp2Streams = numberOfHttp2Streams;
+	}
+
+	public Integer getNumberOfActiveHttp2Streams() {
+		return NumberOfActiveHttp2Streams;
+	}
+
+	public void setNumberOfActiveHttp2Streams(Integer numberOfActiveHttp2Streams) {
+		NumberOfActiveHttp2Streams = numberOfActiveHttp2Streams;
+	}
+
+	public Long getNumberOfHttp2StreamErrors() {
+		return NumberOfHttp2StreamErrors;
+	}
+
+	public void setNumberOfHttp2StreamErrors(Long numberOfHttp2StreamErrors) {
+		NumberOfHttp2StreamErrors = numberOfHttp2StreamErrors;
+	}
+
+	public Long getHttp2StreamAverageTime() {
+		return Http2StreamAverageTime;
+	}
+
+	public void setHttp2StreamAverageTime(Long http2StreamAverageTime) {
+		Http2StreamAverageTime = http2StreamAverageTime;
+	}
+
+	public Long getNumberOfHttpReadsPaused() {
+		return NumberOfHttpReadsPaused;
+	}
+
+	public void setNumberOfHttpReadsPaused(Long numberOfHttpReadsPaused) {
+		NumberOfHttpReadsPaused = numberOfHttpReadsPaused;
+	}
+
+	public Integer getNumberOfHttpPausedChannels() {
+		return NumberOfHttpPausedChannels;
+	}
+
+	public void setNumberOfHttpPausedChannels(Integer numberOfHttpPausedChannels) {
+		NumberOfHttpPausedChannels = numberOfHttpPausedChannels;
+	}
+
+	public Long getNumberOfHttpCacheHits() {
+		return NumberOfHttpCacheHits;
+	}
+
+	public void setNumberOfHttpCacheHits(Long numberOfHttpCacheHits) {
+		NumberOfHttpCacheHits = numberOfHttpCacheHits;
+	}
+
+	public Long getNumberOfHttpCacheMisses() {
+		return NumberOfHttpCacheMisses;
+	}
+
+	public void setNumberOfHttpCacheMisses(Long numberOfHttpCacheMisses) {
+		NumberOfHttpCacheMisses = numberOfHttpCacheMisses;
+	}
+
+	public Long getNumberOfHttpCacheNotModified() {
+		return NumberOfHttpCacheNotModified;
+	}
+
+	public void setNumberOfHttpCacheNotModified(Long numberOfHttpCacheNotModified) {
+		NumberOfHttpCacheNotModified = numberOfHttpCacheNotModified;
+	}
+
+	public Integer getHttpCacheEntries() {
+		return HttpCacheEntries;
+	}
+
+	public void setHttpCacheEntries(Integer httpCacheEntries) {
+		HttpCacheEntries = httpCacheEntries;
+	}
+
+	public Long getHttpCacheSize() {
+		return HttpCacheSize;
+	}
+
+	public void setHttpCacheSize(Long httpCacheSize) {
+		HttpCacheSize = httpCacheSize;
+	}
+
+	public Long getNumberOfSipRequestsBlocked() {
+		return NumberOfSipRequestsBlocked;
+	}
+
+	public void setNumberOfSipRequestsBlocked(Long numberOfSipRequestsBlocked) {
+		NumberOfSipRequestsBlocked = numberOfSipRequestsBlocked;
+	}
+
+	public Long getNumberOfSipNodeEjections() {
+		return NumberOfSipNodeEjections;
+	}
+
+	public void setNumberOfSipNodeEjections(Long numberOfSipNodeEjections) {
+		NumberOfSipNodeEjections = numberOfSipNodeEjections;
+	}
+
+	public Integer getNumberOfEjectedSipNodes() {
+		return NumberOfEjectedSipNodes;
+	}
+
+	public void setNumberOfEjectedSipNodes(Integer numberOfEjectedSipNodes) {
+		NumberOfEjectedSipNodes = numberOfEjectedSipNodes;
+	}
+
+	public Long getNumberOfSipNodeProbeFailures() {
+		return NumberOfSipNodeProbeFailures;
+	}
+
+	public void setNumberOfSipNodeProbeFailures(Long numberOfSipNodeProbeFailures) {
+		NumberOfSipNodeProbeFailures = numberOfSipNodeProbeFailures;
+	}
+
+	public Integer getNumberOfSipNodesDown() {
+		return NumberOfSipNodesDown;
+	}
+
+	public void setNumberOfSipNodesDown(Integer numberOfSipNodesDown) {
+		NumberOfSipNodesDown = numberOfSipNodesDown;
+	}
+
+	public Long getNumberOfSipRequestsAdmittedByOverloadControl() {
+		return NumberOfSipRequestsAdmittedByOverloadControl;
+	}
+
+	public void setNumberOfSipRequestsAdmittedByOverloadControl(Long numberOfSipRequestsAdmittedByOverloadControl) {
+		NumberOfSipRequestsAdmittedByOverloadControl = numberOfSipRequestsAdmittedByOverloadControl;
+	}
+
+	public Long getNumberOfSipRequestsThrottled() {
+		return NumberOfSipRequestsThrottled;
+	}
+
+	public void setNumberOfSipRequestsThrottled(Long numberOfSipRequestsThrottled) {
+		NumberOfSipRequestsThrottled = numberOfSipRequestsThrottled;
+	}
+
+	public Long getNumberOfSipFastFailovers() {
+		return NumberOfSipFastFailovers;
+	}
+
+	public void setNumberOfSipFastFailovers(Long numberOfSipFastFailovers) {
+		NumberOfSipFastFailovers = numberOfSipFastFailovers;
+	}
+
+	public Integer getNumberOfSipNodeConnections() {
+		return NumberOfSipNodeConnections;
+	}
+
+	public void setNumberOfSipNodeConnections(Integer numberOfSipNodeConnections) {
+		NumberOfSipNodeConnections = numberOfSipNodeConnections;
+	}
+
+	public Long getNumberOfSipNodeReconnects() {
+		return NumberOfSipNodeReconnects;
+	}
+
+	public void setNumberOfSipNodeReconnects(Long numberOfSipNodeReconnects) {
+		NumberOfSipNodeReconnects = numberOfSipNodeReconnects;
+	}
+
+	public Long getNumberOfSipBytesSavedByCompactHeaders() {
+		return NumberOfSipBytesSavedByCompactHeaders;
+	}
+
+	public void setNumberOfSipBytesSavedByCompactHeaders(Long numberOfSipBytesSavedByCompactHeaders) {
+		NumberOfSipBytesSavedByCompactHeaders = numberOfSipBytesSavedByCompactHeaders;
+	}
+
+	public Long getNumberOfSipRequestsSwitchedToTcp() {
+		return NumberOfSipRequestsSwitchedToTcp;
+	}
+
+	public void setNumberOfSipRequestsSwitchedToTcp(Long numberOfSipRequestsSwitchedToTcp) {
+		NumberOfSipRequestsSwitchedToTcp = numberOfSipRequestsSwitchedToTcp;
+	}
+
 	public String getReleaseName() {
 		return releaseName;
 	}
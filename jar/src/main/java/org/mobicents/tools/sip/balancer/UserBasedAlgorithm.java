@@ -32,8 +32,6 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.sip.ListeningPoint;
 import javax.sip.address.SipURI;
@@ -64,6 +62,7 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 	protected boolean groupedFailover = false;
 	
 	protected Timer cacheEvictionTimer = new Timer();
+	protected AffinityStore affinityStore;
 	
 	@Override
 	public void processInternalRequest(Request request) {
@@ -95,7 +94,7 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 		if(!found) {
 			String headerKey = extractHeaderKey(response);
 			
-			Node node = userToMap.get(headerKey);
+			Node node = lookupNode(headerKey, isIpV6);
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, headerKey, isIpV6);
@@ -165,7 +164,7 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 		if(!found) {
 			String headerKey = extractHeaderKey(response);
 			
-			Node node = userToMap.get(headerKey);
+			Node node = lookupNode(headerKey, isIpV6);
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, headerKey, isIpV6);
@@ -214,27 +213,25 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 	public Node processExternalRequest(Request request, Boolean isIpV6) {
 		String headerKey = extractHeaderKey(request);
 		Node node = null;
-		if (balancerContext.regexMap != null && balancerContext.regexMap.size() != 0) {
+		if (!balancerContext.regexRoutingTable.isEmpty()) {
 			if (logger.isDebugEnabled())
-				logger.debug("regexMap is not empty : " + balancerContext.regexMap);
+				logger.debug("regex routes are not empty : " + balancerContext.regexRoutingTable);
 
-			for (Entry<String, KeySip> entry : balancerContext.regexMap.entrySet()) {
-				Pattern r = Pattern.compile(entry.getKey());
-				Matcher m = r.matcher(headerKey);
-				if (m.find()) {
-					node = invocationContext.sipNodeMap(isIpV6).get(entry.getValue());
+			for (RegexRoutingTable.Route route : balancerContext.regexRoutingTable.candidates(headerKey)) {
+				if (route.matches(headerKey)) {
+					node = invocationContext.sipNodeMap(isIpV6).get(route.getTarget());
 					if (node != null) {
 						if (logger.isDebugEnabled())
-							logger.debug("Found node for pattern : " + entry.getKey() + " and key :" + entry.getValue());
+							logger.debug("Found node for pattern : " + route.getRegex() + " and key :" + route.getTarget());
 						return node;
 					} else {
 						if (logger.isDebugEnabled())
-							logger.debug("Node not found in the map of nodes. It is null. For pattern: " + entry.getKey() + " and key :" + entry.getValue());
+							logger.debug("Node not found in the map of nodes. It is null. For pattern: " + route.getRegex() + " and key :" + route.getTarget());
 					}
 				}
 			}
 		} else {
-			node = userToMap.get(headerKey);
+			node = lookupNode(headerKey, isIpV6);
 			headerToTimestamps.put(headerKey, System.currentTimeMillis());
 		}
 
@@ -246,6 +243,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 
 			if(node == null) return null;
 			userToMap.put(headerKey, node);
+			if(affinityStore != null)
+				affinityStore.put(headerKey, node, isIpV6);
 			if(logger.isDebugEnabled()) {
 	    		logger.debug("No node found in the affinity map. It is null. We select new node: " + node);
 	    	}
@@ -288,6 +287,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 				return null;
 			}
 			userToMap.put(user, node);
+			if(affinityStore != null)
+				affinityStore.put(user, node, isIpV6);
 		}
 		
 		if(logger.isDebugEnabled()) {
@@ -400,7 +401,11 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 						for(String key : oldCalls) {
 							userToMap.remove(key);
 							headerToTimestamps.remove(key);
+							if(affinityStore != null)
+								affinityStore.remove(key);
 						}
+						if(affinityStore != null)
+							affinityStore.evictRestored(System.currentTimeMillis() - 1000L*maxCallIdleTime);
 						if(oldCalls.size()>0) {
 							logger.info("Reaping idle calls... Evicted " + oldCalls.size() + " calls.");
 						}}
@@ -415,7 +420,13 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 			this.groupedFailover = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().isCallIdAffinityGroupFailover();
 		}
 		logger.info("Grouped failover is set to " + this.groupedFailover);
-		
+
+		if(balancerContext != null) {
+			this.affinityStore = balancerContext.affinityStore;
+		}
+		// the timestamps in the store are at most a tenth of the idle time late
+		if(affinityStore != null)
+			affinityStore.setRefreshPeriod(100L*maxCallIdleTime);
 	}
 	
 	@Override
@@ -429,6 +440,33 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 	public void assignToNode(String id, Node node) {
 		userToMap.put(id, node);
 		headerToTimestamps.put(id, System.currentTimeMillis());
+		if(affinityStore != null)
+			affinityStore.put(id, node, LbUtils.isValidInet6Address(node.getIp()));
+	}
+
+	@Override
+	public void reassign(Request request, Node node) {
+		// the regex routes aren't changed
+		if(balancerContext.regexRoutingTable.isEmpty())
+			assignToNode(extractHeaderKey(request), node);
+	}
+
+	/**
+	 * Looks up the affinity map, falling back to the entries restored from the affinity store at start.
+	 * The entry found is refreshed in the store
+	 */
+	protected Node lookupNode(String headerKey, Boolean isIpV6) {
+		Node node = userToMap.get(headerKey);
+		if(node != null && affinityStore != null)
+			affinityStore.touch(headerKey, node, isIpV6);
+		if(node == null && affinityStore != null) {
+			node = affinityStore.restore(headerKey, invocationContext.sipNodeMap(isIpV6));
+			if(node != null) {
+				userToMap.put(headerKey, node);
+				headerToTimestamps.put(headerKey, System.currentTimeMillis());
+			}
+		}
+		return node;
 	}
 	
 	@Override
@@ -442,6 +480,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 					Node n = userToMap.get(key);
 					if(n.equals(oldNode)) {
 						userToMap.replace(key, newNode);
+						if(affinityStore != null)
+							affinityStore.put(key, newNode, LbUtils.isValidInet6Address(newNode.getIp()));
 						updatedRoutes++;
 					}
 				}
@@ -471,6 +511,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 					Node n = userToMap.get(key);
 					if(n.equals(oldNode)) {
 						userToMap.replace(key, newNode);
+						if(affinityStore != null)
+							affinityStore.put(key, newNode, LbUtils.isValidInet6Address(newNode.getIp()));
 						updatedRoutes++;
 					}
 				}
@@ -0,0 +1,112 @@
+package org.mobicents.tools.sip.balancer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the executors used for blocking work (SMPP binds, blocking sockets, SIP routing) either
+ * with platform threads, as before, or with virtual threads when the load balancer runs on a JDK
+ * supporting them and useVirtualThreads is set. The JDK 21 API is called through reflection so the
+ * load balancer still builds and runs on older JDKs.
+ *
+ * Only the SMPP handler executor, the SMPP worker executor with blocking sockets and the routing lanes
+ * of the SIP pipeline are created here. The JAIN SIP transport threads and the Netty NIO boss and
+ * worker threads (HTTP, HTTP/2, heartbeat) loop on a selector, they don't block per task and stay
+ * platform threads.
+ */
+public class VirtualThreads {
+	private static final Logger logger = Logger.getLogger(VirtualThreads.class.getCanonicalName());
+
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null, name = null, factory = null, newThreadPerTaskExecutor = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = ofVirtual.getReturnType();
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (Exception e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+
+	private static volatile boolean enabled;
+
+	/**
+	 * @return true if the running JDK supports virtual threads
+	 */
+	public static boolean isSupported()
+	{
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Switches the executors created afterwards to virtual threads
+	 */
+	public static void setEnabled(boolean useVirtualThreads)
+	{
+		if(useVirtualThreads && !isSupported())
+		{
+			logger.warn("Virtual threads are not supported by JDK " + System.getProperty("java.version") + ", using platform threads");
+			useVirtualThreads = false;
+		}
+		enabled = useVirtualThreads;
+		if(enabled)
+			logger.info("Blocking tasks will run on virtual threads");
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @return an executor starting one virtual thread per task if enabled, a cached thread pool otherwise
+	 */
+	public static ExecutorService newCachedThreadPool(String name)
+	{
+		if(!enabled)
+			return Executors.newCachedThreadPool();
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, virtualThreadFactory(name));
+		} catch (Exception e) {
+			logger.warn("Unable to create a virtual thread executor for " + name + ", using platform threads", e);
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * @return a factory creating virtual threads named name-N if enabled, null otherwise
+	 */
+	public static ThreadFactory newThreadFactory(String name)
+	{
+		if(!enabled)
+			return null;
+		try {
+			return virtualThreadFactory(name);
+		} catch (Exception e) {
+			logger.warn("Unable to create a virtual thread factory for " + name + ", using platform threads", e);
+			return null;
+		}
+	}
+
+	private static ThreadFactory virtualThreadFactory(String name) throws Exception
+	{
+		Object builder = OF_VIRTUAL.invoke(null);
+		builder = NAME.invoke(builder, name + "-", 0L);
+		return (ThreadFactory) FACTORY.invoke(builder);
+	}
+}
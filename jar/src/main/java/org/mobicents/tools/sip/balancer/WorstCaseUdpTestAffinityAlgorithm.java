@@ -428,6 +428,11 @@ public class WorstCaseUdpTestAffinityAlgorithm extends DefaultBalancerAlgorithm
 		callIdTimestamps.put(id, System.currentTimeMillis());
 	}
 
+	@Override
+	public void reassign(Request request, Node node) {
+		assignToNode(((SIPHeader) request.getHeader(headerName)).getValue(), node);
+	}
+
 	@Override
 	public void jvmRouteSwitchover(String fromJvmRoute, String toJvmRoute) {
 		try {
@@ -22,7 +22,6 @@ package org.mobicents.tools.smpp.balancer.core;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -31,6 +30,7 @@ import org.mobicents.tools.heartbeat.api.Node;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 import org.mobicents.tools.sip.balancer.InvocationContext;
 import org.mobicents.tools.sip.balancer.KeySmpp;
+import org.mobicents.tools.sip.balancer.VirtualThreads;
 import org.mobicents.tools.smpp.balancer.api.ClientConnection;
 import org.mobicents.tools.smpp.balancer.api.Dispatcher;
 import org.mobicents.tools.smpp.balancer.api.LbClientListener;
@@ -55,7 +55,7 @@ public class BalancerDispatcher extends Dispatcher implements LbClientListener,
 	private AtomicInteger notBindClients = new AtomicInteger(0);
 	private AtomicInteger notRespondedPackets = new AtomicInteger(0);
 	private ScheduledExecutorService monitorExecutor; 
-	private ExecutorService handlerService = Executors.newCachedThreadPool();
+	private ExecutorService handlerService = VirtualThreads.newCachedThreadPool("SmppHandler");
 	private long reconnectPeriod;
 	private BalancerRunner balancerRunner;
 	private AtomicInteger counterConnections = new AtomicInteger(0);
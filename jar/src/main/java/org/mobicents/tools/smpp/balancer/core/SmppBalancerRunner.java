@@ -19,13 +19,14 @@
 
 package org.mobicents.tools.smpp.balancer.core;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
+import org.mobicents.tools.sip.balancer.VirtualThreads;
 import org.mobicents.tools.smpp.balancer.api.Dispatcher;
 import org.mobicents.tools.smpp.multiplexer.MBalancerDispatcher;
 import org.mobicents.tools.smpp.multiplexer.MServer;
@@ -43,7 +44,7 @@ public class SmppBalancerRunner {
 	private static final Logger logger = Logger.getLogger(SmppBalancerRunner.class);
 	
 	private Dispatcher dispatcher;
-	private ThreadPoolExecutor executor = (ThreadPoolExecutor)Executors.newCachedThreadPool();
+	private ExecutorService executor;
 	private ScheduledExecutorService monitorExecutor  = Executors.newScheduledThreadPool(4);
 	private MServer mSmppLbServer;
 	private BalancerServer smppLbServer;
@@ -72,6 +73,11 @@ public class SmppBalancerRunner {
        	regularConfiguration.setNonBlockingSocketsEnabled(balancerRunner.balancerContext.lbConfig.getSmppConfiguration().isNonBlockingSocketsEnabled());
       	regularConfiguration.setDefaultSessionCountersEnabled(balancerRunner.balancerContext.lbConfig.getSmppConfiguration().isDefaultSessionCountersEnabled());
         regularConfiguration.setUseSsl(false);                
+        // with blocking sockets every connection holds a worker thread, these can be virtual threads
+        if(regularConfiguration.isNonBlockingSocketsEnabled())
+        	executor = Executors.newCachedThreadPool();
+        else
+        	executor = VirtualThreads.newCachedThreadPool("SmppWorker");
         
         SmppServerConfiguration securedConfiguration = null;
         Integer smppSslPort = balancerRunner.balancerContext.lbConfig.getSmppConfiguration().getSmppSslPort();
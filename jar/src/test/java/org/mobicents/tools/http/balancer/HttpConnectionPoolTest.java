@@ -0,0 +1,72 @@
+package org.mobicents.tools.http.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+import org.mobicents.tools.sip.balancer.operation.Helper;
+
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.WebConversation;
+import com.meterware.httpunit.WebResponse;
+
+public class HttpConnectionPoolTest
+{
+	private static BalancerRunner balancerRunner;
+	private static int numberNodes = 2;
+	private static int numberRequests = 20;
+	private static HttpServer [] serverArray;
+
+	@BeforeClass
+	public static void initialization()
+	{
+		balancerRunner = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		lbConfig.getHttpConfiguration().setMaxIdleConnectionsPerNode(10);
+		balancerRunner.start(lbConfig);
+		serverArray = new HttpServer[numberNodes];
+		for(int i = 0; i < numberNodes; i++)
+		{
+			serverArray[i] = new HttpServer(7080+i, 4444+i, 2222+i);
+			serverArray[i].start();
+			Helper.sleep(1000);
+		}
+		Helper.sleep(5000);
+	}
+
+	//requests of a keep-alive client are sent on the pooled connections
+	@Test
+	public void testConnectionsReused() throws Exception
+	{
+		WebConversation conversation = new WebConversation();
+		for(int i = 0; i < numberRequests; i++)
+		{
+			WebResponse response = conversation.getResponse(new GetMethodWebRequest("http://127.0.0.1:2080/app?fName=Konstantin&lName=Nosach"));
+			assertEquals(200, response.getResponseCode());
+		}
+		Helper.sleep(1000);
+
+		int requests = 0;
+		for(int i = 0; i < numberNodes; i++)
+			requests += serverArray[i].getRequstCount().get();
+		assertEquals(numberRequests, requests);
+		assertTrue(balancerRunner.getNumberOfHttpPoolConnectionsReused() > 0);
+		assertTrue(balancerRunner.getNumberOfHttpPoolConnectionsCreated() < numberRequests);
+		assertTrue(balancerRunner.getHttpPoolIdleConnections() > 0);
+	}
+
+	@AfterClass
+	public static void finalization()
+	{
+		for(int i = 0; i < serverArray.length; i++)
+			serverArray[i].stop();
+
+		balancerRunner.stop();
+	}
+}
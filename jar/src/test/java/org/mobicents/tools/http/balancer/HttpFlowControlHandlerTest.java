@@ -0,0 +1,114 @@
+package org.mobicents.tools.http.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.sip.balancer.BalancerContext;
+
+public class HttpFlowControlHandlerTest {
+
+	private BalancerContext balancerContext;
+	private ServerBootstrap bootstrap;
+	private Channel serverChannel;
+	private final BlockingQueue<Channel> accepted = new LinkedBlockingQueue<Channel>();
+
+	@Before
+	public void setUp() throws Exception {
+		balancerContext = new BalancerContext();
+		balancerContext.lbConfig = new LoadBalancerConfiguration();
+		balancerContext.lbConfig.getHttpConfiguration().setWriteBufferHighWaterMark(8192);
+		balancerContext.lbConfig.getHttpConfiguration().setWriteBufferLowWaterMark(4096);
+		HttpChannelAssociations.channels = new ConcurrentHashMap<AdvancedChannel, AdvancedChannel>();
+
+		bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new HttpFlowControlHandler(balancerContext), new SimpleChannelUpstreamHandler() {
+					@Override
+					public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+						accepted.offer(e.getChannel());
+					}
+				});
+			}
+		});
+		serverChannel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		serverChannel.close().awaitUninterruptibly();
+		bootstrap.releaseExternalResources();
+	}
+
+	// the node is read again once the slow client has read what was written to it
+	@Test
+	public void testPauseAndResume() throws Exception {
+		InetSocketAddress address = (InetSocketAddress) serverChannel.getLocalAddress();
+		Socket clientSocket = new Socket();
+		clientSocket.setReceiveBufferSize(4096);
+		clientSocket.connect(address);
+		Channel client = accepted.poll(5, TimeUnit.SECONDS);
+		Socket nodeSocket = new Socket(address.getAddress(), address.getPort());
+		Channel node = accepted.poll(5, TimeUnit.SECONDS);
+		HttpChannelAssociations.channels.put(new AdvancedChannel(client), new AdvancedChannel(node));
+		HttpChannelAssociations.channels.put(new AdvancedChannel(node), new AdvancedChannel(client));
+
+		// the client doesn't read, its kernel buffers fill and the writes queue up
+		long written = 0;
+		while(client.isWritable() && written < 64 * 1024 * 1024) {
+			client.write(ChannelBuffers.wrappedBuffer(new byte[8192]));
+			written += 8192;
+			Thread.sleep(1);
+		}
+		assertFalse(client.isWritable());
+		waitFor(node, false);
+		assertFalse(node.isReadable());
+		assertEquals(1, balancerContext.httpReadsPaused.get());
+		assertEquals(1, balancerContext.httpPausedChannels.get());
+
+		InputStream in = clientSocket.getInputStream();
+		byte[] buffer = new byte[65536];
+		long read = 0;
+		while(read < written) {
+			int count = in.read(buffer);
+			assertTrue(count > 0);
+			read += count;
+		}
+		waitFor(node, true);
+		assertTrue(node.isReadable());
+		assertEquals(1, balancerContext.httpReadsPaused.get());
+		assertEquals(0, balancerContext.httpPausedChannels.get());
+
+		clientSocket.close();
+		nodeSocket.close();
+	}
+
+	private static void waitFor(Channel channel, boolean readable) throws InterruptedException {
+		for(int i = 0; i < 500 && channel.isReadable() != readable; i++)
+			Thread.sleep(10);
+	}
+}
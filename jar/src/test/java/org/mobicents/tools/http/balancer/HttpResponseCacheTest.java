@@ -0,0 +1,172 @@
+package org.mobicents.tools.http.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+public class HttpResponseCacheTest {
+
+	private final HttpResponseCache cache = new HttpResponseCache(Pattern.compile("^/static/"), 100000);
+
+	static HttpRequest request(String uri) {
+		return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+	}
+
+	static HttpResponse response(String cacheControl, String body) throws Exception {
+		HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+		if (cacheControl != null)
+			response.setHeader(Names.CACHE_CONTROL, cacheControl);
+		response.setContent(ChannelBuffers.wrappedBuffer(body.getBytes("UTF-8")));
+		response.setHeader(Names.CONTENT_LENGTH, String.valueOf(body.length()));
+		return response;
+	}
+
+	private void store(HttpRequest request, HttpResponse response) throws Exception {
+		String key = cache.cacheKey(request);
+		assertNotNull(key);
+		byte[] content = new byte[response.getContent().readableBytes()];
+		response.getContent().getBytes(0, content);
+		assertTrue(cache.put(key, request, response, content));
+	}
+
+	@Test
+	public void testCacheKey() {
+		assertNotNull(cache.cacheKey(request("/static/app.js")));
+		assertNull(cache.cacheKey(request("/restcomm/2012-04-24/Accounts")));
+		HttpRequest post = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/static/app.js");
+		assertNull(cache.cacheKey(post));
+		HttpRequest authorized = request("/static/app.js");
+		authorized.setHeader(Names.AUTHORIZATION, "Basic YWRtaW46YWRtaW4=");
+		assertNull(cache.cacheKey(authorized));
+	}
+
+	@Test
+	public void testHit() throws Exception {
+		store(request("/static/app.js"), response("public, max-age=60", "alert(1)"));
+		HttpRequest request = request("/static/app.js");
+		HttpResponse cached = cache.get(cache.cacheKey(request), request);
+		assertNotNull(cached);
+		assertEquals(200, cached.getStatus().getCode());
+		assertEquals("alert(1)", cached.getContent().toString(Charset.forName("UTF-8")));
+		assertEquals("8", cached.getHeader(Names.CONTENT_LENGTH));
+		assertNotNull(cached.getHeader(Names.AGE));
+		// each hit has its own buffer
+		assertEquals(8, cache.get(cache.cacheKey(request), request).getContent().readableBytes());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getEntries());
+	}
+
+	@Test
+	public void testNotCacheable() throws Exception {
+		assertFalse(HttpResponseCache.isCacheable(response(null, "a")));
+		assertFalse(HttpResponseCache.isCacheable(response("no-store, max-age=60", "a")));
+		assertFalse(HttpResponseCache.isCacheable(response("private, max-age=60", "a")));
+		assertFalse(HttpResponseCache.isCacheable(response("max-age=0", "a")));
+		HttpResponse cookie = response("max-age=60", "a");
+		cookie.setHeader(Names.SET_COOKIE, "JSESSIONID=1");
+		assertFalse(HttpResponseCache.isCacheable(cookie));
+		HttpResponse notFound = response("max-age=60", "a");
+		notFound.setStatus(HttpResponseStatus.NOT_FOUND);
+		assertFalse(HttpResponseCache.isCacheable(notFound));
+		assertTrue(HttpResponseCache.isCacheable(response("s-maxage=10, max-age=0", "a")));
+	}
+
+	@Test
+	public void testConditionalRequests() throws Exception {
+		HttpResponse response = response("max-age=60", "body");
+		response.setHeader(Names.ETAG, "\"v1\"");
+		response.setHeader(Names.LAST_MODIFIED, "Tue, 15 Nov 1994 12:45:26 GMT");
+		store(request("/static/logo.png"), response);
+
+		HttpRequest ifNoneMatch = request("/static/logo.png");
+		ifNoneMatch.setHeader(Names.IF_NONE_MATCH, "\"v0\", W/\"v1\"");
+		HttpResponse notModified = cache.get(cache.cacheKey(ifNoneMatch), ifNoneMatch);
+		assertEquals(304, notModified.getStatus().getCode());
+		assertEquals("\"v1\"", notModified.getHeader(Names.ETAG));
+		assertEquals(0, notModified.getContent().readableBytes());
+
+		HttpRequest otherTag = request("/static/logo.png");
+		otherTag.setHeader(Names.IF_NONE_MATCH, "\"v2\"");
+		assertEquals(200, cache.get(cache.cacheKey(otherTag), otherTag).getStatus().getCode());
+
+		HttpRequest ifModifiedSince = request("/static/logo.png");
+		ifModifiedSince.setHeader(Names.IF_MODIFIED_SINCE, "Wed, 16 Nov 1994 08:00:00 GMT");
+		assertEquals(304, cache.get(cache.cacheKey(ifModifiedSince), ifModifiedSince).getStatus().getCode());
+		assertEquals(2, cache.getNotModified());
+	}
+
+	@Test
+	public void testNoCacheRequest() throws Exception {
+		store(request("/static/app.js"), response("max-age=60", "a"));
+		HttpRequest request = request("/static/app.js");
+		request.setHeader(Names.CACHE_CONTROL, "no-cache");
+		assertNull(cache.get(cache.cacheKey(request), request));
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testMaxAgeRequest() throws Exception {
+		HttpResponse response = response("max-age=60", "a");
+		response.setHeader(Names.AGE, "30");
+		store(request("/static/app.js"), response);
+		HttpRequest request = request("/static/app.js");
+		request.setHeader(Names.CACHE_CONTROL, "max-age=10");
+		assertNull(cache.get(cache.cacheKey(request), request));
+		request.setHeader(Names.CACHE_CONTROL, "max-age=40");
+		assertNotNull(cache.get(cache.cacheKey(request), request));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getEntries());
+	}
+
+	@Test
+	public void testVary() throws Exception {
+		HttpRequest gzip = request("/static/app.js");
+		gzip.setHeader(Names.ACCEPT_ENCODING, "gzip");
+		HttpResponse gzipResponse = response("max-age=60", "compressed");
+		gzipResponse.setHeader(Names.VARY, "Accept-Encoding");
+		store(gzip, gzipResponse);
+
+		HttpRequest identity = request("/static/app.js");
+		assertNull(cache.get(cache.cacheKey(identity), identity));
+		HttpResponse identityResponse = response("max-age=60", "plain");
+		identityResponse.setHeader(Names.VARY, "Accept-Encoding");
+		store(identity, identityResponse);
+
+		assertEquals(2, cache.getEntries());
+		HttpRequest otherGzip = request("/static/app.js");
+		otherGzip.setHeader(Names.ACCEPT_ENCODING, "gzip");
+		assertEquals(10, cache.get(cache.cacheKey(otherGzip), otherGzip).getContent().readableBytes());
+		assertEquals(5, cache.get(cache.cacheKey(identity), identity).getContent().readableBytes());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 9000; i++)
+			body.append('x');
+		for (int i = 0; i < 20; i++)
+			store(request("/static/" + i), response("max-age=60", body.toString()));
+		assertTrue(cache.getSize() <= 100000);
+		assertTrue(cache.getEntries() < 20);
+		HttpRequest eldest = request("/static/0");
+		assertNull(cache.get(cache.cacheKey(eldest), eldest));
+		HttpRequest latest = request("/static/19");
+		assertNotNull(cache.get(cache.cacheKey(latest), latest));
+	}
+}
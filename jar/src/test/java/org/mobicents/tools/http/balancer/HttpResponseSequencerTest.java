@@ -0,0 +1,63 @@
+package org.mobicents.tools.http.balancer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.netty.channel.Channel;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpResponseSequencerTest {
+
+	List<Object> written;
+	HttpResponseSequencer sequencer;
+
+	@Before
+	public void setUp() {
+		written = new ArrayList<Object>();
+		Channel client = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if(method.getName().equals("write"))
+					written.add(args[0]);
+				return null;
+			}
+		});
+		sequencer = new HttpResponseSequencer(client);
+	}
+
+	@Test
+	public void testResponsesInOrder() {
+		HttpResponseSequencer.Slot first = sequencer.nextSlot();
+		HttpResponseSequencer.Slot second = sequencer.nextSlot();
+		first.write("response1", true);
+		second.write("response2", true);
+		assertEquals(Arrays.asList("response1", "response2"), written);
+		assertEquals(0, sequencer.getPendingResponses());
+	}
+
+	@Test
+	public void testLaterResponseBuffered() {
+		HttpResponseSequencer.Slot first = sequencer.nextSlot();
+		HttpResponseSequencer.Slot second = sequencer.nextSlot();
+		HttpResponseSequencer.Slot third = sequencer.nextSlot();
+		third.write("response3", true);
+		second.write("response2", false);
+		assertEquals(0, written.size());
+
+		first.write("response1", false);
+		first.write("chunk1", true);
+		// the second response is written up to its last received chunk
+		assertEquals(Arrays.asList("response1", "chunk1", "response2"), written);
+		assertEquals(2, sequencer.getPendingResponses());
+
+		second.write("chunk2", true);
+		assertEquals(Arrays.asList("response1", "chunk1", "response2", "chunk2", "response3"), written);
+		assertEquals(0, sequencer.getPendingResponses());
+	}
+}
@@ -20,6 +20,7 @@
 package org.mobicents.tools.http.balancer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.Semaphore;
 
@@ -100,6 +101,9 @@ public class HttpsBalancerWithHttpsServerTest
 		
 		for(int i = 0; i < numberUsers;i++)
 			assertEquals(200,userArray[i].codeResponse);
+		
+		assertTrue(balancerRunner.getNumberOfSslHandshakes() > 0);
+		assertTrue(balancerRunner.getNumberOfSslNodeHandshakes() > 0);
     }
 	
 	@AfterClass
@@ -0,0 +1,66 @@
+package org.mobicents.tools.http.urlrewriting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class UrlRewriteEngineTest {
+
+	static Element rules(String rules) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(("<urlrewrite>" + rules + "</urlrewrite>").getBytes("UTF-8"))).getDocumentElement();
+	}
+
+	@Test
+	public void testRewrite() throws Exception {
+		UrlRewriteEngine engine = UrlRewriteEngine.compile(rules(
+				"<rule><from>someCompany</from><to>restcomm</to></rule>"
+				+ "<rule><from>^/old/(\\w+)/(\\d+)$</from><to>/new/$2/$1</to></rule>"));
+		assertNotNull(engine);
+		assertEquals("/restcomm/2012-04-24/Accounts", engine.rewrite("/someCompany/2012-04-24/Accounts"));
+		// case insensitive by default
+		assertEquals("/restcomm/calls", engine.rewrite("/SOMECOMPANY/calls"));
+		assertEquals("/new/42/item", engine.rewrite("/Old/item/42"));
+		String uri = "/mobius/2012-04-24/Accounts";
+		assertSame(uri, engine.rewrite(uri));
+	}
+
+	@Test
+	public void testRulesInOrder() throws Exception {
+		UrlRewriteEngine engine = UrlRewriteEngine.compile(rules(
+				"<rule><from casesensitive=\"true\">^/a/</from><to>/b/</to></rule>"
+				+ "<rule><from>^/b/</from><to last=\"true\">/c/</to></rule>"
+				+ "<rule><from>^/c/</from><to>/d/</to></rule>"
+				+ "<rule enabled=\"false\"><from>^/</from><to>/disabled/</to></rule>"));
+		assertEquals("/c/x", engine.rewrite("/a/x"));
+		assertEquals("/A/x", engine.rewrite("/A/x"));
+		assertEquals("/", engine.rewrite(""));
+	}
+
+	@Test
+	public void testServletFilterFallback() throws Exception {
+		assertNull(UrlRewriteEngine.compile(rules(
+				"<rule><condition name=\"host\">example.com</condition><from>^/a</from><to>/b</to></rule>")));
+		assertNull(UrlRewriteEngine.compile(rules("<rule match-type=\"wildcard\"><from>/a/**</from><to>/b/$1</to></rule>")));
+		assertNull(UrlRewriteEngine.compile(rules("<rule><from>^/a</from><to>%{context-path}/b</to></rule>")));
+		// encoded uris are decoded by the servlet filter
+		assertNull(UrlRewriteEngine.compile(rules("<rule><from>^/a</from><to>/b</to></rule>")).rewrite("/a%20b"));
+	}
+
+	@Test
+	public void testLeadingLiteral() {
+		assertEquals("/api/", UrlRewriteEngine.leadingLiteral("^/api/v?1", 1));
+		assertEquals("/api.", UrlRewriteEngine.leadingLiteral("^/api\\.\\d+", 1));
+		assertEquals("/aa", UrlRewriteEngine.leadingLiteral("^/aa+b", 1));
+		assertNull(UrlRewriteEngine.leadingLiteral("^/a|/b", 1));
+		assertNull(UrlRewriteEngine.leadingLiteral(".*/a", 0));
+	}
+}
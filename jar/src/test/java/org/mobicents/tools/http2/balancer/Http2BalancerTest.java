@@ -0,0 +1,131 @@
+package org.mobicents.tools.http2.balancer;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.http.balancer.HttpServer;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+import org.mobicents.tools.sip.balancer.operation.Helper;
+
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.WebConversation;
+import com.meterware.httpunit.WebResponse;
+
+public class Http2BalancerTest
+{
+	private static BalancerRunner balancerRunner;
+	private static int numberNodes = 2;
+	private static int numberStreams = 10;
+	private static HttpServer [] serverArray;
+
+	@BeforeClass
+	public static void initialization()
+	{
+		balancerRunner = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		lbConfig.getHttpConfiguration().setHttp2CleartextPort(2090);
+		balancerRunner.start(lbConfig);
+		serverArray = new HttpServer[numberNodes];
+		for(int i = 0; i < numberNodes; i++)
+		{
+			serverArray[i] = new HttpServer(7080+i, 4444+i, 2222+i);
+			serverArray[i].start();
+			Helper.sleep(1000);
+		}
+		Helper.sleep(5000);
+	}
+
+	//streams of one h2c connection with prior knowledge are all answered
+	@Test
+	public void testStreamsOfOneConnection() throws Exception
+	{
+		final ConcurrentHashMap<Integer, Integer> statusByStream = new ConcurrentHashMap<Integer, Integer>();
+		final CountDownLatch responses = new CountDownLatch(numberStreams);
+		EventLoopGroup group = new NioEventLoopGroup(1);
+		try {
+			Channel channel = new Bootstrap().group(group).channel(NioSocketChannel.class)
+					.handler(new ChannelInitializer<SocketChannel>() {
+						@Override
+						protected void initChannel(SocketChannel ch) throws Exception {
+							DefaultHttp2Connection connection = new DefaultHttp2Connection(false);
+							ch.pipeline().addLast(new HttpToHttp2ConnectionHandlerBuilder()
+									.connection(connection)
+									.frameListener(new InboundHttp2ToHttpAdapterBuilder(connection).maxContentLength(65536).build())
+									.build());
+							ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+								@Override
+								protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+									statusByStream.put(response.headers().getInt(ExtensionHeaderNames.STREAM_ID.text()), response.status().code());
+									responses.countDown();
+								}
+							});
+						}
+					}).connect("127.0.0.1", 2090).sync().channel();
+			for(int i = 0; i < numberStreams; i++)
+			{
+				FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/app?fName=Konstantin&lName=Nosach");
+				request.headers().set(HttpHeaderNames.HOST, "127.0.0.1:2090");
+				request.headers().set(ExtensionHeaderNames.SCHEME.text(), "http");
+				request.headers().setInt(ExtensionHeaderNames.STREAM_ID.text(), 3 + 2 * i);
+				channel.writeAndFlush(request);
+			}
+			responses.await(10, TimeUnit.SECONDS);
+			channel.close().sync();
+		} finally {
+			group.shutdownGracefully().sync();
+		}
+
+		assertEquals(numberStreams, statusByStream.size());
+		for(Integer status : statusByStream.values())
+			assertEquals(200, status.intValue());
+		assertEquals(numberStreams, balancerRunner.getNumberOfHttp2Streams());
+		assertEquals(0, balancerRunner.getNumberOfActiveHttp2Streams());
+	}
+
+	//HTTP/1.1 clients are still served on the cleartext port
+	@Test
+	public void testHttp1Request() throws Exception
+	{
+		WebConversation conversation = new WebConversation();
+		WebResponse response = conversation.getResponse(new GetMethodWebRequest("http://127.0.0.1:2090/app?fName=Konstantin&lName=Nosach"));
+		assertEquals(200, response.getResponseCode());
+	}
+
+	@AfterClass
+	public static void finalization()
+	{
+		for(int i = 0; i < serverArray.length; i++)
+			serverArray[i].stop();
+
+		balancerRunner.stop();
+	}
+}
@@ -0,0 +1,153 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.net.DatagramSocket;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+/**
+ * Two call-id affinity algorithms replicating their affinity maps to each other on localhost
+ */
+public class AffinityReplicationTest {
+
+	InvocationContext[] contexts = new InvocationContext[2];
+	Node node1, node2;
+	int[] ports = new int[2];
+
+	private static int freePort() throws Exception {
+		DatagramSocket socket = new DatagramSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void await(Callable<Boolean> condition) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.call()) {
+			if(System.currentTimeMillis() > deadline)
+				fail("Condition not met within 5 seconds");
+			Thread.sleep(10);
+		}
+	}
+
+	private Callable<Boolean> assigned(final int id, final String callId, final Node node) {
+		return new Callable<Boolean>() {
+			public Boolean call() {
+				return node.equals(algorithm(id).callIdMap.get(callId));
+			}
+		};
+	}
+
+	private Callable<Boolean> received(final int id, final long entries) {
+		return new Callable<Boolean>() {
+			public Boolean call() {
+				return algorithm(id).getAffinityReplicator().getEntriesReceived() == entries;
+			}
+		};
+	}
+
+	private InvocationContext prepContext(int id) {
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getAlgorithmConfiguration().setCallIdAffinityReplicationPort(ports[id]);
+		lbConfig.getSipConfiguration().getAlgorithmConfiguration().setCallIdAffinityReplicationPeers("127.0.0.1:" + ports[(id + 1) % 2]);
+		lbConfig.getSipConfiguration().getAlgorithmConfiguration().setCallIdAffinityReplicationBatchPeriod(50);
+		BalancerContext balancerContext = new BalancerContext();
+		balancerContext.lbConfig = lbConfig;
+		balancerContext.algorithmClassName = CallIDAffinityBalancerAlgorithm.class.getName();
+		InvocationContext ctx = new InvocationContext("0", balancerContext);
+		ctx.sipNodeMap(false).put(new KeySip(node1, false), node1);
+		ctx.sipNodeMap(false).put(new KeySip(node2, false), node2);
+		return ctx;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		node1 = new Node("node1", "127.0.0.1");
+		node1.getProperties().put(Protocol.UDP_PORT, "5070");
+		node2 = new Node("node2", "127.0.0.2");
+		node2.getProperties().put(Protocol.UDP_PORT, "5070");
+		for(int q = 0; q < ports.length; q++)
+			ports[q] = freePort();
+		for(int q = 0; q < contexts.length; q++)
+			contexts[q] = prepContext(q);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for(InvocationContext ctx : contexts)
+			ctx.balancerAlgorithm.stop();
+	}
+
+	private CallIDAffinityBalancerAlgorithm algorithm(int id) {
+		return (CallIDAffinityBalancerAlgorithm) contexts[id].balancerAlgorithm;
+	}
+
+	@Test
+	public void testAssignmentIsReplicated() throws Exception {
+		algorithm(0).assignToNode("call-1", node2);
+		await(received(1, 1));
+		assertEquals(node2, algorithm(1).callIdMap.get("call-1"));
+		assertEquals(1, algorithm(0).getAffinityReplicator().getEntriesSent());
+	}
+
+	@Test
+	public void testNewestAssignmentWins() throws Exception {
+		algorithm(0).assignToNode("call-2", node1);
+		await(assigned(1, "call-2", node1));
+		algorithm(1).entryReplicated("call-2", node2.getIp(), 5070, false, 1);
+		assertEquals(node1, algorithm(1).callIdMap.get("call-2"));
+		algorithm(1).assignToNode("call-2", node2);
+		await(assigned(0, "call-2", node2));
+	}
+
+	@Test
+	public void testGroupedFailoverIsReplicated() throws Exception {
+		algorithm(0).assignToNode("call-4", node1);
+		await(assigned(1, "call-4", node1));
+		algorithm(0).groupedFailover(node1, node2);
+		await(assigned(1, "call-4", node2));
+	}
+
+	@Test
+	public void testOlderReplicatedEntryRacingLocalAssignment() throws Exception {
+		final CallIDAffinityBalancerAlgorithm algorithm = algorithm(1);
+		Thread replicated = new Thread() {
+			public void run() {
+				for(int q = 0; q < 2000; q++)
+					algorithm.entryReplicated("race-call-" + q, node2.getIp(), 5070, false, 1);
+			}
+		};
+		replicated.start();
+		for(int q = 0; q < 2000; q++)
+			algorithm.assignToNode("race-call-" + q, node1);
+		replicated.join();
+		for(int q = 0; q < 2000; q++)
+			assertEquals(node1, algorithm.callIdMap.get("race-call-" + q));
+	}
+
+	@Test
+	public void testUnknownNodeIsIgnored() throws Exception {
+		algorithm(1).entryReplicated("call-3", "127.0.0.3", 5070, false, System.currentTimeMillis());
+		assertNull(algorithm(1).callIdMap.get("call-3"));
+	}
+
+	@Test
+	public void testBatchesAreSplit() throws Exception {
+		for(int q = 0; q < 200; q++)
+			algorithm(0).assignToNode("batch-call-" + q, node1);
+		await(received(1, 200));
+		for(int q = 0; q < 200; q++)
+			assertEquals(node1, algorithm(1).callIdMap.get("batch-call-" + q));
+	}
+}
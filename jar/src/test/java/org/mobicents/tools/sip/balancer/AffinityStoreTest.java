@@ -0,0 +1,210 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class AffinityStoreTest {
+
+	File file;
+	Node node1, node2;
+	ConcurrentHashMap<KeySip, Node> nodes = new ConcurrentHashMap<KeySip, Node>();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("affinity", ".log");
+		file.delete();
+		node1 = new Node("node1", "127.0.0.1");
+		node1.getProperties().put(Protocol.UDP_PORT, "5070");
+		node2 = new Node("node2", "127.0.0.2");
+		node2.getProperties().put(Protocol.UDP_PORT, "5080");
+		nodes.put(new KeySip(node1, false), node1);
+		nodes.put(new KeySip(node2, false), node2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+		new File(file.getPath() + ".compact").delete();
+	}
+
+	private AffinityStore open() throws Exception {
+		AffinityStore store = new AffinityStore(file.getPath(), 100000);
+		store.load();
+		store.start();
+		return store;
+	}
+
+	@Test
+	public void testEntriesSurviveRestart() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.put("call-2", node2, false);
+		store.put("call-3", node1, false);
+		store.put("call-1", node2, false);
+		store.remove("call-3");
+		store.stop();
+
+		store = open();
+		assertEquals(2, store.getRestoredSize());
+		assertEquals(node2, store.restore("call-1", nodes));
+		assertEquals(node2, store.restore("call-2", nodes));
+		assertNull(store.restore("call-3", nodes));
+		// an entry is claimed only once
+		assertNull(store.restore("call-1", nodes));
+		store.stop();
+	}
+
+	@Test
+	public void testRecordsCountedOnLoad() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.put("call-2", node2, false);
+		store.put("call-3", node1, false);
+		store.put("call-1", node2, false);
+		store.remove("call-3");
+		store.stop();
+
+		// the overwritten and removed entries are still in the log until it is compacted
+		store = open();
+		assertEquals(2, store.getRestoredSize());
+		assertEquals(5, store.getRecords());
+		store.stop();
+	}
+
+	@Test
+	public void testUnknownNodeIsNotRestored() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.stop();
+
+		nodes.remove(new KeySip(node1, false));
+		store = open();
+		assertNull(store.restore("call-1", nodes));
+		// the entry waits for its node to register
+		nodes.put(new KeySip(node1, false), node1);
+		assertEquals(node1, store.restore("call-1", nodes));
+		store.stop();
+	}
+
+	@Test
+	public void testNewAssignmentReplacesRestored() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.stop();
+
+		store = open();
+		store.put("call-1", node2, false);
+		assertEquals(0, store.getRestoredSize());
+		store.stop();
+
+		store = open();
+		assertEquals(node2, store.restore("call-1", nodes));
+		store.stop();
+	}
+
+	@Test
+	public void testRestoredAgedFromRestart() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.stop();
+		long stopped = System.currentTimeMillis();
+
+		// the load balancer is down longer than the idle time
+		while(System.currentTimeMillis() - stopped < 50)
+			Thread.sleep(10);
+		store = open();
+		store.evictRestored(stopped + 1);
+		assertEquals(1, store.getRestoredSize());
+		assertEquals(node1, store.restore("call-1", nodes));
+		store.stop();
+	}
+
+	@Test
+	public void testTouch() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.snapshot();
+		long records = store.getRecords();
+
+		// written at most once per refresh period
+		store.touch("call-1", node1, false);
+		store.snapshot();
+		assertEquals(records, store.getRecords());
+
+		store.setRefreshPeriod(0);
+		store.touch("call-1", node1, false);
+		store.snapshot();
+		assertEquals(records + 1, store.getRecords());
+		// a key not written yet isn't touched
+		store.touch("call-2", node1, false);
+		store.snapshot();
+		assertEquals(records + 1, store.getRecords());
+		store.stop();
+	}
+
+	@Test
+	public void testEvictRestored() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.stop();
+
+		store = open();
+		store.evictRestored(System.currentTimeMillis() + 1);
+		assertEquals(0, store.getRestoredSize());
+		store.stop();
+
+		store = open();
+		assertEquals(0, store.getRestoredSize());
+		store.stop();
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		AffinityStore store = open();
+		for(int q = 0; q < 300000; q++)
+			store.put("call-" + (q % 1000), q % 2 == 0 ? node1 : node2, false);
+		store.snapshot();
+		assertEquals(1000, store.getLiveSize());
+		store.put("call-after-compaction", node1, false);
+		store.stop();
+
+		store = open();
+		assertEquals(1001, store.getRestoredSize());
+		assertEquals(node2, store.restore("call-999", nodes));
+		assertEquals(node1, store.restore("call-after-compaction", nodes));
+		store.stop();
+	}
+
+	@Test
+	public void testTruncatedRecordIsIgnored() throws Exception {
+		AffinityStore store = open();
+		store.put("call-1", node1, false);
+		store.put("call-2", node2, false);
+		store.stop();
+
+		// cut the file in the middle of the last record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(4 + 2 * (3 + 6 + 1 + 9 + 13) - 5);
+		raf.close();
+
+		store = open();
+		assertEquals(1, store.getRestoredSize());
+		store.put("call-3", node2, false);
+		store.stop();
+
+		store = open();
+		assertEquals(2, store.getRestoredSize());
+		assertEquals(node2, store.restore("call-3", nodes));
+		store.stop();
+	}
+}
@@ -0,0 +1,75 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BlockedValuesScannerTest {
+
+	static void write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void testConfiguredValues() {
+		BlockedValuesScanner scanner = new BlockedValuesScanner("sipvicious,sipcli, friendly-scanner,,", null);
+		assertEquals(3, scanner.size());
+		assertEquals("sipcli", scanner.match("User-Agent: SIPcli/v1.8\r\n"));
+		assertEquals("friendly-scanner", scanner.match("User-Agent: Friendly-Scanner\r\n"));
+		assertEquals("sipvicious", scanner.match("From: \"SipVicious\" <sip:100@1.1.1.1>;tag=3336\r\n"));
+		assertNull(scanner.match("User-Agent: Restcomm 8.0\r\n"));
+		assertNull(scanner.match(""));
+		// the values are found anywhere in the text, even overlapping a partial match
+		assertEquals("sipcli", scanner.match("sipvisipcli"));
+	}
+
+	@Test
+	public void testCounters() {
+		BlockedValuesScanner scanner = new BlockedValuesScanner("sipvicious,sipcli", null);
+		scanner.blocked(scanner.match("User-Agent: sipcli"));
+		scanner.blocked(scanner.match("User-Agent: sipcli"));
+		scanner.blocked(scanner.match("To: \"sipvicious\" <sip:100@1.1.1.1>"));
+		assertEquals(3, scanner.getBlocked());
+		assertEquals(2, scanner.getBlocked("SIPcli"));
+		assertEquals(1, scanner.getBlocked("sipvicious"));
+		assertEquals(0, scanner.getBlocked("friendly-scanner"));
+		assertEquals(2, scanner.getBlockedByValue().size());
+	}
+
+	@Test
+	public void testFileReload() throws Exception {
+		File file = File.createTempFile("blocked", ".txt");
+		file.deleteOnExit();
+		write(file, "# scanners\nsipsak\n\n  VaxSIPUserAgent  \n");
+		BlockedValuesScanner scanner = new BlockedValuesScanner("sipvicious", file.getAbsolutePath());
+		assertEquals(3, scanner.size());
+		assertEquals("vaxsipuseragent", scanner.match("User-Agent: VaxSIPUserAgent/3.1"));
+		assertNull(scanner.match("# scanners"));
+		scanner.blocked("sipsak");
+
+		write(file, "pplsip\n");
+		file.setLastModified(file.lastModified() + 2000);
+		scanner.reloadIfChanged();
+		assertEquals(2, scanner.size());
+		assertNull(scanner.match("User-Agent: sipsak"));
+		assertEquals("pplsip", scanner.match("User-Agent: pplsip"));
+		assertEquals("sipvicious", scanner.match("User-Agent: sipvicious"));
+		// kept across the reloads
+		assertEquals(1, scanner.getBlocked("sipsak"));
+
+		// a missing file keeps the current values
+		file.delete();
+		scanner.reloadIfChanged();
+		assertEquals("pplsip", scanner.match("User-Agent: pplsip"));
+	}
+}
@@ -0,0 +1,101 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.nist.javax.sip.message.SIPMessage;
+
+import javax.sip.SipFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.RouteHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class EgressEncoderTest {
+
+	private MessageFactory messageFactory;
+	private Node node;
+
+	@Before
+	public void setUp() throws Exception {
+		messageFactory = SipFactory.getInstance().createMessageFactory();
+		node = new Node("node", "127.0.0.1");
+		node.getProperties().put("udpPort", "5070");
+		node.getProperties().put("tcpPort", "5071");
+	}
+
+	private Request invite(int sdpLines) throws Exception {
+		StringBuilder sdp = new StringBuilder();
+		for(int i = 0; i < sdpLines; i++)
+			sdp.append("a=rtpmap:").append(i).append(" PCMU/8000\r\n");
+		String message = "INVITE sip:bob@127.0.0.1:5070 SIP/2.0\r\n"
+				+ "Route: <sip:127.0.0.1:5070;transport=udp;lr>\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5065;branch=z9hG4bK1zsd_0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK1_0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5033;branch=z9hG4bK1\r\n"
+				+ "Max-Forwards: 69\r\n"
+				+ "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+				+ "To: <sip:bob@127.0.0.1>\r\n"
+				+ "Call-ID: 1@127.0.0.1\r\n"
+				+ "CSeq: 1 INVITE\r\n"
+				+ "Contact: <sip:alice@127.0.0.1:5033>\r\n"
+				+ "Content-Type: application/sdp\r\n"
+				+ "Content-Length: " + sdp.length() + "\r\n\r\n"
+				+ sdp;
+		return messageFactory.createRequest(message);
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		EgressEncoder encoder = new EgressEncoder(true, null);
+		Request request = invite(1);
+		int size = ((SIPMessage) request).encode().length();
+		int saving = encoder.saving((SIPMessage) request);
+
+		encoder.compact((SIPMessage) request);
+		String encoded = ((SIPMessage) request).encode();
+		assertTrue(encoded.contains("\r\nv: "));
+		assertTrue(encoded.contains("\r\ni: "));
+		assertTrue(encoded.contains("\r\nl: "));
+		assertFalse(encoded.contains("Via:"));
+		assertEquals(size - saving, encoded.length());
+		assertEquals(saving, encoder.getBytesSaved());
+		// the balancer still finds the headers
+		assertNotNull(request.getHeader(ViaHeader.NAME));
+
+		encoder.expand((SIPMessage) request);
+		encoded = ((SIPMessage) request).encode();
+		assertTrue(encoded.contains("Via: "));
+		assertEquals(size, encoded.length());
+	}
+
+	@Test
+	public void testSwitchToTcp() throws Exception {
+		EgressEncoder encoder = new EgressEncoder(false, 1300);
+		Request small = invite(1);
+		// the size is found without encoding the message
+		assertEquals(((SIPMessage) small).encodeAsBytes("UDP").length, encoder.size((SIPMessage) small));
+		assertFalse(encoder.switchToTcp(small, node, 5066));
+		assertEquals("UDP", ((ViaHeader) small.getHeader(ViaHeader.NAME)).getTransport().toUpperCase());
+
+		Request big = invite(60);
+		assertTrue(encoder.switchToTcp(big, node, 5066));
+		ViaHeader via = (ViaHeader) big.getHeader(ViaHeader.NAME);
+		assertEquals("TCP", via.getTransport().toUpperCase());
+		assertEquals(5066, via.getPort());
+		SipURI route = (SipURI) ((RouteHeader) big.getHeader(RouteHeader.NAME)).getAddress().getURI();
+		assertEquals(5071, route.getPort());
+		assertEquals("tcp", route.getTransportParam().toLowerCase());
+		assertEquals(1, encoder.getSwitchedToTcp());
+
+		// the balancer doesn't listen on TCP
+		assertFalse(encoder.switchToTcp(invite(60), node, 0));
+	}
+}
@@ -0,0 +1,63 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+public class HttpAffinityTest {
+
+	static final String CALL_URI = "/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/Calls/ID1f2a2222772f4195948d040a2ccc648c-CA00af667a6a2cbfda0c07d923e78194cd";
+
+	// parameters as they were parsed before, with split
+	static HashMap<String,String> splitParameters(String url) {
+		HashMap<String,String> parameters = new HashMap<String, String>();
+		int start = url.lastIndexOf('?');
+		if(start>0 && url.length() > start +1)
+			url = url.substring(start + 1);
+		else
+			return parameters;
+		for(String token : url.split("&")) {
+			String[] params = token.split("=");
+			if(params.length<2)
+				parameters.put(token, "");
+			else
+				parameters.put(params[0], params[1]);
+		}
+		return parameters;
+	}
+
+	@Test
+	public void testQueryParameter() {
+		String[] uris = { "/app?fName=Konstantin&lName=Nosach", "/app?jsessionid=1A2B.node1", "/app?a=1&jsessionid=x&jsessionid=y",
+				"/app?jsessionid", "/app?jsessionid=", "/app?jsessionid==", "/app?jsessionid=a=b", "/app?", "?jsessionid=1", "/app",
+				"/app?x&&jsessionid=2&", "/a?b?jsessionid=3" };
+		for(String uri : uris)
+			for(String name : new String[] { "jsessionid", "fName", "jsessionid=", "x", "b?jsessionid" })
+				assertEquals(uri + " " + name, splitParameters(uri).get(name), HttpAffinity.getQueryParameter(uri, name));
+		assertNull(HttpAffinity.getQueryParameter("/app?a=1", null));
+	}
+
+	@Test
+	public void testCookie() {
+		assertEquals("1A2B.node1", HttpAffinity.getCookie("JSESSIONID=1A2B.node1", "jsessionid"));
+		assertEquals("1A2B.node2", HttpAffinity.getCookie("theme=dark; $Path=/; jsessionid = \"1A2B.node2\" ; lang=en", "jsessionid"));
+		assertEquals("", HttpAffinity.getCookie("a=1; jsessionid", "jsessionid"));
+		assertNull(HttpAffinity.getCookie("myjsessionid=1; jsessionidx=2", "jsessionid"));
+		assertNull(HttpAffinity.getCookie(null, "jsessionid"));
+	}
+
+	@Test
+	public void testRestcommInstanceId() {
+		assertEquals("ID1f2a2222772f4195948d040a2ccc648c", HttpAffinity.getRestcommInstanceId(CALL_URI));
+		assertEquals("ID1f2a2222772f4195948d040a2ccc648c", HttpAffinity.getRestcommInstanceId(CALL_URI + "/Recordings.json?Page=1"));
+		assertEquals("ID1f2a2222772f4195948d040a2ccc648c", HttpAffinity.getRestcommInstanceId(CALL_URI.replace("/Calls/", "/Calls.json/")));
+		assertNull(HttpAffinity.getRestcommInstanceId(CALL_URI.replace("Accounts", "Account")));
+		assertNull(HttpAffinity.getRestcommInstanceId(CALL_URI.replace("-", "")));
+		assertNull(HttpAffinity.getRestcommInstanceId("/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/Calls/"));
+		assertNull(HttpAffinity.getRestcommInstanceId("/restcomm/2012-04-24/Accounts/AC/Calls/ID-short"));
+		assertNull(HttpAffinity.getRestcommInstanceId("/app?fName=Konstantin"));
+	}
+}
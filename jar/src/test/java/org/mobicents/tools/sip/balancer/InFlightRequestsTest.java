@@ -0,0 +1,78 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.sip.SipFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Response;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class InFlightRequestsTest {
+
+	private static Node node(String ip)
+	{
+		Node node = new Node(ip, ip);
+		node.getProperties().put(Protocol.SESSION_ID, ip);
+		return node;
+	}
+
+	private static Response response(String statusLine, String extraHeaders, String via) throws Exception
+	{
+		MessageFactory messageFactory = SipFactory.getInstance().createMessageFactory();
+		return messageFactory.createResponse(statusLine + "\r\n"
+				+ "Via: " + via + "\r\n"
+				+ "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+				+ "To: <sip:bob@127.0.0.1>;tag=2\r\n"
+				+ "Call-ID: 1@127.0.0.1\r\n"
+				+ "CSeq: 1 INVITE\r\n"
+				+ extraHeaders
+				+ "Content-Length: 0\r\n\r\n");
+	}
+
+	@Test
+	public void testSuspectHeldDown() {
+		InFlightRequests inFlightRequests = new InFlightRequests(1000, 1, Arrays.asList(503), 5000);
+		Node a = node("10.0.0.1");
+		long now = System.currentTimeMillis();
+		inFlightRequests.suspect(a);
+		assertTrue(a.isBad());
+		assertTrue(inFlightRequests.isSuspect(a));
+		inFlightRequests.expire(now + 4000);
+		assertTrue(a.isBad());
+		// back in service, it was never removed from the cluster
+		inFlightRequests.expire(now + 6000);
+		assertFalse(a.isBad());
+		assertFalse(inFlightRequests.isSuspect(a));
+	}
+
+	@Test
+	public void testSuspectProbedDownStaysBad() {
+		InFlightRequests inFlightRequests = new InFlightRequests(1000, 1, Arrays.asList(503), 5000);
+		final Node a = node("10.0.0.1");
+		inFlightRequests.setHoldDowns(null, new NodeProber(null, 1000, 1000, 3) {
+			@Override
+			public boolean isDown(Node node) {
+				return node == a;
+			}
+		});
+		inFlightRequests.suspect(a);
+		inFlightRequests.expire(System.currentTimeMillis() + 6000);
+		assertFalse(inFlightRequests.isSuspect(a));
+		assertTrue(a.isBad());
+	}
+
+	@Test
+	public void testOverloadedNodeIsNotFailedOver() throws Exception {
+		String via = "SIP/2.0/UDP 127.0.0.1:5065;branch=z9hG4bK1zsd_0";
+		assertFalse(InFlightRequests.isOverloaded(response("SIP/2.0 503 Service Unavailable", "", via)));
+		assertTrue(InFlightRequests.isOverloaded(response("SIP/2.0 503 Service Unavailable", "Retry-After: 5\r\n", via)));
+		assertTrue(InFlightRequests.isOverloaded(response("SIP/2.0 503 Service Unavailable", "", via + ";oc=20;oc-validity=1000")));
+		assertFalse(InFlightRequests.isOverloaded(response("SIP/2.0 500 Server Internal Error", "Retry-After: 5\r\n", via)));
+	}
+}
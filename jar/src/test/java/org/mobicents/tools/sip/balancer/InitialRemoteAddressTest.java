@@ -0,0 +1,47 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+
+import gov.nist.javax.sip.message.SIPMessage;
+
+import java.net.InetAddress;
+
+import javax.sip.SipFactory;
+import javax.sip.header.Header;
+import javax.sip.header.HeaderFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import org.junit.Test;
+
+public class InitialRemoteAddressTest {
+
+	@Test
+	public void testSameEncodingAsParsedHeaders() throws Exception {
+		MessageFactory messageFactory = SipFactory.getInstance().createMessageFactory();
+		HeaderFactory headerFactory = SipFactory.getInstance().createHeaderFactory();
+		Request request = messageFactory.createRequest("REGISTER sip:127.0.0.1 SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP 10.0.0.1:5033;branch=z9hG4bK1\r\n"
+				+ "Max-Forwards: 70\r\n"
+				+ "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+				+ "To: <sip:alice@127.0.0.1>\r\n"
+				+ "Call-ID: 1@10.0.0.1\r\n"
+				+ "CSeq: 1 REGISTER\r\n"
+				+ "Content-Length: 0\r\n\r\n");
+		SIPMessage message = (SIPMessage) request;
+		message.setPeerPacketSourceAddress(InetAddress.getByName("10.0.0.1"));
+		message.setPeerPacketSourcePort(5033);
+
+		SIPBalancerForwarder.addInitialRemoteAddress(message);
+
+		Header addr = request.getHeader(SIPBalancerForwarder.INITIAL_REMOTE_ADDR_HEADER);
+		Header port = request.getHeader(SIPBalancerForwarder.INITIAL_REMOTE_PORT_HEADER);
+		assertEquals(headerFactory.createHeader(SIPBalancerForwarder.INITIAL_REMOTE_ADDR_HEADER, "10.0.0.1").toString(), addr.toString());
+		assertEquals(headerFactory.createHeader(SIPBalancerForwarder.INITIAL_REMOTE_PORT_HEADER, "5033").toString(), port.toString());
+
+		// the nodes read them back the same way
+		Request parsed = messageFactory.createRequest(message.encode());
+		assertEquals(addr.toString(), parsed.getHeader(SIPBalancerForwarder.INITIAL_REMOTE_ADDR_HEADER).toString());
+		assertEquals(port.toString(), parsed.getHeader(SIPBalancerForwarder.INITIAL_REMOTE_PORT_HEADER).toString());
+	}
+}
@@ -0,0 +1,207 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class OutlierDetectorTest {
+
+	private static Node node(String ip)
+	{
+		Node node = new Node(ip, ip);
+		node.getProperties().put(Protocol.SESSION_ID, ip);
+		return node;
+	}
+
+	private static int branch;
+
+	private static void send(OutlierDetector detector, Node node, int requests, int statusCode)
+	{
+		for(int i = 0; i < requests; i++) {
+			String branch = "z9hG4bK" + OutlierDetectorTest.branch++;
+			detector.requestSent(node, branch);
+			detector.responseReceived(branch, 100);
+			detector.responseReceived(branch, statusCode);
+		}
+	}
+
+	@Test
+	public void testFailurePercentage() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 30000, 50, 30000, Arrays.asList(408));
+		Node a = node("10.0.0.1");
+		Node b = node("10.0.0.2");
+		Node c = node("10.0.0.3");
+		send(detector, a, 10, 200);
+		send(detector, a, 5, 503);
+		send(detector, a, 5, 408);
+		send(detector, b, 20, 200);
+		send(detector, c, 20, 486);
+		detector.evaluate(System.currentTimeMillis());
+		assertTrue(a.isBad());
+		assertTrue(detector.isEjected(a));
+		assertFalse(b.isBad());
+		assertFalse(c.isBad());
+		assertEquals(1, detector.getEjected());
+		assertEquals(1, detector.getEjections());
+	}
+
+	@Test
+	public void testMinimumRequests() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 30000, 50, 30000, null);
+		Node a = node("10.0.0.1");
+		send(detector, a, 19, 500);
+		detector.evaluate(System.currentTimeMillis());
+		assertFalse(a.isBad());
+	}
+
+	@Test
+	public void testMaxEjectionPercentage() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 30000, 50, 30000, null);
+		Node a = node("10.0.0.1");
+		Node b = node("10.0.0.2");
+		Node c = node("10.0.0.3");
+		send(detector, a, 20, 500);
+		send(detector, b, 20, 500);
+		send(detector, c, 20, 500);
+		detector.evaluate(System.currentTimeMillis());
+		// 50% of 3 nodes, rounded up
+		assertEquals(2, detector.getEjected());
+		detector.evaluate(System.currentTimeMillis());
+		assertEquals(2, detector.getEjected());
+	}
+
+	@Test
+	public void testMaxEjectionPercentageOfSmallCluster() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 30000, 10, 30000, null);
+		Node a = node("10.0.0.1");
+		Node b = node("10.0.0.2");
+		send(detector, a, 20, 500);
+		send(detector, b, 20, 200);
+		detector.evaluate(System.currentTimeMillis());
+		// 10% of 2 nodes is still one node
+		assertTrue(a.isBad());
+		assertEquals(1, detector.getEjected());
+	}
+
+	@Test
+	public void testNodeDownStaysBad() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 1000, 50, 5000, null);
+		final Node a = node("10.0.0.1");
+		Node b = node("10.0.0.2");
+		detector.setNodeProber(new NodeProber(null, 1000, 1000, 3) {
+			@Override
+			public boolean isDown(Node node) {
+				return node == a;
+			}
+		});
+		long now = System.currentTimeMillis();
+		send(detector, a, 20, 500);
+		send(detector, b, 20, 200);
+		detector.evaluate(now);
+		assertTrue(a.isBad());
+		detector.evaluate(now + 1000);
+		assertFalse(detector.isEjected(a));
+		// the probes of the node still fail
+		assertTrue(a.isBad());
+	}
+
+	@Test
+	public void testLastNodeNotEjected() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 30000, 100, 30000, null);
+		Node a = node("10.0.0.1");
+		send(detector, a, 20, 500);
+		detector.evaluate(System.currentTimeMillis());
+		assertFalse(a.isBad());
+
+		Node b = node("10.0.0.2");
+		send(detector, b, 20, 500);
+		detector.evaluate(System.currentTimeMillis());
+		assertEquals(1, detector.getEjected());
+		assertTrue(a.isBad() != b.isBad());
+	}
+
+	@Test
+	public void testSuccessRateDeviation() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 30000, 100, 30000, null);
+		Node[] nodes = new Node[6];
+		for(int i = 0; i < nodes.length; i++) {
+			nodes[i] = node("10.0.0." + i);
+			send(detector, nodes[i], 100, 200);
+		}
+		// 30% failures, under the failure percentage but far from the others
+		send(detector, nodes[0], 43, 500);
+		detector.evaluate(System.currentTimeMillis());
+		assertTrue(nodes[0].isBad());
+		for(int i = 1; i < nodes.length; i++)
+			assertFalse(nodes[i].isBad());
+	}
+
+	@Test
+	public void testUnansweredTransactions() {
+		OutlierDetector detector = new OutlierDetector(2, 20, 50, 30000, 50, 30000, null);
+		Node a = node("10.0.0.1");
+		Node b = node("10.0.0.2");
+		for(int i = 0; i < 20; i++)
+			detector.requestSent(a, "z9hG4bK" + branch++);
+		long now = System.currentTimeMillis();
+		// older than the window of 6 intervals
+		while(System.currentTimeMillis() - now < 15);
+		send(detector, b, 20, 200);
+		detector.evaluate(System.currentTimeMillis());
+		assertTrue(a.isBad());
+	}
+
+	@Test
+	public void testEjectionBackoff() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 1000, 50, 5000, null);
+		Node a = node("10.0.0.1");
+		// the last node in service isn't ejected
+		Node b = node("10.0.0.2");
+		long now = System.currentTimeMillis();
+		send(detector, a, 20, 500);
+		send(detector, b, 20, 200);
+		detector.evaluate(now);
+		assertTrue(a.isBad());
+		detector.evaluate(now + 999);
+		assertTrue(a.isBad());
+		detector.evaluate(now + 1000);
+		assertFalse(a.isBad());
+		assertFalse(detector.isEjected(a));
+
+		// ejected again while starting slowly, for twice as long
+		send(detector, a, 20, 500);
+		detector.evaluate(now + 2000);
+		assertTrue(a.isBad());
+		detector.evaluate(now + 3999);
+		assertTrue(a.isBad());
+		detector.evaluate(now + 4000);
+		assertFalse(a.isBad());
+		assertEquals(2, detector.getEjections());
+	}
+
+	@Test
+	public void testSlowStart() {
+		OutlierDetector detector = new OutlierDetector(1000, 20, 50, 1, 50, 60000, null);
+		Node a = node("10.0.0.1");
+		Node b = node("10.0.0.2");
+		send(detector, a, 20, 500);
+		send(detector, b, 20, 200);
+		long now = System.currentTimeMillis();
+		detector.evaluate(now);
+		detector.evaluate(now + 1);
+		assertFalse(a.isBad());
+		int admitted = 0;
+		for(int i = 0; i < 10000; i++)
+			if(detector.admit(a))
+				admitted++;
+		assertTrue(admitted < 2000);
+		assertTrue(admitted > 0);
+		assertTrue(detector.admit(node("10.0.0.2")));
+	}
+}
@@ -0,0 +1,108 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.sip.SipFactory;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ViaHeader;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class OverloadControllerTest {
+
+	private HeaderFactory headerFactory;
+	private OverloadController controller;
+	private Node node;
+
+	@Before
+	public void setUp() throws Exception {
+		headerFactory = SipFactory.getInstance().createHeaderFactory();
+		controller = new OverloadController();
+		node = new Node("node", "127.0.0.1");
+		node.getProperties().put(Protocol.SESSION_ID, "1");
+	}
+
+	private ViaHeader via(String oc, String validity, String seq) throws Exception {
+		ViaHeader via = headerFactory.createViaHeader("127.0.0.1", 5065, "udp", "z9hG4bK1_0");
+		controller.offer(via);
+		if(oc != null)
+			via.setParameter(OverloadController.OC, oc);
+		if(validity != null)
+			via.setParameter(OverloadController.OC_VALIDITY, validity);
+		if(seq != null)
+			via.setParameter(OverloadController.OC_SEQ, seq);
+		return via;
+	}
+
+	private int admitted(Node node, int requests) {
+		int admitted = 0;
+		for(int i = 0; i < requests; i++)
+			if(controller.admit(node))
+				admitted++;
+		return admitted;
+	}
+
+	@Test
+	public void testOffer() throws Exception {
+		ViaHeader via = via(null, null, null);
+		assertTrue(via.toString().contains(";oc"));
+		assertTrue(via.toString().contains("oc-algo=\"loss\""));
+		controller.responseReceived(node, via);
+		assertEquals(0, controller.getPercentage(node));
+	}
+
+	@Test
+	public void testLoss() throws Exception {
+		controller.responseReceived(node, via("30", "10000", "1"));
+		assertEquals(30, controller.getPercentage(node));
+		int admitted = admitted(node, 10000);
+		assertTrue(admitted > 6500 && admitted < 7500);
+		assertEquals(admitted, controller.getAdmitted());
+		assertEquals(10000 - admitted, controller.getThrottled());
+
+		controller.responseReceived(node, via("100", "10000", "2"));
+		assertEquals(0, admitted(node, 1000));
+	}
+
+	@Test
+	public void testValidity() throws Exception {
+		controller.responseReceived(node, via("50", "50", "1"));
+		assertEquals(50, controller.getPercentage(node));
+		Thread.sleep(100);
+		assertEquals(0, controller.getPercentage(node));
+
+		controller.responseReceived(node, via("50", "10000", "2"));
+		controller.responseReceived(node, via("50", "0", "3"));
+		assertEquals(0, controller.getPercentage(node));
+	}
+
+	@Test
+	public void testSequence() throws Exception {
+		controller.responseReceived(node, via("40", "10000", "5"));
+		// older than the last one
+		controller.responseReceived(node, via("10", "10000", "4"));
+		assertEquals(40, controller.getPercentage(node));
+		controller.responseReceived(node, via("10", "10000", "6"));
+		assertEquals(10, controller.getPercentage(node));
+	}
+
+	@Test
+	public void testHeartbeat() throws Exception {
+		controller.heartbeatReceived(node, "20");
+		assertEquals(20, controller.getPercentage(node));
+		controller.responseReceived(node, via("60", "10000", "1"));
+		assertEquals(60, controller.getPercentage(node));
+		controller.responseReceived(node, via("0", "10000", "2"));
+		assertEquals(20, controller.getPercentage(node));
+		controller.heartbeatReceived(node, null);
+		assertEquals(0, controller.getPercentage(node));
+
+		controller.heartbeatReceived(node, "50");
+		controller.nodeRemoved(node);
+		assertEquals(admitted(node, 100), 100);
+	}
+}
@@ -0,0 +1,83 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class RegexRoutingTableTest {
+
+	static KeySip node(int port) {
+		return new KeySip("127.0.0.1", port, false);
+	}
+
+	static List<String> matches(RegexRoutingTable table, String key) {
+		List<String> matches = new ArrayList<String>();
+		for (RegexRoutingTable.Route route : table.candidates(key))
+			if (route.matches(key))
+				matches.add(route.getRegex());
+		return matches;
+	}
+
+	@Test
+	public void testMatchesInOrder() {
+		RegexRoutingTable table = new RegexRoutingTable();
+		table.put("(.*)(\\d+)(.*)", node(5060), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("^alice", node(5061), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("bob@", node(5062), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("^carol", node(5063), -1);
+
+		assertEquals(2, matches(table, "alice1").size());
+		assertEquals("(.*)(\\d+)(.*)", matches(table, "alice1").get(0));
+		assertEquals("^alice", matches(table, "alice").get(0));
+		// the anchored literal has to start the key
+		assertTrue(matches(table, "bob@alice").contains("bob@"));
+		assertTrue(!matches(table, "bob@alice").contains("^alice"));
+		assertEquals("bob@", matches(table, "sip:bob@example.com").get(0));
+		// a lower priority value is tried first
+		assertEquals("^carol", matches(table, "carol2").get(0));
+		assertEquals(0, matches(table, "dave").size());
+	}
+
+	@Test
+	public void testOverlappingLiterals() {
+		RegexRoutingTable table = new RegexRoutingTable();
+		table.put("abcd", node(5060), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("bc", node(5061), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("c+x", node(5062), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("b.c", node(5063), RegexRoutingTable.DEFAULT_PRIORITY);
+		assertEquals(2, matches(table, "xabcd").size());
+		assertEquals(1, matches(table, "bcbcbc").size());
+		assertTrue(matches(table, "abccx").contains("c+x"));
+		assertEquals("b.c", matches(table, "bxc").get(0));
+		// each route is given once even if its literal is found several times
+		assertEquals(3, table.candidates("bcbcbc").size());
+		assertEquals(0, table.candidates("xyz").size());
+	}
+
+	@Test
+	public void testReplaceAndRemove() {
+		RegexRoutingTable table = new RegexRoutingTable();
+		table.put("^a", node(5060), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("^ab", node(5061), RegexRoutingTable.DEFAULT_PRIORITY);
+		table.put("^a", node(5062), RegexRoutingTable.DEFAULT_PRIORITY);
+		assertEquals(2, table.size());
+		// replaced in place
+		assertEquals("^a", table.candidates("ab").get(0).getRegex());
+		assertEquals(node(5062), table.candidates("ab").get(0).getTarget());
+		assertEquals(node(5062), table.remove("^a"));
+		assertNull(table.remove("^a"));
+		assertEquals(1, table.size());
+		assertEquals("^ab", matches(table, "ab").get(0));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void testInvalidExpression() {
+		new RegexRoutingTable().put("(", node(5060), RegexRoutingTable.DEFAULT_PRIORITY);
+	}
+}
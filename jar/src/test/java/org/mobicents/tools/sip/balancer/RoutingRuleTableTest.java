@@ -0,0 +1,95 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RoutingRuleTableTest {
+
+	@Test
+	public void testRegexRules() {
+		RoutingRuleTable table = new RoutingRuleTable(Arrays.asList(
+				new RoutingRule("default", true),
+				new RoutingRule("10.0.0.*", false),
+				new RoutingRule("172.0.0.*", false)));
+		assertFalse(table.isPatch("10.0.0.5"));
+		assertFalse(table.isPatch("172.0.0.12"));
+		assertTrue(table.isPatch("192.168.1.1"));
+		assertTrue(table.isPatch("default"));
+	}
+
+	@Test
+	public void testLongestPrefix() {
+		RoutingRuleTable table = new RoutingRuleTable(Arrays.asList(
+				new RoutingRule("10.0.0.0/8", false),
+				new RoutingRule("10.1.2.0/24", true),
+				new RoutingRule("10.1.2.128/25", false),
+				new RoutingRule("192.168.0.0/16", false),
+				new RoutingRule("192.168.7.7/32", true)));
+		assertFalse(table.isPatch("10.200.3.4"));
+		assertTrue(table.isPatch("10.1.2.3"));
+		assertFalse(table.isPatch("10.1.2.200"));
+		assertFalse(table.isPatch("192.168.7.6"));
+		assertTrue(table.isPatch("192.168.7.7"));
+		assertTrue(table.isPatch("11.0.0.1"));
+		assertTrue(table.isPatch("example.com"));
+	}
+
+	@Test
+	public void testInsertionOrder() {
+		// the blocks are split the same whatever the order they are given
+		RoutingRuleTable table = new RoutingRuleTable(Arrays.asList(
+				new RoutingRule("10.1.2.128/25", false),
+				new RoutingRule("10.1.3.0/24", false),
+				new RoutingRule("10.1.2.0/24", true),
+				new RoutingRule("10.0.0.0/8", false),
+				new RoutingRule("0.0.0.0/0", true)));
+		assertFalse(table.isPatch("10.1.2.200"));
+		assertTrue(table.isPatch("10.1.2.3"));
+		assertFalse(table.isPatch("10.1.3.3"));
+		assertFalse(table.isPatch("10.9.9.9"));
+		assertTrue(table.isPatch("8.8.8.8"));
+	}
+
+	@Test
+	public void testCidrBeforeRegex() {
+		RoutingRuleTable table = new RoutingRuleTable(Arrays.asList(
+				new RoutingRule("10\\..*", false),
+				new RoutingRule("10.1.0.0/16", true)));
+		assertTrue(table.isPatch("10.1.0.1"));
+		assertFalse(table.isPatch("10.2.0.1"));
+	}
+
+	@Test
+	public void testIpv6() {
+		RoutingRuleTable table = new RoutingRuleTable(Arrays.asList(
+				new RoutingRule("fd30::/16", false),
+				new RoutingRule("fd30:0:0:1::/64", true),
+				new RoutingRule("fe80:.*", false)));
+		assertFalse(table.isPatch("fd30::1"));
+		assertFalse(table.isPatch("[FD30:1::1]"));
+		assertTrue(table.isPatch("fd30:0:0:1:2:3:4:5"));
+		assertFalse(table.isPatch("fe80::1"));
+		assertTrue(table.isPatch("2001:db8::1"));
+	}
+
+	@Test
+	public void testParseAddress() {
+		assertArrayEquals(new byte[] {10, 0, 0, 1}, RoutingRuleTable.parseAddress("10.0.0.1"));
+		assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, 1, 2, 3, 4},
+				RoutingRuleTable.parseAddress("::ffff:1.2.3.4"));
+		assertArrayEquals(new byte[] {(byte) 0xfe, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1},
+				RoutingRuleTable.parseAddress("fe80::1%eth0"));
+		assertNull(RoutingRuleTable.parseAddress("10.0.0"));
+		assertNull(RoutingRuleTable.parseAddress("10.0.0.256"));
+		assertNull(RoutingRuleTable.parseAddress("host.example.com"));
+		assertNull(RoutingRuleTable.parseAddress("1::2::3"));
+		assertNull(RoutingRuleTable.parseAddress("1:2:3:4:5:6:7:8:9"));
+		assertNull(RoutingRuleTable.parseAddress("1:2:3:4:5:6:7:8::"));
+	}
+}
@@ -0,0 +1,126 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SipAccessLogTest {
+
+	File file;
+	InetAddress source;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("sip-access", ".log");
+		file.delete();
+		source = InetAddress.getByName("127.0.0.1");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+		for(int i = 1; i <= 3; i++)
+			new File(file.getPath() + "." + i).delete();
+	}
+
+	private List<String> lines(File file) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		if(!file.exists())
+			return lines;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while((line = reader.readLine()) != null)
+				lines.add(line);
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	@Test
+	public void testRecordsAreWritten() throws Exception {
+		SipAccessLog accessLog = new SipAccessLog(file.getPath(), 100, 0, 0);
+		accessLog.start();
+		accessLog.record("call-1", "INVITE", 0, source, 5060, "127.0.0.2", 5070, 15000, null);
+		accessLog.record("call-1", "INVITE", 200, source, 5070, "127.0.0.3", -1, 2000, null);
+		accessLog.stop();
+
+		List<String> lines = lines(file);
+		assertEquals(2, lines.size());
+		String[] fields = lines.get(0).split(" ");
+		assertEquals(Integer.toHexString("call-1".hashCode()), fields[1]);
+		assertEquals("INVITE", fields[2]);
+		assertEquals("0", fields[3]);
+		assertEquals("127.0.0.1:5060", fields[4]);
+		assertEquals("127.0.0.2:5070", fields[5]);
+		assertEquals("15", fields[6]);
+		assertEquals("-", fields[7]);
+		assertTrue(lines.get(1).endsWith(" INVITE 200 127.0.0.1:5070 127.0.0.3 2 -"));
+		assertEquals(2, accessLog.getRecordsWritten());
+	}
+
+	@Test
+	public void testRejectedRequestHasNoNextHop() throws Exception {
+		SipAccessLog accessLog = new SipAccessLog(file.getPath(), 100, 0, 0);
+		accessLog.start();
+		accessLog.record("call-1", "INVITE", 0, source, 5060, "127.0.0.2", 5070, 3000, "no-node");
+		accessLog.stop();
+
+		List<String> lines = lines(file);
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0).endsWith(" INVITE 0 127.0.0.1:5060 - 3 no-node"));
+	}
+
+	@Test
+	public void testSamplingKeepsWholeCalls() throws Exception {
+		SipAccessLog accessLog = new SipAccessLog(file.getPath(), 50, 0, 0);
+		accessLog.start();
+		for(int q = 0; q < 1000; q++) {
+			accessLog.record("call-" + q, "INVITE", 0, source, 5060, "127.0.0.2", 5070, 1000, null);
+			accessLog.record("call-" + q, "INVITE", 200, source, 5070, "127.0.0.3", 5060, 1000, null);
+		}
+		accessLog.stop();
+
+		List<String> lines = lines(file);
+		assertEquals(0, lines.size() % 2);
+		assertTrue(lines.size() > 600 && lines.size() < 1400);
+		for(int q = 0; q < lines.size(); q += 2)
+			assertEquals(lines.get(q).split(" ")[1], lines.get(q + 1).split(" ")[1]);
+	}
+
+	@Test
+	public void testFullBufferDropsRecords() throws Exception {
+		SipAccessLog accessLog = new SipAccessLog(file.getPath(), 100, 0, 0, 16);
+		for(int q = 0; q < 20; q++)
+			accessLog.record("call-" + q, "INVITE", 0, source, 5060, "127.0.0.2", 5070, 1000, null);
+		assertEquals(4, accessLog.getRecordsDropped());
+		accessLog.start();
+		accessLog.stop();
+		assertEquals(16, lines(file).size());
+	}
+
+	@Test
+	public void testRollOver() throws Exception {
+		SipAccessLog accessLog = new SipAccessLog(file.getPath(), 100, 1000, 2);
+		accessLog.start();
+		for(int q = 0; q < 100; q++)
+			accessLog.record("call-" + q, "INVITE", 0, source, 5060, "127.0.0.2", 5070, 1000, null);
+		accessLog.stop();
+
+		assertTrue(file.length() <= 1000);
+		assertTrue(new File(file.getPath() + ".1").exists());
+		assertTrue(new File(file.getPath() + ".2").exists());
+		assertTrue(!new File(file.getPath() + ".3").exists());
+	}
+}
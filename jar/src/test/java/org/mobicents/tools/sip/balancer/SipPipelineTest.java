@@ -0,0 +1,72 @@
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.sip.ListeningPoint;
+import javax.sip.message.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.sip.balancer.operation.Shootist;
+
+/**
+ * Calls going through the load balancer with the staged SIP pipeline enabled
+ */
+public class SipPipelineTest {
+	BalancerRunner balancer;
+	int numNodes = 2;
+	AppServer[] servers = new AppServer[numNodes];
+	Shootist shootist;
+
+	@Before
+	public void setUp() throws Exception {
+		shootist = new Shootist(ListeningPoint.TCP,5060);
+		balancer = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().setPipelineRoutingWorkers(4);
+		lbConfig.getSipConfiguration().setPipelineRoutingQueueSize(100);
+		lbConfig.getSipConfiguration().setPipelineMaxRoutingLatency(1000L);
+		balancer.start(lbConfig);
+
+		for(int q=0;q<servers.length;q++) {
+			servers[q] = new AppServer("node" + q,4060+q , "127.0.0.1", 2000, 5060, 5065, "0", ListeningPoint.TCP, 2222+q);
+			servers[q].start();
+		}
+		Thread.sleep(2000);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		shootist.stop();
+		for(int q=0;q<servers.length;q++) {
+			servers[q].stop();
+		}
+		balancer.stop();
+	}
+
+	@Test
+	public void testCallThroughPipeline() throws Exception {
+		assertNotNull(balancer.balancerContext.sipPipeline);
+		shootist.callerSendsBye = true;
+		shootist.sendInitialInvite();
+		Thread.sleep(5000);
+		shootist.sendBye();
+		Thread.sleep(2000);
+
+		boolean wasOk = false;
+		for(Response res : shootist.responses)
+			if(res.getStatusCode() == Response.OK)
+				wasOk = true;
+		assertTrue(wasOk);
+		assertEquals(1, balancer.getRequestsProcessedByMethod("INVITE"));
+		assertEquals(0, balancer.getNumberOfInvitesRejectedByPipeline());
+		assertEquals(0, balancer.getSipPipelineQueueDepth());
+		assertEquals(0, balancer.getNumberOfMessagesDelayedByIngress());
+	}
+}
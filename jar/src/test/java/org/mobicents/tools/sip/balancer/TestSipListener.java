@@ -432,6 +432,18 @@ public class TestSipListener implements SipListener {
 		if (request.getMethod().equals(Request.REFER)) {
 			processRefer(requestReceivedEvent, serverTransactionId);
 		}
+
+		if (request.getMethod().equals(Request.OPTIONS)) {
+			processOptions(request);
+		}
+	}
+
+	private void processOptions(Request request) {
+		try {
+			sipProvider.sendResponse(protocolObjects.messageFactory.createResponse(200, request));
+		} catch(Exception e) {
+			logger.error("Unexpected exception while trying to send the 200 to OPTIONS " + request, e);
+		}
 	}
 	
 	private void processPrack(Request request,
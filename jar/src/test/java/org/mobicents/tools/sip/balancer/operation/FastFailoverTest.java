@@ -0,0 +1,101 @@
+package org.mobicents.tools.sip.balancer.operation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import javax.sip.ListeningPoint;
+import javax.sip.message.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.sip.balancer.AppServer;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+
+public class FastFailoverTest {
+
+	BalancerRunner balancer;
+	Shootist shootist;
+	AppServer badServer,goodServer;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		shootist = new Shootist(ListeningPoint.TCP,5060);
+		balancer = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("javax.sip.AUTOMATIC_DIALOG_SUPPORT", "off");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.TRACE_LEVEL", "32");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.DEBUG_LOG","logs/sipbalancerforwarderdebug.txt");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.SERVER_LOG","logs/sipbalancerforwarder.xml");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "2");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.CANCEL_CLIENT_TRANSACTION_CHECKED", "false");
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().setFastFailoverTime(2000l);
+		lbConfig.getSipConfiguration().setFastFailoverStatusCodes(Arrays.asList(503));
+		lbConfig.getSipConfiguration().setSendTrying(false);
+		balancer.start(lbConfig);
+
+		// answers 503 to the INVITEs
+		badServer = new AppServer("node0",4060 , "127.0.0.1", 2000, 5060, 5065, "0", ListeningPoint.TCP, false, true);
+		goodServer = new AppServer("node1",4061 , "127.0.0.1", 2000, 5060, 5065, "0", ListeningPoint.TCP, 2223);
+		badServer.start();
+		goodServer.start();
+		Thread.sleep(5000);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		shootist.stop();
+		badServer.stop();
+		goodServer.stop();
+		balancer.stop();
+	}
+
+	@Test
+	public void testFailoverOn503() throws Exception
+	{
+		for(int i=0; i<4; i++)
+		{
+			shootist.sendInitialInvite();
+			Thread.sleep(2000);
+		}
+		int okCounter = 0;
+		for(Response res : shootist.responses)
+		{
+			if(res.getStatusCode() == Response.OK)
+				okCounter++;
+			// the 503 of the first node never reaches the UA
+			assertFalse(res.getStatusCode() == Response.SERVICE_UNAVAILABLE);
+		}
+		assertEquals(4,okCounter);
+		assertEquals(4,goodServer.getTestSipListener().getDialogCount());
+		assertEquals(1,balancer.getNumberOfSipFastFailovers());
+	}
+
+	// the 200 of the node taking the INVITE after the 503 is the answer of the UA
+	@Test
+	public void testOkOfSecondNodeReachesUa() throws Exception
+	{
+		int invites = 0;
+		while(balancer.getNumberOfSipFastFailovers() == 0 && invites < 2)
+		{
+			shootist.sendInitialInvite();
+			invites++;
+			Thread.sleep(2000);
+		}
+		assertEquals(1,balancer.getNumberOfSipFastFailovers());
+		int okCounter = 0;
+		for(Response res : shootist.responses)
+			if(res.getStatusCode() == Response.OK)
+				okCounter++;
+		assertEquals(invites,okCounter);
+		assertEquals(invites,goodServer.getTestSipListener().getDialogCount());
+	}
+}
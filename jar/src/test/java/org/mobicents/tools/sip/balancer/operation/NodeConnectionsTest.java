@@ -0,0 +1,79 @@
+package org.mobicents.tools.sip.balancer.operation;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sip.ListeningPoint;
+import javax.sip.message.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.sip.balancer.AppServer;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+
+public class NodeConnectionsTest {
+
+	BalancerRunner balancer;
+	Shootist shootist;
+	AppServer server0,server1;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		shootist = new Shootist(ListeningPoint.TCP,5060);
+		balancer = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("javax.sip.AUTOMATIC_DIALOG_SUPPORT", "off");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.TRACE_LEVEL", "32");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.DEBUG_LOG","logs/sipbalancerforwarderdebug.txt");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.SERVER_LOG","logs/sipbalancerforwarder.xml");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "2");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+		lbConfig.getSipStackConfiguration().getSipStackProperies().setProperty("gov.nist.javax.sip.CANCEL_CLIENT_TRANSACTION_CHECKED", "false");
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().setNodeConnectionKeepAliveInterval(1000l);
+		lbConfig.getSipConfiguration().setSendTrying(false);
+		balancer.start(lbConfig);
+
+		server0 = new AppServer("node0",4060 , "127.0.0.1", 2000, 5060, 5065, "0", ListeningPoint.TCP, 2222);
+		server1 = new AppServer("node1",4061 , "127.0.0.1", 2000, 5060, 5065, "0", ListeningPoint.TCP, 2223);
+		server0.start();
+		server1.start();
+		Thread.sleep(5000);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		shootist.stop();
+		server0.stop();
+		server1.stop();
+		balancer.stop();
+	}
+
+	@Test
+	public void testConnectionsOpenBeforeTheCalls() throws Exception
+	{
+		// opened when the nodes were added, no request was sent yet
+		assertEquals(2, balancer.getNumberOfSipNodeConnections());
+		assertEquals(2, balancer.getSipNodeConnections().length);
+		assertEquals(0, balancer.getNumberOfSipNodeReconnects());
+
+		for(int i=0; i<4; i++)
+		{
+			shootist.sendInitialInvite();
+			Thread.sleep(2000);
+		}
+		int okCounter = 0;
+		for(Response res : shootist.responses)
+			if(res.getStatusCode() == Response.OK)
+				okCounter++;
+		assertEquals(4,okCounter);
+		assertEquals(4,server0.getTestSipListener().getDialogCount() + server1.getTestSipListener().getDialogCount());
+		// the requests went over the connections kept open
+		assertEquals(2, balancer.getNumberOfSipNodeConnections());
+		assertEquals(0, balancer.getNumberOfSipNodeReconnects());
+	}
+}
@@ -0,0 +1,57 @@
+package org.mobicents.tools.sip.balancer.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+import org.mobicents.tools.sip.balancer.AffinityStore;
+
+/**
+ * Measures the time needed to restore one million affinity entries at start, run by hand
+ */
+public class AffinityStoreLoadPerformanceTest {
+	private static final Logger logger = Logger.getLogger(AffinityStoreLoadPerformanceTest.class.getCanonicalName());
+
+	static final int ENTRIES = 1000000;
+	File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("affinity-perf", ".log");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	//@Test
+	public void testLoadOneMillionEntries() throws Exception {
+		Node[] nodes = new Node[10];
+		for(int q = 0; q < nodes.length; q++) {
+			nodes[q] = new Node("node" + q, "10.0.0." + (q + 1));
+			nodes[q].getProperties().put(Protocol.UDP_PORT, "5060");
+		}
+
+		AffinityStore store = new AffinityStore(file.getPath(), 1000);
+		store.load();
+		store.start();
+		long startTime = System.currentTimeMillis();
+		for(int q = 0; q < ENTRIES; q++)
+			store.put(q + "a84b4c76e66710@pc33.atlanta.com", nodes[q % nodes.length], false);
+		store.stop();
+		logger.info("Wrote " + ENTRIES + " entries in " + (System.currentTimeMillis() - startTime) + " ms, log size " + file.length() + " bytes");
+
+		store = new AffinityStore(file.getPath(), 1000);
+		startTime = System.currentTimeMillis();
+		int loaded = store.load();
+		logger.info("Loaded " + loaded + " entries in " + (System.currentTimeMillis() - startTime) + " ms");
+		assertEquals(ENTRIES, loaded);
+	}
+}
@@ -0,0 +1,80 @@
+package org.mobicents.tools.sip.balancer.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.sip.balancer.HttpAffinity;
+
+/**
+ * Compares the split based parsing the HTTP routing used before with the scan of {@link HttpAffinity} on
+ * typical Restcomm REST uris. Time and allocated bytes per request are printed.
+ */
+public class HttpAffinityPerformanceTest {
+	private static final Logger logger = Logger.getLogger(HttpAffinityPerformanceTest.class.getCanonicalName());
+
+	static final int ITERATIONS = 500000;
+	static final String[] URIS = {
+		"/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/Calls/ID1f2a2222772f4195948d040a2ccc648c-CA00af667a6a2cbfda0c07d923e78194cd",
+		"/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/Calls.json?Page=0&PageSize=50&From=alice",
+		"/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/SMS/Messages.json",
+		"/restcomm-rvd/services/apps/AP73926e7113fa4d95981aa96b76eca854/controller?CallSid=ID1f2a2222772f4195948d040a2ccc648c-CA00af667a6a2cbfda0c07d923e78194cd&AccountSid=ACae6e420f425248d6a26948c17a9e2acf&From=alice&To=bob&CallStatus=ringing",
+		"/app?fName=Konstantin&lName=Nosach&jsessionid=1A2B3C.node1"
+	};
+
+	//@Test
+	public void testRoutingKeys() {
+		for(String uri : URIS) {
+			assertEquals(splitInstanceId(uri), HttpAffinity.getRestcommInstanceId(uri));
+			assertEquals(splitParameter(uri, "jsessionid"), HttpAffinity.getQueryParameter(uri, "jsessionid"));
+		}
+		for(int round = 0; round < 2; round++) {
+			run("split", true);
+			run("scan", false);
+		}
+	}
+
+	private void run(String mode, boolean split) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		int found = 0;
+		long startTime = System.nanoTime();
+		for(int q = 0; q < ITERATIONS; q++) {
+			String uri = URIS[q % URIS.length];
+			String instanceId = split ? splitInstanceId(uri) : HttpAffinity.getRestcommInstanceId(uri);
+			String sessionId = split ? splitParameter(uri, "jsessionid") : HttpAffinity.getQueryParameter(uri, "jsessionid");
+			if(instanceId != null || sessionId != null)
+				found++;
+		}
+		long duration = System.nanoTime() - startTime;
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		logger.info(mode + " : " + duration / ITERATIONS + " ns/request, " + allocated / ITERATIONS + " bytes/request (" + found + " routed)");
+	}
+
+	private static String splitInstanceId(String url) {
+		String[] tokens = url.split("/");
+		if(tokens.length>6&&tokens[3].equals("Accounts")&&tokens[5].startsWith("Calls"))
+			if(tokens[6].split("-").length>1)
+				return tokens[6].substring(0,34);
+		return null;
+	}
+
+	private static String splitParameter(String url, String name) {
+		java.util.HashMap<String,String> parameters = new java.util.HashMap<String, String>();
+		int start = url.lastIndexOf('?');
+		if(start>0 && url.length() > start +1)
+			url = url.substring(start + 1);
+		else
+			return null;
+		for(String token : url.split("&")) {
+			String[] params = token.split("=");
+			if(params.length<2)
+				parameters.put(token, "");
+			else
+				parameters.put(params[0], params[1]);
+		}
+		return parameters.get(name);
+	}
+}
@@ -0,0 +1,94 @@
+package org.mobicents.tools.sip.balancer.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.http.balancer.HttpServer;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+import org.mobicents.tools.sip.balancer.operation.Helper;
+
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.WebConversation;
+import com.meterware.httpunit.WebResponse;
+
+/**
+ * Compares the HTTP balancer reading the messages in heap buffers, as before, with the direct buffers
+ * of directBuffers, on keep-alive requests through the pooled node connections. Requests per second and
+ * bytes allocated per request by the other threads than the client one are printed, the nodes run in
+ * this JVM too and count the same in both.
+ */
+public class HttpBufferPerformanceTest {
+	private static final Logger logger = Logger.getLogger(HttpBufferPerformanceTest.class.getCanonicalName());
+
+	static final int REQUESTS = 5000;
+	private static HttpServer[] serverArray;
+
+	@BeforeClass
+	public static void initialization() {
+		serverArray = new HttpServer[2];
+		for(int i = 0; i < serverArray.length; i++) {
+			serverArray[i] = new HttpServer(7080 + i, 4444 + i, 2222 + i);
+			serverArray[i].start();
+			Helper.sleep(1000);
+		}
+	}
+
+	//@Test
+	public void testBuffers() throws Exception {
+		for(int round = 0; round < 2; round++) {
+			run("heap", false);
+			run("direct", true);
+		}
+	}
+
+	private void run(String mode, boolean directBuffers) throws Exception {
+		BalancerRunner balancerRunner = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		lbConfig.getHttpConfiguration().setMaxIdleConnectionsPerNode(10);
+		lbConfig.getHttpConfiguration().setDirectBuffers(directBuffers);
+		balancerRunner.start(lbConfig);
+		// the nodes register with their heartbeats
+		Helper.sleep(5000);
+		try {
+			WebConversation conversation = new WebConversation();
+			for(int i = 0; i < 100; i++)
+				conversation.getResponse(new GetMethodWebRequest("http://127.0.0.1:2080/app?fName=Konstantin&lName=Nosach"));
+
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			long allocatedBefore = allocated(threads);
+			long startTime = System.nanoTime();
+			for(int i = 0; i < REQUESTS; i++) {
+				WebResponse response = conversation.getResponse(new GetMethodWebRequest("http://127.0.0.1:2080/app?fName=Konstantin&lName=Nosach"));
+				assertEquals(200, response.getResponseCode());
+			}
+			long duration = System.nanoTime() - startTime;
+			long allocated = allocated(threads) - allocatedBefore;
+			logger.info(mode + " buffers : " + REQUESTS * 1000000000L / duration + " requests/s, "
+					+ allocated / REQUESTS + " bytes/request");
+		} finally {
+			balancerRunner.stop();
+		}
+	}
+
+	private static long allocated(com.sun.management.ThreadMXBean threads) {
+		long client = Thread.currentThread().getId();
+		long allocated = 0;
+		for(long threadId : threads.getAllThreadIds())
+			if(threadId != client)
+				allocated += Math.max(0, threads.getThreadAllocatedBytes(threadId));
+		return allocated;
+	}
+
+	@AfterClass
+	public static void finalization() {
+		for(int i = 0; i < serverArray.length; i++)
+			serverArray[i].stop();
+	}
+}
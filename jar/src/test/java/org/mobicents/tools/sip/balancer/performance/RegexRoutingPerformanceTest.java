@@ -0,0 +1,87 @@
+package org.mobicents.tools.sip.balancer.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.sip.balancer.KeySip;
+import org.mobicents.tools.sip.balancer.RegexRoutingTable;
+
+/**
+ * Compares the lookup of the user based algorithm regex routes, compiling every expression of the map
+ * for each request as it was done before, with the {@link RegexRoutingTable}, for 1000 and 10000 routes
+ * on the user part of the From header. Most routes have a literal prefix, one in ten is a free expression.
+ */
+public class RegexRoutingPerformanceTest {
+	private static final Logger logger = Logger.getLogger(RegexRoutingPerformanceTest.class.getCanonicalName());
+
+	static final int LOOKUPS = 2000;
+	// every expression is compiled for each lookup, a few are enough
+	static final int MAP_LOOKUPS = 100;
+
+	//@Test
+	public void testRouting() {
+		for(int round = 0; round < 2; round++) {
+			run(1000);
+			run(10000);
+		}
+	}
+
+	private void run(int routes) {
+		ConcurrentHashMap<String, KeySip> regexMap = new ConcurrentHashMap<String, KeySip>();
+		RegexRoutingTable table = new RegexRoutingTable();
+		for(int i = 0; i < routes; i++) {
+			String regex = i % 10 == 0 ? "(.*)tenant" + i + "(\\d+)$" : "^user" + i + "@";
+			KeySip target = new KeySip("127.0.0.1", 5060 + i % 4, false);
+			regexMap.put(regex, target);
+			table.put(regex, target, RegexRoutingTable.DEFAULT_PRIORITY);
+		}
+		String[] keys = new String[LOOKUPS];
+		for(int i = 0; i < LOOKUPS; i++)
+			keys[i] = i % 2 == 0 ? "user" + (i * 7 % routes) + "@example.com" : "unknown" + i + "@example.com";
+
+		int foundMap = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < MAP_LOOKUPS; i++)
+			if(lookupMap(regexMap, keys[i]) != null)
+				foundMap++;
+		long mapTime = System.nanoTime() - start;
+		int foundFirst = 0;
+		for(int i = 0; i < MAP_LOOKUPS; i++)
+			if(lookupTable(table, keys[i]) != null)
+				foundFirst++;
+		assertEquals(foundMap, foundFirst);
+
+		int foundTable = 0;
+		start = System.nanoTime();
+		for(int q = 0; q < 10; q++)
+			for(String key : keys)
+				if(lookupTable(table, key) != null)
+					foundTable++;
+		long tableTime = (System.nanoTime() - start) / 10;
+
+		logger.info(routes + " routes, compiled per request : " + mapTime / MAP_LOOKUPS / 1000 + " us/lookup, routing table : "
+				+ tableTime / LOOKUPS + " ns/lookup (" + foundTable / 10 + " routed)");
+	}
+
+	private static KeySip lookupMap(ConcurrentHashMap<String, KeySip> regexMap, String key) {
+		for(Entry<String, KeySip> entry : regexMap.entrySet()) {
+			Pattern r = Pattern.compile(entry.getKey());
+			Matcher m = r.matcher(key);
+			if(m.find())
+				return entry.getValue();
+		}
+		return null;
+	}
+
+	private static KeySip lookupTable(RegexRoutingTable table, String key) {
+		for(RegexRoutingTable.Route route : table.candidates(key))
+			if(route.matches(key))
+				return route.getTarget();
+		return null;
+	}
+}
@@ -0,0 +1,68 @@
+package org.mobicents.tools.sip.balancer.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.mobicents.tools.http.urlrewriting.BalancerConf;
+import org.mobicents.tools.http.urlrewriting.BalancerUrlRewriter;
+import org.mobicents.tools.http.urlrewriting.NettyHttpServletRequestAdaptor;
+import org.mobicents.tools.http.urlrewriting.UrlRewriteEngine;
+import org.w3c.dom.Document;
+
+/**
+ * Compares the compiled url rewrite engine with the servlet filter rule chain on a set of rules where most
+ * requests match no rule. Both must give the same uris, the time per request is printed.
+ */
+public class UrlRewritePerformanceTest {
+	private static final Logger logger = Logger.getLogger(UrlRewritePerformanceTest.class.getCanonicalName());
+
+	static final int RULES = 20;
+	static final int ITERATIONS = 200000;
+	static final String[] URIS = {
+		"/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/Calls.json",
+		"/restcomm/2012-04-24/Accounts/ACae6e420f425248d6a26948c17a9e2acf/SMS/Messages",
+		"/app?fName=Konstantin&lName=Nosach",
+		"/company7/2012-04-24/Accounts/1/Calls/ID1f2a2222772f4195948d040a2ccc648c-CA00af667a6a2cbfda0c07d923e78194cd",
+		"/static/css/main.css"
+	};
+
+	//@Test
+	public void testRewrite() throws Exception {
+		StringBuilder rules = new StringBuilder("<urlrewrite>");
+		for(int i = 0; i < RULES; i++)
+			rules.append("<rule><from>^/company" + i + "/(.*)$</from><to>/restcomm/$1</to></rule>");
+		rules.append("</urlrewrite>");
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(rules.toString().getBytes("UTF-8")));
+
+		BalancerUrlRewriter rewriter = new BalancerUrlRewriter(new BalancerConf(document));
+		UrlRewriteEngine engine = UrlRewriteEngine.compile(document.getDocumentElement());
+		for(String uri : URIS)
+			assertEquals(rewriter.processRequest(new NettyHttpServletRequestAdaptor(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri), null)),
+					engine.rewrite(uri));
+
+		for(int round = 0; round < 2; round++) {
+			long startTime = System.nanoTime();
+			for(int q = 0; q < ITERATIONS; q++) {
+				String uri = URIS[q % URIS.length];
+				rewriter.processRequest(new NettyHttpServletRequestAdaptor(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri), null));
+			}
+			long filterTime = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			for(int q = 0; q < ITERATIONS; q++)
+				engine.rewrite(URIS[q % URIS.length]);
+			long engineTime = System.nanoTime() - startTime;
+
+			logger.info("url rewrite, " + RULES + " rules : servlet filter " + filterTime / ITERATIONS + " ns/request, compiled engine "
+					+ engineTime / ITERATIONS + " ns/request (" + TimeUnit.NANOSECONDS.toMillis(filterTime + engineTime) + " ms)");
+		}
+	}
+}
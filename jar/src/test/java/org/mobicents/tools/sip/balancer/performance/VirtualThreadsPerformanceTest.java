@@ -0,0 +1,75 @@
+package org.mobicents.tools.sip.balancer.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.mobicents.tools.sip.balancer.VirtualThreads;
+
+/**
+ * Compares the cached thread pools with the virtual thread executors on a burst of blocking tasks,
+ * like SMPP binds or SIP routing waiting on a DNS lookup. Thread count, heap and throughput are printed,
+ * the virtual thread run is skipped on JDKs without virtual threads.
+ */
+public class VirtualThreadsPerformanceTest {
+	private static final Logger logger = Logger.getLogger(VirtualThreadsPerformanceTest.class.getCanonicalName());
+
+	static final int TASKS = 5000;
+	static final int BLOCKING_TIME = 50;
+
+	@After
+	public void tearDown() throws Exception {
+		VirtualThreads.setEnabled(false);
+	}
+
+	//@Test
+	public void testBlockingTasks() throws Exception {
+		VirtualThreads.setEnabled(false);
+		run("platform threads");
+		VirtualThreads.setEnabled(true);
+		if(VirtualThreads.isEnabled())
+			run("virtual threads");
+		else
+			logger.info("Virtual threads not supported by JDK " + System.getProperty("java.version"));
+	}
+
+	private void run(String mode) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		threads.resetPeakThreadCount();
+		long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+		ExecutorService executor = VirtualThreads.newCachedThreadPool("PerformanceTest");
+		final CountDownLatch done = new CountDownLatch(TASKS);
+		long startTime = System.nanoTime();
+		for(int q = 0; q < TASKS; q++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(BLOCKING_TIME);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					done.countDown();
+				}
+			});
+		}
+		done.await(60, TimeUnit.SECONDS);
+		long duration = System.nanoTime() - startTime;
+		long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		logger.info(mode + " : " + TASKS + " tasks blocking " + BLOCKING_TIME + " ms in " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms ("
+				+ (long) (TASKS / (duration / 1e9)) + " tasks/s), peak threads " + threads.getPeakThreadCount()
+				+ ", heap growth " + (heapAfter - heapBefore) / 1024 + " KB");
+		assertEquals(0, done.getCount());
+	}
+}